@@ -390,10 +390,26 @@ public class IOUtils {
      */
     public static OutputStream openPathForWriting(final Path file) throws IOException
 		{
+		return openPathForWriting(file,1);
+		}
+    
+    /** output path for writing. The following extensions
+     * are interpretted : vcf.gz, .bgz , .gz, .bz2 
+     * @param file
+     * @param compressionThreads number of threads compressing the BGZF outputs (*.vcf.gz, *.bgz). 1: no parallel compression
+     * @return
+     * @throws IOException
+     */
+    public static OutputStream openPathForWriting(final Path file,final int compressionThreads) throws IOException
+		{
     	if(file==null) throw new IllegalArgumentException("path is null");
     	if(isCompressed(file)) {
 	    	final String base = file.getFileName().toString();
-		    if (base.endsWith(".vcf.gz") || base.endsWith(".bgz"))
+		    if ((base.endsWith(".vcf.gz") || base.endsWith(".bgz")) && compressionThreads>1)
+		    	{
+		    	return new ParallelBlockCompressedOutputStream(file,compressionThreads);
+		    	}
+		    else if (base.endsWith(".vcf.gz") || base.endsWith(".bgz"))
 		    	{
 		        return new BlockCompressedOutputStream(
 		        		file,
@@ -434,9 +450,15 @@ public class IOUtils {
     /** open a printwriter, compress if it ends with *.gz  */
     public static PrintWriter openPathForPrintWriter(final Path file) throws IOException
 		{
+	    return openPathForPrintWriter(file,1);
+		}
+    
+    /** open a printwriter, compress if it ends with *.gz , BGZF outputs are compressed using 'compressionThreads' threads */
+    public static PrintWriter openPathForPrintWriter(final Path file,final int compressionThreads) throws IOException
+		{
 	    if (isCompressed(file))
 	    	{
-	        return new PrintWriter(openPathForWriting(file));
+	        return new PrintWriter(openPathForWriting(file,compressionThreads));
 	    	}
 	    else
 	    	{
@@ -0,0 +1,218 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2026 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2026 creation
+
+*/
+package com.github.lindenb.jvarkit.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+
+/**
+ * BGZF output stream deflating the blocks on a pool of threads.
+ * The blocks are written in order, the output is the same as a {@link BlockCompressedOutputStream}
+ * (blocks of {@link BlockCompressedStreamConstants#DEFAULT_UNCOMPRESSED_BLOCK_SIZE} bytes, EOF marker)
+ * and it can be indexed with tabix.
+ */
+public class ParallelBlockCompressedOutputStream extends OutputStream
+	{
+	private final OutputStream out;
+	private final int compressionLevel;
+	private final ExecutorService executorService;
+	/** max number of blocks being compressed */
+	private final int maxPendingBlocks;
+	/** blocks being compressed, in the output order */
+	private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<>();
+	/** deflaters recycled between the tasks */
+	private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+	private byte[] uncompressedBuffer = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+	private int numUncompressedBytes = 0;
+	private boolean closed = false;
+
+	public ParallelBlockCompressedOutputStream(final Path path,final int nThreads) throws IOException {
+		this(Files.newOutputStream(path), BlockCompressedOutputStream.getDefaultCompressionLevel(), nThreads);
+		}
+
+	public ParallelBlockCompressedOutputStream(final OutputStream out,final int compressionLevel,final int nThreads) {
+		this.out = out;
+		this.compressionLevel = compressionLevel;
+		final int n = Math.max(1, nThreads);
+		this.maxPendingBlocks = n * 4;
+		this.executorService = Executors.newFixedThreadPool(n, R->{
+			final Thread t = new Thread(R, "bgzf");
+			t.setDaemon(true);
+			return t;
+			});
+		}
+
+	@Override
+	public void write(final int b) throws IOException {
+		if(this.numUncompressedBytes == this.uncompressedBuffer.length) submitBlock();
+		this.uncompressedBuffer[this.numUncompressedBytes++] = (byte)b;
+		}
+
+	@Override
+	public void write(final byte[] bytes, int startIndex, int numBytes) throws IOException {
+		while(numBytes > 0) {
+			if(this.numUncompressedBytes == this.uncompressedBuffer.length) submitBlock();
+			final int n = Math.min(numBytes, this.uncompressedBuffer.length - this.numUncompressedBytes);
+			System.arraycopy(bytes, startIndex, this.uncompressedBuffer, this.numUncompressedBytes, n);
+			this.numUncompressedBytes += n;
+			startIndex += n;
+			numBytes -= n;
+			}
+		}
+
+	/** send the current buffer to the pool */
+	private void submitBlock() throws IOException {
+		if(this.closed) throw new IOException("stream was closed");
+		if(this.numUncompressedBytes == 0) return;
+		final byte[] block = this.uncompressedBuffer;
+		final int length = this.numUncompressedBytes;
+		this.pendingBlocks.add(this.executorService.submit(()->compress(block, length)));
+		this.uncompressedBuffer = new byte[BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE];
+		this.numUncompressedBytes = 0;
+		while(this.pendingBlocks.size() > this.maxPendingBlocks) {
+			writeFirstBlock();
+			}
+		}
+
+	/** wait for the oldest block and write it */
+	private void writeFirstBlock() throws IOException {
+		final byte[] compressed;
+		try {
+			compressed = this.pendingBlocks.removeFirst().get();
+			}
+		catch(final InterruptedException err) {
+			throw new InterruptedIOException(err.getMessage());
+			}
+		catch(final ExecutionException err) {
+			throw new IOException(err.getCause());
+			}
+		this.out.write(compressed);
+		}
+
+	/** compress a block, returns the whole BGZF block: header, deflated data and footer */
+	private byte[] compress(final byte[] block,final int length) {
+		Deflater deflater = this.deflaters.poll();
+		if(deflater == null) deflater = new Deflater(this.compressionLevel, true);
+		final byte[] buffer = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+		final int maxDeflated = buffer.length - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+		deflater.reset();
+		deflater.setInput(block, 0, length);
+		deflater.finish();
+		int deflatedSize = deflater.deflate(buffer, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH, maxDeflated);
+		if(!deflater.finished()) {
+			// data is not compressible: store it, like BlockCompressedOutputStream
+			final Deflater noCompression = new Deflater(Deflater.NO_COMPRESSION, true);
+			try {
+				noCompression.setInput(block, 0, length);
+				noCompression.finish();
+				deflatedSize = noCompression.deflate(buffer, BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH, maxDeflated);
+				if(!noCompression.finished()) throw new IllegalStateException("unpossible");
+				}
+			finally {
+				noCompression.end();
+				}
+			}
+		this.deflaters.add(deflater);
+
+		final CRC32 crc32 = new CRC32();
+		crc32.update(block, 0, length);
+		final int totalBlockSize = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + deflatedSize + BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+		int i = 0;
+		buffer[i++] = BlockCompressedStreamConstants.GZIP_ID1;
+		buffer[i++] = (byte)BlockCompressedStreamConstants.GZIP_ID2;
+		buffer[i++] = BlockCompressedStreamConstants.GZIP_CM_DEFLATE;
+		buffer[i++] = (byte)BlockCompressedStreamConstants.GZIP_FLG;
+		i = writeInt32(buffer, i, 0);//modification time
+		buffer[i++] = (byte)BlockCompressedStreamConstants.GZIP_XFL;
+		buffer[i++] = (byte)BlockCompressedStreamConstants.GZIP_OS_UNKNOWN;
+		i = writeInt16(buffer, i, BlockCompressedStreamConstants.GZIP_XLEN);
+		buffer[i++] = BlockCompressedStreamConstants.BGZF_ID1;
+		buffer[i++] = BlockCompressedStreamConstants.BGZF_ID2;
+		i = writeInt16(buffer, i, BlockCompressedStreamConstants.BGZF_LEN);
+		i = writeInt16(buffer, i, totalBlockSize - 1);
+		i = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH + deflatedSize;
+		i = writeInt32(buffer, i, (int)crc32.getValue());
+		writeInt32(buffer, i, length);
+		return Arrays.copyOf(buffer, totalBlockSize);
+		}
+
+	private static int writeInt16(final byte[] buffer,int i,final int value) {
+		buffer[i++] = (byte)(value & 0xFF);
+		buffer[i++] = (byte)((value >> 8) & 0xFF);
+		return i;
+		}
+
+	private static int writeInt32(final byte[] buffer,int i,final int value) {
+		i = writeInt16(buffer, i, value & 0xFFFF);
+		return writeInt16(buffer, i, (value >>> 16) & 0xFFFF);
+		}
+
+	/** compress the current block, wait for all the blocks and flush the underlying stream */
+	@Override
+	public void flush() throws IOException {
+		submitBlock();
+		while(!this.pendingBlocks.isEmpty()) {
+			writeFirstBlock();
+			}
+		this.out.flush();
+		}
+
+	@Override
+	public void close() throws IOException {
+		if(this.closed) return;
+		try {
+			flush();
+			this.out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+			this.out.close();
+			}
+		finally
+			{
+			this.closed = true;
+			this.executorService.shutdownNow();
+			for(final Deflater deflater : this.deflaters) deflater.end();
+			this.deflaters.clear();
+			}
+		}
+	}
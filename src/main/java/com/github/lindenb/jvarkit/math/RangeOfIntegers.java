@@ -127,6 +127,24 @@ public List<Range> getRanges() {
 	return this.ranges;
 	}
 
+/** index of the range containing 'value' in {@link #getRanges()} */
+public int getRangeIndex(final int value) {
+	// binary search on the lower bounds, first range has no lower bound
+	int lo = 0;
+	int hi = this.ranges.size()-1;
+	while(lo < hi) {
+		final int mid = (lo + hi + 1) >>> 1;
+		if(this.ranges.get(mid).getMinInclusive() <= value) {
+			lo = mid;
+			}
+		else
+			{
+			hi = mid - 1;
+			}
+		}
+	return lo;
+	}
+
 public Range getRange(final int value) {
 	for(final Range r:getRanges())
 		{
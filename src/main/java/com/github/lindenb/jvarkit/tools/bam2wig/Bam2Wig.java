@@ -25,6 +25,7 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.bam2wig;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -34,6 +35,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -88,10 +93,19 @@ About BedGraph: [https://genome.ucsc.edu/goldenpath/help/bedgraph.html](https://
 
 ## Memory
 
-warning: the program is memory consuming, it allocates on array of integer of the size of your longest contig.
+The depth is stored in a sliding buffer: windows are printed as soon as the reads have moved past them, so the memory depends on the length of the reads and on the size of the window, not on the size of the contig.
+The exception is `--display CLIPPING`: a clipped read can flag some bases before the previous reads, so the whole contig is kept in memory.
+
+## Threads
+
+When the BAM files are indexed, option `--threads` processes the contigs in parallel. Each contig is written in a temporary file and the files are concatenated in the order of the dictionary.
 
 ## History:
 
+20261017: added option --threads.
+
+20261016: sliding depth buffer instead of an array of the size of the contig.
+
 20171115: removed cast_to_integer replaced by 'format', added percentile. Removed options --zerolength and --mindepth.
 
 ## Aggregators:
@@ -143,9 +157,9 @@ fixedStep chrom=ref2 start=1 step=3 span=1
 END_DOC
  */
 @Program(name="bam2wig",
-description="Bam to fixedStep Wiggle converter , or BED GRAPH. Parses the cigar String to get the depth. Memory intensive: must alloc sizeof(int)*size(chrom)",
+description="Bam to fixedStep Wiggle converter , or BED GRAPH. Parses the cigar String to get the depth.",
 keywords={"bam","wig","wiggle","bed"},
-modificationDate="20190417"
+modificationDate="20261017"
 )
 public class Bam2Wig extends Launcher
 	{
@@ -179,6 +193,10 @@ public class Bam2Wig extends Launcher
 	private String region_str=null;
 	@Parameter(names={"--pedigree","-ped"},description="Pedigree file for CASE_CTRL. " + Pedigree.OPT_DESCRIPTION )
 	private File pedigreeFile=null;
+	@Parameter(names={"--threads"},description="Number of contigs processed in parallel. Requires indexed BAM files. Ignored when reading stdin or when using --region.")
+	private int nThreads = 1;
+	@Parameter(names={"-T","--tmpDir"},description="tmp directory, used with --threads")
+	private File tmpDir = IOUtils.getDefaultTmpDir();
 
 
 	public Bam2Wig()
@@ -186,18 +204,87 @@ public class Bam2Wig extends Launcher
 		
 		}
 	
+	/** depth of the current contig. Only the values from the current window to the last visited base are kept in a ring buffer */
+	static class DepthArray
+		{
+		/** length of the contig */
+		private final int length;
+		/** 0-based index of the first value of interest. Values before this index are ignored */
+		private final int start;
+		/** 0-based index of the first value in the buffer. Values before this index are discarded */
+		private int offset;
+		private int data[] = new int[1<<16];
+		
+		DepthArray(final int length) {
+			this(length,0);
+			}
+		/** @param start 0-based index of the first value of interest (e.g. start of --region), the values before are ignored */
+		DepthArray(final int length,final int start) {
+			this.length = length;
+			this.start = start;
+			this.offset = start;
+			}
+		/** length of the contig */
+		int length() {
+			return this.length;
+			}
+		/** returns the position in the buffer, or -1 if the index is before the start.
+		 * Throws an exception if the index was discarded: the input was not sorted on coordinate */
+		private int slot(final int index) {
+			if(index < this.start) return -1;
+			if(index < this.offset) throw new IllegalStateException("index "+index+" was discarded. offset="+this.offset+". Is the input sorted on coordinate ?");
+			if(index - this.offset >= this.data.length) {
+				int capacity = this.data.length;
+				while(index - this.offset >= capacity) capacity*=2;
+				final int copy[] = new int[capacity];
+				for(int i=this.offset;i< this.offset + this.data.length;++i) {
+					copy[i & (capacity-1)] = this.data[i & (this.data.length-1)];
+					}
+				this.data = copy;
+				}
+			return index & (this.data.length-1);
+			}
+		void incr(final int index) {
+			final int i = slot(index);
+			if(i!=-1) this.data[i]++;
+			}
+		void set(final int index,final int value) {
+			final int i = slot(index);
+			if(i!=-1) this.data[i]=value;
+			}
+		/** copy 'n' values starting at 'index' into 'dest' */
+		void copy(final int index,final int dest[],final int n) {
+			if(index < this.offset) throw new IllegalStateException("index "+index+" was discarded. offset="+this.offset);
+			for(int i=0;i< n;++i) {
+				dest[i] = (index + i - this.offset >= this.data.length ? 0 : this.data[(index+i) & (this.data.length-1)]);
+				}
+			}
+		/** discard the values before 'index' */
+		void discard(final int index) {
+			final int end = Math.min(index, this.offset + this.data.length);
+			for(int i=this.offset;i< end;++i) {
+				this.data[i & (this.data.length-1)] = 0;
+				}
+			this.offset = Math.max(this.offset, index);
+			}
+		}
+	
 	private static abstract class Aggregator
 		{
-		abstract void visit(final int array[],final SAMRecord rec);
-		void finish(final int array[]) {}
-		protected void incr(final int array[],int pos1,int length)
+		abstract void visit(final DepthArray array,final SAMRecord rec);
+		void finish(final DepthArray array) {}
+		/** the values of the array before this 0-based index won't be changed by 'next' and the following reads */
+		int getFinalIndex(final SAMRecord next) {
+			return next.getAlignmentStart() - 1;
+			}
+		protected void incr(final DepthArray array,int pos1,int length)
 			{
 			for(int i=0;i< length ;++i)
 				{
 				final int array_index= pos1+i-1;
-				if(array_index>0 && array_index<array.length)
+				if(array_index>0 && array_index<array.length())
 					{
-					array[array_index]++;
+					array.incr(array_index);
 					}
 				}
 			}
@@ -213,7 +300,7 @@ public class Bam2Wig extends Launcher
 			this.internalFilter = predicate;
 			}
 		@Override
-		void visit(final int array[],final SAMRecord rec)
+		void visit(final DepthArray array,final SAMRecord rec)
 			{
 			if(!this.internalFilter.test(rec)) return ;
 			final Cigar cigar=rec.getCigar();
@@ -237,7 +324,7 @@ public class Bam2Wig extends Launcher
 	private static class DeletionAggregator extends Aggregator
 		{
 		@Override
-		void visit(final int array[],final SAMRecord rec)
+		void visit(final DepthArray array,final SAMRecord rec)
 			{
 			final Cigar cigar=rec.getCigar();
 			if(cigar==null) return;
@@ -261,7 +348,7 @@ public class Bam2Wig extends Launcher
 	private static class InsertionAggregator extends Aggregator
 		{
 		@Override
-		void visit(final int array[],final SAMRecord rec)
+		void visit(final DepthArray array,final SAMRecord rec)
 			{
 			final Cigar cigar=rec.getCigar();
 			if(cigar==null) return;
@@ -285,8 +372,13 @@ public class Bam2Wig extends Launcher
 	
 	private static class ClipAggregator extends Aggregator
 		{
+		/** a clip can go anywhere before the alignment start, nothing is final before the end of the contig */
 		@Override
-		void visit(final int array[],final SAMRecord rec)
+		int getFinalIndex(final SAMRecord next) {
+			return 0;
+			}
+		@Override
+		void visit(final DepthArray array,final SAMRecord rec)
 			{
 			final Cigar cigar=rec.getCigar();
 			if(cigar==null) return;
@@ -310,7 +402,7 @@ public class Bam2Wig extends Launcher
 		{
 		private final List<SAMRecord> buffer= new ArrayList<>();
 		private int last_start=1;
-		protected abstract void dump(final List<SAMRecord> records,int start1,int end1,final int array[]);
+		protected abstract void dump(final List<SAMRecord> records,int start1,int end1,final DepthArray array);
 		
 		protected abstract String partition(SAMRecord rec);
 		
@@ -355,29 +447,31 @@ public class Bam2Wig extends Launcher
 			}
 		
 		@Override
-		void visit(final int array[],final SAMRecord rec)
+		void visit(final DepthArray array,final SAMRecord rec)
 			{
 			if(rec.getAlignmentStart() < this.last_start)
 				{
 				throw new IllegalStateException("got read "+rec+" after last_start="+last_start);
 				}
-			this.buffer.removeIf(R->R.getEnd()< this.last_start);
-			final List<SAMRecord> toDump= buffer.stream().
-					filter(R->R.getEnd()< R.getAlignmentEnd()).
-					collect(Collectors.toList());
-			
-			if(!toDump.isEmpty()) {
-				dump(toDump,this.last_start,rec.getAlignmentStart(),array);
+			/* the bases before this read are covered by the buffered reads only */
+			if(rec.getAlignmentStart() > this.last_start) {
+				dump(this.buffer,this.last_start,rec.getAlignmentStart(),array);
 				this.last_start = rec.getAlignmentStart();
+				this.buffer.removeIf(R->R.getEnd()< this.last_start);
 				}
 			this.buffer.add(rec);
 			}
 		@Override
-		void finish(final int array[]) {
-			dump(this.buffer,this.last_start,array.length+1,array);
+		void finish(final DepthArray array) {
+			dump(this.buffer,this.last_start,array.length()+1,array);
 			buffer.clear();
 			this.last_start=1;
 			}
+		/** the bases after 'last_start' are written when the next read is visited */
+		@Override
+		int getFinalIndex(final SAMRecord next) {
+			return this.last_start - 1;
+			}
 		}
 	
 	private static class NumberOfSamplesCoveredX extends BufferedAggregator
@@ -395,7 +489,7 @@ public class Bam2Wig extends Launcher
 			}
 		
 		@Override
-		protected void dump(final List<SAMRecord> records,final int begin1,final int end1,final int array[]) {
+		protected void dump(final List<SAMRecord> records,final int begin1,final int end1,final DepthArray array) {
 			final Map<Integer,Counter<String>> pos2sample2depth= fillPositions(records,begin1,end1);
 			for(int start1 = begin1;start1<end1;++start1)
 				{
@@ -407,9 +501,9 @@ public class Bam2Wig extends Launcher
 						filter(D->D>=this.minDepth).
 						count()
 						;				
-				if(start1>0 && start1<=array.length)
+				if(start1>0 && start1<=array.length())
 					{
-					array[start1-1]=num_samples;
+					array.set(start1-1,num_samples);
 					}
 				
 				}
@@ -440,7 +534,7 @@ public class Bam2Wig extends Launcher
 					;
 			}
 		@Override
-		void visit(int[] array, SAMRecord rec) {
+		void visit(final DepthArray array,final SAMRecord rec) {
 			if(this.case2person.isEmpty()) return;
 			if(this.ctrl2person.isEmpty()) return;
 			if(StringUtil.isBlank(partition(rec))) return;
@@ -458,7 +552,7 @@ public class Bam2Wig extends Launcher
 			}
 		
 		@Override
-		protected void dump(final List<SAMRecord> records,final int begin1,final int end1,final int array[]) {
+		protected void dump(final List<SAMRecord> records,final int begin1,final int end1,final DepthArray array) {
 			if(this.case2person.isEmpty()) return;
 			if(this.ctrl2person.isEmpty()) return;
 			final Map<Integer,Counter<String>> pos2sample2depth= fillPositions(records,begin1,end1);
@@ -481,9 +575,9 @@ public class Bam2Wig extends Launcher
 
 				final double ratio = median_cases / median_ctrl;
 				
-				if(start1>0 && start1<=array.length)
+				if(start1>0 && start1<=array.length())
 					{
-					array[start1-1]= (int)(ratio * 1000.0);
+					array.set(start1-1, (int)(ratio * 1000.0));
 					}
 				
 				}
@@ -492,6 +586,82 @@ public class Bam2Wig extends Launcher
 
 	
 	
+	/** print the windows of one contig as soon as their depth is known */
+	private class ContigWriter
+		{
+		final SAMSequenceRecord ssr;
+		final DepthArray array;
+		final Interval interval;
+		final Percentile percentile = Percentile.of(Bam2Wig.this.percentilType);
+		final int window[] = new int[Bam2Wig.this.window_span];
+		/** 0-based start of the next window */
+		int start0;
+		boolean header_printed=false;
+		boolean done = false;
+		
+		ContigWriter(final SAMSequenceRecord ssr,final Interval interval) {
+			this.ssr = ssr;
+			this.interval = interval;
+			this.start0 = (interval==null?0:interval.getStart());
+			this.array = new DepthArray(ssr.getSequenceLength(),this.start0);
+			}
+		
+		/** print the windows ending before 'finalIndex' */
+		void flush(final PrintWriter pw,final int finalIndex) {
+			while(!this.done && this.start0 < this.array.length())
+				{
+				if(this.interval!=null)
+					{
+					if(!this.interval.getContig().equals(this.ssr.getSequenceName())) { this.done=true; break;}
+					if(this.start0> this.interval.getEnd()) { this.done=true; break;}
+					
+					if(this.start0+window_span < this.interval.getStart())
+						{
+						this.start0+=win_shift;
+						continue;
+						}
+					}
+				final int length = Math.min(window_span,this.array.length()-this.start0);
+				/* window is not complete yet */
+				if((long)this.start0 + length > finalIndex) break;
+				
+				if(!bedGraph && !this.header_printed)
+					{
+					pw.println(
+	 						"fixedStep chrom="+this.ssr.getSequenceName()+
+	 						" start="+(this.start0+1)+
+	 						" step="+win_shift +" span="+ window_span
+	 						);
+					this.header_printed=true;
+					}
+				/* 
+				 * http://genome.ucsc.edu/goldenPath/help/wiggle.html
+				   Wiggle track data values can be integer or real, positive or negative values.
+				   Chromosome positions are specified as 1-relative.
+				   For a chromosome of length N, the first position is 1 and the last position is N. Only positions specified have data. Positions not specified do not have data and will not be graphed. 
+				 */
+				this.array.copy(this.start0, this.window, length);
+				final double percentile_value = this.percentile.evaluate(this.window, 0, length);
+				if(bedGraph)
+					{
+					pw.print(this.ssr.getSequenceName());
+					pw.print('\t');
+					pw.print(this.start0);
+					pw.print('\t');
+					pw.print(this.start0+window_span);
+					pw.print('\t');
+					}
+				
+				pw.printf(printfFormat,percentile_value);
+				pw.print('\n');
+				
+				if(pw.checkError()) { this.done=true; break;}
+				this.start0 += win_shift;
+				}
+			this.array.discard(this.start0);
+			}
+		}
+	
 	private void run(
 			final PrintWriter pw,
 			final CloseableIterator<SAMRecord> iter,
@@ -515,17 +685,8 @@ public class Bam2Wig extends Launcher
 			default: throw new IllegalStateException(this.whatDisplay.name());
 			}
 		
-		final Percentile percentile = Percentile.of(this.percentilType);
-		SAMSequenceRecord ssr = null;
-		int array[]=null;
 		final SAMSequenceDictionaryProgress progess=new SAMSequenceDictionaryProgress(dict);
-		if(this.custom_track)
-			{
-			pw.println(
-				UCSC_HEADER.replace("track_type", 
-					this.bedGraph?"bedGraph":"wiggle_0")
-					);
-			}
+		ContigWriter contigWriter = null;
 		
 		for(;;)
 			{
@@ -543,93 +704,111 @@ public class Bam2Wig extends Launcher
 				}
 			
 			if(		rec==null ||
-					(ssr!=null && ssr.getSequenceIndex()!=rec.getReferenceIndex()))
+					(contigWriter!=null && contigWriter.ssr.getSequenceIndex()!=rec.getReferenceIndex()))
 				{
-				if(ssr!=null)
+				if(contigWriter!=null)
 					{
-					aggregator.finish(array);
+					aggregator.finish(contigWriter.array);
 					// dump data
-					int start0=(interval==null?0:interval.getStart());
-					boolean header_printed=false;
-					
-					
-					while(start0 < array.length)
-						{
-						if(interval!=null)
-							{
-							if(!interval.getContig().equals(ssr.getSequenceName())) break;//
-							if(start0> interval.getEnd()) break;
-							
-							if(start0+window_span < interval.getStart())
-								{
-								start0+=win_shift;
-								continue;
-								}
-							}
-						
-						if(!this.bedGraph && !header_printed)
-							{
-							pw.println(
-			 						"fixedStep chrom="+ssr.getSequenceName()+
-			 						" start="+(start0+1)+
-			 						" step="+this.win_shift +" span="+ this.window_span
-			 						);
-							header_printed=true;
-							}
-						/* 
-						 * http://genome.ucsc.edu/goldenPath/help/wiggle.html
-						   Wiggle track data values can be integer or real, positive or negative values.
-						   Chromosome positions are specified as 1-relative.
-						   For a chromosome of length N, the first position is 1 and the last position is N. Only positions specified have data. Positions not specified do not have data and will not be graphed. 
-						 */
-		 				
-						final double percentile_value = 
-							percentile.evaluate(
-									array,
-									start0,
-									Math.min(this.window_span,array.length-start0)
-									);
-						if(this.bedGraph)
-							{
-							pw.print(ssr.getSequenceName());
-							pw.print('\t');
-							pw.print(start0);
-							pw.print('\t');
-							pw.print(start0+this.window_span);
-							pw.print('\t');
-							}
-						
-						pw.printf(this.printfFormat,percentile_value);
-	 					pw.print('\n');
-		 				
-		 				if(pw.checkError()) break;
-		 				start0 += this.win_shift;
-						}
-					array = null;
-					System.gc();
-					ssr = null;
+					contigWriter.flush(pw, Integer.MAX_VALUE);
+					contigWriter = null;
 					}
 				if(rec==null) break;
 				if(pw.checkError()) break;
 				}
-			if(ssr==null)
+			if(contigWriter==null)
 				{
-				System.gc();
-				ssr=dict.getSequence(rec.getReferenceIndex());
+				final SAMSequenceRecord ssr=dict.getSequence(rec.getReferenceIndex());
 				Objects.requireNonNull(ssr);
-				LOG.info("Allocating int["+ssr.getSequenceLength()+"]");
-				array=new int[ssr.getSequenceLength()];
-				LOG.info("Allocating : Done.");
-				Arrays.fill(array, 0);
+				contigWriter = new ContigWriter(ssr, interval);
 				}
-			aggregator.visit(array, rec);
-			
+			contigWriter.flush(pw, aggregator.getFinalIndex(rec));
+			aggregator.visit(contigWriter.array, rec);
 			}
 		progess.finish();
 		iter.close();
 		pw.flush();
 		}
 	
+	/** process each contig in a temporary file, concatenate the files in the order of the dictionary */
+	private void runParallel(
+			final PrintWriter pw,
+			final List<File> samFiles,
+			final SAMSequenceDictionary dict
+			) throws Exception
+		{
+		final List<Callable<File>> tasks = new ArrayList<>(dict.size());
+		for(final SAMSequenceRecord ssr: dict.getSequences())
+			{
+			tasks.add(()->{
+				final SamReaderFactory srf=SamReaderFactory.makeDefault().validationStringency(htsjdk.samtools.ValidationStringency.LENIENT);
+				final List<SamReader> samReaders = new ArrayList<>(samFiles.size());
+				final List<CloseableIterator<SAMRecord>> iterators = new ArrayList<>(samFiles.size());
+				final File tmpFile = File.createTempFile("bam2wig.", ".wig.gz", this.tmpDir);
+				tmpFile.deleteOnExit();
+				try
+					{
+					final Map<SamReader,CloseableIterator<SAMRecord>> reader2iter= new HashMap<>();
+					for(final File bamFile: samFiles)
+						{
+						final SamReader sr = srf.open(bamFile);
+						samReaders.add(sr);
+						final CloseableIterator<SAMRecord> iter = sr.query(ssr.getSequenceName(), 0, 0, false);
+						iterators.add(iter);
+						reader2iter.put(sr, iter);
+						}
+					final CloseableIterator<SAMRecord> samRecordIterator;
+					if(samReaders.size()==1)
+						{
+						samRecordIterator = iterators.get(0);
+						}
+					else
+						{
+						final SamFileHeaderMerger mergedheader = new SamFileHeaderMerger(
+								SAMFileHeader.SortOrder.coordinate,
+								samReaders.stream().map(SR->SR.getFileHeader()).collect(Collectors.toList()),
+								false
+								);
+						samRecordIterator = new MergingSamRecordIterator(mergedheader, reader2iter, true);
+						}
+					try(final PrintWriter tmpw = IOUtils.openFileForPrintWriter(tmpFile)) {
+						run(tmpw, samRecordIterator, dict, null);
+						tmpw.flush();
+						}
+					return tmpFile;
+					}
+				catch(final Exception err)
+					{
+					tmpFile.delete();
+					throw err;
+					}
+				finally
+					{
+					CloserUtil.close(iterators);
+					CloserUtil.close(samReaders);
+					}
+				});
+			}
+		final ExecutorService executorService = Executors.newFixedThreadPool(this.nThreads);
+		final List<Future<File>> futures = new ArrayList<>(tasks.size());
+		try
+			{
+			for(final Callable<File> task: tasks) futures.add(executorService.submit(task));
+			for(final Future<File> future : futures)
+				{
+				final File tmpFile = future.get();
+				try(final BufferedReader r = IOUtils.openFileForBufferedReading(tmpFile)) {
+					IOUtils.copyTo(r, pw);
+					}
+				tmpFile.delete();
+				}
+			}
+		finally
+			{
+			executorService.shutdownNow();
+			}
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {
 			if(this.win_shift<=0) {
@@ -763,15 +942,46 @@ public class Bam2Wig extends Launcher
 						}
 					}
 				pw = openFileOrStdoutAsPrintWriter(this.outputFile);
+				if(this.custom_track)
+					{
+					pw.println(
+						UCSC_HEADER.replace("track_type", 
+							this.bedGraph?"bedGraph":"wiggle_0")
+							);
+					}
 				
-				run(
-					pw,
-					samRecordIterator,
-					samReaders.get(0).getFileHeader().getSequenceDictionary(),
-					interval
-					);
-				samRecordIterator.close();
-				samRecordIterator=null;
+				if(this.nThreads>1 && !args.isEmpty() && interval==null)
+					{
+					for(final SamReader sr:samReaders)
+						{
+						if(!sr.hasIndex()) {
+							LOG.error("--threads requires indexed BAM files");
+							return -1;
+							}
+						}
+					samRecordIterator.close();
+					samRecordIterator=null;
+					CloserUtil.close(merginIterators);
+					merginIterators.clear();
+					runParallel(
+						pw,
+						args.size()==1 && args.get(0).endsWith(".list")?
+							IOUtils.unrollFile(new File(args.get(0))):
+							args.stream().map(S->new File(S)).collect(Collectors.toList()),
+						samReaders.get(0).getFileHeader().getSequenceDictionary()
+						);
+					}
+				else
+					{
+					run(
+						pw,
+						samRecordIterator,
+						samReaders.get(0).getFileHeader().getSequenceDictionary(),
+						interval
+						);
+					samRecordIterator.close();
+					samRecordIterator=null;
+					}
 				CloserUtil.close(samReaders);
 				samReaders.clear();
 				pw.flush();
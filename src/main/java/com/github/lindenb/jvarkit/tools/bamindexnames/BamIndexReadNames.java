@@ -24,6 +24,7 @@ SOFTWARE.
 
 History:
 * 2014 creation
+* 20261017 compact index
 
 */
 package com.github.lindenb.jvarkit.tools.bamindexnames;
@@ -34,9 +35,12 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
@@ -60,16 +64,49 @@ BEGIN_DOC
 $  java -jar dist/bamindexreadnames.jar file.bam
 ```
 
+## Index format
+
+Since 20261017, the default index is `file.bam.names.idx2`. The entries are (read name, BAM virtual file offset),
+sorted on the name and grouped by blocks of `--block-size` entries where each name is prefix-compressed against the previous one.
+Only the offsets of the blocks are loaded in memory by BamQueryReadNames, the blocks are read from a memory-mapped file.
+The BAM doesn't need to be sorted on coordinate nor indexed.
+
+The old fixed-width index `file.bam.names.idx` (name, tid, pos) is still written with `--legacy`.
+
+## Threads
+
+If the BAM is indexed, the chunks of each contig listed in the BAI are decoded by `--threads` threads.
+Each thread sorts runs of `maxRecordsInRam / threads` names that are saved in `--tmpDir`, the runs are then merged, at most 64 at once.
+The memory used is about `maxRecordsInRam * (12 + length(read name))` bytes whatever the number of threads: increase `--maxRecordsInRam` for large BAMs.
+
+```bash
+$  java -jar dist/bamindexreadnames.jar --threads 8 --maxRecordsInRam 5000000 --tmpDir /scratch file.bam
+```
+
+## History
+
+  * 20261017 : new compact index format, parallel indexing
+
 
 END_DOC
  */
 @Program(name="bamindexreadnames",
-	description="Build a dictionary of read names to be searched with BamQueryReadNames")
+	description="Build a dictionary of read names to be searched with BamQueryReadNames",
+	modificationDate="20261017")
 public class BamIndexReadNames
 	extends BaseBamIndexReadNames
 	{
 	private static final Logger LOG=Logger.build(BamIndexReadNames.class).make();
-	private BamIndexReadNames()
+	@Parameter(names={"--legacy"},description="[20261017] write the old fixed-width index ("+NAME_IDX_EXTENSION+") instead of the compact index ("+ReadNameIndex.EXTENSION+").")
+	private boolean legacy = false;
+	@Parameter(names={"--block-size"},description="[20261017] compact index: number of names per prefix-compressed block.")
+	private int blockSize = ReadNameIndex.DEFAULT_BLOCK_SIZE;
+	@Parameter(names={"--threads"},description="[20261017] compact index: number of threads decoding the BAM. Requires a BAM index (BAI).")
+	private int nThreads = 1;
+	@ParametersDelegate
+	private WritingSortingCollection writingSortingCollection=new WritingSortingCollection();
+
+	public BamIndexReadNames()
 		{
 		
 		}
@@ -122,8 +159,20 @@ public class BamIndexReadNames
 			}
 		}
 
-		private int maxRecordsInRAM=50000;
-
+		/** build the compact index: name and virtual offset of each record */
+		private void indexBamFileCompact(final File bamFile) throws Exception
+			{
+			final File indexFile=ReadNameIndex.getIndexPath(bamFile.toPath()).toFile();
+			LOG.info("Writing index "+indexFile);
+			final ReadNameIndexer indexer = new ReadNameIndexer(
+				Arrays.asList(this.writingSortingCollection.getTmpPaths()),
+				this.writingSortingCollection.getMaxRecordsInRam(),
+				this.nThreads,
+				this.blockSize
+				);
+			final long n = indexer.index(bamFile.toPath(), indexFile.toPath());
+			LOG.info("Done. N="+n);
+			}
 		
 		private void indexBamFile(File bamFile) throws IOException
 			{
@@ -139,8 +188,8 @@ public class BamIndexReadNames
 					NameAndPos.class,
 					new NameAndPosCodec() ,
 					new NameAndPosComparator(),
-					maxRecordsInRAM,
-					bamFile.getParentFile().toPath()
+					this.writingSortingCollection.getMaxRecordsInRam(),
+					this.writingSortingCollection.getTmpPaths()
 					);
 			sorting.setDestructiveIteration(true);
 			if(sfr.getFileHeader().getSortOrder()!=SortOrder.coordinate)
@@ -208,13 +257,25 @@ public class BamIndexReadNames
 
 		try
 			{
+			if(this.nThreads<1)
+				{
+				LOG.error("bad number of threads "+this.nThreads);
+				return -1;
+				}
 			if(args.size()!=1)
 				{
 				LOG.info(getMessageBundle("illegal.number.of.arguments"));
 				return -1;
 				}
 			
-			indexBamFile(new File(args.get(0)));
+			if(this.legacy)
+				{
+				indexBamFile(new File(args.get(0)));
+				}
+			else
+				{
+				indexBamFileCompact(new File(args.get(0)));
+				}
 			return 0;
 			}
 		catch(Exception err)
@@ -24,17 +24,21 @@ SOFTWARE.
 
 History:
 * 2014 creation
+* 20261017 compact index, batch mode
 
 */
 
 package com.github.lindenb.jvarkit.tools.bamindexnames;
 
+import htsjdk.samtools.BAMFileSpan;
+import htsjdk.samtools.Chunk;
 import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.SamReader.Type;
 import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.tribble.readers.LineIterator;
@@ -44,9 +48,16 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParametersDelegate;
@@ -89,11 +100,29 @@ $ cat list.notfound
 ZZZZ:X
 ```
 
+## Compact index
+
+If the index `input.bam.names.idx2` created by BamIndexReadNames is found, it is used instead of the old index
+`input.bam.names.idx`. The records are fetched using their virtual file offset, option `-s` is ignored.
+
+With `--batch`, all the names are read, sorted and resolved in one sequential pass over the index, then the records
+are read in one sequential pass over the BAM. The records are written in the order of the BAM file and the
+unmatched names are written at the end.
+
+```
+$ java -jar dist/bamqueryreadnames.jar --batch -N list.notfound input.bam read.names > out.sam
+```
+
+## History
+
+  * 20261017 : compact index, batch mode.
+
 
  
  END_DOC
  */
-@Program(description="Query a Bam file indexed with BamIndexReadNames")
+@Program(description="Query a Bam file indexed with BamIndexReadNames",
+	modificationDate="20261017")
 public class BamQueryReadNames extends BaseBamIndexReadNames
 	{
 	private static final Logger LOG=Logger.build(BamQueryReadNames.class).make();
@@ -105,6 +134,9 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 	
 	@Parameter(names={"-N"},description=" save unmatched names here")
 	private File notFoundFile=null;
+	
+	@Parameter(names={"--batch"},description="[20261017] compact index only: read all the names, sort them and resolve them in one sequential pass over the index and over the BAM. The records are written in the order of the BAM.")
+	private boolean batchMode=false;
 
 	@ParametersDelegate
 	private WritingBamArgs writingBamArgs=new WritingBamArgs();
@@ -112,10 +144,138 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 	private RandomAccessFile raf;
 	private NameIndexDef indexDef;
 
-	private BamQueryReadNames()
+	public BamQueryReadNames()
 		{
 		}
 	
+	/** a name in the user's list */
+	private static class Query
+		{
+		final String line;
+		final String name;
+		/* 1: first of pair, 2: second of pair, -1 any */
+		final int side;
+		Query(final String line)
+			{
+			this.line = line;
+			/* forward or reverse is specified ? */
+			if(line.endsWith("/1"))
+				{
+				this.side=1;
+				this.name=line.substring(0, line.length()-2);
+				}
+			else if(line.endsWith("/2"))
+				{
+				this.side=2;
+				this.name=line.substring(0, line.length()-2);
+				}
+			else
+				{
+				this.side=-1;
+				this.name=line;
+				}
+			}
+		boolean accept(final SAMRecord rec)
+			{
+			if(!rec.getReadName().equals(this.name)) return false;
+			if(this.side==1 && !(rec.getReadPairedFlag() && rec.getFirstOfPairFlag())) return false;
+			if(this.side==2 && !(rec.getReadPairedFlag() && rec.getSecondOfPairFlag())) return false;
+			return true;
+			}
+		}
+	
+	/** read the records at the given sorted virtual offsets in one pass */
+	private static SAMRecordIterator iterator(final SamReader sfr,final long[] offsets)
+		{
+		final List<Chunk> chunks = new ArrayList<>(offsets.length);
+		for(final long offset:offsets)
+			{
+			chunks.add(new Chunk(offset, offset+1L));
+			}
+		return sfr.indexing().iterator(new BAMFileSpan(chunks));
+		}
+	
+	private void queryCompactIndex(
+			final SamReader sfr,
+			final ReadNameIndex index,
+			final LineIterator r,
+			final SAMFileWriter bamw,
+			final PrintWriter notFoundStream
+			) throws IOException
+		{
+		if(!sfr.type().equals(Type.BAM_TYPE))
+			{
+			throw new IOException("compact index can only be used with a BAM file");
+			}
+		if(this.batchMode)
+			{
+			final List<Query> queries = new ArrayList<>();
+			while(r.hasNext())
+				{
+				final String line=r.next();
+				if(line.isEmpty() || line.startsWith("#")) continue;
+				queries.add(new Query(line));
+				}
+			final Map<String,List<Query>> name2queries = queries.stream().
+					collect(Collectors.groupingBy(Q->Q.name,HashMap::new,Collectors.toList()));
+			final Map<String,long[]> name2offsets = index.lookup(name2queries.keySet());
+			final long[] offsets = name2offsets.values().stream().
+					flatMapToLong(LongStream::of).
+					sorted().
+					distinct().
+					toArray();
+			LOG.info("names:"+name2queries.size()+" records:"+offsets.length);
+			final Set<Query> found = new HashSet<>();
+			if(offsets.length>0)
+				{
+				final SAMRecordIterator iter = iterator(sfr,offsets);
+				while(iter.hasNext())
+					{
+					final SAMRecord rec=iter.next();
+					final List<Query> L = name2queries.get(rec.getReadName());
+					if(L==null) continue;
+					boolean keep=false;
+					for(final Query q:L)
+						{
+						if(!q.accept(rec)) continue;
+						found.add(q);
+						keep=true;
+						}
+					if(keep) bamw.addAlignment(rec);
+					}
+				iter.close();
+				}
+			for(final Query q:queries)
+				{
+				if(!found.contains(q)) notFoundStream.println(q.line);
+				}
+			}
+		else
+			{
+			while(r.hasNext())
+				{
+				final String line=r.next();
+				if(line.isEmpty() || line.startsWith("#")) continue;
+				final Query q = new Query(line);
+				final long[] offsets = index.lookup(q.name);
+				boolean found=false;
+				if(offsets.length>0)
+					{
+					final SAMRecordIterator iter = iterator(sfr,offsets);
+					while(iter.hasNext())
+						{
+						final SAMRecord rec=iter.next();
+						if(!q.accept(rec)) continue;
+						bamw.addAlignment(rec);
+						found=true;
+						}
+					iter.close();
+					}
+				if(!found) notFoundStream.println(line);
+				}
+			}
+		}
+	
 	
 	
 	private NameAndPos getNameAndPosAt(long index)
@@ -184,7 +344,7 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 				return -1;
 				}
 			
-			if(this.notFoundFile==null)
+			if(this.notFoundFile!=null)
 				{
 				notFoundStream.close();
 				notFoundStream=openFileOrStdoutAsPrintWriter(notFoundFile);
@@ -194,13 +354,6 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 			sfr=SamReaderFactory.makeDefault().
 					validationStringency(ValidationStringency.SILENT).
 					open(bamFile);
-			File nameIdxFile=new File(bamFile.getParentFile(), bamFile.getName()+NAME_IDX_EXTENSION);
-			this.indexDef=new NameIndexDef();
-			this.raf=new RandomAccessFile(nameIdxFile, "r");
-			indexDef.countReads=raf.readLong();
-			indexDef.maxNameLengt=raf.readInt();
-			
-			
 			LineIterator r=null;
 			if(args.size()==2)
 				{
@@ -212,8 +365,39 @@ public class BamQueryReadNames extends BaseBamIndexReadNames
 				}
 			SAMFileHeader header=sfr.getFileHeader().clone();
 			
+			final Path compactIndexPath = ReadNameIndex.getIndexPath(bamFile.toPath());
+			final boolean useCompactIndex = ReadNameIndex.isReadNameIndex(compactIndexPath);
+			/* the records follow the order of the BAM only in batch mode */
+			if(!(useCompactIndex && this.batchMode))
+				{
+				header.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+				}
 			bamw=writingBamArgs.openSAMFileWriter(this.outputFile, header, true);
 			
+			if(useCompactIndex)
+				{
+				LOG.info("using compact index "+compactIndexPath);
+				try(ReadNameIndex index = new ReadNameIndex(compactIndexPath))
+					{
+					queryCompactIndex(sfr, index, r, bamw, notFoundStream);
+					}
+				CloserUtil.close(r);
+				notFoundStream.flush();
+				notFoundStream.close();notFoundStream=null;
+				return 0;
+				}
+			if(this.batchMode)
+				{
+				LOG.error("--batch requires the compact index "+compactIndexPath);
+				return -1;
+				}
+			
+			File nameIdxFile=new File(bamFile.getParentFile(), bamFile.getName()+NAME_IDX_EXTENSION);
+			this.indexDef=new NameIndexDef();
+			this.raf=new RandomAccessFile(nameIdxFile, "r");
+			indexDef.countReads=raf.readLong();
+			indexDef.maxNameLengt=raf.readInt();
+			
 			
 			long iter_start = 0L;
 			
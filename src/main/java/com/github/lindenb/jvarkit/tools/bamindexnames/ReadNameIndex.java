@@ -0,0 +1,444 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2026 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.bamindexnames;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import htsjdk.samtools.util.CloserUtil;
+
+/**
+ * Read-name index, version 2.
+ *
+ * The entries (read name, BAM virtual file offset) are sorted on the name and grouped by
+ * blocks of 'blockSize' entries. In a block, each name is prefix-compressed against the previous one.
+ * The offsets of the blocks (the sparse directory) are loaded in memory, the blocks are read
+ * from a memory-mapped file.
+ *
+ * Layout:
+ * <pre>
+ * header : int MAGIC, long countReads, int blockSize, long countBlocks, int maxBlockBytes, long directoryOffset
+ * blocks : for each entry: varint(shared prefix length), varint(suffix length), suffix, long(virtual offset)
+ * directory: for each block: long(file offset)
+ * </pre>
+ * Names are compared as unsigned bytes (ISO-8859-1), which is the natural order of java.lang.String for SAM read names.
+ */
+class ReadNameIndex implements Closeable
+	{
+	static final String EXTENSION = ".names.idx2";
+	static final int DEFAULT_BLOCK_SIZE = 256;
+	private static final int MAGIC = 0x524E4932;/* RNI2 */
+	private static final int HEADER_SIZE = 4 + 8 + 4 + 8 + 4 + 8;
+	/** size of a memory-mapped segment, the segments overlap by 'maxBlockBytes' so a block is never split */
+	private static final long SEGMENT_SIZE = 1L << 30;
+
+	private final FileChannel channel;
+	private final long countReads;
+	private final int blockSize;
+	private final long[] blockOffsets;
+	private final MappedByteBuffer[] segments;
+
+	/** get the path of the index for a given bam file */
+	static Path getIndexPath(final Path bamFile)
+		{
+		return bamFile.resolveSibling(bamFile.getFileName().toString() + EXTENSION);
+		}
+
+	static int compare(final byte[] a, final int alen, final byte[] b, final int blen)
+		{
+		final int n = Math.min(alen, blen);
+		for(int i = 0; i < n; ++i)
+			{
+			final int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if(c != 0) return c;
+			}
+		return alen - blen;
+		}
+
+	static byte[] encode(final String name)
+		{
+		return name.getBytes(StandardCharsets.ISO_8859_1);
+		}
+
+	/** Writer of the index. The entries must be added sorted on (name,offset) */
+	static class Writer implements Closeable
+		{
+		private final Path path;
+		private final int blockSize;
+		private final DataOutputStream out;
+		private long filePos = HEADER_SIZE;
+		private long countReads = 0L;
+		private int maxBlockBytes = 0;
+		private long blockStart = HEADER_SIZE;
+		private int nInBlock = 0;
+		private final List<long[]> directory = new ArrayList<>();
+		private long[] directoryPage = null;
+		private long countBlocks = 0L;
+		private byte[] prevName = new byte[0];
+		private int prevLen = 0;
+		private long prevOffset = -1L;
+
+		Writer(final Path path, final int blockSize) throws IOException
+			{
+			if(blockSize < 1) throw new IllegalArgumentException("bad block size " + blockSize);
+			this.path = path;
+			this.blockSize = blockSize;
+			final OutputStream os = Files.newOutputStream(path);
+			this.out = new DataOutputStream(new BufferedOutputStream(os, 1 << 20));
+			/* header is written when the index is closed */
+			this.out.write(new byte[HEADER_SIZE]);
+			}
+
+		private void writeVarInt(int v) throws IOException
+			{
+			while((v & ~0x7F) != 0)
+				{
+				this.out.write((v & 0x7F) | 0x80);
+				this.filePos++;
+				v >>>= 7;
+				}
+			this.out.write(v);
+			this.filePos++;
+			}
+
+		void add(final String name, final long offset) throws IOException
+			{
+			add(encode(name), offset);
+			}
+
+		void add(final byte[] name, final long offset) throws IOException
+			{
+			add(name, name.length, offset);
+			}
+
+		/** add the first 'nameLength' bytes of 'name' */
+		void add(final byte[] name, final int nameLength, final long offset) throws IOException
+			{
+			final int cmp = compare(this.prevName, this.prevLen, name, nameLength);
+			if(this.countReads > 0L && (cmp > 0 || (cmp == 0 && this.prevOffset > offset)))
+				{
+				throw new IllegalStateException("index entries are not sorted: " + new String(name, 0, nameLength, StandardCharsets.ISO_8859_1));
+				}
+			if(this.nInBlock == this.blockSize)
+				{
+				endBlock();
+				}
+			int shared = 0;
+			if(this.nInBlock == 0)
+				{
+				this.blockStart = this.filePos;
+				if(this.directoryPage == null || (this.countBlocks % 4096) == 0)
+					{
+					this.directoryPage = new long[4096];
+					this.directory.add(this.directoryPage);
+					}
+				this.directoryPage[(int)(this.countBlocks % 4096)] = this.blockStart;
+				this.countBlocks++;
+				}
+			else
+				{
+				final int n = Math.min(this.prevLen, nameLength);
+				while(shared < n && this.prevName[shared] == name[shared]) shared++;
+				}
+			writeVarInt(shared);
+			writeVarInt(nameLength - shared);
+			this.out.write(name, shared, nameLength - shared);
+			this.out.writeLong(offset);
+			this.filePos += (nameLength - shared) + 8;
+			if(this.prevName.length < nameLength) this.prevName = new byte[nameLength * 2];
+			System.arraycopy(name, 0, this.prevName, 0, nameLength);
+			this.prevLen = nameLength;
+			this.prevOffset = offset;
+			this.nInBlock++;
+			this.countReads++;
+			}
+
+		private void endBlock()
+			{
+			if(this.nInBlock == 0) return;
+			this.maxBlockBytes = (int)Math.max(this.maxBlockBytes, this.filePos - this.blockStart);
+			this.nInBlock = 0;
+			}
+
+		long getCount()
+			{
+			return this.countReads;
+			}
+
+		@Override
+		public void close() throws IOException
+			{
+			endBlock();
+			final long directoryOffset = this.filePos;
+			for(long i = 0; i < this.countBlocks; ++i)
+				{
+				this.out.writeLong(this.directory.get((int)(i / 4096))[(int)(i % 4096)]);
+				}
+			this.out.flush();
+			this.out.close();
+			try(RandomAccessFile raf = new RandomAccessFile(this.path.toFile(), "rw"))
+				{
+				raf.writeInt(MAGIC);
+				raf.writeLong(this.countReads);
+				raf.writeInt(this.blockSize);
+				raf.writeLong(this.countBlocks);
+				raf.writeInt(this.maxBlockBytes);
+				raf.writeLong(directoryOffset);
+				}
+			}
+		}
+
+	/** returns true if the file looks like a version 2 index */
+	static boolean isReadNameIndex(final Path path) throws IOException
+		{
+		if(!Files.exists(path) || Files.size(path) < HEADER_SIZE) return false;
+		try(FileChannel fc = FileChannel.open(path, StandardOpenOption.READ))
+			{
+			final ByteBuffer bb = ByteBuffer.allocate(4);
+			while(bb.hasRemaining() && fc.read(bb) != -1) {}
+			bb.flip();
+			return bb.remaining() == 4 && bb.getInt() == MAGIC;
+			}
+		}
+
+	ReadNameIndex(final Path path) throws IOException
+		{
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		try
+			{
+			final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(header, 0L);
+			if(header.getInt() != MAGIC) throw new IOException("not a read-name index: " + path);
+			this.countReads = header.getLong();
+			this.blockSize = header.getInt();
+			final long countBlocks = header.getLong();
+			final int maxBlockBytes = header.getInt();
+			final long directoryOffset = header.getLong();
+			if(countBlocks > Integer.MAX_VALUE) throw new IOException("too many blocks in " + path);
+			this.blockOffsets = new long[(int)countBlocks];
+			final ByteBuffer dir = ByteBuffer.allocate(this.blockOffsets.length * 8);
+			readFully(dir, directoryOffset);
+			dir.asLongBuffer().get(this.blockOffsets);
+
+			final int nSegments = (int)((directoryOffset + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+			this.segments = new MappedByteBuffer[nSegments];
+			for(int i = 0; i < nSegments; ++i)
+				{
+				final long start = i * SEGMENT_SIZE;
+				final long end = Math.min(directoryOffset, start + SEGMENT_SIZE + maxBlockBytes);
+				this.segments[i] = this.channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+				}
+			}
+		catch(final IOException err)
+			{
+			CloserUtil.close(this.channel);
+			throw err;
+			}
+		}
+
+	private void readFully(final ByteBuffer bb, long pos) throws IOException
+		{
+		while(bb.hasRemaining())
+			{
+			final int n = this.channel.read(bb, pos);
+			if(n == -1) throw new IOException("unexpected end of file");
+			pos += n;
+			}
+		bb.flip();
+		}
+
+	long getCountReads()
+		{
+		return this.countReads;
+		}
+
+	/** forward-only cursor over the entries of the index */
+	private class Cursor
+		{
+		private int block = -1;
+		private int indexInBlock = 0;
+		private ByteBuffer buffer = null;
+		byte[] name = new byte[100];
+		int nameLength = 0;
+		long offset = -1L;
+		/** true if name/offset contain a valid entry */
+		boolean valid = false;
+
+		void seekBlock(final int b)
+			{
+			this.block = b;
+			this.indexInBlock = 0;
+			this.valid = false;
+			if(b >= blockOffsets.length) return;
+			final long pos = blockOffsets[b];
+			final int seg = (int)(pos / SEGMENT_SIZE);
+			this.buffer = segments[seg].duplicate();
+			this.buffer.position((int)(pos - seg * SEGMENT_SIZE));
+			}
+
+		private int readVarInt()
+			{
+			int v = 0;
+			int shift = 0;
+			for(;;)
+				{
+				final int b = this.buffer.get() & 0xFF;
+				v |= (b & 0x7F) << shift;
+				if((b & 0x80) == 0) return v;
+				shift += 7;
+				}
+			}
+
+		/** move to the next entry, returns false at the end of the index */
+		boolean next()
+			{
+			if(this.block < 0) seekBlock(0);
+			if(this.block >= blockOffsets.length) return (this.valid = false);
+			if(this.indexInBlock == blockSize)
+				{
+				seekBlock(this.block + 1);
+				if(this.block >= blockOffsets.length) return (this.valid = false);
+				}
+			if((long)this.block * blockSize + this.indexInBlock >= countReads) return (this.valid = false);
+			final int shared = readVarInt();
+			final int suffix = readVarInt();
+			if(this.name.length < shared + suffix)
+				{
+				this.name = Arrays.copyOf(this.name, (shared + suffix) * 2);
+				}
+			this.buffer.get(this.name, shared, suffix);
+			this.nameLength = shared + suffix;
+			this.offset = this.buffer.getLong();
+			this.indexInBlock++;
+			return (this.valid = true);
+			}
+
+		int compareTo(final byte[] key)
+			{
+			return compare(this.name, this.nameLength, key, key.length);
+			}
+		}
+
+	/** compare the first name of block 'b' with key */
+	private int compareBlock(final int b, final byte[] key)
+		{
+		final Cursor c = new Cursor();
+		c.seekBlock(b);
+		c.next();
+		return c.compareTo(key);
+		}
+
+	/** find the last block in [fromBlock, countBlocks[ whose first name is lower than key, or fromBlock */
+	private int findBlock(final byte[] key, final int fromBlock)
+		{
+		int lo = fromBlock + 1;
+		int hi = this.blockOffsets.length;
+		/* invariant: all blocks before 'lo' have a first name lower than key */
+		while(lo < hi)
+			{
+			final int mid = (lo + hi) >>> 1;
+			if(compareBlock(mid, key) < 0)
+				{
+				lo = mid + 1;
+				}
+			else
+				{
+				hi = mid;
+				}
+			}
+		return lo - 1;
+		}
+
+	/** returns the sorted virtual offsets of the records named 'readName' */
+	long[] lookup(final String readName)
+		{
+		return lookup(Arrays.asList(readName)).get(readName);
+		}
+
+	/** batch lookup: the names are sorted and resolved in one forward pass over the index.
+	 * Returns a map name->sorted virtual offsets, in the order of the sorted names. Names that were not found
+	 * are associated to an empty array.
+	 */
+	Map<String, long[]> lookup(final Collection<String> readNames)
+		{
+		final Map<String, long[]> result = new LinkedHashMap<>();
+		final Cursor cursor = new Cursor();
+		final TreeSet<String> sorted = new TreeSet<>(readNames);
+		long[] buffer = new long[10];
+		for(final String readName : sorted)
+			{
+			final byte[] key = encode(readName);
+			int n = 0;
+			if(this.blockOffsets.length > 0)
+				{
+				if(cursor.block < 0 || !cursor.valid || cursor.compareTo(key) < 0)
+					{
+					final int b = findBlock(key, Math.max(0, cursor.block));
+					if(b > cursor.block)
+						{
+						cursor.seekBlock(b);
+						cursor.next();
+						}
+					while(cursor.valid && cursor.compareTo(key) < 0)
+						{
+						cursor.next();
+						}
+					}
+				while(cursor.valid && cursor.compareTo(key) == 0)
+					{
+					if(n == buffer.length) buffer = Arrays.copyOf(buffer, n * 2);
+					buffer[n++] = cursor.offset;
+					cursor.next();
+					}
+				}
+			result.put(readName, Arrays.copyOf(buffer, n));
+			}
+		return result;
+		}
+
+	@Override
+	public void close() throws IOException
+		{
+		this.channel.close();
+		}
+	}
@@ -0,0 +1,517 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2026 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.bamindexnames;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.samtools.BAMFileSpan;
+import htsjdk.samtools.BAMIndex;
+import htsjdk.samtools.Chunk;
+import htsjdk.samtools.SAMFileSource;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.util.CloserUtil;
+
+/**
+ * Builds a {@link ReadNameIndex}.
+ *
+ * If the BAM is indexed, the chunks of each contig are read from the BAI and decoded by several threads.
+ * Each thread fills a primitive run of (name, virtual offset) with at most 'maxRecordsInRam/nThreads' entries,
+ * sorts it and spills it to a temporary directory. The sorted runs are merged with a bounded fan-in
+ * and the last merge writes the index.
+ */
+class ReadNameIndexer
+	{
+	private static final Logger LOG = Logger.build(ReadNameIndexer.class).make();
+	/** maximum number of runs merged at once */
+	static final int MAX_FAN_IN = 64;
+	/** target size (compressed bytes) of the BAM chunks decoded by one task */
+	private static final long TASK_COMPRESSED_SIZE = 32L * 1024L * 1024L;
+
+	private final List<Path> tmpDirs;
+	private final int maxRecordsInRam;
+	private final int nThreads;
+	private final int blockSize;
+	private final AtomicInteger tmpIndex = new AtomicInteger(0);
+	/** sorted runs on disk */
+	private final List<Path> spills = Collections.synchronizedList(new ArrayList<>());
+
+	ReadNameIndexer(final List<Path> tmpDirs, final int maxRecordsInRam, final int nThreads, final int blockSize)
+		{
+		if(tmpDirs.isEmpty()) throw new IllegalArgumentException("no tmp directory");
+		this.tmpDirs = new ArrayList<>(tmpDirs);
+		this.maxRecordsInRam = Math.max(1, maxRecordsInRam);
+		this.nThreads = Math.max(1, nThreads);
+		this.blockSize = blockSize;
+		}
+
+	/** a run of (name,virtual offset) stored in primitive arrays */
+	private class NameRun
+		{
+		/** the run is spilled when it contains 'capacity' entries */
+		private final int capacity;
+		private byte[] names = new byte[1 << 16];
+		private int namesLength = 0;
+		/* start of each name in 'names', starts[count] is the end of the last name */
+		private int[] starts = new int[1025];
+		private long[] offsets = new long[1024];
+		private int count = 0;
+
+		NameRun(final int capacity)
+			{
+			this.capacity = Math.max(1, capacity);
+			}
+
+		void add(final String name, final long offset) throws IOException
+			{
+			final int len = name.length();
+			if(len > 255) throw new IOException("read name is too long: " + name);
+			if(this.namesLength + len > this.names.length)
+				{
+				this.names = Arrays.copyOf(this.names, Math.max(this.namesLength + len, this.names.length * 2));
+				}
+			for(int i = 0; i < len; ++i)
+				{
+				this.names[this.namesLength++] = (byte)name.charAt(i);
+				}
+			if(this.count + 1 >= this.starts.length)
+				{
+				this.starts = Arrays.copyOf(this.starts, this.starts.length * 2);
+				this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+				}
+			this.offsets[this.count] = offset;
+			this.count++;
+			this.starts[this.count] = this.namesLength;
+			if(this.count >= this.capacity) spill();
+			}
+
+		private int compare(final int i, final int j)
+			{
+			final int si = this.starts[i], li = this.starts[i + 1] - si;
+			final int sj = this.starts[j], lj = this.starts[j + 1] - sj;
+			final int n = Math.min(li, lj);
+			for(int k = 0; k < n; ++k)
+				{
+				final int c = (this.names[si + k] & 0xFF) - (this.names[sj + k] & 0xFF);
+				if(c != 0) return c;
+				}
+			if(li != lj) return li - lj;
+			return Long.compare(this.offsets[i], this.offsets[j]);
+			}
+
+		/** merge sort of the indexes in [lo,hi[ */
+		private void sort(final int[] a, final int[] tmp, final int lo, final int hi)
+			{
+			if(hi - lo < 16)
+				{
+				for(int i = lo + 1; i < hi; ++i)
+					{
+					final int v = a[i];
+					int j = i - 1;
+					while(j >= lo && compare(a[j], v) > 0)
+						{
+						a[j + 1] = a[j];
+						j--;
+						}
+					a[j + 1] = v;
+					}
+				return;
+				}
+			final int mid = (lo + hi) >>> 1;
+			sort(a, tmp, lo, mid);
+			sort(a, tmp, mid, hi);
+			if(compare(a[mid - 1], a[mid]) <= 0) return;
+			System.arraycopy(a, lo, tmp, lo, hi - lo);
+			int i = lo, j = mid, k = lo;
+			while(i < mid && j < hi) a[k++] = (compare(tmp[i], tmp[j]) <= 0 ? tmp[i++] : tmp[j++]);
+			while(i < mid) a[k++] = tmp[i++];
+			while(j < hi) a[k++] = tmp[j++];
+			}
+
+		/** sort this run, write it to a temporary file and clear this run */
+		void spill() throws IOException
+			{
+			if(this.count == 0) return;
+			final int[] order = new int[this.count];
+			for(int i = 0; i < order.length; ++i) order[i] = i;
+			sort(order, new int[this.count], 0, this.count);
+			final Path tmp = createTmpFile();
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 20)))
+				{
+				for(final int i : order)
+					{
+					final int start = this.starts[i];
+					final int len = this.starts[i + 1] - start;
+					out.writeByte(len);
+					out.write(this.names, start, len);
+					out.writeLong(this.offsets[i]);
+					}
+				}
+			spills.add(tmp);
+			this.count = 0;
+			this.namesLength = 0;
+			}
+		}
+
+	private Path createTmpFile() throws IOException
+		{
+		final Path dir = this.tmpDirs.get(Math.floorMod(this.tmpIndex.getAndIncrement(), this.tmpDirs.size()));
+		/* the runs are deleted when they are merged, or at the end of 'index' */
+		return Files.createTempFile(dir, "tmp.", ".names");
+		}
+
+	/** reader of a sorted run */
+	private static class RunReader implements Closeable
+		{
+		private final DataInputStream in;
+		final byte[] name = new byte[256];
+		int nameLength = 0;
+		long offset = -1L;
+
+		RunReader(final Path path) throws IOException
+			{
+			this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+			}
+
+		boolean next() throws IOException
+			{
+			final int len = this.in.read();
+			if(len == -1) return false;
+			this.nameLength = len;
+			this.in.readFully(this.name, 0, len);
+			this.offset = this.in.readLong();
+			return true;
+			}
+
+		int compareTo(final RunReader o)
+			{
+			final int i = ReadNameIndex.compare(this.name, this.nameLength, o.name, o.nameLength);
+			if(i != 0) return i;
+			return Long.compare(this.offset, o.offset);
+			}
+
+		@Override
+		public void close() throws IOException
+			{
+			this.in.close();
+			}
+		}
+
+	@FunctionalInterface
+	private interface EntryConsumer
+		{
+		void accept(byte[] name, int nameLength, long offset) throws IOException;
+		}
+
+	/** k-way merge of the sorted runs */
+	private static void merge(final List<Path> runs, final EntryConsumer consumer) throws IOException
+		{
+		final PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, runs.size()), RunReader::compareTo);
+		final List<RunReader> readers = new ArrayList<>(runs.size());
+		try
+			{
+			for(final Path run : runs)
+				{
+				final RunReader r = new RunReader(run);
+				readers.add(r);
+				if(r.next()) queue.add(r);
+				}
+			while(!queue.isEmpty())
+				{
+				final RunReader r = queue.poll();
+				consumer.accept(r.name, r.nameLength, r.offset);
+				if(r.next()) queue.add(r);
+				}
+			}
+		catch(final EOFException err)
+			{
+			throw new IOException("truncated temporary file", err);
+			}
+		finally
+			{
+			readers.forEach(CloserUtil::close);
+			}
+		}
+
+	/** merge groups of MAX_FAN_IN runs until there are at most MAX_FAN_IN runs */
+	private List<Path> reduceRuns(List<Path> runs, final ExecutorService executorService) throws Exception
+		{
+		while(runs.size() > MAX_FAN_IN)
+			{
+			LOG.info("merging " + runs.size() + " runs");
+			final List<Future<Path>> futures = new ArrayList<>();
+			for(int i = 0; i < runs.size(); i += MAX_FAN_IN)
+				{
+				final List<Path> group = runs.subList(i, Math.min(runs.size(), i + MAX_FAN_IN));
+				if(group.size() == 1)
+					{
+					final Path p = group.get(0);
+					futures.add(executorService.submit(() -> p));
+					continue;
+					}
+				futures.add(executorService.submit(() -> {
+					final Path tmp = createTmpFile();
+					spills.add(tmp);
+					try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 20)))
+						{
+						merge(group, (name, len, offset) -> {
+							out.writeByte(len);
+							out.write(name, 0, len);
+							out.writeLong(offset);
+							});
+						}
+					for(final Path p : group) Files.delete(p);
+					return tmp;
+					}));
+				}
+			final List<Path> next = new ArrayList<>(futures.size());
+			for(final Future<Path> f : futures) next.add(f.get());
+			runs = next;
+			}
+		return runs;
+		}
+
+	private static long getVirtualOffset(final SAMRecord rec) throws IOException
+		{
+		final SAMFileSource src = rec.getFileSource();
+		if(src == null || !(src.getFilePointer() instanceof BAMFileSpan))
+			{
+			throw new IOException("cannot get the virtual file offset of " + rec.getReadName());
+			}
+		return BAMFileSpan.class.cast(src.getFilePointer()).getFirstOffset();
+		}
+
+	private static SamReader openBam(final Path bamPath) throws IOException
+		{
+		final SamReader sfr = SamReaderFactory.makeDefault().
+				validationStringency(ValidationStringency.SILENT).
+				enable(SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS).
+				open(bamPath);
+		if(!sfr.type().equals(SamReader.Type.BAM_TYPE))
+			{
+			sfr.close();
+			throw new IOException("not a BAM file " + bamPath);
+			}
+		return sfr;
+		}
+
+	/** chunks of a contig decoded by one task */
+	private static class ChunkGroup
+		{
+		final int tid;
+		final List<Chunk> chunks = new ArrayList<>();
+		ChunkGroup(final int tid)
+			{
+			this.tid = tid;
+			}
+		}
+
+	/** split the chunks of each contig in groups of about TASK_COMPRESSED_SIZE bytes */
+	private static List<ChunkGroup> getTasks(final SamReader sfr)
+		{
+		final List<ChunkGroup> tasks = new ArrayList<>();
+		final BAMIndex bai = sfr.indexing().getIndex();
+		final SAMSequenceDictionary dict = sfr.getFileHeader().getSequenceDictionary();
+		for(int tid = 0; tid < dict.size(); ++tid)
+			{
+			final BAMFileSpan span = bai.getSpanOverlapping(tid, 1, Math.max(1, dict.getSequence(tid).getSequenceLength()));
+			if(span == null || span.isEmpty()) continue;
+			ChunkGroup group = new ChunkGroup(tid);
+			long size = 0L;
+			for(final Chunk chunk : span.getChunks())
+				{
+				group.chunks.add(chunk);
+				size += (chunk.getChunkEnd() >>> 16) - (chunk.getChunkStart() >>> 16);
+				if(size >= TASK_COMPRESSED_SIZE)
+					{
+					tasks.add(group);
+					group = new ChunkGroup(tid);
+					size = 0L;
+					}
+				}
+			if(!group.chunks.isEmpty()) tasks.add(group);
+			}
+		return tasks;
+		}
+
+	/** build the index of 'bamPath' into 'indexPath', returns the number of entries */
+	long index(final Path bamPath, final Path indexPath) throws Exception
+		{
+		this.spills.clear();
+		final ExecutorService executorService = Executors.newFixedThreadPool(this.nThreads);
+		final List<SamReader> readers = Collections.synchronizedList(new ArrayList<>());
+		final List<NameRun> runs = Collections.synchronizedList(new ArrayList<>());
+		try
+			{
+			final SamReader sfr = openBam(bamPath);
+			readers.add(sfr);
+			if(this.nThreads > 1 && sfr.hasIndex())
+				{
+				/* one reader and one run per thread, the threads share 'maxRecordsInRam' */
+				final ThreadLocal<SamReader> threadReader = ThreadLocal.withInitial(() -> {
+					try
+						{
+						final SamReader r = openBam(bamPath);
+						readers.add(r);
+						return r;
+						}
+					catch(final IOException err)
+						{
+						throw new RuntimeException(err);
+						}
+					});
+				final ThreadLocal<NameRun> threadRun = ThreadLocal.withInitial(() -> {
+					final NameRun run = new NameRun(this.maxRecordsInRam / this.nThreads);
+					runs.add(run);
+					return run;
+					});
+				final List<Callable<Long>> tasks = new ArrayList<>();
+				for(final ChunkGroup group : getTasks(sfr))
+					{
+					tasks.add(() -> {
+						final NameRun run = threadRun.get();
+						long n = 0L;
+						try(SAMRecordIterator iter = threadReader.get().indexing().iterator(new BAMFileSpan(group.chunks)))
+							{
+							while(iter.hasNext())
+								{
+								final SAMRecord rec = iter.next();
+								/* a merged chunk may contain a record of another contig, it's indexed by the task of that contig */
+								if(rec.getReferenceIndex().intValue() != group.tid) continue;
+								run.add(rec.getReadName(), getVirtualOffset(rec));
+								n++;
+								}
+							}
+						return n;
+						});
+					}
+				/* reads without coordinate */
+				tasks.add(() -> {
+					final NameRun run = threadRun.get();
+					long n = 0L;
+					try(SAMRecordIterator iter = threadReader.get().queryUnmapped())
+						{
+						while(iter.hasNext())
+							{
+							final SAMRecord rec = iter.next();
+							run.add(rec.getReadName(), getVirtualOffset(rec));
+							n++;
+							}
+						}
+					return n;
+					});
+				LOG.info("decoding " + tasks.size() + " chunks of " + bamPath + " using " + this.nThreads + " threads");
+				final AtomicLong nRecords = new AtomicLong(0L);
+				final Deque<Future<Long>> pending = new ArrayDeque<>();
+				for(int i = 0; i < tasks.size(); i++)
+					{
+					pending.add(executorService.submit(tasks.get(i)));
+					while(pending.size() > this.nThreads * 2 || (!pending.isEmpty() && i + 1 == tasks.size()))
+						{
+						nRecords.addAndGet(pending.removeFirst().get());
+						}
+					}
+				LOG.info("decoded " + nRecords.get() + " records");
+				/* spill the remaining runs, one per thread */
+				final List<Future<?>> futures = new ArrayList<>();
+				for(final NameRun run : new ArrayList<>(runs))
+					{
+					futures.add(executorService.submit(() -> {
+						run.spill();
+						return null;
+						}));
+					}
+				for(final Future<?> f : futures) f.get();
+				}
+			else
+				{
+				final NameRun run = new NameRun(this.maxRecordsInRam);
+				try(SAMRecordIterator iter = sfr.iterator())
+					{
+					while(iter.hasNext())
+						{
+						final SAMRecord rec = iter.next();
+						run.add(rec.getReadName(), getVirtualOffset(rec));
+						}
+					}
+				run.spill();
+				}
+			readers.forEach(CloserUtil::close);
+			readers.clear();
+			runs.clear();
+
+			final List<Path> finalRuns = reduceRuns(new ArrayList<>(this.spills), executorService);
+			LOG.info("writing " + indexPath + " from " + finalRuns.size() + " runs");
+			try(ReadNameIndex.Writer w = new ReadNameIndex.Writer(indexPath, this.blockSize))
+				{
+				merge(finalRuns, w::add);
+				for(final Path p : finalRuns) Files.delete(p);
+				return w.getCount();
+				}
+			}
+		catch(final ExecutionException err)
+			{
+			if(err.getCause() instanceof Exception) throw (Exception)err.getCause();
+			throw err;
+			}
+		finally
+			{
+			executorService.shutdownNow();
+			executorService.awaitTermination(1L, TimeUnit.MINUTES);
+			readers.forEach(CloserUtil::close);
+			for(final Path p : this.spills) Files.deleteIfExists(p);
+			this.spills.clear();
+			}
+		}
+	}
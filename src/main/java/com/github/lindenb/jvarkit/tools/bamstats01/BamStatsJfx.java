@@ -46,7 +46,9 @@ import com.github.lindenb.jvarkit.chart.StackedBarChart;
 import com.github.lindenb.jvarkit.chart.XYChart;
 import com.github.lindenb.jvarkit.lang.StringUtils;
 import com.github.lindenb.jvarkit.math.RangeOfIntegers;
-import com.github.lindenb.jvarkit.util.Counter;
+import com.github.lindenb.jvarkit.util.counter.EnumCounter;
+import com.github.lindenb.jvarkit.util.counter.ObjectCounter;
+import com.github.lindenb.jvarkit.util.counter.RangeCounter;
 import com.github.lindenb.jvarkit.util.bio.AcidNucleics;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
@@ -136,7 +138,7 @@ public class BamStatsJfx extends Launcher {
 	
 	private class ReadLengthGenerator extends ChartGenerator
 		{
-		private final Counter<RangeOfIntegers.Range> len2count = new Counter<>();
+		private final RangeCounter len2count = new RangeCounter(readLengthTranches);
 		@Override
 		String getChartTitle() {
 			return "Read-Length";
@@ -188,15 +190,14 @@ public class BamStatsJfx extends Launcher {
 		void visit(final SAMRecord rec) {
 			if(rec.isSecondaryOrSupplementary()) return;
 			this.nRecords ++ ;
-			final RangeOfIntegers.Range r = readLengthTranches.getRange(rec.getReadLength());
-			this.len2count.incr(r);
+			this.len2count.incr(rec.getReadLength());
 			}
 		
 		}
 	private class ClippedReadsGenerator extends ChartGenerator
 		{
-		private final Counter<RangeOfIntegers.Range> clip5 = new Counter<>();
-		private final Counter<RangeOfIntegers.Range> clip3 = new Counter<>();
+		private final RangeCounter clip5 = new RangeCounter(clipLengthTranches);
+		private final RangeCounter clip3 = new RangeCounter(clipLengthTranches);
 		
 		@Override
 		String getChartTitle() {
@@ -245,19 +246,19 @@ public class BamStatsJfx extends Launcher {
 			this.nRecords++;
 			CigarElement ce =cigar.getFirstCigarElement();
 			if(ce.getOperator().isClipping()) {
-				this.clip5.incr(clipLengthTranches.getRange(ce.getLength()));
+				this.clip5.incr(ce.getLength());
 			}
 			
 			ce =cigar.getLastCigarElement();
 			if(ce.getOperator().isClipping()) {
-					this.clip3.incr(clipLengthTranches.getRange(ce.getLength()));
+					this.clip3.incr(ce.getLength());
 				}
 			}
 		}
 	
 	private class BaseCompositionGenerator extends ChartGenerator
 		{
-		private final List<Counter<Character>> pos2count = new ArrayList<>();
+		private final List<ObjectCounter<Character>> pos2count = new ArrayList<>();
 		BaseCompositionGenerator() {
 			}
 		
@@ -315,7 +316,7 @@ public class BamStatsJfx extends Launcher {
 			final byte[] readBases = rec.getReadBases();
 			
 			while(this.pos2count.size()<=readBases.length && (max_read_length<0 || this.pos2count.size()<max_read_length)) {
-				this.pos2count.add(new Counter<>());
+				this.pos2count.add(new ObjectCounter<>());
 				}
 			
 			if(rec.getReadNegativeStrandFlag())
@@ -411,8 +412,8 @@ public class BamStatsJfx extends Launcher {
 	
 	private class GCPercentGenerator extends ChartGenerator
 		{
-		private final Counter<Integer> mappedgc2count = new Counter<>();
-		private final Counter<Integer> unmappedgc2count = new Counter<>();
+		private final ObjectCounter<Integer> mappedgc2count = new ObjectCounter<>();
+		private final ObjectCounter<Integer> unmappedgc2count = new ObjectCounter<>();
 		GCPercentGenerator() {
 			}
 		
@@ -431,7 +432,7 @@ public class BamStatsJfx extends Launcher {
 	        for(int side=0;side< 2;++side) {
 				final XYChart.Series<Number,Number> series1 = new XYChart.Series<>();
 				series1.setName(side==0?"Mapped":"Unmapped");
-				final Counter<Integer> rc =(side==0?this.mappedgc2count:this.unmappedgc2count);
+				final ObjectCounter<Integer> rc =(side==0?this.mappedgc2count:this.unmappedgc2count);
 				for(final Integer percent: new TreeSet<>(rc.keySet()))
 					{
 					series1.getData().add(new XYChart.Data<Number,Number>(
@@ -483,7 +484,7 @@ public class BamStatsJfx extends Launcher {
 	
 	private class ContigUsageGenerator extends ChartGenerator
 		{
-		private final Counter<String> count = new Counter<>();
+		private final ObjectCounter<String> count = new ObjectCounter<>();
 		private final SAMSequenceDictionary dict;
 		ContigUsageGenerator(final SAMSequenceDictionary dict) {
 			this.dict = dict;
@@ -548,7 +549,7 @@ public class BamStatsJfx extends Launcher {
 	
 	private class SamFlagUsagGenerator extends ChartGenerator
 		{
-		private final Counter<SAMFlag> count = new Counter<>();
+		private final EnumCounter<SAMFlag> count = new EnumCounter<>(SAMFlag.class);
 		
 		@Override
 		String getChartTitle() {
@@ -26,17 +26,25 @@ package com.github.lindenb.jvarkit.tools.bamstats04;
 
 import java.io.BufferedReader;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.OptionalInt;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.IntUnaryOperator;
+import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
@@ -79,6 +87,7 @@ Input is one or more indexed BAM files.
 
 ## History
 
+* 2026-10-16: added option '--batch': the BED is merged and each BAM is read once per merged region
 * 2018-01-30: now using a jexl parser
 * 2018-01-30: allow multiple values for '-cov'
 * 2018-01-29: fixed bug from previous release (no data produced if no read). Added BioDas Resource.
@@ -121,8 +130,40 @@ public class BamStats04 extends Launcher
 	private Path faidxUri = null;
 	@Parameter(names={"-partition","--partition"},description="[20171120]"+SAMRecordPartition.OPT_DESC)
 	private SAMRecordPartition partition = SAMRecordPartition.sample;
+	@Parameter(names={"--batch"},description="Batch mode: the BED intervals are sorted and merged per contig, each BAM is read once per merged region and a depth array serves all the overlapping intervals. Output is the same, in the same order: a line is printed as soon as the previous lines of the BED are done.")
+	private boolean batch_mode = false;
+	@Parameter(names={"--merge-distance"},description="In '--batch' mode, BED intervals separated by less than this distance are merged in the same region.")
+	private int merge_distance = 1_000;
+	@Parameter(names={"--threads"},description="In '--batch' mode, number of BAMs processed in parallel.")
+	private int nThreads = 1;
 	
+	/** max length of a merged region in batch mode, to limit the size of the depth arrays */
+	private static final int MAX_REGION_LENGTH = 1_000_000;
+	private static final String NO_PARTITION="N/A";
 	
+	/** increment the depth of the bases of 'rec' falling in [start,end], counts[0] is the depth at 'start' */
+	private static void visit(final SAMRecord rec,final int counts[],final int start,final int end) {
+		final Cigar cigar=rec.getCigar();
+		if(cigar==null) return;
+		int refpos1=rec.getAlignmentStart();
+		for(final CigarElement ce:cigar)
+			{
+			final CigarOperator op=ce.getOperator();
+			if(!op.consumesReferenceBases()) continue;
+			if(op.consumesReadBases())
+				{
+				for(int i=0;i< ce.getLength();++i)
+	    			{
+					if(refpos1+i>= start && refpos1+i<= end)
+						{
+						counts[refpos1+i-start]++;
+						}
+    				}
+				}
+			refpos1+=ce.getLength();
+			if(refpos1>end) break;
+			}
+		}
 	
 	private static class IntervalStat
 		{	
@@ -134,28 +175,351 @@ public class BamStats04 extends Launcher
 			Arrays.fill(this.counts, 0);
 			}
 		void visit(final SAMRecord rec) {
-			final Cigar cigar=rec.getCigar();
-			if(cigar==null) return;
-			int refpos1=rec.getAlignmentStart();
-    		for(final CigarElement ce:cigar)
-    			{
-    			final CigarOperator op=ce.getOperator();
-    			if(!op.consumesReferenceBases()) continue;
-    			if(op.consumesReadBases())
-    				{
-    				for(int i=0;i< ce.getLength();++i)
-		    			{
-						if(refpos1+i>= this.bedLine.getStart() && refpos1+i<= this.bedLine.getEnd())
-							{
-							this.counts[refpos1+i-this.bedLine.getStart()]++;
-							}
-	    				}
-    				}
-    			refpos1+=ce.getLength();
-    			if(refpos1>this.bedLine.getEnd()) break;
-    			}
+			BamStats04.visit(rec,this.counts,this.bedLine.getStart(),this.bedLine.getEnd());
+			}
+		
+		}
+	
+	/** a BED interval in batch mode */
+	private static class Target
+		{
+		/** index in the BED file */
+		final int index;
+		final String contig;
+		final BedLine bedLine;
+		Target(final int index,final String contig,final BedLine bedLine) {
+			this.index = index;
+			this.contig = contig;
+			this.bedLine = bedLine;
+			}
+		int getStart() { return this.bedLine.getStart();}
+		int getEnd() { return this.bedLine.getEnd();}
+		}
+	
+	/** a region of merged BED intervals in batch mode */
+	private static class Region
+		{
+		final String contig;
+		final int start;
+		int end;
+		final List<Target> targets = new ArrayList<>();
+		Region(final Target t) {
+			this.contig = t.contig;
+			this.start = t.getStart();
+			this.end = t.getEnd();
+			this.targets.add(t);
+			}
+		int length() { return this.end - this.start + 1;}
+		}
+	
+	/** a read with a partition that was not declared in the BAM header */
+	private static class UndeclaredPartition
+		{
+		final String partition;
+		final int start;
+		final int end;
+		UndeclaredPartition(final String partition,final SAMRecord rec) {
+			this.partition = partition;
+			this.start = rec.getAlignmentStart();
+			this.end = Math.max(rec.getAlignmentStart(), rec.getAlignmentEnd());
+			}
+		}
+	
+	/** depth of each partition over the current region. The arrays are reused from one region to the next */
+	private static class DepthWindow
+		{
+		private final Map<String,int[]> partition2depth = new HashMap<>();
+		/** partitions having a read in the current region */
+		private final Set<String> partitions = new HashSet<>();
+		private int length = 0;
+		/** start a new region of 'length' bases */
+		void reset(final int length) {
+			for(final String partition: this.partitions) {
+				final int depth[] = this.partition2depth.get(partition);
+				Arrays.fill(depth, 0, Math.min(depth.length, this.length), 0);
+				}
+			this.partitions.clear();
+			this.length = length;
+			}
+		/** depth array of the partition, depth[0] is the depth at the start of the region */
+		int[] get(final String partition) {
+			int depth[] = this.partition2depth.get(partition);
+			if(depth==null || depth.length < this.length) {
+				depth = new int[this.length];
+				this.partition2depth.put(partition, depth);
+				}
+			this.partitions.add(partition);
+			return depth;
+			}
+		/** depth array of the partition or null if there was no read for this partition */
+		int[] getOrNull(final String partition) {
+			return this.partitions.contains(partition)?this.partition2depth.get(partition):null;
+			}
+		/** add the depths of this window to 'dest' */
+		void addTo(final DepthWindow dest) {
+			for(final String partition: this.partitions) {
+				final int src[] = this.partition2depth.get(partition);
+				final int depth[] = dest.get(partition);
+				for(int i=0;i< this.length;++i) depth[i]+=src[i];
+				}
+			}
+		}
+	
+	/** depth of one BAM over a Region, for each partition. The depth is computed in the window
+	 * of the worker thread, then added to the window of the region */
+	private class RegionScanner implements Callable<RegionScanner>
+		{
+		final SamReader samReader;
+		final Region region;
+		final ThreadLocal<DepthWindow> workerWindow;
+		final DepthWindow regionWindow;
+		final List<UndeclaredPartition> undeclared = new ArrayList<>();
+		final Set<String> all_partitions;
+		RegionScanner(final SamReader samReader,final Region region,final Set<String> all_partitions,final ThreadLocal<DepthWindow> workerWindow,final DepthWindow regionWindow) {
+			this.samReader = samReader;
+			this.region = region;
+			this.all_partitions = all_partitions;
+			this.workerWindow = workerWindow;
+			this.regionWindow = regionWindow;
+			}
+		@Override
+		public RegionScanner call() {
+			final DepthWindow window = this.workerWindow.get();
+			window.reset(this.region.length());
+			try(final SAMRecordIterator r=this.samReader.queryOverlapping(
+					this.region.contig,
+					this.region.start,
+					this.region.end
+					)) {
+				while(r.hasNext())
+					{
+					final SAMRecord rec=r.next();
+					if(rec.getReadUnmappedFlag()) continue;
+					if(BamStats04.this.filter.filterOut(rec)) continue;
+					if(!rec.getReferenceName().equals(this.region.contig)) continue;
+					final String partition = getPartition(rec);
+					final int depth[] = window.get(partition);
+					if(!this.all_partitions.contains(partition)) {
+						this.undeclared.add(new UndeclaredPartition(partition, rec));
+						}
+					visit(rec,depth,this.region.start,this.region.end);
+					}
+				}
+			synchronized(this.regionWindow) {
+				window.addTo(this.regionWindow);
+				}
+			return this;
+			}
+		}
+	
+	private String getPartition(final SAMRecord rec) {
+		final SAMReadGroupRecord group = rec.getReadGroup();
+		if(group==null)
+			{
+			return NO_PARTITION;
+			}
+		else
+			{
+			final String name = this.partition.apply(group);
+			return (StringUtil.isBlank(name)?NO_PARTITION:name);
+			}
+		}
+	
+	/** print the statistics for one interval and one partition. 'counts' will be sorted. */
+	private void printStat(
+			final PrintWriter pw,
+			final String ctg2,
+			final BedLine bedLine,
+			final String partitionName,
+			final int counts[],
+			final boolean hasFasta,
+			final OptionalInt gcPercentInt
+			) {
+		Arrays.sort(counts);
+		
+		pw.print(
+				ctg2+"\t"+
+				(bedLine.getStart()-1)+"\t"+
+				(bedLine.getEnd())+"\t"+
+				counts.length+"\t"+
+				partitionName
+				);
+		if(hasFasta) {
+			pw.print("\t");
+			if(gcPercentInt.isPresent()) pw.print(gcPercentInt.getAsInt());
+			}
+		pw.print(
+			"\t"+
+			counts[0]+"\t"+
+			counts[counts.length-1]
+			);
+		
+		for(final int MIN_COVERAGE:this.minCoverages)
+			{
+			/** map depth to 0 if depth <= MIN_COVERAGE */
+			final IntUnaryOperator depthAdjuster = (D)->(D<=MIN_COVERAGE?0:D);
+
+			
+			final int count_no_coverage=(int)Arrays.stream(counts).
+					filter(D-> depthAdjuster.applyAsInt(D)<=0).
+					count()
+					;
+			
+			final double mean= Percentile.average().evaluate(Arrays.stream(counts).
+					map(depthAdjuster)
+					);
+			
+            final double median_depth = Percentile.median().evaluate(Arrays.stream(counts).
+					map(depthAdjuster)
+					);
+            
+			
+			pw.print("\t"+
+					mean+"\t"+
+					median_depth+"\t"+
+					count_no_coverage+"\t"+
+					(int)(((counts.length-count_no_coverage)/(double)counts.length)*100.0)
+					);
+			}
+		pw.println();
+		}
+	
+	/** batch mode: the BED is loaded, sorted, merged and each BAM is scanned once per merged region */
+	private int doWorkBatch(
+			final BufferedReader bedIn,
+			final ContigNameConverter samCtgConverter,
+			final SAMSequenceDictionary samDict,
+			final List<SamReader> samReaders,
+			final Set<String> all_partitions,
+			final IndexedFastaSequenceFile indexedFastaSequenceFile,
+			final SAMSequenceDictionary fastaDict,
+			final PrintWriter pw
+			) throws Exception {
+		final BedLineCodec codec= new BedLineCodec();
+		final List<Target> targets = new ArrayList<>();
+		String line;
+		int nLines = 0;
+		while((line=bedIn.readLine())!=null)
+			{
+			if(line.isEmpty() || line.startsWith("#")) continue;
+			final BedLine bedLine = codec.decode(line);
+			if(bedLine==null) continue;
+			final String ctg2 = samCtgConverter.apply(bedLine.getContig());
+			if(StringUtils.isBlank(ctg2))
+				{
+				LOG.error("Unknown contig in "+line);
+				return -1;
+				}
+			if(bedLine.getStart()>bedLine.getEnd())
+				{
+				LOG.info("ignoring "+bedLine);
+				continue;
+				}
+			targets.add(new Target(nLines,ctg2,bedLine));
+			nLines++;
 			}
+		/* output of the BED lines that cannot be printed yet: the lines are printed in the order of the BED file,
+		 * as soon as all the previous lines are done */
+		final Map<Integer,String> pendingOutputs = new HashMap<>();
+		int nextOutput = 0;
+		/* depth arrays reused for all the regions: one per worker thread and one for the sum of the BAMs */
+		final ThreadLocal<DepthWindow> workerWindow = ThreadLocal.withInitial(DepthWindow::new);
+		final DepthWindow regionWindow = new DepthWindow();
 		
+		final ExecutorService executorService = (this.nThreads>1 && samReaders.size()>1?
+				Executors.newFixedThreadPool(Math.min(this.nThreads, samReaders.size())):
+				null
+				);
+		try {
+			final Map<String,List<Target>> contig2targets = targets.stream().
+					collect(Collectors.groupingBy(T->T.contig));
+			for(final String ctg2: contig2targets.keySet().stream().
+					sorted(Comparator.comparingInt(C->samDict.getSequenceIndex(C))).
+					collect(Collectors.toList()))
+				{
+				final List<Target> ctgTargets = contig2targets.get(ctg2);
+				ctgTargets.sort((A,B)->Integer.compare(A.getStart(), B.getStart()));
+				
+				GenomicSequence genomicSequence = null;
+				if(indexedFastaSequenceFile!=null && fastaDict.getSequence(ctg2)!=null) {
+					genomicSequence = new GenomicSequence(indexedFastaSequenceFile,ctgTargets.get(0).bedLine.getContig());
+					}
+				
+				/* merge the intervals */
+				final List<Region> regions = new ArrayList<>();
+				for(final Target t: ctgTargets) {
+					final Region last = (regions.isEmpty()?null:regions.get(regions.size()-1));
+					if(last!=null &&
+						t.getStart() <= last.end + this.merge_distance &&
+						Math.max(last.end, t.getEnd()) - last.start < MAX_REGION_LENGTH) {
+						last.end = Math.max(last.end, t.getEnd());
+						last.targets.add(t);
+						}
+					else
+						{
+						regions.add(new Region(t));
+						}
+					}
+				
+				for(final Region region: regions) {
+					regionWindow.reset(region.length());
+					final List<RegionScanner> scanners = new ArrayList<>(samReaders.size());
+					for(final SamReader samReader: samReaders) {
+						scanners.add(new RegionScanner(samReader, region, all_partitions, workerWindow, regionWindow));
+						}
+					if(executorService==null) {
+						for(final RegionScanner scanner: scanners) scanner.call();
+						}
+					else
+						{
+						for(final Future<RegionScanner> future: executorService.invokeAll(scanners)) future.get();
+						}
+					for(final Target t: region.targets) {
+						final BedLine bedLine = t.bedLine;
+						final int offset = bedLine.getStart() - region.start;
+						final int len = bedLine.getEnd() - bedLine.getStart() + 1;
+						/* same map and same insertion order than the default mode, so partitions are printed in the same order */
+						final Map<String, int[]> sample2counts= new HashMap<>(all_partitions.size());
+						for(final String rgId:all_partitions) {
+							final int depth[] = regionWindow.getOrNull(rgId);
+							sample2counts.put(rgId, depth==null?new int[len]:Arrays.copyOfRange(depth, offset, offset+len));
+							}
+						for(final RegionScanner scanner: scanners) {
+							for(final UndeclaredPartition undeclared:scanner.undeclared) {
+								if(undeclared.end < bedLine.getStart() || undeclared.start > bedLine.getEnd()) continue;
+								if(sample2counts.containsKey(undeclared.partition)) continue;
+								final int depth[] = regionWindow.getOrNull(undeclared.partition);
+								sample2counts.put(undeclared.partition, Arrays.copyOfRange(depth, offset, offset+len));
+								}
+							}
+						
+						final OptionalInt gcPercentInt = (genomicSequence==null?
+								OptionalInt.empty():
+								genomicSequence.getGCPercent(bedLine.getStart()-1,bedLine.getEnd()).getOptGCPercent()
+								);
+						final StringWriter sw = new StringWriter();
+						final PrintWriter pw2 = new PrintWriter(sw);
+						for(final String partitionName : sample2counts.keySet()) {
+							printStat(pw2, ctg2, bedLine, partitionName, sample2counts.get(partitionName), indexedFastaSequenceFile!=null, gcPercentInt);
+							}
+						pw2.flush();
+						pendingOutputs.put(t.index, sw.toString());
+						}
+					while(pendingOutputs.containsKey(nextOutput)) {
+						pw.print(pendingOutputs.remove(nextOutput));
+						nextOutput++;
+						}
+					pw.flush();
+					}
+				}
+			}
+		finally
+			{
+			if(executorService!=null) executorService.shutdownNow();
+			workerWindow.remove();
+			}
+		if(nextOutput!=nLines) throw new IllegalStateException("expected "+nLines+" BED lines but got "+nextOutput);
+		return 0;
 		}
 	
 	@Override
@@ -175,7 +539,6 @@ public class BamStats04 extends Launcher
 				this.minCoverages.add(0);
 				}
 			
-			final String NO_PARTITION="N/A";
 			BufferedReader bedIn=null;
 			final List<SamReader> samReaders = new ArrayList<>(args.size());
 			PrintWriter pw = null;
@@ -266,6 +629,14 @@ public class BamStats04 extends Launcher
 							);
 					}
 				pw.println();
+				
+				if(this.batch_mode) {
+					final int ret = doWorkBatch(bedIn, samCtgConverter, samDict, samReaders, all_partitions, indexedFastaSequenceFile, fastaDict, pw);
+					if(ret!=0) return ret;
+					pw.flush();
+					pw.close();pw=null;
+					return RETURN_OK;
+					}
 	
 			
 				String line=null;
@@ -320,17 +691,7 @@ public class BamStats04 extends Launcher
 							if(!rec.getReferenceName().equals(ctg2)) continue;
 							
 							
-							final String partition;
-							final SAMReadGroupRecord group = rec.getReadGroup();
-							if(group==null)
-								{
-								partition=NO_PARTITION;
-								}
-							else
-								{
-								final String name = this.partition.apply(group);
-								partition = (StringUtil.isBlank(name)?NO_PARTITION:name);
-								}
+							final String partition = getPartition(rec);
 							
 							IntervalStat stat= sample2stats.get(partition);
 							if(stat==null) 
@@ -352,53 +713,7 @@ public class BamStats04 extends Launcher
 					
 					for(final String partitionName : sample2stats.keySet()) {
 						final IntervalStat stat = sample2stats.get(partitionName);
-						Arrays.sort(stat.counts);
-						
-						pw.print(
-								ctg2+"\t"+
-								(bedLine.getStart()-1)+"\t"+
-								(bedLine.getEnd())+"\t"+
-								stat.counts.length+"\t"+
-								partitionName
-								);
-						if(indexedFastaSequenceFile!=null) {
-							pw.print("\t");
-							if(gcPercentInt.isPresent()) pw.print(gcPercentInt.getAsInt());
-							}
-						pw.print(
-							"\t"+
-							stat.counts[0]+"\t"+
-							stat.counts[stat.counts.length-1]
-							);
-						
-						for(final int MIN_COVERAGE:this.minCoverages)
-							{
-							/** map depth to 0 if depth <= MIN_COVERAGE */
-							final IntUnaryOperator depthAdjuster = (D)->(D<=MIN_COVERAGE?0:D);
-	
-							
-							final int count_no_coverage=(int)Arrays.stream(stat.counts).
-									filter(D-> depthAdjuster.applyAsInt(D)<=0).
-									count()
-									;
-							
-							final double mean= Percentile.average().evaluate(Arrays.stream(stat.counts).
-									map(depthAdjuster)
-									);
-							
-			                final double median_depth = Percentile.median().evaluate(Arrays.stream(stat.counts).
-									map(depthAdjuster)
-									);
-			                
-							
-							pw.print("\t"+
-									mean+"\t"+
-									median_depth+"\t"+
-									count_no_coverage+"\t"+
-									(int)(((stat.counts.length-count_no_coverage)/(double)stat.counts.length)*100.0)
-									);
-							}
-						pw.println();
+						printStat(pw, ctg2, bedLine, partitionName, stat.counts, indexedFastaSequenceFile!=null, gcPercentInt);
 						}
 					}
 				pw.flush();
@@ -25,6 +25,7 @@ SOFTWARE.
 History:
 * 2014 creation
 * 2015 moving to knime
+* 20261017 bulk load
 
 */
 package com.github.lindenb.jvarkit.tools.burden;
@@ -43,10 +44,14 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import htsjdk.samtools.util.CloserUtil;
@@ -449,6 +454,17 @@ $ gunzip -c input2.vcf.gz input2.vcf.gz input2.vcf.gz input2.vcf.gz | java -jar
 8	vcf1461860749178
 ```
 
+### Bulk load
+
+With `--bulk`, the rows are deduplicated using an in-memory map of their MD5 checksums (loaded from the database at startup),
+they are inserted using JDBC batches of `--batch-size` rows and the transaction is committed after each batch.
+The foreign keys of `VCFROW` are dropped during the load and re-created at the end.
+The number of rows inserted per second is reported in the log.
+
+```
+$ java -jar dist/vcfderby01.jar -a read --bulk --batch-size 50000 -d database.db input.vcf input2.vcf.gz
+```
+
 
 
 ### Listing the available VCFs
@@ -668,7 +684,9 @@ $ java -jar dist/vcfderby01.jar -d database.db -a list
 8	999.0	vcf1461860749178	35
 ```
 
+### History
 
+  * 20261017 : bulk-load mode (`--bulk`), the 'dump' actions stream the rows using a fetch size (`--fetch-size`)
 
 
 END_DOC
@@ -676,7 +694,8 @@ END_DOC
  */
 @Program(name="vcfderby01",
 	description="Insert similar VCFs into an Apache Derby Database",
-	keywords={"vcf","sql","derby","burden"})
+	keywords={"vcf","sql","derby","burden"},
+	modificationDate="20261017")
 public class VcfDerby01
 	extends Launcher
 	{
@@ -696,6 +715,14 @@ public class VcfDerby01
 	@Parameter(names={"-t","--title"},description="Try to find ##(TITLE)=abcdefghijk in the VCF header and use it as the name of the inserted VCF file")
 	private String titleHeaderStr = "";
 
+	@Parameter(names={"--bulk"},description="[20261017] action 'read': bulk-load mode. The rows are deduplicated using an in-memory map of the MD5 checksums, inserted using JDBC batches, the transaction is committed after each batch and the foreign keys of VCFROW are only re-created at the end of the load.")
+	private boolean bulkLoad = false;
+
+	@Parameter(names={"--batch-size"},description="[20261017] bulk-load mode: number of rows per JDBC batch/commit.")
+	private int batchSize = 10_000;
+
+	@Parameter(names={"--fetch-size"},description="[20261017] JDBC fetch size used when reading the rows for 'dump', 'dumpall' and 'dumpuniq'.")
+	private int fetchSize = 1_000;
 	
 	private static int MAX_REF_BASE_LENGTH=50;
 	private long ID_GENERATOR = System.currentTimeMillis();
@@ -840,7 +867,8 @@ public class VcfDerby01
 			return -1;
 		}
 		try {
-			stmt = this.conn.createStatement();
+			stmt = this.conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			stmt.setFetchSize(this.fetchSize);
 			row = stmt.executeQuery("SELECT ID from VCF");
 			while(row.next()) {
 				vcfids.add(row.getLong(1));
@@ -867,6 +895,7 @@ public class VcfDerby01
 		PrintWriter pwOut = null;
 		try {
 			boolean chrom_line_seen=false;
+			pwOut = openFileOrStdoutAsPrintWriter(this.outputFile);
 			for(int side=0;side<2;++side)
 				{
 				final String sql=(side==0?
@@ -874,8 +903,8 @@ public class VcfDerby01
 						"SELECT ROWCONTENT.CONTENT FROM ROWCONTENT WHERE ROWCONTENT.CONTIG IS NOT NULL ORDER BY ROWCONTENT.CONTIG,ROWCONTENT.START,ROWCONTENT.ALLELE_REF "
 						);
 				LOG.info(sql);
-				pstmt2 = this.conn.prepareStatement(sql);
-				pwOut = openFileOrStdoutAsPrintWriter(this.outputFile);
+				pstmt2 = this.conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+				pstmt2.setFetchSize(this.fetchSize);
 				row =  pstmt2.executeQuery();
 				while(row.next()) {
 					final Clob clob = row.getClob(1);
@@ -999,7 +1028,9 @@ public class VcfDerby01
 		int num_vcf_exported=0;
 		try {
 			pstmt = this.conn.prepareStatement("SELECT NAME from VCF where ID=?");
-			pstmt2 = this.conn.prepareStatement("SELECT ROWCONTENT.CONTENT FROM VCF,VCFROW,ROWCONTENT WHERE VCFROW.VCF_ID=VCF.ID AND VCFROW.ROW_ID = ROWCONTENT.ID AND VCF.ID=? ORDER BY VCFROW.ID ");
+			pstmt2 = this.conn.prepareStatement("SELECT ROWCONTENT.CONTENT FROM VCF,VCFROW,ROWCONTENT WHERE VCFROW.VCF_ID=VCF.ID AND VCFROW.ROW_ID = ROWCONTENT.ID AND VCF.ID=? ORDER BY VCFROW.ID ",
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			pstmt2.setFetchSize(this.fetchSize);
 			
 			
 			pwOut = openFileOrStdoutAsPrintWriter(this.outputFile);
@@ -1111,6 +1142,227 @@ public class VcfDerby01
 	}
 
 	
+	/** fill the parameters of 'INSERT INTO ROWCONTENT(MD5SUM,CONTENT,CONTIG,START,STOP,ALLELE_REF,FILTERED)'. 
+	 * ctx is null for the VCF header lines. Returns true if the REF allele was truncated */
+	private static boolean fillRowContent(final PreparedStatement pstmt2,final String md5,final String line,final VariantContext ctx) throws SQLException {
+		boolean truncated = false;
+		pstmt2.setString(1, md5);
+		pstmt2.setString(2,line);
+		if(ctx==null) {
+			pstmt2.setNull(3,Types.VARCHAR);
+			pstmt2.setNull(4,Types.INTEGER);
+			pstmt2.setNull(5,Types.INTEGER);
+			pstmt2.setNull(6,Types.VARCHAR);
+			pstmt2.setShort(7, (short)1);
+			}
+		else
+			{
+			pstmt2.setString(3, ctx.getContig());
+			pstmt2.setInt(4, ctx.getStart());
+			pstmt2.setInt(5, ctx.getEnd());
+			String refBase =ctx.getReference().getBaseString();
+			/* sql table for Ref_allele is a varchar(MAX_REF_BASE_LENGTH) */
+			if(refBase.length()>MAX_REF_BASE_LENGTH) {
+				LOG.warn("Warning: TRUNCATING LARGE REF BASE TO FIT IN DATABASE : VARCHAR("+MAX_REF_BASE_LENGTH+") characters:"+refBase);
+				refBase = refBase.substring(0,MAX_REF_BASE_LENGTH);
+				truncated = true;
+			}
+			pstmt2.setString(6,refBase );
+			pstmt2.setShort(7, (short)(ctx.isFiltered()?1:0));
+			}
+		return truncated;
+		}
+	
+	/** names of the foreign key constraints of VCFROW. They're dropped during a bulk load
+	 * and re-created at the end, so their backing indexes are built once */
+	private static final String VCFROW_CONSTRAINTS[][]= {
+		{"ROW2VCF","FOREIGN KEY (VCF_ID) REFERENCES VCF"},
+		{"ROW2CONTENT","FOREIGN KEY (ROW_ID) REFERENCES ROWCONTENT"}
+		};
+	
+	/** bulk loader: the MD5 of the rows are deduplicated using an in-memory map, 
+	 * the rows are inserted using JDBC batches and the transaction is committed after each batch.
+	 */
+	private class BulkLoader {
+		/** map MD5 to ROWCONTENT.ID . Value is -1 if the row is waiting in the current batch */
+		private final Map<String,Long> md5ToId = new HashMap<>();
+		private final PreparedStatement insertContent;
+		private final PreparedStatement insertRow;
+		/** MD5 of the new ROWCONTENT in the current batch, in insertion order */
+		private final List<String> pendingContents = new ArrayList<>();
+		/** VCFROW of the current batch */
+		private final List<Long> pendingVcfIds = new ArrayList<>();
+		private final List<String> pendingMd5s = new ArrayList<>();
+		private final long startMillis = System.currentTimeMillis();
+		private long nRowsInserted = 0L;
+		private long nContentsInserted = 0L;
+		int number_of_ref_allele_truncated=0;
+		
+		BulkLoader() throws SQLException {
+			conn.setAutoCommit(false);
+			dropConstraints();
+			Statement stmt = null;
+			ResultSet row = null;
+			try {
+				stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+				stmt.setFetchSize(fetchSize);
+				row = stmt.executeQuery("SELECT MD5SUM,ID FROM ROWCONTENT");
+				while(row.next()) {
+					this.md5ToId.put(row.getString(1), row.getLong(2));
+					}
+				}
+			finally {
+				CloserUtil.close(row);
+				CloserUtil.close(stmt);
+				}
+			LOG.info("bulk load: "+this.md5ToId.size()+" rows already in ROWCONTENT");
+			this.insertContent = conn.prepareStatement("INSERT INTO ROWCONTENT(MD5SUM,CONTENT,CONTIG,START,STOP,ALLELE_REF,FILTERED) VALUES (?,?,?,?,?,?,?)");
+			this.insertRow = conn.prepareStatement("INSERT INTO VCFROW(VCF_ID,ROW_ID) VALUES (?,?)");
+			}
+		
+		private void dropConstraints() throws SQLException {
+			final Set<String> existing = new HashSet<>();
+			try(PreparedStatement pstmt = conn.prepareStatement(
+					"SELECT SYS.SYSCONSTRAINTS.CONSTRAINTNAME FROM SYS.SYSCONSTRAINTS,SYS.SYSTABLES WHERE SYS.SYSTABLES.TABLEID=SYS.SYSCONSTRAINTS.TABLEID AND SYS.SYSTABLES.TABLENAME='VCFROW'")) {
+				try(ResultSet row = pstmt.executeQuery()) {
+					while(row.next()) existing.add(row.getString(1));
+					}
+				}
+			try(Statement stmt = conn.createStatement()) {
+				for(final String constraint[]:VCFROW_CONSTRAINTS) {
+					if(!existing.contains(constraint[0])) continue;
+					final String sql = "ALTER TABLE VCFROW DROP CONSTRAINT "+constraint[0];
+					LOG.info(sql);
+					stmt.execute(sql);
+					}
+				}
+			conn.commit();
+			}
+		
+		/** re-create the constraints dropped by dropConstraints */
+		private void createConstraints() throws SQLException {
+			try(Statement stmt = conn.createStatement()) {
+				for(final String constraint[]:VCFROW_CONSTRAINTS) {
+					final String sql = "ALTER TABLE VCFROW ADD CONSTRAINT "+constraint[0]+" "+constraint[1];
+					LOG.info(sql);
+					stmt.execute(sql);
+					}
+				}
+			conn.commit();
+			}
+		
+		/** add a line of the VCF. ctxSupplier is only called if the line was never seen before. It may return null for the header lines */
+		void add(final long vcf_id,final String line,final Supplier<VariantContext> ctxSupplier) throws SQLException {
+			final String md5 = toMd5.apply(line);
+			if(!this.md5ToId.containsKey(md5)) {
+				if(fillRowContent(this.insertContent, md5, line, ctxSupplier.get())) {
+					this.number_of_ref_allele_truncated++;
+					}
+				this.insertContent.addBatch();
+				this.md5ToId.put(md5, -1L);
+				this.pendingContents.add(md5);
+				}
+			this.pendingVcfIds.add(vcf_id);
+			this.pendingMd5s.add(md5);
+			if(this.pendingMd5s.size()>=batchSize) flush();
+			}
+		
+		/** get the generated ID of the new ROWCONTENT of the current batch */
+		private void fetchGeneratedIds() throws SQLException {
+			final int n = this.pendingContents.size();
+			long lastId = -1L;
+			try(Statement stmt = conn.createStatement()) {
+				try(ResultSet row = stmt.executeQuery("VALUES IDENTITY_VAL_LOCAL()")) {
+					while(row.next()) lastId = row.getLong(1);
+					}
+				}
+			/* identity values are increasing, so the IDs of this batch are contiguous if there are 'n' rows in [last-n+1,last] */
+			boolean contiguous = false;
+			if(lastId>=n) {
+				try(PreparedStatement pstmt = conn.prepareStatement("SELECT COUNT(*) FROM ROWCONTENT WHERE ID BETWEEN ? AND ?")) {
+					pstmt.setLong(1, lastId-n+1);
+					pstmt.setLong(2, lastId);
+					try(ResultSet row = pstmt.executeQuery()) {
+						while(row.next()) contiguous = (row.getLong(1)==n);
+						}
+					}
+				}
+			if(contiguous) {
+				for(int i=0;i< n;i++) {
+					this.md5ToId.put(this.pendingContents.get(i), lastId-n+1+i);
+					}
+				}
+			else
+				{
+				LOG.debug("identity values are not contiguous, getting the IDs by MD5");
+				try(PreparedStatement pstmt = conn.prepareStatement("SELECT ID FROM ROWCONTENT WHERE MD5SUM=?")) {
+					for(final String md5: this.pendingContents) {
+						long id = -1L;
+						pstmt.setString(1, md5);
+						try(ResultSet row = pstmt.executeQuery()) {
+							while(row.next()) id = row.getLong(1);
+							}
+						if(id==-1L) throw new IllegalStateException("Cannot find ROWCONTENT for MD5 "+md5);
+						this.md5ToId.put(md5, id);
+						}
+					}
+				}
+			}
+		
+		/** insert the current batch and commit */
+		void flush() throws SQLException {
+			if(!this.pendingContents.isEmpty()) {
+				this.insertContent.executeBatch();
+				fetchGeneratedIds();
+				this.nContentsInserted += this.pendingContents.size();
+				this.pendingContents.clear();
+				}
+			if(!this.pendingMd5s.isEmpty()) {
+				for(int i=0;i< this.pendingMd5s.size();i++) {
+					this.insertRow.setLong(1, this.pendingVcfIds.get(i));
+					this.insertRow.setLong(2, this.md5ToId.get(this.pendingMd5s.get(i)));
+					this.insertRow.addBatch();
+					}
+				this.insertRow.executeBatch();
+				this.nRowsInserted += this.pendingMd5s.size();
+				this.pendingMd5s.clear();
+				this.pendingVcfIds.clear();
+				}
+			conn.commit();
+			LOG.info(getRate());
+			}
+		
+		private String getRate() {
+			final long millis = Math.max(1L, System.currentTimeMillis() - this.startMillis);
+			return "bulk load: VCFROW:"+this.nRowsInserted+" new ROWCONTENT:"+this.nContentsInserted+
+					" ("+(long)(this.nRowsInserted*1000.0/millis)+" rows/second)";
+			}
+		
+		/** flush the last batch, re-create the constraints */
+		void finish() throws SQLException {
+			flush();
+			this.insertContent.close();
+			this.insertRow.close();
+			createConstraints();
+			conn.setAutoCommit(true);
+			LOG.info("done. "+getRate());
+			}
+		
+		/** called on error: discard the current batch, restore the constraints */
+		void abort() {
+			CloserUtil.close(this.insertContent);
+			CloserUtil.close(this.insertRow);
+			try {
+				conn.rollback();
+				createConstraints();
+				conn.setAutoCommit(true);
+				}
+			catch(final SQLException err) {
+				LOG.error(err);
+				}
+			}
+		}
+	
 	private int doReadConcatenatedVcf(List<String> args){
 		int number_of_ref_allele_truncated=0;
 		PreparedStatement pstmt = null;
@@ -1118,6 +1370,7 @@ public class VcfDerby01
 		PreparedStatement pstmt3 = null;
 		ResultSet row = null;
 		PrintWriter pw = null;
+		BulkLoader bulkLoader = null;
 		args = new ArrayList<>(IOUtils.unrollFiles(args));
 		LOG.info(args.toString());
 		LineIterator lineIter=null;
@@ -1131,6 +1384,14 @@ public class VcfDerby01
 			
 			pw = openFileOrStdoutAsPrintWriter(this.outputFile);
 			pw.println("#ID\tNAME");
+			
+			if(this.bulkLoad) {
+				if(this.batchSize<1) {
+					LOG.error("bad batch size "+this.batchSize);
+					return -1;
+					}
+				bulkLoader = new BulkLoader();
+				}
 
 			do
 			{
@@ -1179,12 +1440,27 @@ public class VcfDerby01
 					pw.println(filename);
 					pw.flush();
 					
+					final SAMSequenceDictionaryProgress progress = new SAMSequenceDictionaryProgress(cah.header);
+					
+					if(bulkLoader!=null) {
+						for(final String line:headerLines) {
+							bulkLoader.add(vcf_id, line, ()->null);
+							}
+						LOG.info("Inserted "+filename+" ID="+vcf_id);
+						while(lineIter.hasNext() && !lineIter.peek().startsWith("#")) {
+							final String line = lineIter.next();
+							bulkLoader.add(vcf_id, line, ()->progress.watch(cah.codec.decode(line)));
+							}
+						progress.finish();
+						num_vcf_in_this_stream++;
+						continue;
+						}
+					
 					pstmt = this.conn.prepareStatement("SELECT ID FROM ROWCONTENT WHERE MD5SUM=?");
 					pstmt2 = this.conn.prepareStatement("INSERT INTO ROWCONTENT(MD5SUM,CONTENT,CONTIG,START,STOP,ALLELE_REF,FILTERED) VALUES (?,?,?,?,?,?,?)",PreparedStatement.RETURN_GENERATED_KEYS);
 					pstmt3 = this.conn.prepareStatement("INSERT INTO VCFROW(VCF_ID,ROW_ID) VALUES (?,?)");
 					pstmt3.setLong(1, vcf_id);
 					
-					final SAMSequenceDictionaryProgress progress = new SAMSequenceDictionaryProgress(cah.header);
 					/* insert VCF header lines */
 					for(final String line:headerLines) {
 						final String md5=this.toMd5.apply(line);
@@ -1198,14 +1474,7 @@ public class VcfDerby01
 						
 						/* vcf content was not found, create it */
 						if(content_id==-1L) {
-							pstmt2.setString(1, md5);
-							
-							pstmt2.setString(2,line);
-							pstmt2.setNull(3,Types.VARCHAR);
-							pstmt2.setNull(4,Types.INTEGER);
-							pstmt2.setNull(5,Types.INTEGER);
-							pstmt2.setNull(6,Types.VARCHAR);
-							pstmt2.setShort(7, (short)1);
+							fillRowContent(pstmt2, md5, line, null);
 							if(pstmt2.executeUpdate()!=1) {
 								LOG.error("Cannot insert ROWCONTENT ?");
 								return -1;
@@ -1237,22 +1506,9 @@ public class VcfDerby01
 						if(content_id==-1L) {
 							/* decode to get chrom/start/end/ref */
 							final VariantContext ctx = progress.watch(cah.codec.decode(line));
-							
-							pstmt2.setString(1, md5);
-							
-							pstmt2.setString(2,line);
-							pstmt2.setString(3, ctx.getContig());
-							pstmt2.setInt(4, ctx.getStart());
-							pstmt2.setInt(5, ctx.getEnd());
-							String refBase =ctx.getReference().getBaseString();
-							/* sql table for Ref_allele is a varchar(MAX_REF_BASE_LENGTH) */
-							if(refBase.length()>50) {
-								LOG.warn("Warning: TRUNCATING LARGE REF BASE TO FIT IN DATABASE : VARCHAR("+MAX_REF_BASE_LENGTH+") characters:"+refBase);
-								refBase = refBase.substring(0,MAX_REF_BASE_LENGTH);
+							if(fillRowContent(pstmt2, md5, line, ctx)) {
 								++number_of_ref_allele_truncated;
 							}
-							pstmt2.setString(6,refBase );
-							pstmt2.setShort(7, (short)(ctx.isFiltered()?1:0));
 							if(pstmt2.executeUpdate()!=1) {
 								LOG.error("Cannot insert ROWCONTENT ?");
 								return -1;
@@ -1278,6 +1534,12 @@ public class VcfDerby01
 				fileidx++;
 			} while(fileidx < args.size());
 			
+			if(bulkLoader!=null) {
+				bulkLoader.finish();
+				number_of_ref_allele_truncated += bulkLoader.number_of_ref_allele_truncated;
+				bulkLoader = null;
+				}
+			
 			pw.flush();
 			pw.close();
 			
@@ -1288,6 +1550,7 @@ public class VcfDerby01
 			LOG.error(e);
 			return -1;
 		} finally {
+			if(bulkLoader!=null) bulkLoader.abort();
 			CloserUtil.close(pw);
 			CloserUtil.close(row);
 			CloserUtil.close(pstmt);
@@ -24,9 +24,11 @@ SOFTWARE.
 
 History:
 * 2014 creation
+* 20261017 streaming k-way merge of the inputs sorted on read name
 
 */
 package com.github.lindenb.jvarkit.tools.cmpbams;
+import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -36,6 +38,7 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.stream.Collectors;
@@ -51,12 +54,14 @@ import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
 
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SAMFileHeader;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.PeekableIterator;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.SortingCollection;
 /*
@@ -265,11 +270,26 @@ HWI-1KL149:20:C1CU7ACXX:2:2311:14082:99026/2	EQ|EQ|EQ	K01:2081=163/100M	K01:2081
 HWI-1KL149:20:C1CU7ACXX:2:2315:4940:7934/1	EQ|EQ|EQ	K01:2133=83/100M	K01:2133=83/100M	K01:2133=83/100M
 HWI-1KL149:20:C1CU7ACXX:2:2315:4940:7934/2	EQ|EQ|EQ	K01:2059=163/100M	K01:2059=163/100M	K01:2059=163/100M</h:pre>
 ```
+## Name-sorted inputs
+
+By default, the alignments of all the BAMs are pushed into a collection sorted on read name that is spilled to disk (see `--maxRecordsInRam` and `--tmpDir`).
+
+When all the inputs are already sorted on read name, option `--name-sorted` walks the BAMs together in a k-way merge and compares each read as it arrives, without any external sort. The read names must be sorted in the lexicographic order used by picard/htsjdk (`picard SortSam SORT_ORDER=queryname`). The natural order of `samtools sort -n` is **not** supported: the program stops with an error as soon as a read name is found out of order. `--name-sorted` cannot be used with `--region`.
+
+```
+$ java -jar dist/cmpbams.jar --name-sorted -F -c sorted1.bam sorted2.bam
+```
+
+## History
+
+  * 20261017 : option `--name-sorted`, streaming comparison of the BAMs sorted on read name.
+
 END_DOC
 */
 
 @Program(name="cmpbams",description="Compare two or more BAM files",
-	keywords={"sam","bam","compare"}
+	keywords={"sam","bam","compare"},
+	modificationDate="20261017"
 	)
 public class CompareBams  extends Launcher
 	{
@@ -293,6 +313,9 @@ public class CompareBams  extends Launcher
 	@Parameter(names={"-r","--region"},description=IntervalParser.OPT_DESC)
 	private String REGION = "";
 
+	@Parameter(names={"--name-sorted","--queryname"},description="[20261017] All the input BAMs are sorted on read name (picard/htsjdk 'queryname' order). Walk the BAMs together and compare each read as it arrives instead of sorting all the alignments on disk. The program fails if a read name is found out of order. Incompatible with --region.")
+	private boolean name_sorted = false;
+
 	@ParametersDelegate
 	private WritingSortingCollection writingSortingCollection=new WritingSortingCollection();
 	
@@ -503,20 +526,271 @@ public class CompareBams  extends Launcher
     	return false;
     	}
     
+	/** open the 'idx'-th BAM and check its dictionary against the first one */
+	private SamReader openSamReader(final int idx) throws IOException
+		{
+		final File samFile=this.IN.get(idx);
+		LOG.info("Opening "+samFile);
+		final SamReader samFileReader= super.createSamReaderFactory().open(samFile);
+		final SAMSequenceDictionary dict=samFileReader.getFileHeader().getSequenceDictionary();
+		if(dict==null || dict.isEmpty())
+			{
+			samFileReader.close();
+			throw new IOException("Empty Dict  in "+samFile);
+			}
+
+		if(!this.sequenceDictionaries.isEmpty() &&
+			!SequenceUtil.areSequenceDictionariesEqual(this.sequenceDictionaries.get(0), dict))
+			{
+			this.samSequenceDictAreTheSame=false;
+			LOG.warn("FOOL !! THE SEQUENCE DICTIONARIES ARE **NOT** THE SAME. I will try to compare anyway but it will be slower.");
+			}
+		this.sequenceDictionaries.add(dict);
+		return samFileReader;
+		}
+
+	/** convert a SAMRecord to a Match, returns null if the record must be ignored */
+	private Match toMatch(final SAMRecord rec,final int bamIndex)
+		{
+		if(!rec.getReadUnmappedFlag())
+			{
+			if(rec.getMappingQuality() < this.min_mapq) return null;
+			if(rec.isSecondaryOrSupplementary()) return null;
+			}
+		final Match m=new Match();
+		if(rec.getReadPairedFlag())
+			{
+			m.num_in_pair=(rec.getFirstOfPairFlag()?1:2);
+			}
+		else
+			{
+			m.num_in_pair=0;
+			}
+		m.readName=rec.getReadName();
+		m.bamIndex=bamIndex;
+		m.flag=rec.getFlags();
+		m.cigar=rec.getCigarString();
+		if(m.cigar==null ) m.cigar="";
+		if(rec.getReadUnmappedFlag())
+			{
+			m.tid=-1;
+			m.pos=-1;
+			}
+		else
+			{
+			m.tid=rec.getReferenceIndex();
+			m.pos=rec.getAlignmentStart();
+			}
+		return m;
+		}
+
+	/** create an array of set&lt;Match&gt;, one per BAM */
+	private List<Set<Match>> createMatchSets()
+		{
+		final MatchComparator match_comparator=new MatchComparator();
+		final List<Set<Match>> matches=new ArrayList<Set<CompareBams.Match>>(this.IN.size());
+		while(matches.size() < this.IN.size())
+			{
+			matches.add(new TreeSet<CompareBams.Match>(match_comparator));
+			}
+		return matches;
+		}
+
+	private void printHeader()
+		{
+		this.out.print("#READ-Name\t");
+		for(int x=0;x<this.IN.size();++x)
+			{
+			for(int y=x+1;y<this.IN.size();++y)
+				{
+				if(!(x==0 && y==1)) this.out.print("|");
+				this.out.print(IN.get(x));
+				this.out.print(" ");
+				this.out.print(IN.get(y));
+				}
+			}
+		for(int x=0;x<this.IN.size();++x)
+			{
+			this.out.print("\t"+IN.get(x));
+			}
+		this.out.println();
+		}
+
+	/** compute the differences for one read */
+	private void printRead(final String readName,final int num_in_pair,final List<Set<Match>> matches)
+		{
+		this.out.print(readName);
+		if(num_in_pair>0)
+			{
+			this.out.print("/");
+			this.out.print(num_in_pair);
+			}
+		this.out.print("\t");
+
+		for(int x=0;x<this.IN.size();++x)
+			{
+			final Set<Match> first=matches.get(x);
+			for(int y=x+1;y<this.IN.size();++y)
+				{
+				if(!(x==0 && y==1)) this.out.print("|");
+				final Set<Match> second=matches.get(y);
+				if(same(first,second))
+					{
+					this.out.print("EQ");
+					}
+				else
+					{
+					this.out.print("NE");
+					}
+				}
+			}
+
+		for(int x=0;x<this.IN.size();++x)
+			{
+			this.out.print("\t");
+			print(matches.get(x),sequenceDictionaries.get(x));
+			}
+
+		this.out.println();
+		}
+
+	/** one input of the k-way merge, sorted on read name */
+	private class NameSortedInput implements Closeable
+		{
+		final int bamIndex;
+		final SamReader samReader;
+		final PeekableIterator<SAMRecord> iter;
+		String prevName=null;
+		NameSortedInput(final int bamIndex,final SamReader samReader)
+			{
+			this.bamIndex=bamIndex;
+			this.samReader=samReader;
+			this.iter=new PeekableIterator<>(samReader.iterator());
+			}
+		String peekName()
+			{
+			return this.iter.peek().getReadName();
+			}
+		/** consume all the records named 'readName', dispatch the matches by num_in_pair */
+		void consume(final String readName,final List<List<Set<Match>>> groups)
+			{
+			if(this.prevName!=null && readName.compareTo(this.prevName)<=0)
+				{
+				throw new IllegalStateException(
+					"Input "+IN.get(this.bamIndex)+" is not sorted on read name: got \""+
+					readName+"\" after \""+this.prevName+"\". Sort it with picard SortSam SORT_ORDER=queryname or remove option --name-sorted.");
+				}
+			this.prevName=readName;
+			while(this.iter.hasNext() && this.iter.peek().getReadName().equals(readName))
+				{
+				final Match m=toMatch(this.iter.next(),this.bamIndex);
+				if(m==null) continue;
+				groups.get(m.num_in_pair).get(this.bamIndex).add(m);
+				}
+			}
+		@Override
+		public void close()
+			{
+			CloserUtil.close(this.iter);
+			CloserUtil.close(this.samReader);
+			}
+		}
+
+	/** walk all the BAMs sorted on read name together, compare each read as it arrives */
+	private int doWorkNameSorted()
+		{
+		final List<NameSortedInput> inputs=new ArrayList<>(this.IN.size());
+		try
+			{
+			for(int currentSamFileIndex=0;
+					currentSamFileIndex<this.IN.size();
+					currentSamFileIndex++ )
+				{
+				final SamReader samFileReader=openSamReader(currentSamFileIndex);
+				if(!SAMFileHeader.SortOrder.queryname.equals(samFileReader.getFileHeader().getSortOrder()))
+					{
+					LOG.warn(this.IN.get(currentSamFileIndex)+" is not flagged as sorted on queryname. Sort order will be checked on the fly.");
+					}
+				inputs.add(new NameSortedInput(currentSamFileIndex,samFileReader));
+				}
+
+			this.out = super.openFileOrStdoutAsPrintWriter(this.outputFile);
+			printHeader();
+
+			/* matches for num_in_pair = 0, 1, 2 */
+			final List<List<Set<Match>>> groups=new ArrayList<>(3);
+			while(groups.size()<3) groups.add(createMatchSets());
+
+			final PriorityQueue<NameSortedInput> queue=new PriorityQueue<>(inputs.size(),(A,B)->{
+				final int i=A.peekName().compareTo(B.peekName());
+				if(i!=0) return i;
+				return A.bamIndex-B.bamIndex;
+				});
+			for(final NameSortedInput input:inputs)
+				{
+				if(input.iter.hasNext()) queue.add(input);
+				}
+
+			long nReads=0L;
+			while(!queue.isEmpty())
+				{
+				final String readName=queue.peek().peekName();
+				while(!queue.isEmpty() && queue.peek().peekName().equals(readName))
+					{
+					final NameSortedInput input=queue.poll();
+					input.consume(readName, groups);
+					if(input.iter.hasNext()) queue.add(input);
+					}
+				for(int num_in_pair=0;num_in_pair< groups.size();++num_in_pair)
+					{
+					final List<Set<Match>> matches=groups.get(num_in_pair);
+					if(matches.stream().allMatch(S->S.isEmpty())) continue;
+					printRead(readName,num_in_pair,matches);
+					for(final Set<Match> set:matches) set.clear();
+					}
+				if(++nReads%1_000_000==0) LOG.info("Read names: "+nReads+" last: "+readName);
+				if(this.out.checkError()) break;
+				}
+			this.out.flush();
+			return RETURN_OK;
+			}
+		catch(final Exception err)
+			{
+			LOG.error(err);
+			return -1;
+			}
+		finally
+			{
+			for(final NameSortedInput input:inputs) input.close();
+			CloserUtil.close(this.out);this.out=null;
+			}
+		}
+
     @Override
     public int doWork(final List<String> args) {
     	this.IN.addAll(args.stream().map(S->new File(S)).collect(Collectors.toList()));
+		if(this.IN.size() <2)
+			{
+			LOG.error("Need more bams please");
+			return -1;
+			}
+		this.samSequenceDictAreTheSame=true;
+
+		if(this.name_sorted)
+			{
+			if(REGION!=null && !REGION.trim().isEmpty())
+				{
+				LOG.error("option --region cannot be used with --name-sorted");
+				return -1;
+				}
+			return doWorkNameSorted();
+			}
+
    		SortingCollection<Match> database = null;
 		SamReader samFileReader=null;
 		CloseableIterator<Match> iter=null;
 		try
 			{
-			if(this.IN.size() <2)
-				{
-				LOG.error("Need more bams please");
-				return -1;
-				}
-			
 			database = SortingCollection.newInstance(
 					Match.class,
 					new MatchCodec(),
@@ -524,39 +798,27 @@ public class CompareBams  extends Launcher
 					this.writingSortingCollection.getMaxRecordsInRam(),
 					this.writingSortingCollection.getTmpPaths()
 					);
-			this.samSequenceDictAreTheSame=true;
 			database.setDestructiveIteration(true);
-	
-			
+
+			boolean all_name_sorted=true;
 			for(int currentSamFileIndex=0;
 					currentSamFileIndex<this.IN.size();
 					currentSamFileIndex++ )
 				{
 				final File samFile=this.IN.get(currentSamFileIndex);
-				LOG.info("Opening "+samFile);
-				samFileReader= super.createSamReaderFactory().open(samFile);
+				samFileReader= openSamReader(currentSamFileIndex);
 				final SAMSequenceDictionary dict=samFileReader.getFileHeader().getSequenceDictionary();
-				if(dict==null || dict.isEmpty())
-					{
-					LOG.error("Empty Dict  in "+samFile);
-					return -1;
-					}
-				
-				if(!this.sequenceDictionaries.isEmpty() &&
-					!SequenceUtil.areSequenceDictionariesEqual(this.sequenceDictionaries.get(0), dict))
+				if(!SAMFileHeader.SortOrder.queryname.equals(samFileReader.getFileHeader().getSortOrder()))
 					{
-					this.samSequenceDictAreTheSame=false;
-					LOG.warn("FOOL !! THE SEQUENCE DICTIONARIES ARE **NOT** THE SAME. I will try to compare anyway but it will be slower.");
+					all_name_sorted=false;
 					}
-				this.sequenceDictionaries.add(dict);
-				
-				
+
 				final Optional<Interval> interval;
 				if(REGION!=null && !REGION.trim().isEmpty())
 					{
 					final IntervalParser dix = new IntervalParser(dict);
 					interval = Optional.ofNullable(dix.parse(REGION));
-					
+
 					if(!interval.isPresent())
 						{
 						LOG.error("Cannot parse "+REGION+" (bad syntax or not in dictionary)");
@@ -567,8 +829,8 @@ public class CompareBams  extends Launcher
 					{
 					interval = Optional.empty();
 					}
-				
-				
+
+
 				SAMRecordIterator it=null;
 				if(!interval.isPresent())
 					{
@@ -585,36 +847,8 @@ public class CompareBams  extends Launcher
 				final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(dict);
 				while(it.hasNext() )
 					{
-					final SAMRecord rec=progress.watch(it.next());
-					if(!rec.getReadUnmappedFlag())
-						{
-						if(rec.getMappingQuality() < this.min_mapq) continue;
-						if(rec.isSecondaryOrSupplementary()) continue;
-						}
-					final Match m=new Match();
-					if(rec.getReadPairedFlag())
-						{
-						m.num_in_pair=(rec.getFirstOfPairFlag()?1:2);
-						}
-					else
-						{
-						m.num_in_pair=0;
-						}
-					m.readName=rec.getReadName();
-					m.bamIndex=currentSamFileIndex;
-					m.flag=rec.getFlags();
-					m.cigar=rec.getCigarString();
-					if(m.cigar==null ) m.cigar="";
-					if(rec.getReadUnmappedFlag())
-						{
-						m.tid=-1;
-						m.pos=-1;
-						}
-					else
-						{
-						m.tid=rec.getReferenceIndex();
-						m.pos=rec.getAlignmentStart();
-						}
+					final Match m=toMatch(progress.watch(it.next()),currentSamFileIndex);
+					if(m==null) continue;
 					database.add(m);
 					}
 				it.close();
@@ -623,36 +857,18 @@ public class CompareBams  extends Launcher
 				LOG.info("Close "+samFile);
 				}
 			database.doneAdding();
-			LOG.info("Writing results....");
-			
-			this.out = super.openFileOrStdoutAsPrintWriter(this.outputFile);
-			
-			//compute the differences for each read
-			this.out.print("#READ-Name\t");
-			for(int x=0;x<this.IN.size();++x)
-				{
-				for(int y=x+1;y<this.IN.size();++y)
-					{
-					if(!(x==0 && y==1)) this.out.print("|");
-					this.out.print(IN.get(x));
-					this.out.print(" ");
-					this.out.print(IN.get(y));
-					}
-				}
-			for(int x=0;x<this.IN.size();++x)
-				{
-				this.out.print("\t"+IN.get(x));
-				}
-			this.out.println();
-			
-			/* create an array of set<Match> */
-			final MatchComparator match_comparator=new MatchComparator();
-			final List<Set<Match>> matches=new ArrayList<Set<CompareBams.Match>>(this.IN.size());
-			while(matches.size() < this.IN.size())
+			if(all_name_sorted && (REGION==null || REGION.trim().isEmpty()))
 				{
-				matches.add(new TreeSet<CompareBams.Match>(match_comparator));
+				LOG.info("All the inputs are sorted on queryname. Option --name-sorted would avoid sorting the alignments on disk.");
 				}
-			
+			LOG.info("Writing results....");
+
+			this.out = super.openFileOrStdoutAsPrintWriter(this.outputFile);
+
+			printHeader();
+
+			final List<Set<Match>> matches=createMatchSets();
+
 			iter = database.iterator();
 			String currReadName=null;
 			int curr_num_in_pair=-1;
@@ -669,40 +885,7 @@ public class CompareBams  extends Launcher
 					{
 					if(currReadName!=null)
 						{
-						this.out.print(currReadName);
-						if(curr_num_in_pair>0)
-							{
-							this.out.print("/");
-							this.out.print(curr_num_in_pair);
-							}
-						this.out.print("\t");
-						
-						
-						for(int x=0;x<this.IN.size();++x)
-							{
-							final Set<Match> first=matches.get(x);
-							for(int y=x+1;y<this.IN.size();++y)
-								{
-								if(!(x==0 && y==1)) this.out.print("|");
-								Set<Match> second=matches.get(y);
-								if(same(first,second))
-									{
-									this.out.print("EQ");
-									}
-								else
-									{
-									this.out.print("NE");
-									}
-								}
-							}
-	
-						for(int x=0;x<this.IN.size();++x)
-							{
-							this.out.print("\t");
-							print(matches.get(x),sequenceDictionaries.get(x));
-							}
-						
-						this.out.println();
+						printRead(currReadName,curr_num_in_pair,matches);
 						}
 					if(nextMatch==null) break;
 					for(Set<Match> set:matches) set.clear();
@@ -712,7 +895,7 @@ public class CompareBams  extends Launcher
 				matches.get(nextMatch.bamIndex).add(nextMatch);
 				if(this.out.checkError()) break;
 				}
-			
+
 			iter.close();
 			this.out.flush();
 			return RETURN_OK;
@@ -729,7 +912,7 @@ public class CompareBams  extends Launcher
 			CloserUtil.close(this.out);this.out=null;
 			}
 		}
-		
+
 	public static void main(String[] args) throws Exception
 		{
 		new CompareBams().instanceMainWithExit(args);
@@ -0,0 +1,235 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+*/
+package com.github.lindenb.jvarkit.tools.epistasis;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+
+/**
+ * Compact per-variant, per-alt-allele matrix of the number of ALT alleles (dosage)
+ * carried by the cases and the controls.
+ * Each row is an ALT allele of a variant, the dosages are stored as bytes capped to 2.
+ * Pair scoring is an allocation-free loop over primitive arrays, split across cores by a ForkJoinPool.
+ */
+class DosageMatrix
+	{
+	/** max dosage stored in the matrix. Score of dosage >=2 is the same. */
+	private static final byte MAX_DOSAGE = 2;
+	/** score for ctrls, indexed by dosage */
+	private static final int CTRLS_DOSAGE2SCORE[] = {0,-10,-30};
+	/** score for cases, indexed by dosage */
+	private static final int CASES_DOSAGE2SCORE[] = {0, 10, 30};
+	/** number of variants processed by a leaf task before it's not split anymore */
+	private static final int LEAF_SIZE = 8;
+	/** max size of a java array */
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	private final int caseIndexes[];
+	private final int ctrlIndexes[];
+	private int nVariants = 0;
+	private int nRows = 0;
+	/** variant 'i' owns the rows 'variant2row[i]' to 'variant2row[i+1]' (exclusive) */
+	private int variant2row[] = new int[1_001];
+	/** row-major dosages of cases: row*caseIndexes.length + sample */
+	private byte caseDosages[];
+	/** row-major dosages of controls: row*ctrlIndexes.length + sample */
+	private byte ctrlDosages[];
+	/** score of each row, computed once by {@link #computeScores()} */
+	private int rowScores[] = null;
+
+	/** best pair of variant/alt-allele */
+	static class Hit
+		{
+		final int variant1;
+		final int alt1;
+		final int variant2;
+		final int alt2;
+		final int score;
+		Hit(final int variant1,final int alt1,final int variant2,final int alt2,final int score) {
+			this.variant1 = variant1;
+			this.alt1 = alt1;
+			this.variant2 = variant2;
+			this.alt2 = alt2;
+			this.score = score;
+			}
+		}
+
+	DosageMatrix(final int caseIndexes[],final int ctrlIndexes[])
+		{
+		this.caseIndexes = caseIndexes;
+		this.ctrlIndexes = ctrlIndexes;
+		this.caseDosages = new byte[Math.max(1,1_000 * caseIndexes.length)];
+		this.ctrlDosages = new byte[Math.max(1,1_000 * ctrlIndexes.length)];
+		}
+
+	/** number of variants in the matrix */
+	int getVariantCount() {
+		return this.nVariants;
+		}
+
+	private static byte dosage(final Genotype g,final Allele alt) {
+		if(g==null || g.isFiltered()) return 0;
+		byte n = 0;
+		for(final Allele a: g.getAlleles()) {
+			if(a.equals(alt) && n < MAX_DOSAGE) n++;
+			}
+		return n;
+		}
+
+	/** first index of 'row' in a row-major array of 'nSamples' columns */
+	private static int offset(final int row,final int nSamples) {
+		final long offset = (long)row * nSamples;
+		if(offset > MAX_ARRAY_SIZE) throw new IllegalStateException("too many variants x samples for the dosage matrix: "+row+" x "+nSamples);
+		return (int)offset;
+		}
+
+	/** grow 'array' so it contains at least 'need' items */
+	private static byte[] ensureCapacity(final byte array[],final long need) {
+		if(need <= array.length) return array;
+		if(need > MAX_ARRAY_SIZE) throw new IllegalStateException("too many variants x samples for the dosage matrix: "+need+" > "+MAX_ARRAY_SIZE);
+		return Arrays.copyOf(array, (int)Math.min(MAX_ARRAY_SIZE, Math.max(need, array.length*2L)));
+		}
+
+	/** append a variant to the matrix */
+	void add(final VariantContext ctx) {
+		final List<Allele> alleles = ctx.getAlleles();
+		int nAlts = 0;
+		for(final Allele a: alleles) if(!a.isReference()) nAlts++;
+
+		if(this.nVariants + 2 >= this.variant2row.length) {
+			this.variant2row = Arrays.copyOf(this.variant2row, this.variant2row.length*2);
+			}
+		this.caseDosages = ensureCapacity(this.caseDosages, (long)(this.nRows + nAlts) * this.caseIndexes.length);
+		this.ctrlDosages = ensureCapacity(this.ctrlDosages, (long)(this.nRows + nAlts) * this.ctrlIndexes.length);
+
+		for(final Allele alt: alleles) {
+			if(alt.isReference()) continue;
+			int offset = offset(this.nRows, this.caseIndexes.length);
+			for(final int idx: this.caseIndexes) {
+				this.caseDosages[offset++] = dosage(ctx.getGenotype(idx),alt);
+				}
+			offset = offset(this.nRows, this.ctrlIndexes.length);
+			for(final int idx: this.ctrlIndexes) {
+				this.ctrlDosages[offset++] = dosage(ctx.getGenotype(idx),alt);
+				}
+			this.nRows++;
+			}
+		this.nVariants++;
+		this.variant2row[this.nVariants] = this.nRows;
+		this.rowScores = null;
+		}
+
+	/** compute the score of each alt allele */
+	private void computeScores() {
+		final int scores[] = new int[this.nRows];
+		final int nCases = this.caseIndexes.length;
+		final int nCtrls = this.ctrlIndexes.length;
+		for(int row=0;row< this.nRows;++row) {
+			int score = 0;
+			int offset = offset(row, nCtrls);
+			for(int i=0;i< nCtrls;++i) {
+				score += CTRLS_DOSAGE2SCORE[this.ctrlDosages[offset+i]];
+				}
+			offset = offset(row, nCases);
+			for(int i=0;i< nCases;++i) {
+				score += CASES_DOSAGE2SCORE[this.caseDosages[offset+i]];
+				}
+			scores[row] = score;
+			}
+		this.rowScores = scores;
+		}
+
+	/** returns true if 'a' should replace 'b'. On ties, the pair found first by a serial scan wins */
+	private static boolean isBetter(final Hit a,final Hit b) {
+		if(a==null) return false;
+		if(b==null) return true;
+		if(a.score!=b.score) return a.score > b.score;
+		if(a.variant1!=b.variant1) return a.variant1 < b.variant1;
+		if(a.variant2!=b.variant2) return a.variant2 < b.variant2;
+		if(a.alt1!=b.alt1) return a.alt1 < b.alt1;
+		return a.alt2 < b.alt2;
+		}
+
+	private class ScanTask extends RecursiveTask<Hit>
+		{
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+		ScanTask(final int from,final int to) {
+			this.from = from;
+			this.to = to;
+			}
+		@Override
+		protected Hit compute() {
+			if(this.to - this.from > LEAF_SIZE) {
+				final int mid = this.from + (this.to - this.from)/2;
+				final ScanTask left = new ScanTask(this.from, mid);
+				final ScanTask right = new ScanTask(mid, this.to);
+				left.fork();
+				final Hit rightHit = right.compute();
+				final Hit leftHit = left.join();
+				return isBetter(rightHit,leftHit)?rightHit:leftHit;
+				}
+			final int scores[] = DosageMatrix.this.rowScores;
+			final int rows[] = DosageMatrix.this.variant2row;
+			final int n = DosageMatrix.this.nVariants;
+			boolean found = false;
+			int best = 0, bestV1 = -1, bestV2 = -1, bestA1 = -1, bestA2 = -1;
+			for(int v1 = this.from; v1 < this.to; ++v1) {
+				for(int v2 = v1 + 1; v2 < n; ++v2) {
+					for(int r1 = rows[v1]; r1 < rows[v1+1]; ++r1) {
+						final int score1 = scores[r1];
+						for(int r2 = rows[v2]; r2 < rows[v2+1]; ++r2) {
+							final int score = score1 + scores[r2];
+							if(!found || best < score) {
+								found = true;
+								best = score;
+								bestV1 = v1;
+								bestV2 = v2;
+								bestA1 = r1 - rows[v1];
+								bestA2 = r2 - rows[v2];
+								}
+							}
+						}
+					}
+				}
+			return found ? new Hit(bestV1, bestA1, bestV2, bestA2, best) : null;
+			}
+		}
+
+	/** find the best pair of variants, the first variant being at index >= 'startIndex'. Returns null if there is no pair */
+	Hit findBestPair(final int startIndex,final ForkJoinPool pool) {
+		if(this.rowScores==null) computeScores();
+		if(startIndex + 1 >= this.nVariants) return null;
+		return pool.invoke(new ScanTask(Math.max(0, startIndex), this.nVariants - 1));
+		}
+	}
@@ -26,6 +26,7 @@ SOFTWARE.
 package com.github.lindenb.jvarkit.tools.epistasis;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -34,6 +35,7 @@ import java.util.Map;
 import java.util.Vector;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
@@ -41,6 +43,7 @@ import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.tools.vcflist.MappedVcfFileList;
 import com.github.lindenb.jvarkit.tools.vcflist.VcfList;
 import com.github.lindenb.jvarkit.tools.vcflist.VcfOffsetsIndexFactory;
 import com.github.lindenb.jvarkit.util.Pedigree;
@@ -49,7 +52,6 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.vcf.JexlVariantPredicate;
 
 import htsjdk.samtools.util.CloseableIterator;
-import htsjdk.samtools.util.CloserUtil;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.VariantContext;
@@ -73,6 +75,12 @@ public class VcfEpistatis01 extends Launcher {
 	private File pedigreeFile = null;
 	@Parameter(names={"--memory"},description="Load all variants in memory")
 	private  boolean load_variants_in_memory=false;
+	@Parameter(names={"--mmap"},description="Memory-map the VCF and its index. The VCF is opened once and shared by all the jobs. For BGZF-compressed VCF, keep this number of decoded blocks in a cache. Ignored if <=0 or if variants are loaded in memory.")
+	private  int mmap_block_cache_size = -1;
+	@Parameter(names={"--variant-cache"},description="When '--mmap' is used, keep this number of decoded variants in a cache shared by all the jobs.")
+	private  int mmap_variant_cache_size = 1_000;
+	@Parameter(names={"--matrix"},description="Convert the VCF once into a compact matrix of ALT-allele dosages for the cases and the controls, and score all the pairs of variants in memory using '--jobs' threads. Other options '--memory' and '--mmap' are ignored.")
+	private  boolean use_dosage_matrix = false;
 	@Parameter(names={"-j","--jobs"},description="Number of parallel jobs.")
 	private  int number_of_jobs =1;
 	@Parameter(names={"-start","--start"},description="Specify start index in variant list. (for parallelisation)")
@@ -136,16 +144,20 @@ public class VcfEpistatis01 extends Launcher {
 		private final int caseIndexes[];
 		private final int ctrlIndexes[];
 		private final int startIndex;
+		/** true if the variants are owned by this runner and must be closed at the end */
+		private final boolean closeVariants;
 		private Result result = null;
 		private long duration=0L;
 		Runner(
 				final List<VariantContext> variants,
+				final boolean closeVariants,
 				final int startIndex,
 				final int[] caseIndexes,
 				final int[] ctrlIndexes
 				)
 			{
 			this.variants = variants;
+			this.closeVariants = closeVariants;
 			this.startIndex = startIndex;
 			this.caseIndexes = caseIndexes;
 			this.ctrlIndexes = ctrlIndexes;
@@ -202,9 +214,10 @@ public class VcfEpistatis01 extends Launcher {
 					}
 				i++;
 				}
-			if(this.variants instanceof VcfList)
+			if(this.closeVariants && this.variants instanceof VcfList)
 				{
-				CloserUtil.close(VcfList.class.cast(this.variants));
+				/* don't use CloserUtil.close(List) : it would close the items, not the list */
+				VcfList.class.cast(this.variants).close();
 				}
 			this.duration = System.currentTimeMillis() - startup;
 			LOG.info("index ["+startIndex+"] That took "+(duration/1000f)+" seconds.");
@@ -217,12 +230,91 @@ public class VcfEpistatis01 extends Launcher {
 		}
 	
 	
+	private void writeResult(final VCFHeader header,final Result bestResult) throws IOException {
+		if(this.output_score) {
+			final PrintWriter pw = super.openFileOrStdoutAsPrintWriter(this.outputFile);
+			pw.println(bestResult.score+ "\t"+bestResult.toString());
+			pw.flush();
+			pw.close();
+			}
+		else
+			{
+			final VariantContextWriter w = openVariantContextWriter(this.outputFile);
+			final VCFHeader header2= new VCFHeader(header);
+			header2.addMetaDataLine(new VCFHeaderLine(VcfEpistatis01.class.getName(),bestResult.toString()));
+			w.writeHeader(header2);
+			w.add(bestResult.ctx1);
+			w.add(bestResult.ctx2);
+			w.close();
+			}
+		}
+	
+	private static Allele getAltAllele(final VariantContext ctx,int altIndex) {
+		for(final Allele a: ctx.getAlleles()) {
+			if(a.isReference()) continue;
+			if(altIndex==0) return a;
+			altIndex--;
+			}
+		throw new IllegalStateException("cannot find alt allele in "+ctx);
+		}
+	
+	/** load the VCF into a DosageMatrix and find the best pair of variants */
+	private int scanDosageMatrix(final VCFFileReader vcfFileReader,final VCFHeader header,final int caseIndexes[],final int ctrlIndexes[]) throws IOException {
+		LOG.info("loading dosage matrix");
+		final DosageMatrix matrix = new DosageMatrix(caseIndexes, ctrlIndexes);
+		try(final CloseableIterator<VariantContext> iter=vcfFileReader.iterator()) {
+			while(iter.hasNext()) {
+				final VariantContext ctx = iter.next();
+				if(!this.variantFilter.test(ctx)) continue;
+				matrix.add(ctx);
+				}
+			}
+		LOG.info("Number of variants: "+matrix.getVariantCount());
+		final long startup = System.currentTimeMillis();
+		final ForkJoinPool pool = new ForkJoinPool(this.number_of_jobs);
+		final DosageMatrix.Hit hit;
+		try {
+			hit = matrix.findBestPair(this.start_index_at, pool);
+			}
+		finally
+			{
+			pool.shutdown();
+			}
+		LOG.info("That took "+((System.currentTimeMillis()-startup)/1000f)+" seconds.");
+		if(hit==null) return 0;
+		
+		/* second pass, fetch the two variants */
+		VariantContext ctx1 = null;
+		VariantContext ctx2 = null;
+		try(final CloseableIterator<VariantContext> iter=vcfFileReader.iterator()) {
+			int index = 0;
+			while(iter.hasNext() && ctx2==null) {
+				final VariantContext ctx = iter.next();
+				if(!this.variantFilter.test(ctx)) continue;
+				if(index==hit.variant1) ctx1 = ctx;
+				if(index==hit.variant2) ctx2 = ctx;
+				index++;
+				}
+			}
+		if(ctx1==null || ctx2==null) throw new IllegalStateException("cannot find variants "+hit.variant1+"/"+hit.variant2);
+		final Result bestResult = new Result(
+				ctx1,getAltAllele(ctx1,hit.alt1),hit.variant1,
+				ctx2,getAltAllele(ctx2,hit.alt2),hit.variant2,
+				hit.score
+				);
+		writeResult(header,bestResult);
+		LOG.info("best: "+bestResult);
+		return 0;
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {
 		if(this.number_of_jobs<1) {
 			LOG.error("bad number of jobs");
 			return -1;
 			}
+		MappedVcfFileList sharedVariants = null;
+		ExecutorService execSvc = null;
 		try
 			{
 			final int variantsCount;
@@ -276,6 +368,12 @@ public class VcfEpistatis01 extends Launcher {
 					}
 
 			
+			if(this.use_dosage_matrix) {
+				final int ret = scanDosageMatrix(vcfFileReader,header,caseIndexes,ctrlIndexes);
+				vcfFileReader.close();
+				return ret;
+				}
+			
 			if(this.load_variants_in_memory) {
 				LOG.info("loading variants in memory");
 				tmpIndexFile = null;
@@ -307,6 +405,13 @@ public class VcfEpistatis01 extends Launcher {
 			vcfFileReader.close();
 			LOG.info("Number of variants: "+variantsCount);
 			
+			if(inMemoryVariants==null && this.mmap_block_cache_size>0) {
+				sharedVariants = VcfList.mapFile(vcfFile,tmpIndexFile,this.mmap_block_cache_size,Math.max(0,this.mmap_variant_cache_size));
+				}
+			if(this.number_of_jobs>1)
+				{
+				execSvc = Executors.newFixedThreadPool(this.number_of_jobs);
+				}
 			
 			Result bestResult =null;
 			int x= this.start_index_at;
@@ -316,28 +421,28 @@ public class VcfEpistatis01 extends Launcher {
 				while(x+1 < variantsCount && runners.size() < this.number_of_jobs)
 					{
 					LOG.info("starting "+x+"/"+variantsCount);
+					final List<VariantContext> runnerVariants;
+					if(inMemoryVariants != null) {
+						runnerVariants = new Vector<>(inMemoryVariants);
+						}
+					else if(sharedVariants != null) {
+						runnerVariants = sharedVariants;
+						}
+					else
+						{
+						runnerVariants = VcfList.fromFile(vcfFile,tmpIndexFile);
+						}
 					runners.add(new Runner(
-							inMemoryVariants == null? 
-									VcfList.fromFile(vcfFile,tmpIndexFile):
-									new Vector<>(inMemoryVariants)
-							,x,
+							runnerVariants,
+							runnerVariants != sharedVariants,
+							x,
 							caseIndexes,
 							ctrlIndexes
 							)
 							);
 					++x;
 					}
-				final ExecutorService execSvc;
-				if(this.number_of_jobs==1)
-					{
-					execSvc = null;
-					}
-				else
-					{
-					execSvc = Executors.newFixedThreadPool(this.number_of_jobs);;
-					}
-
-				if(this.number_of_jobs==1)
+				if(execSvc==null)
 					{
 					runners.get(0).call();
 					}
@@ -346,11 +451,6 @@ public class VcfEpistatis01 extends Launcher {
 					execSvc.invokeAll(runners);
 					}
 					
-				if(execSvc!=null) {
-					execSvc.shutdown();
-					execSvc.awaitTermination(10000L, TimeUnit.DAYS);
-					execSvc.shutdownNow();
-				}
 				runners.stream().mapToLong(R->R.duration).min().ifPresent(D->{
 					LOG.info("That took "+ (D/1000f)+" seconds.");
 					});
@@ -363,27 +463,22 @@ public class VcfEpistatis01 extends Launcher {
 					if(bestResult==null || bestResult.score<rez.score)
 						{
 						bestResult =rez;
-						
-						if(this.output_score) {
-							final PrintWriter pw = super.openFileOrStdoutAsPrintWriter(this.outputFile);
-							pw.println(bestResult.score+ "\t"+bestResult.toString());
-							pw.flush();
-							pw.close();
-							}
-						else
-							{
-							final VariantContextWriter w = openVariantContextWriter(this.outputFile);
-							final VCFHeader header2= new VCFHeader(header);
-							header2.addMetaDataLine(new VCFHeaderLine(VcfEpistatis01.class.getName(),bestResult.toString()));
-							w.writeHeader(header2);
-							w.add(bestResult.ctx1);
-							w.add(bestResult.ctx2);
-							w.close();
-							}
+						writeResult(header,bestResult);
 						}
 					}
 				LOG.info("best: "+bestResult);
 				}
+			if(execSvc!=null) {
+				execSvc.shutdown();
+				execSvc.awaitTermination(10000L, TimeUnit.DAYS);
+				execSvc.shutdownNow();
+				execSvc = null;
+				}
+			if(sharedVariants!=null) {
+				LOG.info(sharedVariants.toString());
+				sharedVariants.close();
+				sharedVariants = null;
+				}
 			if(tmpIndexFile!=null) tmpIndexFile.delete();
 			
 			return 0;
@@ -396,6 +491,8 @@ public class VcfEpistatis01 extends Launcher {
 			}
 		finally
 			{
+			if(execSvc!=null) execSvc.shutdownNow();
+			if(sharedVariants!=null) try { sharedVariants.close();} catch(final IOException err) {LOG.warn(err);}
 			}
 		}
 	 	
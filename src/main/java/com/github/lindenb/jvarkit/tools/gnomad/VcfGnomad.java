@@ -34,9 +34,12 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -64,6 +67,7 @@ import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.vcf.AbstractVCFCodec;
 import htsjdk.variant.vcf.VCFConstants;
 import htsjdk.variant.vcf.VCFFilterHeaderLine;
 import htsjdk.variant.vcf.VCFHeader;
@@ -118,8 +122,19 @@ var genome="/commun/data/pubdb/broadinstitute.org/gnomad/release-170228/vcf/geno
 out.print("$(if $(realpath "+genome+"), --resource:gnomad_genome  "+genome+"  $(foreach A,${GFIELDS}, -E gnomad_genome.${A} ) )");
 ```
 
+## Sorted input
+
+When the input VCF is sorted (the variants of a contig are grouped and sorted on their position), option `--sorted`
+reads the gnomad file sequentially alongside the input instead of doing a random access for each window of `--bufferSize` bases.
+The gnomad data are read and decoded by a background thread and only the INFO fields that are not excluded by `--exclude` are decoded.
+
+```
+$ java -jar dist/vcfgnomad.jar --sorted -m gnomad.manifest input.sorted.vcf.gz
+```
+
 ## History
 
+  * 20261017 : option `--sorted`
   * 20181214 : keep gnomad FILTERs
   * 20181127 : rewritten for gnomad 2.1
 
@@ -128,7 +143,7 @@ END_DOC
 @Program(name="vcfgnomad",
 	description="Peek annotations from gnomad",
 	keywords={"vcf","annotation","gnomad"},
-	modificationDate="20190308"
+	modificationDate="20261017"
 )
 public class VcfGnomad extends Launcher{
 	
@@ -170,6 +185,11 @@ public class VcfGnomad extends Launcher{
 	private boolean alleleNumber_is_integer = false;
 	@Parameter(names={"--ignore-error0"},description="[20190429] ignore error when gnomad/INFO is found twice for the same position. I found the error after a liftover to hg38. see https://twitter.com/yokofakun/status/1122814203381858305")
 	private boolean ignore_info_found_twice = false;
+	@Parameter(names={"--sorted"},description="[20261017] The input is sorted: the variants of a contig are grouped and sorted on their position. Read gnomad sequentially alongside the input with a read-ahead thread instead of doing random accesses. Only the INFO fields that are not excluded are decoded.")
+	private boolean input_is_sorted = false;
+	
+	/** number of gnomad variants passed at once by the read-ahead thread */
+	private static final int STREAM_BATCH_SIZE = 1_000;
 	
 	/** entries mapping chromosome/type->vcf.gz */
 	private List<ManifestEntry> manifestEntries=new ArrayList<>();
@@ -190,9 +210,15 @@ public class VcfGnomad extends Launcher{
 		final List<VariantContext> buffer = new ArrayList<>();
 		/** convert to gnomad notation. Since I lift overred the VCF to hg38 */
 		private ContigNameConverter ctgNameConverter = ContigNameConverter.getIdentity();
+		/** when the input is sorted: gnomad INFO fields to be decoded */
+		private Set<String> infoToKeep = Collections.emptySet();
+		/** when the input is sorted: reads the current contig */
+		private GnomadStream stream = null;
 		
 		@Override
 		public void close() {
+			CloserUtil.close(this.stream);
+			this.stream = null;
 			CloserUtil.close(this.gnomad_tabix);
 			this.buffer.clear();
 			this.lastInterval =  null;
@@ -231,6 +257,7 @@ public class VcfGnomad extends Launcher{
 			{
 			if(!acceptContig(userVariantCtx.getContig())) return Collections.emptyList();
 			final String normContig = this.normalizeContig(userVariantCtx.getContig());
+			if(VcfGnomad.this.input_is_sorted) return findOverlappingSorted(normContig, userVariantCtx);
 			
 			if(this.lastInterval==null ||
 				!this.lastInterval.getContig().equals(normContig) ||
@@ -263,6 +290,144 @@ public class VcfGnomad extends Launcher{
 					collect(Collectors.toList());
 			}
 		
+		/** find matching variant when the input is sorted, the gnomad variants are read sequentially */
+		private List<VariantContext> findOverlappingSorted(final String normContig,final VariantContext userVariantCtx)
+			{
+			if(this.stream==null || !this.stream.contig.equals(normContig))
+				{
+				CloserUtil.close(this.stream);
+				this.buffer.clear();
+				this.stream = new GnomadStream(this.gnomad_tabix, normContig, this.infoToKeep);
+				}
+			// the buffer contains the variants starting before the end of the user variant
+			for(;;)
+				{
+				final VariantContext ctx = this.stream.peek();
+				if(ctx==null || ctx.getStart() > userVariantCtx.getEnd()) break;
+				this.buffer.add(this.stream.next());
+				}
+			// the input is sorted: a variant ending before the user variant will never be found again
+			this.buffer.removeIf(V->V.getEnd() < userVariantCtx.getStart());
+			return this.buffer.stream().
+					filter(V->CoordMath.overlaps(V.getStart(), V.getEnd(), userVariantCtx.getStart(), userVariantCtx.getEnd())).
+					collect(Collectors.toList());
+			}
+		}
+	
+	/** reads and decodes the gnomad variants of one contig in a background thread */
+	private class GnomadStream
+	implements Closeable
+		{
+		final String contig;
+		private final BlockingQueue<List<VariantContext>> queue = new ArrayBlockingQueue<>(10);
+		private final Thread thread;
+		private volatile boolean closed = false;
+		private volatile Throwable error = null;
+		private LinkedList<VariantContext> current = new LinkedList<>();
+		private boolean done = false;
+		
+		GnomadStream(final TabixVcfFileReader tabix,final String contig,final Set<String> infoToKeep) {
+			this.contig = contig;
+			final AbstractVCFCodec codec = tabix.getCodec();
+			final Iterator<String> lines = tabix.lineIterator(contig);
+			this.thread = new Thread(()->{
+				try {
+					List<VariantContext> batch = new ArrayList<>(STREAM_BATCH_SIZE);
+					while(!this.closed && lines.hasNext()) {
+						final VariantContext ctx = codec.decode(trimInfo(lines.next(), infoToKeep));
+						if( VcfGnomad.this.filteredGnomad && ctx.isFiltered()) continue;
+						if( VcfGnomad.this.noMultiAltGnomad && ctx.getAlternateAlleles().size()>1) continue;
+						batch.add(ctx);
+						if(batch.size()>=STREAM_BATCH_SIZE) {
+							this.queue.put(batch);
+							batch = new ArrayList<>(STREAM_BATCH_SIZE);
+							}
+						}
+					if(!batch.isEmpty()) this.queue.put(batch);
+					}
+				catch(final InterruptedException err) {
+					return;
+					}
+				catch(final Throwable err) {
+					this.error = err;
+					}
+				try {
+					/* empty list is the end of the stream */
+					this.queue.put(Collections.emptyList());
+					}
+				catch(final InterruptedException err) {
+					}
+				},"gnomad-"+contig);
+			this.thread.setDaemon(true);
+			this.thread.start();
+			}
+		
+		/** returns the next variant without consuming it or null at the end of the contig */
+		VariantContext peek() {
+			while(this.current.isEmpty() && !this.done) {
+				final List<VariantContext> batch;
+				try {
+					batch = this.queue.take();
+					}
+				catch(final InterruptedException err) {
+					throw new RuntimeException(err);
+					}
+				if(batch.isEmpty()) {
+					this.done = true;
+					if(this.error!=null) throw new RuntimeException("Cannot read "+this.contig,this.error);
+					}
+				this.current.addAll(batch);
+				}
+			return this.current.peekFirst();
+			}
+		
+		VariantContext next() {
+			peek();
+			return this.current.pollFirst();
+			}
+		
+		@Override
+		public void close() {
+			this.closed = true;
+			this.thread.interrupt();
+			try {
+				this.thread.join();
+				}
+			catch(final InterruptedException err) {
+				}
+			this.queue.clear();
+			this.current.clear();
+			}
+		}
+	
+	/** removes the INFO fields that are not used and the columns after INFO */
+	private static String trimInfo(final String line,final Set<String> infoToKeep) {
+		int tab = -1;
+		for(int i=0;i< 7;++i) {
+			tab = line.indexOf('\t', tab+1);
+			if(tab==-1) return line;
+			}
+		int infoEnd = line.indexOf('\t', tab+1);
+		if(infoEnd==-1) infoEnd = line.length();
+		final StringBuilder sb = new StringBuilder(line.length());
+		sb.append(line, 0, tab+1);
+		boolean first = true;
+		int start = tab+1;
+		while(start < infoEnd) {
+			int end = line.indexOf(';', start);
+			if(end==-1 || end > infoEnd) end = infoEnd;
+			int keyEnd = line.indexOf('=', start);
+			if(keyEnd==-1 || keyEnd > end) keyEnd = end;
+			final String key = line.substring(start, keyEnd);
+			if(key.equals(VCFConstants.END_KEY) || infoToKeep.contains(key)) {
+				if(!first) sb.append(';');
+				sb.append(line, start, end);
+				first = false;
+				}
+			start = end+1;
+			}
+		if(first) sb.append(VCFConstants.EMPTY_INFO_FIELD);
+		return sb.toString();
 		}
 	
 	
@@ -466,9 +631,27 @@ public class VcfGnomad extends Launcher{
 		out.writeHeader(h2);
 		
 		final ManifestEntry om2manifest[] = new ManifestEntry[]{null,null};
+		final Set<String> contigs_seen = new HashSet<>();
+		VariantContext prevCtx = null;
 		while(iter.hasNext()) {
 			final VariantContext ctx = progress.apply(iter.next());
 			
+			if(this.input_is_sorted) {
+				if(prevCtx==null || !prevCtx.getContig().equals(ctx.getContig())) {
+					if(!contigs_seen.add(ctx.getContig())) {
+						LOG.error("Input is not sorted: contig "+ctx.getContig()+" was already seen. Don't use --sorted.");
+						progress.close();
+						return -1;
+						}
+					}
+				else if(prevCtx.getStart() > ctx.getStart()) {
+					LOG.error("Input is not sorted: "+ctx.getContig()+":"+ctx.getStart()+" after "+prevCtx.getContig()+":"+prevCtx.getStart()+". Don't use --sorted.");
+					progress.close();
+					return -1;
+					}
+				prevCtx = ctx;
+				}
+			
 			final Set<String> filters = new HashSet<>(ctx.getFilters());
 			final VariantContextBuilder vcb = new VariantContextBuilder(ctx);
 
@@ -515,6 +698,10 @@ public class VcfGnomad extends Launcher{
 					if(om2manifest[omeIndex]==null) continue;
 					LOG.debug("Opening "+om2manifest[omeIndex].uri);
 					om2manifest[omeIndex].open();
+					om2manifest[omeIndex].infoToKeep = infoFields.stream().
+							filter(F->F.ome.equals(omeType)).
+							map(F->F.original.getID()).
+							collect(Collectors.toSet());
 					}
 				// variant overlapping 'ctx'
 				final List<VariantContext> overlappingVariants = om2manifest[omeIndex].findOverlapping(ctx);
@@ -24,17 +24,28 @@ package com.github.lindenb.jvarkit.tools.gvcf;
 
 import java.io.Closeable;
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParametersDelegate;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.lang.SmartComparator;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
@@ -42,9 +53,11 @@ import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.samtools.ContigDictComparator;
 import com.github.lindenb.jvarkit.util.vcf.ContigPosRef;
+import com.github.lindenb.jvarkit.util.vcf.VCFBuffer;
 import com.github.lindenb.jvarkit.util.vcf.VariantAttributesRecalculator;
 
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
@@ -59,6 +72,7 @@ import htsjdk.variant.vcf.VCFConstants;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderLine;
+import htsjdk.variant.vcf.VCFIterator;
 import htsjdk.variant.vcf.VCFStandardHeaderLines;
 
 
@@ -71,6 +85,10 @@ public class FastGenotypeGVCFs extends Launcher {
 	private static final Logger LOG = Logger.build(FastGenotypeGVCFs.class).make();
 	@Parameter(names={"-o","--output"},description=OPT_OUPUT_FILE_OR_STDOUT)
 	private File outputFile = null;
+	@Parameter(names={"--threads"},description="Number of threads. If greater than 1, each contig is genotyped by its own thread. The gvcf files must be indexed. Each thread opens all the gvcf files once.")
+	private int nThreads = 1;
+	@ParametersDelegate
+	private WritingSortingCollection writingSortingCollection=new WritingSortingCollection();
 
 	
 	
@@ -79,14 +97,45 @@ public class FastGenotypeGVCFs extends Launcher {
 		{
 		private final File gvcfFile;
 		private final VCFFileReader vcfFileReader;
+		/** false if the reader is shared with the other contigs of a worker thread */
+		private final boolean ownsReader;
 		private final CloseableIterator<VariantContext> iter;
-		private final List<VariantContext> buffer = new ArrayList<>();
+		private final Deque<VariantContext> buffer = new ArrayDeque<>();
 		private final List<String> samples;
+		/** genotypes for a no-call, they're immutable so they can be reused */
+		private final List<Genotype> noCallGenotypes;
+		/** first variant in the buffer, null if it must be searched again */
+		private ContigPosRef firstVariant = null;
+		/** key of this source in the priority queue */
+		private ContigPosRef queueKey = null;
+		/** last hom-ref block used to build genotypes */
+		private VariantContext homRefBlock = null;
+		/** genotypes built for 'homRefBlock', indexed by reference allele */
+		private final Map<Allele, List<Genotype>> homRefGenotypes = new HashMap<>();
+		
 		GVCFVariantIterator(final File vcf) {
+			this(vcf,null);
+			}
+		/** if contig is not null, only this contig will be scanned using the vcf index */
+		GVCFVariantIterator(final File vcf,final SAMSequenceRecord contig) {
+			this(vcf,new VCFFileReader(vcf,contig!=null),true,contig);
+			}
+		/** scan 'contig' with a reader owned by the caller: the reader is not closed by this iterator */
+		GVCFVariantIterator(final File vcf,final VCFFileReader reader,final SAMSequenceRecord contig) {
+			this(vcf,reader,false,contig);
+			}
+		private GVCFVariantIterator(final File vcf,final VCFFileReader reader,final boolean ownsReader,final SAMSequenceRecord contig) {
 			this.gvcfFile = vcf;
-			this.vcfFileReader = new VCFFileReader(vcf,false);
-			this.iter = this.vcfFileReader.iterator();
+			this.vcfFileReader = reader;
+			this.ownsReader = ownsReader;
+			this.iter = (contig==null?
+					this.vcfFileReader.iterator():
+					this.vcfFileReader.query(contig.getSequenceName(), 1, contig.getSequenceLength())
+					);
 			this.samples = this.vcfFileReader.getFileHeader().getSampleNamesInOrder();
+			this.noCallGenotypes = Collections.unmodifiableList(this.samples.stream().
+					map(S->GenotypeBuilder.createMissing(S, 2)).
+					collect(Collectors.toList()));
 			}
 		
 		String getSource() {
@@ -96,7 +145,7 @@ public class FastGenotypeGVCFs extends Launcher {
 		@Override
 		public void close() {
 			CloserUtil.close(this.iter);
-			CloserUtil.close(this.vcfFileReader);
+			if(this.ownsReader) CloserUtil.close(this.vcfFileReader);
 			}
 		
 		private VariantContext cleanup(final VariantContext ctx) {
@@ -109,17 +158,21 @@ public class FastGenotypeGVCFs extends Launcher {
 			}
 		
 		ContigPosRef lookup() {
-			for(int i=0;i< this.buffer.size();++i)
+			if(this.firstVariant!=null) return this.firstVariant;
+			for(final VariantContext vc: this.buffer)
 				{
-				final VariantContext vc = this.buffer.get(i);
 				if(!isVariant(vc)) continue;
-				return new ContigPosRef(vc);
+				this.firstVariant = new ContigPosRef(vc);
+				return this.firstVariant;
 				}
 			while(this.iter.hasNext())
 				{
 				final VariantContext vc =  this.iter.next();
 				this.buffer.add(cleanup(vc));
-				if(isVariant(vc)) return new ContigPosRef(vc);
+				if(isVariant(vc)) {
+					this.firstVariant = new ContigPosRef(vc);
+					return this.firstVariant;
+					}
 				}
 			return null;
 			}
@@ -132,22 +185,42 @@ public class FastGenotypeGVCFs extends Launcher {
 					lookedUp.getEnd(), 
 					Collections.singletonList(lookedUp.getReference())
 					);
-			vcb.genotypes(this.samples.stream().
-				map(S->GenotypeBuilder.createMissing(S, 2)).
-				collect(Collectors.toList()));
+			vcb.genotypes(this.noCallGenotypes);
 			return vcb.make();
 			}
 		
+		/** remove the current item of the buffer */
+		private void remove(final Iterator<VariantContext> it,final VariantContext vc) {
+			it.remove();
+			if(isVariant(vc)) this.firstVariant = null;
+			}
+		
+		/** build the genotypes of hom-ref block for the given reference allele */
+		private List<Genotype> makeHomRefGenotypes(final VariantContext vc,final Allele ref) {
+			final List<Genotype> genotypes= new ArrayList<>(this.samples.size());
+			for(final Genotype gt:vc.getGenotypes())
+				{
+				final List<Allele> alleles = new ArrayList<>(gt.getPloidy());
+				for(final Allele a:gt.getAlleles()) alleles.add(a.isReference()?ref:a);
+				final GenotypeBuilder gb = new GenotypeBuilder(gt.getSampleName(),alleles);
+				if(gt.hasAD()) gb.AD(gt.getAD());
+				if(gt.hasDP()) gb.DP(gt.getDP());
+				if(gt.hasGQ()) gb.GQ(gt.getGQ());
+				if(gt.hasPL()) gb.PL(gt.getPL());
+				genotypes.add(gb.make());
+				}
+			return Collections.unmodifiableList(genotypes);
+			}
 		
 		VariantContext next(final ContigPosRef lookedUp) {
-			int i=0;
-			while(i< buffer.size())
+			final Iterator<VariantContext> it = this.buffer.iterator();
+			while(it.hasNext())
 				{
-				final VariantContext vc = this.buffer.get(i);
+				final VariantContext vc = it.next();
 				int diff = FastGenotypeGVCFs.this.contigComparator.compare(vc.getContig(), lookedUp.getContig());
 				if(diff < 0) {
 					//LOG.debug("remove "+vc+" for "+lookedUp);
-					this.buffer.remove(i);
+					remove(it,vc);
 					continue;
 					}
 				else if(diff>0)
@@ -159,7 +232,7 @@ public class FastGenotypeGVCFs extends Launcher {
 				if(vc.getEnd()<lookedUp.getStart())
 					{
 					//LOG.debug("remove2 "+vc+" for "+lookedUp);
-					this.buffer.remove(i);
+					remove(it,vc);
 					continue;
 					}
 				
@@ -180,20 +253,16 @@ public class FastGenotypeGVCFs extends Launcher {
 								lookedUp.getEnd(), 
 								Collections.singletonList(lookedUp.getReference())
 								);
-						final List<Genotype> genotypes= new ArrayList<>(this.samples.size());
-						for(final Genotype gt:vc.getGenotypes())
-							{
-							
-							final GenotypeBuilder gb = new GenotypeBuilder(gt.getSampleName(),
-									gt.getAlleles().stream().map(A->A.isReference()?lookedUp.getReference():A).collect(Collectors.toList())
-									);
-							if(gt.hasAD()) gb.AD(gt.getAD());
-							if(gt.hasDP()) gb.DP(gt.getDP());
-							if(gt.hasGQ()) gb.GQ(gt.getGQ());
-							if(gt.hasPL()) gb.PL(gt.getPL());
-							genotypes.add(gb.make());
+						/* a hom-ref block overlaps many sites, genotypes are reused for the same reference allele */
+						if(vc!=this.homRefBlock) {
+							this.homRefBlock = vc;
+							this.homRefGenotypes.clear();
+							}
+						List<Genotype> genotypes = this.homRefGenotypes.get(lookedUp.getReference());
+						if(genotypes==null) {
+							genotypes = makeHomRefGenotypes(vc,lookedUp.getReference());
+							this.homRefGenotypes.put(lookedUp.getReference(), genotypes);
 							}
-						
 						vcb.genotypes(genotypes);
 						return vcb.make();
 						}
@@ -213,7 +282,6 @@ public class FastGenotypeGVCFs extends Launcher {
 					if(!vc.getReference().equals(lookedUp.getReference()))
 						{
 						//LOG.debug("skip "+vc+" for "+lookedUp);
-						i++;
 						continue;
 						}
 					if(vc.getStart()!=lookedUp.getPos())
@@ -240,7 +308,7 @@ public class FastGenotypeGVCFs extends Launcher {
 							collect(Collectors.toList())
 							)
 							;
-					this.buffer.remove(i);
+					remove(it,vc);
 					return vcb.make();
 					}
 				}
@@ -261,7 +329,142 @@ public class FastGenotypeGVCFs extends Launcher {
 		return S1.getReference().compareTo(S2.getReference());
 		};
 
-		
+	/** k-way merge of the gvcf sources, genotyped variants are written to 'w' */
+	private void genotype(final List<GVCFVariantIterator> gvcfSources,final VariantAttributesRecalculator attCalc,final VariantContextWriter w) {
+		final Comparator<GVCFVariantIterator> queueComparator = (A,B)->contigPosRefComparator.compare(A.queueKey, B.queueKey);
+		final PriorityQueue<GVCFVariantIterator> queue = new PriorityQueue<>(Math.max(1, gvcfSources.size()),queueComparator);
+		for(final GVCFVariantIterator it:gvcfSources)
+			{
+			it.queueKey = it.lookup();
+			if(it.queueKey!=null) queue.add(it);
+			}
+		final List<GVCFVariantIterator> requeue = new ArrayList<>();
+		while(!queue.isEmpty())
+			{
+			String id = null;
+			final ContigPosRef next = queue.peek().queueKey;
+			final Set<Allele> alleles = new HashSet<>();
+			final List<Genotype> genotypes = new ArrayList<>();
+			alleles.add(next.getReference());
+			for(final GVCFVariantIterator it:gvcfSources)
+				{
+				final VariantContext vc = it.next(next);
+				Objects.requireNonNull(vc, "vc is null");
+				if(vc.hasID()) id=vc.getID();
+				for(final Genotype g:vc.getGenotypes())
+					{
+					for(final Allele a:g.getAlleles())
+						{
+						if(a.isCalled()) alleles.add(a);
+						}
+					genotypes.add(g);
+					}
+				}
+			/* only the sources whose first variant was 'next' may have moved */
+			while(!queue.isEmpty() && contigPosRefComparator.compare(queue.peek().queueKey, next)==0)
+				{
+				requeue.add(queue.poll());
+				}
+			for(final GVCFVariantIterator it:requeue)
+				{
+				it.queueKey = it.lookup();
+				if(it.queueKey!=null) queue.add(it);
+				}
+			requeue.clear();
+			
+			if(alleles.size()<2) continue;
+			
+			final VariantContextBuilder vcb = new VariantContextBuilder(
+					null,
+					next.getContig(), 
+					next.getStart(),
+					next.getEnd(), 
+					alleles
+					);
+			if(id!=null) vcb.id(id);
+			vcb.genotypes(genotypes);
+			w.add(attCalc.apply(vcb.make()));
+			}
+		}
+	
+	/** genotype each contig in its own thread, the variants are buffered and written in the dictionary order.
+	 * Each worker thread opens the gvcf files once and reuses its readers for all its contigs,
+	 * at most 'nThreads' contigs are in flight so the finished buffers don't pile up on disk */
+	private void genotypeParallel(final List<File> gvcfFiles,final VCFHeader header,final VariantAttributesRecalculator attCalc,final VariantContextWriter w) throws Exception {
+		final List<VCFFileReader> allReaders = Collections.synchronizedList(new ArrayList<>());
+		final ThreadLocal<List<VCFFileReader>> threadReaders = ThreadLocal.withInitial(()->{
+			final List<VCFFileReader> readers = new ArrayList<>(gvcfFiles.size());
+			for(final File f:gvcfFiles) {
+				final VCFFileReader r = new VCFFileReader(f,true);
+				allReaders.add(r);
+				readers.add(r);
+				}
+			return readers;
+			});
+		final ExecutorService executorService = Executors.newFixedThreadPool(this.nThreads);
+		/* contigs in the dictionary order */
+		final Deque<Future<VCFBuffer>> pending = new ArrayDeque<>(this.nThreads);
+		try {
+			for(final SAMSequenceRecord ssr: this.dictionary.getSequences())
+				{
+				while(pending.size() >= this.nThreads) {
+					writeBuffer(pending.removeFirst().get(),w);
+					}
+				pending.add(executorService.submit(()->{
+					final List<VCFFileReader> readers = threadReaders.get();
+					final List<GVCFVariantIterator> sources = new ArrayList<>(gvcfFiles.size());
+					final VCFBuffer buffer = new VCFBuffer(
+							this.writingSortingCollection.getMaxRecordsInRam(),
+							this.writingSortingCollection.getTmpDirectories().get(0)
+							);
+					try {
+						for(int i=0;i< gvcfFiles.size();i++) sources.add(new GVCFVariantIterator(gvcfFiles.get(i),readers.get(i),ssr));
+						buffer.writeHeader(header);
+						genotype(sources,attCalc,buffer);
+						buffer.close();
+						return buffer;
+						}
+					catch(final Throwable err)
+						{
+						buffer.dispose();
+						throw err;
+						}
+					finally
+						{
+						for(final GVCFVariantIterator src:sources) src.close();
+						}
+					}));
+				}
+			while(!pending.isEmpty()) {
+				writeBuffer(pending.removeFirst().get(),w);
+				}
+			}
+		finally
+			{
+			executorService.shutdownNow();
+			executorService.awaitTermination(1L, TimeUnit.MINUTES);
+			/* the tasks that were not consumed */
+			for(final Future<VCFBuffer> future:pending)
+				{
+				if(!future.isDone() || future.isCancelled()) continue;
+				try { future.get().dispose();}
+				catch(final Exception err) {/* ignore */}
+				}
+			allReaders.forEach(CloserUtil::close);
+			}
+		}
+	
+	/** write the variants of a finished contig and delete its buffer */
+	private void writeBuffer(final VCFBuffer buffer,final VariantContextWriter w) {
+		try(VCFIterator iter = buffer.iterator()) {
+			while(iter.hasNext()) w.add(iter.next());
+			}
+		finally
+			{
+			buffer.dispose();
+			}
+		}
+	
 	
 	@Override
 	public int doWork(final List<String> args) {
@@ -326,54 +529,17 @@ public class FastGenotypeGVCFs extends Launcher {
 			w= super.openVariantContextWriter(outputFile);
 			w.writeHeader(header);
 			
-			for(;;)
+			if(this.nThreads>1)
 				{
-				String id = null;
-				ContigPosRef next = null;
-				for(GVCFVariantIterator it:gvcfSources)
-					{
-					ContigPosRef cpr = it.lookup();
-					if(cpr==null) continue;
-					if(next==null || contigPosRefComparator.compare(cpr, next)<0)
-						{
-						next = cpr;
-						}
-					}
-				if(next==null) break;
-				final Set<Allele> alleles = new HashSet<>();
-				final List<Genotype> genotypes = new ArrayList<>();
-				alleles.add(next.getReference());
-				for(final GVCFVariantIterator it:gvcfSources)
-					{
-					final VariantContext vc = it.next(next);
-					if(vc.hasID()) id=vc.getID();
-					Objects.requireNonNull(vc, "vc is null");
-					alleles.addAll(
-							vc.getGenotypes().
-								stream().
-								flatMap(G->G.getAlleles().stream()).
-								filter(A->A.isCalled()).
-								collect(Collectors.toSet())
-								);
-					genotypes.addAll(vc.getGenotypes());
-					}
-				if(alleles.size()<2) continue;
-				
-				final VariantContextBuilder vcb = new VariantContextBuilder(
-						null,
-						next.getContig(), 
-						next.getStart(),
-						next.getEnd(), 
-						alleles
-						);
-				if(id!=null) vcb.id(id);
-				vcb.genotypes(genotypes);
-				w.add(attCalc.apply(vcb.make()));
+				final List<File> gvcfFiles = gvcfSources.stream().map(S->S.gvcfFile).collect(Collectors.toList());
+				for(final GVCFVariantIterator src:gvcfSources) src.close();
+				genotypeParallel(gvcfFiles,header,attCalc,w);
+				}
+			else
+				{
+				genotype(gvcfSources,attCalc,w);
+				for(final GVCFVariantIterator src:gvcfSources) src.close();
 				}
-			
-			
-			
-			for(final GVCFVariantIterator src:gvcfSources) src.close();
 			return 0;
 			}
 		catch(Exception err)
@@ -0,0 +1,99 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+*/
+package com.github.lindenb.jvarkit.tools.misc;
+
+import java.io.BufferedReader;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.beust.jcommander.Parameter;
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jcommander.Program;
+import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneBinaryIndex;
+
+/**
+BEGIN_DOC
+
+Compiles a UCSC knownGene file into a binary file that can be memory-mapped.
+
+The compiled file can be used instead of the knownGene file by `vcfpredictions` (option `-k`):
+it opens immediately and the pages are shared between the processes.
+
+### Example
+
+```
+$ curl -s "http://hgdownload.cse.ucsc.edu/goldenPath/hg19/database/knownGene.txt.gz" |\
+  gunzip -c |\
+  java -jar dist/kg2bin.jar -o knownGene.kgbin
+
+$ java -jar dist/vcfpredictions.jar -R ref.fa -k knownGene.kgbin input.vcf
+```
+
+END_DOC
+*/
+@Program(name="kg2bin",
+	description="Compiles a UCSC knownGene file to a binary file that can be memory-mapped.",
+	keywords={"ucsc","knownGenes"},
+	creationDate="20261017",
+	modificationDate="20261017"
+	)
+public class KnownGeneToBinary extends Launcher
+	{
+	private static final Logger LOG = Logger.build(KnownGeneToBinary.class).make();
+
+	@Parameter(names={"-o","--output"},description="Output file. Suggested suffix: "+KnownGeneBinaryIndex.SUFFIX,required=true)
+	private Path outputFile = null;
+
+	@Override
+	public int doWork(final List<String> args) {
+		try
+			{
+			final String input = oneFileOrNull(args);
+			try(final BufferedReader in = (input==null?
+					IOUtils.openStreamForBufferedReader(stdin()):
+					IOUtils.openURIForBufferedReading(input));
+				final OutputStream out = Files.newOutputStream(this.outputFile)) {
+				KnownGeneBinaryIndex.compile(in, out);
+				out.flush();
+				}
+			return RETURN_OK;
+			}
+		catch(final Exception err)
+			{
+			LOG.error(err);
+			return -1;
+			}
+		}
+
+	public static void main(final String[] args)
+		{
+		new KnownGeneToBinary().instanceMainWithExit(args);
+		}
+	}
@@ -28,15 +28,23 @@ import java.io.File;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Constructor;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiPredicate;
 import java.util.function.Function;
 
 import com.beust.jcommander.Parameter;
@@ -55,6 +63,7 @@ import htsjdk.samtools.SAMFileWriter;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SamReader;
+import htsjdk.samtools.util.AbstractIterator;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Iso8601Date;
@@ -99,6 +108,9 @@ where
 * 'header' is the input SAM header
 * 'userData' is a placeHolder where the user is free to put things.
 
+With `--threads N`, the reads (or the groups of reads in `--pair` mode) are sent by batches to N threads and each thread uses its own instance of the filter: `userData` is not shared between the threads.
+The reads are written in the input order.
+
 The user code will be inserted in the following java code:
 
 
@@ -366,6 +378,10 @@ $ java -jar dist/samjdk.jar --body \
 $ java -jar dist/samjdk.jar -e 'return record.getReadUnmappedFlag() || record.getCigar()==null || record.getCigar().getCigarElements().stream().filter(C->C.getOperator().isClipping()).mapToInt(C->C.getLength()).sum() / (double)record.getCigar().getReadLength() < 0.33;' input.bam
 ```
 
+## History
+
+  * 20261017 : option `--threads`
+
 END_DOC
 */
 @Program(name="samjdk",
@@ -374,7 +390,8 @@ END_DOC
 	biostars={270879,274183,278902,279535,283969,286284,286585,286851,286819,
 		287057,299673,301080,305526,306034,309143,327317,335998,
                 336965,340479,342675,345679,362298,368754,378205},
-	references="\"bioalcidae, samjs and vcffilterjs: object-oriented formatters and filters for bioinformatics files\" . Bioinformatics, 2017. Pierre Lindenbaum & Richard Redon  [https://doi.org/10.1093/bioinformatics/btx734](https://doi.org/10.1093/bioinformatics/btx734)."
+	references="\"bioalcidae, samjs and vcffilterjs: object-oriented formatters and filters for bioinformatics files\" . Bioinformatics, 2017. Pierre Lindenbaum & Richard Redon  [https://doi.org/10.1093/bioinformatics/btx734](https://doi.org/10.1093/bioinformatics/btx734).",
+	modificationDate="20261017"
 	)
 public class SamJdk
 	extends Launcher
@@ -408,6 +425,13 @@ public class SamJdk
 			+ "This function must return `true` to accept the whole list, `false` to reject eveything, or another `List<SAMRecord>`."
 			+ "Input MUST be sorted on query name using picard SortSam (not `samtools sort` https://github.com/samtools/hts-specs/issues/5 ). ")
 	private boolean pair_mode=false;
+	@Parameter(names={"--threads"},description="[20261017] number of threads. Each thread has its own instance of the compiled filter: 'userData' is not shared between the threads. The reads are processed by batches and written in the input order.")
+	private int nThreads = 1;
+
+	@Parameter(names={"--batch-size"},description="[20261017] number of reads sent to a thread in `--threads` mode.")
+	private int batchSize = 1_000;
+	/** number of reads written */
+	private long count = 0L;
 
 	
 	public static abstract class AbstractBaseFilter<T>
@@ -472,8 +496,240 @@ public class SamJdk
 		}
 	
 		
+	/** group the consecutive reads having the same name */
+	private static class ReadNameGroupIterator
+		extends AbstractIterator<List<SAMRecord>>
+		{
+		private final Iterator<SAMRecord> delegate;
+		private final SAMSequenceDictionaryProgress progress;
+		private final Comparator<SAMRecord> nameComparator = ReadNameSortMethod.picard.get();
+		private SAMRecord prev = null;
+		private SAMRecord pending = null;
+		private int numWarnings = 100;
+		ReadNameGroupIterator(final Iterator<SAMRecord> delegate,final SAMSequenceDictionaryProgress progress) {
+			this.delegate = delegate;
+			this.progress = progress;
+			}
+		private SAMRecord read() {
+			if(!this.delegate.hasNext()) return null;
+			final SAMRecord record = this.progress.watch(this.delegate.next());
+			if( this.prev!=null && this.numWarnings>0 && this.nameComparator.compare(this.prev,record)>0)
+				{
+				LOG.warn("SamRecord doesn't look sorted on query name using a picard/htsjdk method. Got "+record+" affter "+this.prev+". "
+						+ "In '--pair'  mode, reads should be sorted on query name using **picard/htsjdk**. (samtools != picard) see https://github.com/samtools/hts-specs/issues/5");
+				--this.numWarnings;
+				}
+			this.prev = record;
+			return record;
+			}
+		@Override
+		protected List<SAMRecord> advance() {
+			if(this.pending==null) this.pending = read();
+			if(this.pending==null) return null;
+			final List<SAMRecord> buffer = new ArrayList<>();
+			buffer.add(this.pending);
+			for(;;) {
+				this.pending = read();
+				if(this.pending==null || !buffer.get(0).getReadName().equals(this.pending.getReadName())) break;
+				buffer.add(this.pending);
+				}
+			return buffer;
+			}
+		}
+	
+	/** convert the object returned by the user for a read. returns false if the LIMIT was reached */
+	private boolean applyRecordResult(final SAMRecord record,final Object result,final SAMFileWriter sw,final SAMFileHeader header)
+		{
+		// result is an array of a collection of reads
+		if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
+			{
+			final  Collection<?> col;
+			if(result.getClass().isArray())
+				{
+				final Object array[]=(Object[])result;
+				col= Arrays.asList(array);
+				}
+			else
+				{
+				col =( Collection<?>)result;
+				}
+			// write all of reads
+			for(final Object item:col)
+				{
+				if(item==null) throw new JvarkitException.UserError("item in array is null");
+				if(!(item instanceof SAMRecord)) throw new JvarkitException.UserError("item in array is not a SAMRecord "+item.getClass());
+				++count;
+				sw.addAlignment(SAMRecord.class.cast(item));
+				}
+			}
+		// result is a SAMRecord
+		else if(result!=null && (result instanceof SAMRecord)) {
+			++count;
+			sw.addAlignment(SAMRecord.class.cast(result));
+			}
+		else
+			{
+			if (!accept(result))
+				{
+				failing(record,header);
+				}
+			else
+				{
+				++count;
+				sw.addAlignment(record);
+				}
+			}
+		return !(this.LIMIT>0L && count>=this.LIMIT);
+		}
+	
+	/** convert the object returned by the user for a group of reads. returns false if the LIMIT was reached */
+	private boolean applyListResult(final List<SAMRecord> buffer,final Object result,final SAMFileWriter sw,final SAMFileHeader header)
+		{
+		// result is an array of a collection of reads
+		if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
+			{
+			final  Collection<?> col;
+			if(result.getClass().isArray())
+				{
+				final Object array[]=(Object[])result;
+				col= Arrays.asList(array);
+				}
+			else
+				{
+				col =( Collection<?>)result;
+				}
+			// write all of reads
+			for(final Object item:col)
+				{
+				if(item==null) throw new JvarkitException.UserError("item in array is null");
+				if(!(item instanceof SAMRecord)) throw new JvarkitException.UserError("item in array is not a SAMRecord "+item.getClass());
+				++count;
+				sw.addAlignment(SAMRecord.class.cast(item));
+				if(this.LIMIT>0L && count>=this.LIMIT) break;
+				}
+			}
+		// result is a SAMRecord
+		else if(result!=null && (result instanceof SAMRecord)) {
+			++count;
+			sw.addAlignment(SAMRecord.class.cast(result));
+			}
+		else
+			{
+			if (!accept(result))
+				{
+				for(final SAMRecord item :buffer)
+					{
+					failing(item,header);
+					}
+				}
+			else
+				{
+				for(final SAMRecord item :buffer)
+					{
+					++count;
+					sw.addAlignment(item);
+					}
+				}
+			}
+		return !(this.LIMIT>0L && count>=this.LIMIT);
+		}
+	
+	/** result is a boolean or a number */
+	private boolean accept(final Object result) {
+		if(result==null)
+			{
+			return false;
+			}
+		else if(result instanceof Boolean)
+			{
+			return !Boolean.FALSE.equals(result);
+			}
+		else if(result instanceof Number)
+			{
+			return ((Number)result).intValue()==1;
+			}
+		else
+			{
+			LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
+			return false;
+			}
+		}
+	
+	/** a batch of items processed by one worker */
+	private static class FilterBatch<T>
+		{
+		final List<T> input;
+		final List<Object> results;
+		FilterBatch(final List<T> input) {
+			this.input = input;
+			this.results = new ArrayList<>(input.size());
+			}
+		}
+	
+	/** apply the filters on a pool of threads. Each thread has its own instance of the filter. 
+	 * The results are passed to 'consumer' in the input order, until it returns false */
+	private <T> void runParallel(
+			final Iterator<T> iter,
+			final Constructor<?> ctor,
+			final SAMFileHeader header,
+			final BiPredicate<T,Object> consumer
+			) throws Exception
+		{
+		final ThreadLocal<AbstractBaseFilter<T>> threadFilter = ThreadLocal.withInitial(()->{
+			try {
+				@SuppressWarnings("unchecked")
+				final AbstractBaseFilter<T> filter = (AbstractBaseFilter<T>)ctor.newInstance(header);
+				return filter;
+				}
+			catch(final Exception err) {
+				throw new RuntimeException(err);
+				}
+			});
+		final ExecutorService executorService = Executors.newFixedThreadPool(this.nThreads);
+		/* batches in the input order */
+		final Deque<Future<FilterBatch<T>>> pending = new ArrayDeque<>();
+		try
+			{
+			boolean go = true;
+			while(go && iter.hasNext())
+				{
+				final List<T> input = new ArrayList<>(this.batchSize);
+				while(input.size() < this.batchSize && iter.hasNext()) {
+					input.add(iter.next());
+					}
+				pending.add(executorService.submit(()->{
+					final AbstractBaseFilter<T> filter = threadFilter.get();
+					final FilterBatch<T> batch = new FilterBatch<>(input);
+					for(final T item: input) {
+						batch.results.add(filter.apply(item));
+						}
+					return batch;
+					}));
+				while(go && (pending.size() > this.nThreads * 2 || (!pending.isEmpty() && !iter.hasNext()))) {
+					final FilterBatch<T> batch = pending.removeFirst().get();
+					for(int i=0;go && i< batch.input.size();i++) {
+						go = consumer.test(batch.input.get(i), batch.results.get(i));
+						}
+					}
+				}
+			}
+		catch(final ExecutionException err) {
+			if(err.getCause() instanceof Exception) throw (Exception)err.getCause();
+			throw err;
+			}
+		finally
+			{
+			executorService.shutdownNow();
+			}
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {
+		if(this.batchSize < 1)
+			{
+			LOG.error("bad batch size");
+			return -1;
+			}
 		SAMRecordIterator iter=null;
 		SamReader samFileReader=null;
 		SAMFileWriter sw=null;
@@ -588,178 +844,56 @@ public class SamJdk
 					}
 				}
 			
-			long count=0L;
+			this.count = 0L;
 	        final SAMSequenceDictionaryProgress progress=new SAMSequenceDictionaryProgress(header).logger(LOG);
 	        sw = this.writingBamArgs.openSAMFileWriter(this.outputFile,header, true);
 	        iter = samFileReader.iterator();
+	        final SAMRecordIterator samIter = iter;
 	        
 	        
 	        
+	        final SAMFileWriter out = sw;
 	        if(this.pair_mode)
 	        	{
-	        	SAMRecord prev=null;
-				final AbstractListFilter filter = (AbstractListFilter)ctor.newInstance(header);
-				final List<SAMRecord> buffer = new ArrayList<>();
-				for(;;) {
-					int numWarnings = 100;
-					final Comparator<SAMRecord> nameComparator = ReadNameSortMethod.picard.get();
-					final SAMRecord record = (iter.hasNext()?progress.watch(iter.next()):null);
-					if( prev!=null && record!=null && numWarnings>0 && nameComparator.compare(prev,record)>0)
-						{
-						LOG.warn("SamRecord doesn't look sorted on query name using a picard/htsjdk method. Got "+record+" affter "+prev+". "
-								+ "In '--pair'  mode, reads should be sorted on query name using **picard/htsjdk**. (samtools != picard) see https://github.com/samtools/hts-specs/issues/5");
-						--numWarnings;
+	        	final Iterator<List<SAMRecord>> groups = new ReadNameGroupIterator(samIter, progress);
+	        	if(this.nThreads > 1)
+	        		{
+	        		runParallel(groups, ctor, header, (L,R)->applyListResult(L, R, out, header));
+	        		}
+	        	else
+	        		{
+					final AbstractListFilter filter = (AbstractListFilter)ctor.newInstance(header);
+					while(groups.hasNext()) {
+						final List<SAMRecord> buffer = groups.next();
+						if(!applyListResult(buffer, filter.apply(buffer), out, header)) break;
 						}
-					prev=record;
-
-					
-					if(record==null || (!buffer.isEmpty() && !buffer.get(0).getReadName().equals(record.getReadName())))
-						{
-						if(!buffer.isEmpty()) {
-							final Object result = filter.apply(buffer);
-							
-							// result is an array of a collection of reads
-							if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
-								{
-								final  Collection<?> col;
-								if(result.getClass().isArray())
-									{
-									final Object array[]=(Object[])result;
-									col= Arrays.asList(array);
-									}
-								else
-									{
-									col =( Collection<?>)result;
-									}
-								// write all of reads
-								for(final Object item:col)
-									{
-									if(item==null) throw new JvarkitException.UserError("item in array is null");
-									if(!(item instanceof SAMRecord)) throw new JvarkitException.UserError("item in array is not a SAMRecord "+item.getClass());
-									++count;
-									sw.addAlignment(SAMRecord.class.cast(item));
-									if(this.LIMIT>0L && count>=this.LIMIT) break;
-									}
-								}
-							// result is a SAMRecord
-							else if(result!=null && (result instanceof SAMRecord)) {
-								++count;
-								sw.addAlignment(SAMRecord.class.cast(result));
-								}
-							else
-								{
-								boolean accept=true;
-								if(result==null)
-									{
-									accept=false;
-									}
-								else if(result instanceof Boolean)
-									{
-									if(Boolean.FALSE.equals(result)) accept = false;
-									}
-								else if(result instanceof Number)
-									{
-									if(((Number)result).intValue()!=1) accept = false;
-									}
-								else
-									{
-									LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
-									accept = false;
-									}
-								if (!accept)
-									{
-									for(final SAMRecord item :buffer)
-										{
-										failing(item,header);
-										}
-									}
-								else
-									{
-									for(final SAMRecord item :buffer)
-										{
-										++count;
-										sw.addAlignment(item);
-										}
-									}
-								}
-							}// end of if !buffer.isEmpty()
-						if( record==null) break;
-						buffer.clear();
-						} // end flush flush 
-					if(this.LIMIT>0L && count>=this.LIMIT) break;
-					buffer.add(record);
-					}// infinite loop
-				
+	        		}
 	        	}
 	        else
 		        {
-				final AbstractFilter filter = (AbstractFilter)ctor.newInstance(header);
-			    
-				while(iter.hasNext())
-					{
-					final SAMRecord record=progress.watch(iter.next());
-					final Object result = filter.apply(record);
-					
-					// result is an array of a collection of reads
-					if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
-						{
-						final  Collection<?> col;
-						if(result.getClass().isArray())
-							{
-							final Object array[]=(Object[])result;
-							col= Arrays.asList(array);
-							}
-						else
-							{
-							col =( Collection<?>)result;
-							}
-						// write all of reads
-						for(final Object item:col)
-							{
-							if(item==null) throw new JvarkitException.UserError("item in array is null");
-							if(!(item instanceof SAMRecord)) throw new JvarkitException.UserError("item in array is not a SAMRecord "+item.getClass());
-							++count;
-							sw.addAlignment(SAMRecord.class.cast(item));
-							}
-						}
-					// result is a SAMRecord
-					else if(result!=null && (result instanceof SAMRecord)) {
-						++count;
-						sw.addAlignment(SAMRecord.class.cast(result));
-						}
-					else
+	        	final Iterator<SAMRecord> records = new Iterator<SAMRecord>() {
+	        		@Override
+	        		public boolean hasNext() {
+	        			return samIter.hasNext();
+	        			}
+	        		@Override
+	        		public SAMRecord next() {
+	        			return progress.watch(samIter.next());
+	        			}
+	        		};
+	        	if(this.nThreads > 1)
+	        		{
+	        		runParallel(records, ctor, header, (R,O)->applyRecordResult(R, O, out, header));
+	        		}
+	        	else
+	        		{
+					final AbstractFilter filter = (AbstractFilter)ctor.newInstance(header);
+					while(records.hasNext())
 						{
-						boolean accept=true;
-						if(result==null)
-							{
-							accept=false;
-							}
-						else if(result instanceof Boolean)
-							{
-							if(Boolean.FALSE.equals(result)) accept = false;
-							}
-						else if(result instanceof Number)
-							{
-							if(((Number)result).intValue()!=1) accept = false;
-							}
-						else
-							{
-							LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
-							accept = false;
-							}
-						if (!accept)
-							{
-							failing(record,header);
-							}
-						else
-							{
-							++count;
-							sw.addAlignment(record);
-							}
+						final SAMRecord record = records.next();
+						if(!applyRecordResult(record, filter.apply(record), out, header)) break;
 						}
-	
-					if(this.LIMIT>0L && count>=this.LIMIT) break;
-					}
+	        		}
 		        }
 			sw.close();
 			/* create empty if never called */
@@ -29,22 +29,17 @@ History:
 package com.github.lindenb.jvarkit.tools.sortvcfonref;
 
 import java.io.BufferedReader;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.util.Comparator;
 import java.util.List;
-import java.util.regex.Pattern;
 
 import htsjdk.variant.utils.SAMSequenceDictionaryExtractor;
-import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.vcf.VCFHeader;
 
 import com.github.lindenb.jvarkit.io.IOUtils;
-import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
+import com.github.lindenb.jvarkit.util.vcf.KeyedVcfLine;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 
 import htsjdk.samtools.SAMSequenceDictionary;
@@ -76,6 +71,10 @@ cat input.vcf |\
    tabix -p vcf -f result.vcf.gz
 ```
 
+### History
+
+  * 20261017 : the temporary files store a binary key and a compressed line.
+
 END_DOC
 */
 
@@ -84,7 +83,8 @@ END_DOC
 @Program(name="sortvcfonref2",
 	description="Sort a VCF using the internal dictionary or an external reference order (Deprecated: use picard SortVcf).",
 	deprecatedMsg="use picard sortvcf",
-	keywords={"vcf","sort"}
+	keywords={"vcf","sort"},
+	modificationDate="20261017"
 	)
 public class SortVcfOnRef2 extends Launcher
 	{
@@ -104,104 +104,6 @@ public class SortVcfOnRef2 extends Launcher
 	
 
 	private SAMSequenceDictionary dict=null;
-    private final Pattern tab=Pattern.compile("[\t]");
-	    
-    
-    
-    private class ChromPosLine
-    	implements Comparable<ChromPosLine>
-    	{
-    	int tid;
-    	Integer pos;
-    	Allele ref;
-    	String line;
-    	ChromPosLine()
-    		{
-    		}
-    	public ChromPosLine(final String line)
-    		{
-    		String tokens[]= tab.split(line, 5);
-    		if(tokens.length<5) throw new IllegalArgumentException("Bad VCF line in "+line); 
-    		String chrom=tokens[0];
-			this.tid=dict.getSequenceIndex(chrom);
-			if(this.tid==-1) throw new RuntimeException("unknown chromosome "+ chrom+" in "+line);
-			
-    		try
-    			{
-    			this.pos=new Integer(tokens[1]);
-    			}
-    		catch(NumberFormatException err)
-    			{
-    			throw new IllegalArgumentException("Bad POS in VCF line in "+line);
-    			}
-    		this.ref = Allele.create(tokens[3],true);
-    		this.line=line;
-    		}
-    	@Override
-    	public int compareTo(ChromPosLine o)
-    		{
-    		int i=this.tid-o.tid;
-    		if(i!=0) return i;
-    		i=this.pos.compareTo(o.pos);
-    		if(i!=0) return i;
-    		i=this.ref.compareTo(o.ref);
-    		if(i!=0) return i;
-    		return this.line.compareTo(o.line);
-    		}
-    	@Override
-    	public int hashCode() {
-    		return line.hashCode();
-    		}
-    	@Override
-    	public boolean equals(Object obj) {
-    		return line.equals(ChromPosLine.class.cast(obj).line);
-    		}
-    	@Override
-    	public String toString() {
-    		return line;
-    		}
-    	}
-	private class VariantCodec extends AbstractDataCodec<ChromPosLine>
-		{
-		@Override
-		public ChromPosLine decode(DataInputStream dis) throws IOException
-			{
-			ChromPosLine cpl=new ChromPosLine();
-			try
-				{
-				cpl.tid=dis.readInt();
-				}
-			catch(IOException err)
-				{
-				return null;
-				}
-			cpl.pos=dis.readInt();
-			cpl.ref = Allele.create(readString(dis), true);
-			cpl.line= readString(dis);
-			return cpl;
-			}
-		@Override
-		public void encode(DataOutputStream dos, ChromPosLine s)
-				throws IOException {
-			dos.writeInt(s.tid);
-			dos.writeInt(s.pos);
-			writeString(dos, s.ref.getBaseString());
-			writeString(dos,s.line);
-			}
-		@Override
-		public VariantCodec clone() {
-			return new VariantCodec();
-			}
-		}
-	
-	private class VariantComparator implements Comparator<ChromPosLine>
-		{
-		@Override
-		public int compare(ChromPosLine o1, ChromPosLine o2)
-			{
-			return o1.compareTo(o2);
-			}
-		}
 	
 	@Override
 	public int doWork(List<String> args) {
@@ -268,14 +170,14 @@ public class SortVcfOnRef2 extends Launcher
 			LOG.warn("SEQUENCE DICTIONARY IS EMPTY/NULL");
 			}
 		
-    	CloseableIterator<ChromPosLine> iter=null;
-    	SortingCollection<ChromPosLine> array=null;
+    	CloseableIterator<KeyedVcfLine> iter=null;
+    	SortingCollection<KeyedVcfLine> array=null;
     	VariantContextWriter w =null;
     	try {
 			array= SortingCollection.newInstance(
-					ChromPosLine.class,
-					new VariantCodec(),
-					new VariantComparator(),
+					KeyedVcfLine.class,
+					new KeyedVcfLine.Codec(),
+					KeyedVcfLine.KEY_COMPARATOR.thenComparing(KeyedVcfLine::getLine),
 					this.writingSortingCollection.getMaxRecordsInRam(),
 					this.writingSortingCollection.getTmpPaths()
 					);
@@ -284,8 +186,8 @@ public class SortVcfOnRef2 extends Launcher
 			String line;
 			while((line=in.readLine())!=null)
 				{
-				final ChromPosLine cpl=new ChromPosLine(line);
-				progress.watch(cpl.tid,cpl.pos);
+				final KeyedVcfLine cpl=new KeyedVcfLine(line,0,this.dict);
+				progress.watch(cpl.getTid(),cpl.getPos());
 				array.add(cpl);
 				}
 			array.doneAdding();
@@ -297,7 +199,7 @@ public class SortVcfOnRef2 extends Launcher
 			iter=array.iterator();
 			while(iter.hasNext())
 				{
-				w.add(cah.codec.decode(iter.next().line));
+				w.add(cah.codec.decode(iter.next().getLine()));
 				if(w.checkError()) break;
 				}
 			return RETURN_OK;
@@ -36,6 +36,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -308,6 +309,10 @@ public class TView implements Closeable
 	private final List<SamReader> samReaders=new ArrayList<>();
 	private final List<VcfSource> vcfReaders=new ArrayList<>();
 	private TabixKnownGeneFileReader tabixKnownGene =null;
+	/** sequence of the contig provided by the caller (e.g. from a cache), used instead of the reference file */
+	private CharSequence providedContigSequence = null;
+	/** reads provided by the caller (e.g. from a cache), used in addition to the BAM files */
+	private final List<SAMRecord> providedRecords = new ArrayList<>();
 	
 	public TView() {
 		
@@ -380,6 +385,17 @@ public class TView implements Closeable
 		this.samRecordFilter = samRecordFilter;
 	}
 	
+	/** set the sequence of the contig of the interval (0-based charAt), e.g. from a cache. Used instead of the reference file */
+	public void setContigSequence(final CharSequence contigSequence) {
+		this.providedContigSequence = contigSequence;
+		}
+	
+	/** set the reads overlapping the interval, e.g. from a cache. Used in addition to the BAM files */
+	public void setRecords(final List<SAMRecord> records) {
+		this.providedRecords.clear();
+		this.providedRecords.addAll(records);
+		}
+	
 	public int initialize() throws IOException
 		{
 		if(this.referenceFile!=null) {
@@ -467,9 +483,17 @@ public class TView implements Closeable
 			LOG.warn("No interval defined");
 			return;
 			}
-		final GenomicSequence contigSequence;
+		final CharSequence contigSequence;
 		final Function<Integer, Character> refPosToBase;
-		if(indexedFastaSequenceFile!=null)
+		if(this.providedContigSequence!=null)
+			{
+			contigSequence = this.providedContigSequence;
+			refPosToBase = POS->{
+				if(POS<0 || POS >= contigSequence.length()) return 'N';
+				return contigSequence.charAt(POS);
+				};
+			}
+		else if(indexedFastaSequenceFile!=null)
 			{
 			final SAMSequenceDictionary dict=SAMSequenceDictionaryExtractor.extractDictionary(referenceFile);	
 			if(dict.getSequence(this.interval.getContig())==null)
@@ -503,6 +527,46 @@ public class TView implements Closeable
 
 		final Map<String, List<SAMRecord>> group2record=new TreeMap<>();
 		
+		final Consumer<SAMRecord> consumer = rec->{
+			if(rec.getReadUnmappedFlag()) return;
+			if(rec.getCigar()==null) return;
+			if(getRecordFilter().filterOut(rec)) return;
+			if( !rec.getContig().equals(interval.getContig())) return;
+			if(right().apply(rec) < this.interval.getStart()) return;
+			if(this.interval.getEnd() < left().apply(rec) ) return;
+			String group = this.groupBy.getPartion(rec);
+			if(group==null || group.isEmpty()) {
+				group="undefined_"+this.groupBy.name();
+				}
+			List<SAMRecord> records = group2record.get(group);
+			if( records == null) {
+				records = new ArrayList<>();
+				group2record.put(group,records);
+				}
+			records.add(rec);
+			
+			//loop over cigar, get the longest insert
+			int refpos=rec.getAlignmentStart();
+			for(final CigarElement ce:rec.getCigar().getCigarElements()) {
+				if(!this.showInsertions) break;
+				final CigarOperator op = ce.getOperator();
+
+				if(op.equals(CigarOperator.I) && testInInterval.test(refpos))
+					{
+					final Integer longestInsert= genomicpos2insertlen.get(refpos);
+					if(longestInsert==null|| longestInsert.compareTo(ce.getLength())<0)
+						{
+						genomicpos2insertlen.put(refpos, ce.getLength());
+						}
+					}
+				if(op.consumesReferenceBases())
+					{
+					refpos += ce.getLength();
+					}
+				if(refpos > interval.getEnd()) break;
+				}
+			};
+		
 		for(final SamReader samReader:this.samReaders)
 			{
 			SAMRecordIterator iter = samReader.query(
@@ -513,48 +577,12 @@ public class TView implements Closeable
 					);
 			while(iter.hasNext())
 				{
-				final SAMRecord rec = iter.next();
-				if(rec.getReadUnmappedFlag()) continue;
-				if(rec.getCigar()==null) continue;
-				if(getRecordFilter().filterOut(rec)) continue;
-				if( !rec.getContig().equals(interval.getContig())) continue;
-				if(right().apply(rec) < this.interval.getStart()) continue;
-				if(this.interval.getEnd() < left().apply(rec) ) continue;
-				String group = this.groupBy.getPartion(rec);
-				if(group==null || group.isEmpty()) {
-					group="undefined_"+this.groupBy.name();
-					}
-				List<SAMRecord> records = group2record.get(group);
-				if( records == null) {
-					records = new ArrayList<>();
-					group2record.put(group,records);
-					}
-				records.add(rec);
-				
-				//loop over cigar, get the longest insert
-				int refpos=rec.getAlignmentStart();
-				for(final CigarElement ce:rec.getCigar().getCigarElements()) {
-					if(!this.showInsertions) break;
-					final CigarOperator op = ce.getOperator();
-
-					if(op.equals(CigarOperator.I) && testInInterval.test(refpos))
-						{
-						final Integer longestInsert= genomicpos2insertlen.get(refpos);
-						if(longestInsert==null|| longestInsert.compareTo(ce.getLength())<0)
-							{
-							genomicpos2insertlen.put(refpos, ce.getLength());
-							}
-						}
-					if(op.consumesReferenceBases())
-						{
-						refpos += ce.getLength();
-						}
-					if(refpos > interval.getEnd()) break;
-					}
+				consumer.accept(iter.next());
 				}
 			CloserUtil.close(iter);
 			CloserUtil.close(samReader);
 			}
+		this.providedRecords.forEach(consumer);
 		
 
 		
@@ -979,7 +1007,7 @@ public class TView implements Closeable
 			}/* end of loop over sample */
 		/** known gene section */
 		
-		if(this.tabixKnownGene!=null && this.indexedFastaSequenceFile!=null)
+		if(this.tabixKnownGene!=null && contigSequence!=null)
 			{
 			final List<KnownGene> genes =  this.tabixKnownGene.getItemsInInterval(this.interval);
 			if(!genes.isEmpty()) {
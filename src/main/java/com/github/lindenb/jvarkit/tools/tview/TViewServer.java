@@ -30,10 +30,24 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.PrintWriter;
-import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.servlet.http.HttpServletRequest;
@@ -43,11 +57,13 @@ import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.server.handler.HandlerList;
 
 import com.beust.jcommander.Parameter;
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.lang.AbstractCharSequence;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.tools.tview.TView.Formatout;
 import com.github.lindenb.jvarkit.util.bio.IntervalParser;
@@ -55,14 +71,22 @@ import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
-import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
 import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
 import htsjdk.samtools.filter.JavascriptSamRecordFilter;
+import htsjdk.samtools.filter.SamRecordFilter;
+import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Interval;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.SequenceUtil;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.utils.SAMSequenceDictionaryExtractor;
@@ -96,13 +120,28 @@ $ java -jar dist/tviewserver.jar -R src/test/resources/toy.fa src/test/resources
 ```
 
 
+## Session cache
+
+The server keeps in memory, for all the users:
+
+  * a few opened readers for each BAM (option `--readers`) and the parsed headers.
+  * the reads and the reference bases of the last windows of 1000bp that were displayed. Option `--window-cache` is the maximum memory, in MB, shared by all the BAMs and the reference. The size of the reads is an estimate.
+  * the compiled Javascript filters (option `--filter-cache`). Concurrent requests using the same expression are evaluated one after the other.
+
+After each request, the neighbouring windows are loaded in the background (option `--prefetch`), so that panning is served from memory.
+
+## History
+
+  * 20261017 : session cache of the readers, headers, windows of reads and reference, filters. Prefetch of the neighbouring windows.
+
 END_DOC
 
 **/
 
 @Program(name="tviewserver",
 	description="Web Server displaying SAM/BAM file. A web interface for jvarkit:tview",
-    keywords={"sam","bam","table","visualization","server","web"}
+    keywords={"sam","bam","table","visualization","server","web"},
+	modificationDate="20261017"
 		)
 public class TViewServer extends Launcher{
 private static final Logger LOG=Logger.build(TViewServer.class).make();
@@ -114,10 +153,12 @@ private static final String SHOWINSERT="insert";
 private static final String HIDEBASES="bases";
 private static final String SHOWNAME="name";
 private static final String SHOWALLBAMS="showall";
+/** length of the windows of reads and reference kept in memory */
+private static final int WINDOW_LENGTH=1_000;
 
 @Parameter(names={"-R","--reference"},description=Launcher.INDEXED_FASTA_REFERENCE_DESCRIPTION)
 private File optionalReferenceFile=null;
-@Parameter(names={"-P","--port","-port"},description="Server listening port")
+@Parameter(names={"-P","--port","-port"},description="Server listening port. [20261017] '0' uses any free port.")
 private int port=8080;	
 @Parameter(names={"-nojs","--no-javascript"},description="Disable Javascript (which is not filesystem-safe).")
 private boolean disable_javascript = false;
@@ -127,16 +168,462 @@ private int max_interval_length = 2000;
 private String userCustomUrl=null;
 @Parameter(names={"--shutdown-after"},description="Stop the server after 'x' seconds.")
 private long shutdownAferSeconds=-1L;
+@Parameter(names={"--readers"},description="[20261017] Number of idle readers kept open for each BAM. A reader is used by one thread at a time.")
+private int max_idle_readers=4;
+@Parameter(names={"--window-cache"},description="[20261017] Maximum memory, in MB, used by the windows of "+WINDOW_LENGTH+" bp (reads and reference bases) kept in memory. The size of the reads is estimated. The limit is shared by all the BAM files and the reference.")
+private int window_cache_mb=256;
+@Parameter(names={"--prefetch"},description="[20261017] Number of neighbouring windows loaded in the background on each side of the displayed interval. '0' disables the prefetch.")
+private int prefetch_windows=1;
+@Parameter(names={"--filter-cache"},description="[20261017] Number of compiled Javascript filters kept in the cache, by BAM and expression.")
+private int filter_cache_size=100;
+
+/** the running server */
+private volatile Server server = null;
+private final CountDownLatch serverStarted = new CountDownLatch(1);
+
+
+/** a window of WINDOW_LENGTH bases of a BAM (fileIndex&gt;=0) or of the reference (fileIndex==-1) */
+static class WindowKey
+	{
+	final int fileIndex;
+	final String contig;
+	final int index;
+	WindowKey(final int fileIndex,final String contig,final int index)
+		{
+		this.fileIndex = fileIndex;
+		this.contig = contig;
+		this.index = index;
+		}
+	/** 1-based start */
+	int getStart() {
+		return this.index * WINDOW_LENGTH + 1;
+		}
+	/** 1-based end, inclusive */
+	int getEnd() {
+		return (this.index + 1) * WINDOW_LENGTH;
+		}
+	@Override
+	public int hashCode() {
+		return (this.fileIndex*31 + this.contig.hashCode())*31 + this.index;
+		}
+	@Override
+	public boolean equals(final Object obj) {
+		if(obj==this) return true;
+		if(obj==null || !(obj instanceof WindowKey)) return false;
+		final WindowKey other = WindowKey.class.cast(obj);
+		return this.fileIndex==other.fileIndex &&
+				this.index==other.index &&
+				this.contig.equals(other.contig);
+		}
+	@Override
+	public String toString() {
+		return "("+this.fileIndex+")"+this.contig+":"+getStart()+"-"+getEnd();
+		}
+	}
+
+/** content of a window: the reads of a BAM or the bases of the reference */
+static class Window
+	{
+	final List<SAMRecord> records;
+	final byte[] bases;
+	/** estimated size in memory */
+	final long bytes;
+	Window(final List<SAMRecord> records)
+		{
+		this.records = records;
+		this.bases = null;
+		this.bytes = 64L + records.stream().mapToLong(Window::estimateBytes).sum();
+		}
+	Window(final byte[] bases)
+		{
+		this.records = Collections.emptyList();
+		this.bases = bases;
+		this.bytes = 64L + bases.length;
+		}
+	/** rough size of a decoded SAMRecord: object, name, bases, qualities, cigar and attributes */
+	static long estimateBytes(final SAMRecord rec) {
+		final Cigar cigar = rec.getCigar();
+		final List<SAMRecord.SAMTagAndValue> atts = rec.getAttributes();
+		long n = 200L;
+		n += 2L * rec.getReadName().length();
+		n += 2L * rec.getReadLength();
+		n += 24L * (cigar==null?0:cigar.numCigarElements());
+		for(final SAMRecord.SAMTagAndValue att: atts)
+			{
+			n += 48L;
+			if(att.value instanceof CharSequence) n += 2L*CharSequence.class.cast(att.value).length();
+			else if(att.value!=null && att.value.getClass().isArray()) n += 4L*java.lang.reflect.Array.getLength(att.value);
+			}
+		return n;
+		}
+	}
+
+/** LRU cache of windows, evicted on the estimated size of the windows of all the files.
+ * Each window is loaded once, by a request or by the prefetch.
+ */
+static class WindowCache
+	{
+	private final Function<WindowKey, Window> loader;
+	private final long maxBytes;
+	private long totalBytes = 0L;
+	private final LinkedHashMap<WindowKey, FutureTask<Window>> windows = new LinkedHashMap<>(16,0.75f,true);
+	WindowCache(final Function<WindowKey, Window> loader,final long maxBytes)
+		{
+		this.loader = loader;
+		this.maxBytes = maxBytes;
+		}
+	private FutureTask<Window> createTask(final WindowKey key) {
+		return new FutureTask<>(()->{
+			final Window w = this.loader.apply(key);
+			synchronized(this.windows) {
+				/* the other tasks never evict a task before it is done, so it is still in the map */
+				if(this.windows.containsKey(key)) {
+					this.totalBytes += w.bytes;
+					evict(key, w);
+					}
+				}
+			return w;
+			});
+		}
+	/** remove the least recently used windows until the size is below the limit.
+	 * The other windows being loaded are kept. The window that was just loaded is 'loadedKey'.
+	 */
+	private void evict(final WindowKey loadedKey,final Window loaded) {
+		final Iterator<Map.Entry<WindowKey,FutureTask<Window>>> iter = this.windows.entrySet().iterator();
+		while(this.totalBytes > this.maxBytes && iter.hasNext())
+			{
+			final Map.Entry<WindowKey,FutureTask<Window>> entry = iter.next();
+			final FutureTask<Window> task = entry.getValue();
+			if(entry.getKey().equals(loadedKey))
+				{
+				iter.remove();
+				this.totalBytes -= loaded.bytes;
+				continue;
+				}
+			if(!task.isDone()) continue;
+			iter.remove();
+			try {
+				this.totalBytes -= task.get().bytes;
+				}
+			catch(final ExecutionException|InterruptedException|CancellationException err) {
+				/* failed window, nothing was counted */
+				}
+			}
+		}
+	/** get the content of the window, load it in the current thread if needed */
+	Window get(final WindowKey key) {
+		final FutureTask<Window> task;
+		synchronized(this.windows) {
+			FutureTask<Window> t = this.windows.get(key);
+			if(t==null) {
+				t = createTask(key);
+				this.windows.put(key, t);
+				}
+			task = t;
+			}
+		/* does nothing if the task was already started, e.g. by the prefetch */
+		task.run();
+		try {
+			return task.get();
+			}
+		catch(final ExecutionException err) {
+			synchronized(this.windows) {
+				this.windows.remove(key, task);
+				}
+			throw new RuntimeIOException(err.getCause());
+			}
+		catch(final InterruptedException err) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeIOException(err);
+			}
+		}
+	/** load the window in the background if it is not already in the cache */
+	void prefetch(final WindowKey key,final ExecutorService executor) {
+		final FutureTask<Window> task;
+		synchronized(this.windows) {
+			if(this.windows.containsKey(key)) return;
+			task = createTask(key);
+			this.windows.put(key, task);
+			}
+		try {
+			executor.execute(task);
+			}
+		catch(final RejectedExecutionException err) {
+			synchronized(this.windows) {
+				this.windows.remove(key, task);
+				}
+			}
+		}
+	/** estimated size of the windows in memory */
+	long getTotalBytes() {
+		synchronized(this.windows) {
+			return this.totalBytes;
+			}
+		}
+	int size() {
+		synchronized(this.windows) {
+			return this.windows.size();
+			}
+		}
+	}
+
+/** opened readers and header of one BAM. A reader is used by one thread at a time */
+private class BamSession
+	implements Closeable
+	{
+	private final File samFile;
+	private SamReaderFactory samReaderFactory = null;
+	private final Deque<SamReader> idle = new ArrayDeque<>();
+	private SAMFileHeader header = null;
+	private boolean closed = false;
+	BamSession(final File samFile)
+		{
+		this.samFile = samFile;
+		}
+	/** header of the BAM, parsed once */
+	SAMFileHeader getHeader() {
+		synchronized(this) {
+			if(this.header!=null) return this.header;
+			}
+		final SamReader reader = borrow();
+		try {
+			synchronized(this) {
+				if(this.header==null) this.header = reader.getFileHeader();
+				return this.header;
+				}
+			}
+		finally
+			{
+			release(reader);
+			}
+		}
+	SamReader borrow() {
+		synchronized(this) {
+			if(this.closed) throw new IllegalStateException("session is closed for "+this.samFile);
+			if(!this.idle.isEmpty()) return this.idle.pop();
+			if(this.samReaderFactory==null) {
+				this.samReaderFactory = SamReaderFactory.makeDefault().
+						referenceSequence(TViewServer.this.optionalReferenceFile).
+						validationStringency(ValidationStringency.LENIENT);
+				}
+			}
+		return this.samReaderFactory.open(this.samFile);
+		}
+	void release(final SamReader reader) {
+		synchronized(this) {
+			if(!this.closed && this.idle.size() < TViewServer.this.max_idle_readers)
+				{
+				this.idle.push(reader);
+				return;
+				}
+			}
+		CloserUtil.close(reader);
+		}
+	/** load the reads overlapping a window. The records are decoded, so they can be read by several threads */
+	Window loadWindow(final WindowKey key) {
+		final SamReader reader = borrow();
+		try(SAMRecordIterator iter = reader.query(key.contig, key.getStart(), key.getEnd(), false)) {
+			final List<SAMRecord> records = new ArrayList<>();
+			while(iter.hasNext()) {
+				final SAMRecord rec = iter.next();
+				/* BAMRecord decodes its fields lazily: decode them now */
+				rec.getCigar();
+				rec.getReadBases();
+				rec.getBaseQualities();
+				rec.getAttributes();
+				records.add(rec);
+				}
+			return new Window(records);
+			}
+		finally
+			{
+			release(reader);
+			}
+		}
+	@Override
+	public synchronized void close() {
+		this.closed = true;
+		while(!this.idle.isEmpty()) CloserUtil.close(this.idle.pop());
+		}
+	}
+
+/** sequence of a contig, read from the windows of the reference cache */
+private static class CachedContigSequence
+	extends AbstractCharSequence
+	{
+	private final WindowCache cache;
+	private final String contig;
+	private final int length;
+	private int lastIndex = -1;
+	private byte[] lastBases = null;
+	CachedContigSequence(final WindowCache cache,final SAMSequenceRecord ssr)
+		{
+		this.cache = cache;
+		this.contig = ssr.getSequenceName();
+		this.length = ssr.getSequenceLength();
+		}
+	@Override
+	public int length() {
+		return this.length;
+		}
+	@Override
+	public char charAt(final int index0) {
+		if(index0 < 0 || index0 >= this.length) throw new IndexOutOfBoundsException("index:"+index0);
+		final int index = index0/WINDOW_LENGTH;
+		if(index!=this.lastIndex) {
+			this.lastBases = this.cache.get(new WindowKey(-1, this.contig, index)).bases;
+			this.lastIndex = index;
+			}
+		return (char)this.lastBases[index0 - index*WINDOW_LENGTH];
+		}
+	}
 
 
-private class SamViewHandler extends AbstractHandler
+class SamViewHandler extends AbstractHandler implements Closeable
 	{
 	private final List<File> samFiles;
+	private final List<BamSession> bamSessions = new ArrayList<>();
+	/** windows of the reads of all the BAMs and of the reference */
+	final WindowCache windowCache;
+	/** opened on the first query of the reference */
+	private IndexedFastaSequenceFile indexedFastaSequenceFile = null;
+	private final SAMSequenceDictionary referenceDict;
+	private final ExecutorService prefetchExecutor;
+	/** compiled filters, by BAM and expression */
+	private final Map<String,SamRecordFilter> filterCache = Collections.synchronizedMap(
+		new LinkedHashMap<String,SamRecordFilter>(TViewServer.this.filter_cache_size+1,0.75f,true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String,SamRecordFilter> eldest) {
+				return size() > TViewServer.this.filter_cache_size;
+				}
+			});
 	
-	
-	SamViewHandler(final List<File> samFiles)
+	SamViewHandler(final List<File> samFiles,final SAMSequenceDictionary referenceDict)
 		{
 		this.samFiles = samFiles;
+		for(final File samFile: samFiles)
+			{
+			this.bamSessions.add(new BamSession(samFile));
+			}
+		this.referenceDict = referenceDict;
+		this.windowCache = new WindowCache(
+			K->K.fileIndex==-1?loadReferenceWindow(K):this.bamSessions.get(K.fileIndex).loadWindow(K),
+			TViewServer.this.window_cache_mb * 1_000_000L
+			);
+		if(TViewServer.this.prefetch_windows>0)
+			{
+			this.prefetchExecutor = Executors.newFixedThreadPool(2, R->{
+				final Thread t = new Thread(R, "prefetch");
+				t.setDaemon(true);
+				return t;
+				});
+			}
+		else
+			{
+			this.prefetchExecutor = null;
+			}
+		}
+	
+	/** load the bases of a window of the reference. IndexedFastaSequenceFile is not thread-safe */
+	private Window loadReferenceWindow(final WindowKey key) {
+		final SAMSequenceRecord ssr = this.referenceDict.getSequence(key.contig);
+		if(ssr==null) throw new JvarkitException.ContigNotFoundInDictionary(key.contig, this.referenceDict);
+		synchronized(this) {
+			if(this.indexedFastaSequenceFile==null) {
+				try {
+					this.indexedFastaSequenceFile = new IndexedFastaSequenceFile(TViewServer.this.optionalReferenceFile);
+					}
+				catch(final IOException err) {
+					throw new RuntimeIOException(err);
+					}
+				}
+			return new Window(this.indexedFastaSequenceFile.getSubsequenceAt(
+				key.contig,
+				key.getStart(),
+				Math.min(key.getEnd(), ssr.getSequenceLength())
+				).getBases());
+			}
+		}
+	
+	/** get the reads of a BAM overlapping the interval, from the windows of the cache */
+	List<SAMRecord> getReads(final int fileIndex,final Interval interval) {
+		final List<SAMRecord> records = new ArrayList<>();
+		final int first = (interval.getStart()-1)/WINDOW_LENGTH;
+		final int last = (interval.getEnd()-1)/WINDOW_LENGTH;
+		for(int index=first;index<=last;++index)
+			{
+			final WindowKey key = new WindowKey(fileIndex, interval.getContig(), index);
+			for(final SAMRecord rec: this.windowCache.get(key).records)
+				{
+				/* already found in the previous window */
+				if(index>first && rec.getAlignmentStart() < key.getStart()) continue;
+				if(rec.getAlignmentEnd() < interval.getStart() || rec.getAlignmentStart() > interval.getEnd()) continue;
+				records.add(rec);
+				}
+			}
+		return records;
+		}
+	
+	/** load the neighbouring windows of the interval in the background */
+	private void prefetch(final int fileIndex,final Interval interval) {
+		if(this.prefetchExecutor==null) return;
+		final SAMSequenceRecord ssr = this.bamSessions.get(fileIndex).getHeader().getSequence(interval.getContig());
+		if(ssr==null) return;
+		final int maxIndex = (ssr.getSequenceLength()-1)/WINDOW_LENGTH;
+		final int first = (interval.getStart()-1)/WINDOW_LENGTH;
+		final int last = (interval.getEnd()-1)/WINDOW_LENGTH;
+		for(int i=1;i<=TViewServer.this.prefetch_windows;++i)
+			{
+			for(final int index: new int[] {first-i,last+i})
+				{
+				if(index<0 || index>maxIndex) continue;
+				this.windowCache.prefetch(new WindowKey(fileIndex, interval.getContig(), index), this.prefetchExecutor);
+				if(this.referenceDict!=null && this.referenceDict.getSequence(interval.getContig())!=null)
+					{
+					this.windowCache.prefetch(new WindowKey(-1, interval.getContig(), index), this.prefetchExecutor);
+					}
+				}
+			}
+		}
+	
+	/** get the compiled filter from the cache, or compile it */
+	private SamRecordFilter getFilter(final int fileIndex,final String expr) {
+		/* the javascript filter is bound to the header of the BAM */
+		final String key = fileIndex+"\t"+expr;
+		SamRecordFilter filter = this.filterCache.get(key);
+		if(filter!=null) return filter;
+		final JavascriptSamRecordFilter jsFilter = new JavascriptSamRecordFilter(
+				expr,
+				this.bamSessions.get(fileIndex).getHeader()
+				);
+		/* the bindings of the script are shared */
+		filter = new SamRecordFilter() {
+			@Override
+			public boolean filterOut(final SAMRecord rec) {
+				synchronized(jsFilter) {
+					return jsFilter.filterOut(rec);
+					}
+				}
+			@Override
+			public boolean filterOut(final SAMRecord first, final SAMRecord second) {
+				synchronized(jsFilter) {
+					return jsFilter.filterOut(first, second);
+					}
+				}
+			};
+		this.filterCache.put(key, filter);
+		return filter;
+		}
+	
+	@Override
+	public void close() {
+		if(this.prefetchExecutor!=null) this.prefetchExecutor.shutdownNow();
+		this.bamSessions.forEach(S->S.close());
+		synchronized(this) {
+			CloserUtil.close(this.indexedFastaSequenceFile);
+			this.indexedFastaSequenceFile = null;
+			}
 		}
 	
 	
@@ -488,10 +975,11 @@ private class SamViewHandler extends AbstractHandler
 				
 				
 				
+				final int fileIndex = getOwner().samFiles.indexOf(samFile);
 				TView tview = new TView();
 				try
 					{
-					final SAMSequenceDictionary dict= SAMSequenceDictionaryExtractor.extractDictionary(samFile);
+					final SAMSequenceDictionary dict= getOwner().bamSessions.get(fileIndex).getHeader().getSequenceDictionary();
 					if(dict==null) {
 						writeError("no dict in this bam file :"+samFile);
 						return;
@@ -513,28 +1001,27 @@ private class SamViewHandler extends AbstractHandler
 						}
 					
 					tview.setInterval(interval);
-					if(optionalReferenceFile!=null) tview.setReferenceFile(optionalReferenceFile);
+					if(getOwner().referenceDict!=null)
+						{
+						final SAMSequenceRecord ssr = getOwner().referenceDict.getSequence(interval.getContig());
+						if(ssr!=null) tview.setContigSequence(new CachedContigSequence(getOwner().windowCache, ssr));
+						}
 					tview.setFormatOut(Formatout.html);
 					tview.setShowClip("true".equals(this.request.getParameter(SHOWCLIP)));
 					tview.setShowReadName("true".equals(this.request.getParameter(SHOWNAME)));
 					tview.setShowInsertions("true".equals(this.request.getParameter(SHOWINSERT)));
 					tview.setHideBases("true".equals(this.request.getParameter(HIDEBASES)));
-					tview.setBamFiles(Collections.singletonList(SamInputResource.of(samFile)));
+					tview.setRecords(getOwner().getReads(fileIndex, interval));
 	
 					if(!TViewServer.this.disable_javascript)
 						{
 						final String js_expr = this.request.getParameter(JAVASCRIPT_PARAM);
 						if(!StringUtil.isBlank(js_expr))
 							{
-							final JavascriptSamRecordFilter filter;
+							final SamRecordFilter filter;
 							try 
 								{
-								StringReader strReader = new StringReader(js_expr);
-								filter = new JavascriptSamRecordFilter(
-										js_expr,
-										SamReaderFactory.makeDefault().getFileHeader(samFile)
-										);
-								strReader.close();
+								filter = getOwner().getFilter(fileIndex, js_expr);
 								}
 							catch(Exception err)
 								{
@@ -579,6 +1066,7 @@ private class SamViewHandler extends AbstractHandler
 					out.flush();
 					tview.close();
 					tview=null;
+					getOwner().prefetch(fileIndex, interval);
 					this.writer.flush();
 					this.writer.writeCharacters("");
 					this.writer.writeEndElement();//pre
@@ -675,6 +1163,7 @@ private static boolean showAllBamsInOneWindow(final HttpServletRequest request)
 @Override
 public int doWork(final List<String> args) {
 	Server server = null;
+	SamViewHandler samViewHandler = null;
 	try
 		{
 		final List<File> samFiles = IOUtil.unrollFiles(args.stream().
@@ -690,6 +1179,7 @@ public int doWork(final List<String> args) {
 		
 		
 		
+		SAMSequenceDictionary refDict = null;
 		if(this.optionalReferenceFile==null)
 			{
 			LOG.warn("No reference file defined");
@@ -708,6 +1198,7 @@ public int doWork(final List<String> args) {
 					throw new JvarkitException.DictionariesAreNotTheSame(samdict, dict);
 					}
 				});
+			refDict = dict;
 			}
 		samFiles.forEach(F->{
 			IOUtil.assertFileIsReadable(F);
@@ -715,10 +1206,13 @@ public int doWork(final List<String> args) {
 		
 		server = new Server(this.port);
 		final HandlerList handlers = new HandlerList();
-		handlers.addHandler(new SamViewHandler(samFiles));
+		samViewHandler = new SamViewHandler(samFiles,refDict);
+		handlers.addHandler(samViewHandler);
 		server.setHandler(handlers);
-		LOG.info("Starting "+TViewServer.class.getName()+" on http://localhost:"+this.port);
 		server.start();
+		this.server = server;
+		LOG.info("Started "+TViewServer.class.getName()+" on http://localhost:"+getLocalPort());
+		this.serverStarted.countDown();
 		if(this.shutdownAferSeconds>0)
 			{
 			final Server theServer = server;
@@ -752,9 +1246,28 @@ public int doWork(final List<String> args) {
 			{
 			server.destroy();
 			}
+		CloserUtil.close(samViewHandler);
 		}
 	}
 
+/** port of the running server */
+private int getLocalPort() {
+	return ServerConnector.class.cast(this.server.getConnectors()[0]).getLocalPort();
+	}
+
+/** wait for the server to be started. Used by the tests.
+ * @return the listening port or -1 if the server was not started after 'millis' milliseconds */
+int awaitStarted(final long millis) throws InterruptedException {
+	if(!this.serverStarted.await(millis, TimeUnit.MILLISECONDS)) return -1;
+	return getLocalPort();
+	}
+
+/** stop the running server. Used by the tests */
+void stop() throws Exception {
+	final Server theServer = this.server;
+	if(theServer!=null) theServer.stop();
+	}
+
 public static void main(final String args[]) {
 	new TViewServer().instanceMainWithExit(args);
 	}
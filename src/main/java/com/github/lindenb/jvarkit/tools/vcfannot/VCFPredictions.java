@@ -26,19 +26,33 @@ SOFTWARE.
 package com.github.lindenb.jvarkit.tools.vcfannot;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalTreeMap;
+import htsjdk.samtools.util.RuntimeIOException;
 import htsjdk.samtools.util.StringUtil;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
@@ -66,6 +80,7 @@ import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.log.ProgressFactory;
 import com.github.lindenb.jvarkit.util.so.SequenceOntologyTree;
 import com.github.lindenb.jvarkit.util.ucsc.KnownGene;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneBinaryIndex;
 import htsjdk.variant.vcf.VCFIterator;
 
 
@@ -140,8 +155,14 @@ cut -d '    ' -f 1-8 | grep -A 10 CHROM
 
 
 
+### Compiled knownGene
+
+Option `-k` also accepts a knownGene file compiled with `kg2bin`. This file is memory-mapped
+and opens immediately.
+
 ## History
 
+ *  20261017 : `-k` accepts a compiled knownGene (kg2bin), option `--threads`
  *  2013-Dec : moved to a standard arg/argv command line
 
 
@@ -161,7 +182,13 @@ public class VCFPredictions extends Launcher
 	{
 	private static final Logger LOG = Logger.build(VCFPredictions.class).make();
 	private enum OutputSyntax {Native,Vep,SnpEff };
+	/** because we want to set SO:5KB_upstream_variant */
+	private static final int EXTEND_GENE_SEARCH = 5000;
 	private IntervalTreeMap<List<KnownGene>> knownGenes=null;
+	/** used instead of 'knownGenes' when the knownGene was compiled with kg2bin */
+	private KnownGeneBinaryIndex knownGeneIndex = null;
+	/** contig in the reference to contigs in 'knownGeneIndex' */
+	private Map<String,List<String>> refContig2kgContigs = null;
 	private ReferenceGenome referenceGenome = null;
 	
 	@Parameter(names={"-o","--output"},description=OPT_OUPUT_FILE_OR_STDOUT)
@@ -179,6 +206,12 @@ public class VCFPredictions extends Launcher
 	@Parameter(names={"-R","--reference"},description="[20180122](moved to faidx/DAS). "+ReferenceGenomeFactory.OPT_DESCRIPTION,required=true)
 	private String referenceGenomeSource = null;
 
+	@Parameter(names={"--threads"},description="Number of threads annotating the variants. The variants are read by one thread, annotated by batches and written in the input order by another thread. Each worker opens its own reference.")
+	private int nThreads = 1;
+
+	/** number of variants annotated by a worker at once */
+	private static final int BATCH_SIZE = 1_000;
+
 	/** a sequence with one or more altered base/amino-acid */
 	private static class MutedSequence extends DelegateCharSequence
 		{
@@ -348,11 +381,27 @@ public class VCFPredictions extends Launcher
 			}
 			int n_ignored=0;
 			int n_genes = 0;
-			this.knownGenes = new IntervalTreeMap<>();
-			LOG.info("loading genes");
-
 			final ContigNameConverter contigNameConverter = ContigNameConverter.fromOneDictionary(this.referenceGenome.getDictionary());
 			
+			if(KnownGeneBinaryIndex.isBinaryIndex(this.kgURI)) {
+				LOG.info("opening compiled genes "+this.kgURI);
+				this.knownGeneIndex = new KnownGeneBinaryIndex(Paths.get(this.kgURI));
+				this.refContig2kgContigs = new HashMap<>();
+				for(final String kgContig: this.knownGeneIndex.getContigs()) {
+					final String normalizedContig = contigNameConverter.apply(kgContig);
+					if(StringUtil.isBlank(normalizedContig) || this.referenceGenome.getDictionary().getSequence(normalizedContig) == null) {
+						n_ignored += this.knownGeneIndex.getCount(kgContig);
+						continue;
+						}
+					n_genes += this.knownGeneIndex.getCount(kgContig);
+					this.refContig2kgContigs.computeIfAbsent(normalizedContig, K->new ArrayList<>()).add(kgContig);
+					}
+				LOG.info("genes:" + n_genes+" (ignored: "+n_ignored+")");
+				return;
+				}
+			
+			this.knownGenes = new IntervalTreeMap<>();
+			LOG.info("loading genes");
 			in = IOUtils.openURIForBufferedReading(this.kgURI);
 			String line;
 			final CharSplitter tab = CharSplitter.TAB;
@@ -371,13 +420,10 @@ public class VCFPredictions extends Launcher
 					++n_ignored;
 					continue;
 				}
-				final int extend_gene_search = 5000; // because we want to set
-														// SO:5KB_upstream_variant
-
 				final Interval interval = new Interval(
 						normalizedContig,
-						Math.max(1, g.getTxStart() + 1 - extend_gene_search),
-						g.getTxEnd() + extend_gene_search
+						Math.max(1, g.getTxStart() + 1 - EXTEND_GENE_SEARCH),
+						g.getTxEnd() + EXTEND_GENE_SEARCH
 						);
 				List<KnownGene> L= this.knownGenes.get(interval);
 				if(L==null) {
@@ -395,6 +441,33 @@ public class VCFPredictions extends Launcher
 			CloserUtil.close(in);
 			}
 		}
+	/** returns the genes overlapping the variant, in the order of the IntervalTreeMap */
+	private List<KnownGene> getOverlappingGenes(final String normalizedContig,final int start,final int end) {
+		final List<KnownGene> genes=new ArrayList<>();
+		if(this.knownGeneIndex!=null) {
+			for(final String kgContig: this.refContig2kgContigs.getOrDefault(normalizedContig, Collections.emptyList())) {
+				genes.addAll(this.knownGeneIndex.getOverlapping(kgContig, start - EXTEND_GENE_SEARCH, end + EXTEND_GENE_SEARCH));
+				}
+			/* IntervalTreeMap returns the intervals sorted on (start,end), the genes having the same interval in the input order */
+			genes.sort(Comparator.
+				comparingInt((KnownGene G)->Math.max(1, G.getTxStart() + 1 - EXTEND_GENE_SEARCH)).
+				thenComparingInt(G->G.getTxEnd() + EXTEND_GENE_SEARCH)
+				);
+			}
+		else
+			{
+			for(final List<KnownGene> l2: this.knownGenes.getOverlapping(new Interval(
+					normalizedContig,
+					start,
+					end //1-based
+					)))
+				{
+				genes.addAll(l2);
+				}
+			}
+		return genes;
+		}
+	
 	private boolean isStop(char c)
 		{
 		return !Character.isLetter(c);
@@ -418,101 +491,50 @@ public class VCFPredictions extends Launcher
 	public static enum FORMAT1{TRANSCRIPT,CDSPOS,PROTPOS,CODON,AA,SEQONTOLOGY};
 	
 	
-	@Override
-	protected int doVcfToVcf(final String inputName, final VCFIterator r, VariantContextWriter w)
+	/** annotates the variants. Not thread-safe: in multithreaded mode, each worker has its own Annotator and its own reference */
+	private class Annotator implements Closeable
 		{
-		ReferenceContig genomicSequence=null;
-		try {
-		LOG.info("opening REF:"+this.referenceGenomeSource);
-		this.referenceGenome=new ReferenceGenomeFactory().
-				open(this.referenceGenomeSource);
-		loadKnownGenesFromUri();
-		final VCFHeader header= r.getHeader();
-		
-		final ContigNameConverter contigNameConverter = ContigNameConverter.fromOneDictionary(this.referenceGenome.getDictionary());
+		private final ReferenceGenome referenceGenome;
+		private final boolean ownReference;
+		private final ContigNameConverter contigNameConverter;
+		private ReferenceContig genomicSequence=null;
+		private final SequenceOntologyTree soTree=SequenceOntologyTree.getInstance();
+		private final SequenceOntologyTree.Term so_intron=soTree.getTermByAcn("SO:0001627");
+		private final SequenceOntologyTree.Term so_exon=soTree.getTermByAcn("SO:0001791");
+		private final SequenceOntologyTree.Term so_splice_donor=soTree.getTermByAcn("SO:0001575");
+		private final SequenceOntologyTree.Term so_splice_acceptor=soTree.getTermByAcn("SO:0001574");
+		private final SequenceOntologyTree.Term so_5_prime_UTR_variant=soTree.getTermByAcn("SO:0001623");
+		private final SequenceOntologyTree.Term so_3_prime_UTR_variant=soTree.getTermByAcn("SO:0001624");
+		private final SequenceOntologyTree.Term so_splicing_variant=soTree.getTermByAcn("SO:0001568");
+		private final SequenceOntologyTree.Term so_stop_lost=soTree.getTermByAcn("SO:0001578");
+		private final SequenceOntologyTree.Term so_stop_gained=soTree.getTermByAcn("SO:0001587");
+		private final SequenceOntologyTree.Term so_coding_synonymous=soTree.getTermByAcn("SO:0001819");
+		private final SequenceOntologyTree.Term so_coding_non_synonymous=soTree.getTermByAcn("SO:0001583");
+		private final SequenceOntologyTree.Term so_intergenic=soTree.getTermByAcn("SO:0001628");
+		private final SequenceOntologyTree.Term so_nc_transcript_variant=soTree.getTermByAcn("SO:0001619");
+		private final SequenceOntologyTree.Term so_non_coding_exon_variant=soTree.getTermByAcn("SO:0001792");
+		private final SequenceOntologyTree.Term _2KB_upstream_variant=soTree.getTermByAcn("SO:0001636");
+		private final SequenceOntologyTree.Term _5KB_upstream_variant=soTree.getTermByAcn("SO:0001635");
+		private final SequenceOntologyTree.Term _5KB_downstream_variant=soTree.getTermByAcn("SO:0001633");
+		private final SequenceOntologyTree.Term _500bp_downstream_variant=soTree.getTermByAcn("SO:0001634");
 		
-		final VCFHeader h2=new VCFHeader(header);
-		addMetaData(h2);
-		
-		switch(this.outputSyntax)
-			{
-			case Vep:
-				{
-				h2.addMetaDataLine(new VCFInfoHeaderLine("CSQ",
-						VCFHeaderLineCount.UNBOUNDED,
-						VCFHeaderLineType.String,
-						"Consequence type as predicted by VEP"+
-						". Format: Allele|Feature|Feature_type|Consequence|CDS_position|Protein_position|Amino_acids|Codons"
-						));
-				break;
-				}
-			case SnpEff:
-				{
-				h2.addMetaDataLine(new VCFInfoHeaderLine("ANN",
-						VCFHeaderLineCount.UNBOUNDED,
-						VCFHeaderLineType.String,
-						"Functional annotations: 'Allele | Annotation | Annotation_Impact | Gene_Name | Gene_ID | Feature_Type | Feature_ID | Transcript_BioType | Rank | HGVS.c | HGVS.p | cDNA.pos / cDNA.length | CDS.pos / CDS.length | AA.pos / AA.length | Distance | ERRORS / WARNINGS / INFO'"
-						));
-				break;
-				}
-			default:
-				{
-				final StringBuilder format=new StringBuilder();
-				for(FORMAT1 f:FORMAT1.values())
-					{
-					if(format.length()>0) format.append("|"); 
-					 format.append(f.name()); 
-					}
-				
-				h2.addMetaDataLine(new VCFInfoHeaderLine(TAG, VCFHeaderLineCount.UNBOUNDED, VCFHeaderLineType.String,
-						"Prediction from "+getClass().getSimpleName()+
-						". Format: "+format
-						));
-				break;
-				}
+		Annotator(final ReferenceGenome referenceGenome,final boolean ownReference) {
+			this.referenceGenome = referenceGenome;
+			this.ownReference = ownReference;
+			this.contigNameConverter = ContigNameConverter.fromOneDictionary(this.referenceGenome.getDictionary());
 			}
 		
-        w.writeHeader(h2);
-
-		
-		final SequenceOntologyTree soTree=SequenceOntologyTree.getInstance();
-		final SequenceOntologyTree.Term so_intron=soTree.getTermByAcn("SO:0001627");
-		final SequenceOntologyTree.Term so_exon=soTree.getTermByAcn("SO:0001791");
-		final SequenceOntologyTree.Term so_splice_donor=soTree.getTermByAcn("SO:0001575");
-		final SequenceOntologyTree.Term so_splice_acceptor=soTree.getTermByAcn("SO:0001574");
-		final SequenceOntologyTree.Term so_5_prime_UTR_variant=soTree.getTermByAcn("SO:0001623");
-		final SequenceOntologyTree.Term so_3_prime_UTR_variant=soTree.getTermByAcn("SO:0001624");
-		final SequenceOntologyTree.Term so_splicing_variant=soTree.getTermByAcn("SO:0001568");
-		final SequenceOntologyTree.Term so_stop_lost=soTree.getTermByAcn("SO:0001578");
-		final SequenceOntologyTree.Term so_stop_gained=soTree.getTermByAcn("SO:0001587");
-		final SequenceOntologyTree.Term so_coding_synonymous=soTree.getTermByAcn("SO:0001819");
-		final SequenceOntologyTree.Term so_coding_non_synonymous=soTree.getTermByAcn("SO:0001583");
-		final SequenceOntologyTree.Term so_intergenic=soTree.getTermByAcn("SO:0001628");
-		final SequenceOntologyTree.Term so_nc_transcript_variant=soTree.getTermByAcn("SO:0001619");
-		final SequenceOntologyTree.Term so_non_coding_exon_variant=soTree.getTermByAcn("SO:0001792");
-		final SequenceOntologyTree.Term _2KB_upstream_variant=soTree.getTermByAcn("SO:0001636");
-		final SequenceOntologyTree.Term _5KB_upstream_variant=soTree.getTermByAcn("SO:0001635");
-		final SequenceOntologyTree.Term _5KB_downstream_variant=soTree.getTermByAcn("SO:0001633");
-		final SequenceOntologyTree.Term _500bp_downstream_variant=soTree.getTermByAcn("SO:0001634");
-		
-		
-		final ProgressFactory.Watcher<VariantContext> progress=ProgressFactory.newInstance().dictionary(header).logger(LOG).build();
-		while(r.hasNext())
-			{
-			final VariantContext ctx=progress.apply(r.next());
+		VariantContext annotate(final VariantContext ctx) {
 			final String normalizedContig=contigNameConverter.apply(ctx.getContig());
-			final List<KnownGene> genes=new ArrayList<>();
+			final List<KnownGene> genes;
 			
 			
 			if(!StringUtil.isBlank(normalizedContig)) {
-				for(final List<KnownGene> l2: this.knownGenes.getOverlapping(new Interval(
-						normalizedContig,
-						ctx.getStart(),
-						ctx.getEnd() //1-based
-						)))
-					{
-					genes.addAll(l2);
-					}
+				genes = getOverlappingGenes(normalizedContig, ctx.getStart(), ctx.getEnd());
+				}
+			else
+				{
+				genes = Collections.emptyList();
 				}
 			final List<Annotation> ctx_annotations=new ArrayList<Annotation>();
 			if(genes==null || genes.isEmpty())
@@ -882,14 +904,166 @@ public class VCFPredictions extends Launcher
 			
 			final VariantContextBuilder vb=new VariantContextBuilder(ctx);
 			final String thetag;
-			switch(this.outputSyntax)
+			switch(VCFPredictions.this.outputSyntax)
 				{
 				case Vep : thetag="CSQ"; break;
 				case SnpEff : thetag="ANN"; break;
 				default: thetag=TAG;break;
 				}
 			vb.attribute(thetag, info.toArray());
-			w.add(vb.make());
+			return vb.make();
+			}
+		
+		@Override
+		public void close() {
+			if(this.ownReference) CloserUtil.close(this.referenceGenome);
+			}
+		}
+	
+	/** this thread reads the variants, the workers annotate the batches, the writer thread writes them in the input order */
+	private void runParallel(
+			final VCFIterator r,
+			final VariantContextWriter w,
+			final ProgressFactory.Watcher<VariantContext> progress
+			) throws Exception
+		{
+		final List<Annotator> annotators = Collections.synchronizedList(new ArrayList<>());
+		final ThreadLocal<Annotator> threadAnnotator = ThreadLocal.withInitial(()->{
+			final Annotator annotator;
+			try {
+				annotator = new Annotator(new ReferenceGenomeFactory().open(this.referenceGenomeSource), true);
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			annotators.add(annotator);
+			return annotator;
+			});
+		final ExecutorService executorService = Executors.newFixedThreadPool(this.nThreads);
+		/* batches in the input order. Empty is the end of the input */
+		final BlockingQueue<Optional<Future<List<VariantContext>>>> queue = new ArrayBlockingQueue<>(this.nThreads * 2);
+		final AtomicReference<Throwable> writerError = new AtomicReference<>(null);
+		final Thread writer = new Thread(()->{
+			try {
+				for(;;) {
+					final Optional<Future<List<VariantContext>>> batch = queue.take();
+					if(!batch.isPresent()) break;
+					for(final VariantContext ctx: batch.get().get()) {
+						w.add(ctx);
+						}
+					}
+				}
+			catch(final Throwable err) {
+				writerError.set(err);
+				}
+			},"vcfpredictions-writer");
+		writer.start();
+		try
+			{
+			List<VariantContext> batch = new ArrayList<>(BATCH_SIZE);
+			for(;;) {
+				final boolean has_next = r.hasNext();
+				if(has_next) batch.add(progress.apply(r.next()));
+				if(batch.size() >= BATCH_SIZE || (!has_next && !batch.isEmpty())) {
+					final List<VariantContext> input = batch;
+					final Future<List<VariantContext>> future = executorService.submit(()->{
+						final Annotator annotator = threadAnnotator.get();
+						final List<VariantContext> output = new ArrayList<>(input.size());
+						for(final VariantContext ctx: input) {
+							output.add(annotator.annotate(ctx));
+							}
+						return output;
+						});
+					while(!queue.offer(Optional.of(future), 1, TimeUnit.SECONDS)) {
+						if(!writer.isAlive()) break;
+						}
+					batch = new ArrayList<>(BATCH_SIZE);
+					}
+				if(!has_next || !writer.isAlive()) break;
+				}
+			while(writer.isAlive() && !queue.offer(Optional.empty(), 1, TimeUnit.SECONDS)) {
+				}
+			writer.join();
+			if(writerError.get()!=null) {
+				final Throwable err = writerError.get();
+				if(err instanceof Exception) throw (Exception)err;
+				throw new RuntimeException(err);
+				}
+			}
+		finally
+			{
+			if(writer.isAlive()) writer.interrupt();
+			executorService.shutdownNow();
+			for(final Annotator annotator: annotators) annotator.close();
+			}
+		}
+	
+	@Override
+	protected int doVcfToVcf(final String inputName, final VCFIterator r, VariantContextWriter w)
+		{
+		try {
+		LOG.info("opening REF:"+this.referenceGenomeSource);
+		this.referenceGenome=new ReferenceGenomeFactory().
+				open(this.referenceGenomeSource);
+		loadKnownGenesFromUri();
+		final VCFHeader header= r.getHeader();
+		
+		final VCFHeader h2=new VCFHeader(header);
+		addMetaData(h2);
+		
+		switch(this.outputSyntax)
+			{
+			case Vep:
+				{
+				h2.addMetaDataLine(new VCFInfoHeaderLine("CSQ",
+						VCFHeaderLineCount.UNBOUNDED,
+						VCFHeaderLineType.String,
+						"Consequence type as predicted by VEP"+
+						". Format: Allele|Feature|Feature_type|Consequence|CDS_position|Protein_position|Amino_acids|Codons"
+						));
+				break;
+				}
+			case SnpEff:
+				{
+				h2.addMetaDataLine(new VCFInfoHeaderLine("ANN",
+						VCFHeaderLineCount.UNBOUNDED,
+						VCFHeaderLineType.String,
+						"Functional annotations: 'Allele | Annotation | Annotation_Impact | Gene_Name | Gene_ID | Feature_Type | Feature_ID | Transcript_BioType | Rank | HGVS.c | HGVS.p | cDNA.pos / cDNA.length | CDS.pos / CDS.length | AA.pos / AA.length | Distance | ERRORS / WARNINGS / INFO'"
+						));
+				break;
+				}
+			default:
+				{
+				final StringBuilder format=new StringBuilder();
+				for(FORMAT1 f:FORMAT1.values())
+					{
+					if(format.length()>0) format.append("|"); 
+					 format.append(f.name()); 
+					}
+				
+				h2.addMetaDataLine(new VCFInfoHeaderLine(TAG, VCFHeaderLineCount.UNBOUNDED, VCFHeaderLineType.String,
+						"Prediction from "+getClass().getSimpleName()+
+						". Format: "+format
+						));
+				break;
+				}
+			}
+		
+        w.writeHeader(h2);
+
+		
+		final ProgressFactory.Watcher<VariantContext> progress=ProgressFactory.newInstance().dictionary(header).logger(LOG).build();
+		if(this.nThreads>1) {
+			runParallel(r, w, progress);
+			}
+		else
+			{
+			try(final Annotator annotator = new Annotator(this.referenceGenome, false)) {
+				while(r.hasNext())
+					{
+					w.add(annotator.annotate(progress.apply(r.next())));
+					}
+				}
 			}
 		progress.close();
 		return RETURN_OK;
@@ -898,6 +1072,7 @@ public class VCFPredictions extends Launcher
 			return -1;
 		} finally {
 			CloserUtil.close(this.referenceGenome);
+			CloserUtil.close(this.knownGeneIndex);
 		}
 		}
 	
@@ -29,13 +29,21 @@ import java.io.File;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.lang.reflect.Constructor;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -113,6 +121,9 @@ where
 
 If the user puts `<"STOP",Boolean.TRUE>` in `userData` the scanning of the VCF will be aborted without error.
 
+With `--threads N`, the variants are sent by batches to N threads and each thread uses its own instance of the filter: `userData` is not shared between the threads.
+The variants are written in the input order. When `STOP` is set, the variants after the current one are not written (but some of them may have already been processed by the other threads).
+
 The user code will be inserted in the following java code:
 
 
@@ -399,6 +410,7 @@ java -jar dist/vcffilterjdk.jar -e 'return variant.getGenotypes().stream().allMa
 
 ## History:
 
+  * 20261017 : option `--threads`
   * 20190222 : removed some jaxb stuff
   * 201901 : OpenJdk doesn't support anymore in-memory compiling. Switching to OpenJdkCompiler
 
@@ -414,7 +426,7 @@ END_DOC
 				347173,351205,351404,354126,302217
 				},
 		references="\"bioalcidae, samjs and vcffilterjs: object-oriented formatters and filters for bioinformatics files\" . Bioinformatics, 2017. Pierre Lindenbaum & Richard Redon  [https://doi.org/10.1093/bioinformatics/btx734](https://doi.org/10.1093/bioinformatics/btx734).",
-		modificationDate="20190222"
+		modificationDate="20261017"
 		)
 public class VcfFilterJdk
 	extends Launcher
@@ -453,6 +465,12 @@ public class VcfFilterJdk
 	@Parameter(names={"-xf","--extra-filters"},description="[20180716] extra FILTERs names that will be added in the VCF header and that you can add in the variant using https://samtools.github.io/htsjdk/javadoc/htsjdk/htsjdk/variant/variantcontext/VariantContextBuilder.html#filter-java.lang.String- . Multiple separated by space/comma")
 	private String extraFilters = "";
 
+	@Parameter(names={"--threads"},description="[20261017] number of threads. Each thread has its own instance of the compiled filter: 'userData' is not shared between the threads. The variants are processed by batches and written in the input order.")
+	private int nThreads = 1;
+	
+	@Parameter(names={"--batch-size"},description="[20261017] number of variants sent to a thread in `--threads` mode.")
+	private int batchSize = 1_000;
+
 			
 			
 				
@@ -511,6 +529,172 @@ public class VcfFilterJdk
 		}
 	
 	
+	/** convert the object returned by the user's code to the variants to be written */
+	private List<VariantContext> resultToVariants(
+			final VariantContext variation,
+			final Object result,
+			final VCFFilterHeaderLine filterHeaderLine
+			)
+		{
+		// result is an array of a collection of variants
+		if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
+			{
+			final  Collection<?> col;
+			if(result.getClass().isArray())
+				{
+				final Object array[]=(Object[])result;
+				col= Arrays.asList(array);
+				}
+			else
+				{
+				col =( Collection<?>)result;
+				}
+			final List<VariantContext> variants = new ArrayList<>(col.size());
+			// write all of variants
+			for(final Object item:col)
+				{
+				if(item==null) throw new JvarkitException.UserError("item in array is null");
+				if(!(item instanceof VariantContext)) throw new JvarkitException.UserError("item in array is not a VariantContext "+item.getClass());
+				variants.add(VariantContext.class.cast(item));
+				}
+			return variants;
+			}
+		// result is a VariantContext
+		else if(result!=null && (result instanceof VariantContext)) {
+			return Collections.singletonList(VariantContext.class.cast(result));
+			}
+		else
+			{
+			boolean accept=true;
+			if(result==null)
+				{
+				accept=false;
+				}
+			else if(result instanceof Boolean)
+				{
+				if(Boolean.FALSE.equals(result)) accept = false;
+				}
+			else if(result instanceof Number)
+				{
+				if(((Number)result).intValue()!=1) accept = false;
+				}
+			else
+				{
+				LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
+				accept = false;
+				}
+			if (!accept)
+				{
+				if(filterHeaderLine!=null)
+					{
+					final VariantContextBuilder vcb = new VariantContextBuilder(variation);
+					vcb.filter(filterHeaderLine.getID());
+					return Collections.singletonList(vcb.make());
+					}
+				return Collections.emptyList();
+				}
+			
+			// set PASS filter if needed
+			if(filterHeaderLine!=null && !variation.isFiltered())
+				{
+				return Collections.singletonList(new VariantContextBuilder(variation).passFilters().make());
+				}
+			return Collections.singletonList(variation);
+			}
+		}
+	
+	/** a batch of variants processed by one worker */
+	private static class FilterBatch
+		{
+		final List<VariantContext> input;
+		final List<Object> results;
+		/** index of the variant after which the user asked to STOP, or -1 */
+		int stopIndex = -1;
+		FilterBatch(final List<VariantContext> input) {
+			this.input = input;
+			this.results = new ArrayList<>(input.size());
+			}
+		}
+	
+	/** apply the filters on a pool of threads. Each thread has its own instance of the filter */
+	private void runParallel(
+			final VCFIterator iter,
+			final VariantContextWriter out,
+			final ProgressFactory.Watcher<VariantContext> progress,
+			final Constructor<?> constructor,
+			final VCFHeader header,
+			final VCFFilterHeaderLine filterHeaderLine,
+			final Consumer<VariantContext> recalcAndAdd
+			) throws Exception
+		{
+		final ThreadLocal<AbstractFilter> threadFilter = ThreadLocal.withInitial(()->{
+			try {
+				return (AbstractFilter)constructor.newInstance(header);
+				}
+			catch(final Exception err) {
+				throw new RuntimeException(err);
+				}
+			});
+		final ExecutorService executorService = Executors.newFixedThreadPool(this.nThreads);
+		/* batches in the input order */
+		final Deque<Future<FilterBatch>> pending = new ArrayDeque<>();
+		try
+			{
+			boolean first_batch = true;
+			boolean stop = false;
+			while(!stop && iter.hasNext() && !out.checkError())
+				{
+				final List<VariantContext> input = new ArrayList<>(this.batchSize);
+				while(input.size() < this.batchSize && iter.hasNext()) {
+					input.add(progress.apply(iter.next()));
+					}
+				final boolean is_first_batch = first_batch;
+				final boolean is_last_batch = !iter.hasNext();
+				first_batch = false;
+				pending.add(executorService.submit(()->{
+					final AbstractFilter filter_instance = threadFilter.get();
+					final FilterBatch batch = new FilterBatch(input);
+					for(int i=0;i< input.size();i++) {
+						filter_instance.userData.put("first.variant", is_first_batch && i==0);
+						filter_instance.userData.put("last.variant", is_last_batch && i+1==input.size());
+						batch.results.add(filter_instance.apply(input.get(i)));
+						if(Boolean.TRUE.equals(filter_instance.userData.get("STOP"))) {
+							batch.stopIndex = i;
+							break;
+							}
+						}
+					return batch;
+					}));
+				while(!stop && (pending.size() > this.nThreads * 2 || (!pending.isEmpty() && !iter.hasNext()))) {
+					stop = writeBatch(pending.removeFirst().get(), filterHeaderLine, recalcAndAdd);
+					}
+				}
+			}
+		catch(final ExecutionException err) {
+			if(err.getCause() instanceof Exception) throw (Exception)err.getCause();
+			throw err;
+			}
+		finally
+			{
+			executorService.shutdownNow();
+			}
+		}
+	
+	/** write the variants of a batch, returns true if the user asked to STOP */
+	private boolean writeBatch(
+			final FilterBatch batch,
+			final VCFFilterHeaderLine filterHeaderLine,
+			final Consumer<VariantContext> recalcAndAdd
+			)
+		{
+		for(int i=0;i< batch.results.size();i++) {
+			for(final VariantContext ctx: resultToVariants(batch.input.get(i), batch.results.get(i), filterHeaderLine)) {
+				recalcAndAdd.accept(ctx);
+				}
+			}
+		return batch.stopIndex!=-1;
+		}
+	
 	@Override
 	protected int doVcfToVcf(
 			final String inputName,
@@ -671,91 +855,31 @@ public class VcfFilterJdk
 			JVarkitVersion.getInstance().addMetaData(this, h2);
 			out.writeHeader(h2);
 			
-			filter_instance.userData.put("first.variant", Boolean.TRUE);
-			filter_instance.userData.put("last.variant", Boolean.FALSE);
-	
 			progress = ProgressFactory.newInstance().dictionary(header).logger(LOG).build();
-			while (iter.hasNext() && !out.checkError())
-				{				
-				final VariantContext variation=progress.apply(iter.next());
-				
-				/* handle variant */
-				final Object result = filter_instance.apply(variation);
-				// result is an array of a collection of variants
-				if(result!=null && (result.getClass().isArray() || (result instanceof Collection)))
-					{
-					final  Collection<?> col;
-					if(result.getClass().isArray())
-						{
-						final Object array[]=(Object[])result;
-						col= Arrays.asList(array);
-						}
-					else
-						{
-						col =( Collection<?>)result;
-						}
-					// write all of variants
-					for(final Object item:col)
-						{
-						if(item==null) throw new JvarkitException.UserError("item in array is null");
-						if(!(item instanceof VariantContext)) throw new JvarkitException.UserError("item in array is not a VariantContext "+item.getClass());
-						recalcAndAdd.accept(VariantContext.class.cast(item));
-						}
-					}
-				// result is a VariantContext
-				else if(result!=null && (result instanceof VariantContext)) {
-					recalcAndAdd.accept(VariantContext.class.cast(result));
-					}
-				else
-					{
-					boolean accept=true;
-					if(result==null)
-						{
-						accept=false;
-						}
-					else if(result instanceof Boolean)
-						{
-						if(Boolean.FALSE.equals(result)) accept = false;
-						}
-					else if(result instanceof Number)
-						{
-						if(((Number)result).intValue()!=1) accept = false;
-						}
-					else
-						{
-						LOG.warn("Script returned something that is not a boolean or a number:"+result.getClass());
-						accept = false;
-						}
-					if (!accept)
-						{
-						if(filterHeaderLine!=null)
-							{
-							final VariantContextBuilder vcb = new VariantContextBuilder(variation);
-							vcb.filter(filterHeaderLine.getID());
-							recalcAndAdd.accept(vcb.make());
-							}
-						continue;
-						}
+			if(this.nThreads > 1)
+				{
+				runParallel(iter, out, progress, constructor, header, filterHeaderLine, recalcAndAdd);
+				}
+			else
+				{
+				boolean first_variant = true;
+				while (iter.hasNext() && !out.checkError())
+					{				
+					final VariantContext variation=progress.apply(iter.next());
+					filter_instance.userData.put("first.variant", first_variant);
+					filter_instance.userData.put("last.variant", !iter.hasNext());
+					first_variant = false;
 					
-					// set PASS filter if needed
-					if(filterHeaderLine!=null && !variation.isFiltered())
-						{
-						recalcAndAdd.accept( new VariantContextBuilder(variation).passFilters().make());
-						continue;
+					/* handle variant */
+					final Object result = filter_instance.apply(variation);
+					for(final VariantContext ctx: resultToVariants(variation, result, filterHeaderLine)) {
+						recalcAndAdd.accept(ctx);
 						}
-					recalcAndAdd.accept(variation);
+					/* end handle variant */
+					
+					final Object stop = filter_instance.userData.get("STOP");
+					if(Boolean.TRUE.equals(stop)) break;
 					}
-
-				
-				
-				/* end handle variant */
-				
-				filter_instance.userData.put("first.variant", Boolean.FALSE);
-				filter_instance.userData.put("last.variant", !iter.hasNext());
-				
-				
-				final Object stop = filter_instance.userData.get("STOP");
-				if(Boolean.TRUE.equals(stop)) break;
 				}
 			progress.close();
 			progress = null;
@@ -775,6 +899,11 @@ public class VcfFilterJdk
 	
 	@Override
 	public int doWork(final List<String> args) {
+		if(this.batchSize < 1)
+			{
+			LOG.error("bad batch size");
+			return -1;
+			}
 		if(this.scriptFile!=null && !StringUtil.isBlank(this.scriptExpr))
 			{
 			LOG.error("script file and expression both defined");
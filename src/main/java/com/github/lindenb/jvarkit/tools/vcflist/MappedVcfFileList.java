@@ -0,0 +1,434 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+*/
+package com.github.lindenb.jvarkit.tools.vcflist;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
+
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+
+/**
+ * Memory-mapped implementation of a VcfList.
+ * The '.offsets' index is mapped as a LongBuffer, a plain VCF is mapped as a ByteBuffer
+ * and the decoded BGZF blocks of a compressed VCF are kept in a LRU cache.
+ * 
+ * This class is thread-safe: reads are positional, the codec/inflater are thread-confined
+ * and the caches are shared, so one instance can be used by a pool of workers.
+ * The decoded variants can also be kept in a shared LRU cache.
+ */
+public class MappedVcfFileList extends AbstractList<VariantContext>
+	implements VcfList
+	{
+	private static final Logger LOG=Logger.build(MappedVcfFileList.class).make();
+	/** default number of decoded BGZF blocks kept in memory */
+	public static final int DEFAULT_BLOCK_CACHE_SIZE = 1_000;
+	/** a mapped region cannot be larger than Integer.MAX_VALUE, so files are mapped as segments of 2^SEGMENT_SHIFT bytes */
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+	private static final long SEGMENT_MASK = SEGMENT_SIZE - 1L;
+	private static final int LONGS_PER_SEGMENT = (int)(SEGMENT_SIZE/Long.BYTES);
+
+	/** a decoded BGZF block */
+	private static class Block
+		{
+		/** size of the compressed block on disk */
+		final int compressedSize;
+		/** uncompressed content */
+		final byte data[];
+		Block(final int compressedSize,final byte data[]) {
+			this.compressedSize = compressedSize;
+			this.data = data;
+			}
+		}
+
+	/** thread-confined decoding state */
+	private class Decoder
+		{
+		final VCFCodec codec = new VCFCodec();
+		final Inflater inflater = new Inflater(true);
+		byte lineBuffer[] = new byte[10_000];
+		Decoder() {
+			try {
+				this.codec.readHeader(VCFUtils.convertVCFHeaderToLineIterator(MappedVcfFileList.this.header));
+				}
+			catch(final IOException err) {
+				throw new RuntimeIOException(err);
+				}
+			}
+		void appendToLine(final int len,final byte c) {
+			if(len>=this.lineBuffer.length) {
+				this.lineBuffer = Arrays.copyOf(this.lineBuffer, this.lineBuffer.length*2);
+				}
+			this.lineBuffer[len] = c;
+			}
+		String lineBufferToString(int len) {
+			if(len>0 && this.lineBuffer[len-1]=='\r') len--;
+			return new String(this.lineBuffer,0,len,StandardCharsets.ISO_8859_1);
+			}
+		}
+
+	private final File vcfFile;
+	private final VCFHeader header;
+	private final RandomAccessFile indexio;
+	private final LongBuffer offsets[];
+	private final RandomAccessFile vcfio;
+	private final FileChannel vcfChannel;
+	private final long vcfLength;
+	/** mapped plain VCF, null if vcf is BGZF-compressed */
+	private final ByteBuffer vcfSegments[];
+	/** LRU cache of decoded blocks, null if vcf is not BGZF-compressed */
+	private final Map<Long, Block> blockCache;
+	/** LRU cache of decoded variants, null if disabled */
+	private final Map<Integer, VariantContext> variantCache;
+	private final ThreadLocal<Decoder> decoders = ThreadLocal.withInitial(this::createDecoder);
+	private final List<Decoder> allDecoders = Collections.synchronizedList(new ArrayList<>());
+	private final int _size;
+	private final AtomicLong cacheHits = new AtomicLong(0L);
+	private final AtomicLong cacheMisses = new AtomicLong(0L);
+	private final AtomicLong variantCacheHits = new AtomicLong(0L);
+	private final AtomicLong variantCacheMisses = new AtomicLong(0L);
+
+	MappedVcfFileList(final File vcf,final File indexFile,final int blockCacheSize) throws IOException {
+		this(vcf,indexFile,blockCacheSize,0);
+		}
+
+	MappedVcfFileList(final File vcf,final File indexFile,final int blockCacheSize,final int variantCacheSize) throws IOException {
+		this.vcfFile = vcf;
+		IOUtil.assertFileIsReadable(indexFile);
+		IOUtil.assertFileIsReadable(this.vcfFile);
+		if(blockCacheSize<1) throw new IllegalArgumentException("bad block cache size: "+blockCacheSize);
+		if(variantCacheSize<0) throw new IllegalArgumentException("bad variant cache size: "+variantCacheSize);
+		if(indexFile.lastModified()< this.vcfFile.lastModified()) {
+			LOG.warn("index "+indexFile+" is older than vcf file "+this.vcfFile);
+			}
+		try (final VCFFileReader r=new VCFFileReader(this.vcfFile, false)){
+			this.header = r.getFileHeader();
+			}
+
+		long fileLength = indexFile.length();
+		if(fileLength< VcfOffsetsIndexFactory.MAGIC.length) {
+			throw new IOException("index file doesn't contain magic header " + indexFile);
+			}
+		fileLength-= VcfOffsetsIndexFactory.MAGIC.length;
+		if(fileLength%Long.BYTES!=0) {
+			throw new IOException("bad index file  " + indexFile);
+			}
+		if(fileLength/Long.BYTES > Integer.MAX_VALUE) {
+			throw new IOException("too many variants in index file  " + indexFile);
+			}
+		this._size=(int)(fileLength/Long.BYTES);
+
+		this.indexio = new RandomAccessFile(indexFile, "r");
+		final byte magic[]=new byte[VcfOffsetsIndexFactory.MAGIC.length];
+		this.indexio.readFully(magic);
+		if(!Arrays.equals(magic, VcfOffsetsIndexFactory.MAGIC)) {
+			CloserUtil.close(this.indexio);
+			throw new IOException("bad index file (magic)  " + indexFile);
+			}
+		final FileChannel indexChannel = this.indexio.getChannel();
+		this.offsets = new LongBuffer[(int)((this._size + (long)LONGS_PER_SEGMENT - 1L)/LONGS_PER_SEGMENT)];
+		for(int i=0;i< this.offsets.length;i++)
+			{
+			final long n = Math.min(LONGS_PER_SEGMENT, this._size - (long)i*LONGS_PER_SEGMENT);
+			this.offsets[i] = indexChannel.map(
+					FileChannel.MapMode.READ_ONLY,
+					VcfOffsetsIndexFactory.MAGIC.length + (long)i*SEGMENT_SIZE,
+					n*Long.BYTES
+					).asLongBuffer();
+			}
+
+		this.vcfio = new RandomAccessFile(vcf, "r");
+		this.vcfChannel = this.vcfio.getChannel();
+		this.vcfLength = this.vcfChannel.size();
+		if(vcf.getName().endsWith(".gz"))
+			{
+			this.vcfSegments = null;
+			this.blockCache = Collections.synchronizedMap(new LinkedHashMap<Long, Block>(blockCacheSize+1,0.75f,true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<Long, Block> eldest) {
+					return size() > blockCacheSize;
+					}
+				});
+			}
+		else
+			{
+			this.blockCache = null;
+			this.vcfSegments = new ByteBuffer[(int)((this.vcfLength + SEGMENT_MASK)>>>SEGMENT_SHIFT)];
+			for(int i=0;i< this.vcfSegments.length;i++)
+				{
+				final long start = (long)i << SEGMENT_SHIFT;
+				final MappedByteBuffer mapped = this.vcfChannel.map(
+						FileChannel.MapMode.READ_ONLY,
+						start,
+						Math.min(SEGMENT_SIZE, this.vcfLength-start)
+						);
+				this.vcfSegments[i] = mapped;
+				}
+			}
+		if(variantCacheSize>0) {
+			this.variantCache = Collections.synchronizedMap(new LinkedHashMap<Integer, VariantContext>(variantCacheSize+1,0.75f,true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<Integer, VariantContext> eldest) {
+					return size() > variantCacheSize;
+					}
+				});
+			}
+		else
+			{
+			this.variantCache = null;
+			}
+		}
+
+	private Decoder createDecoder() {
+		final Decoder decoder = new Decoder();
+		this.allDecoders.add(decoder);
+		return decoder;
+		}
+
+	@Override
+	public VCFHeader getHeader() {
+		return this.header;
+		}
+
+	/** get the offset of the index-th variant in the vcf (a virtual offset for BGZF) */
+	private long getOffset(final int index) {
+		return this.offsets[index/LONGS_PER_SEGMENT].get(index%LONGS_PER_SEGMENT);
+		}
+
+	/** read a line in the mapped plain vcf file */
+	private String readPlainLine(final Decoder decoder,long offset) {
+		if(offset>=this.vcfLength) return null;
+		int len=0;
+		while(offset < this.vcfLength) {
+			final ByteBuffer segment = this.vcfSegments[(int)(offset>>>SEGMENT_SHIFT)];
+			int i = (int)(offset & SEGMENT_MASK);
+			final int limit = segment.limit();
+			while(i< limit) {
+				final byte c = segment.get(i);
+				if(c=='\n') return decoder.lineBufferToString(len);
+				decoder.appendToLine(len,c);
+				len++;
+				i++;
+				}
+			offset = (offset | SEGMENT_MASK) + 1L;
+			}
+		return decoder.lineBufferToString(len);
+		}
+
+	/** read and decode the BGZF block starting at 'blockAddress' */
+	private Block readBlock(final Decoder decoder,final long blockAddress) throws IOException {
+		final ByteBuffer headerBuffer = ByteBuffer.allocate(BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH);
+		readFully(headerBuffer, blockAddress);
+		final byte header[]= headerBuffer.array();
+		if(header[0]!=BlockCompressedStreamConstants.GZIP_ID1 || (header[1] & 0xFF)!=BlockCompressedStreamConstants.GZIP_ID2) {
+			throw new IOException("Invalid BGZF block header at "+blockAddress+" in "+this.vcfFile);
+			}
+		final int compressedSize = ((header[BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET] & 0xFF) |
+				((header[BlockCompressedStreamConstants.BLOCK_LENGTH_OFFSET+1] & 0xFF) << 8)) + 1;
+		final ByteBuffer blockBuffer = ByteBuffer.allocate(compressedSize);
+		readFully(blockBuffer, blockAddress);
+		final byte compressed[] = blockBuffer.array();
+		final int isize = (compressed[compressedSize-4] & 0xFF) |
+				((compressed[compressedSize-3] & 0xFF) << 8) |
+				((compressed[compressedSize-2] & 0xFF) << 16) |
+				((compressed[compressedSize-1] & 0xFF) << 24);
+		final byte data[] = new byte[isize];
+		if(isize>0) {
+			try {
+				decoder.inflater.reset();
+				decoder.inflater.setInput(compressed,
+						BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH,
+						compressedSize - BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH
+						);
+				final int n = decoder.inflater.inflate(data, 0, isize);
+				if(n!=isize) throw new IOException("Cannot inflate BGZF block at "+blockAddress+" in "+this.vcfFile);
+				}
+			catch(final DataFormatException err) {
+				throw new IOException(err);
+				}
+			}
+		return new Block(compressedSize, data);
+		}
+
+	/** positional read, doesn't change the position of the channel */
+	private void readFully(final ByteBuffer buffer,long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			final int n = this.vcfChannel.read(buffer, position);
+			if(n<0) throw new IOException("Unexpected end of file in "+this.vcfFile);
+			position+=n;
+			}
+		}
+
+	/** get a decoded block from the cache or read it from the file. Returns null at EOF */
+	private Block getBlock(final Decoder decoder,final long blockAddress) throws IOException {
+		if(blockAddress>=this.vcfLength) return null;
+		Block block = this.blockCache.get(blockAddress);
+		if(block!=null) {
+			this.cacheHits.incrementAndGet();
+			return block;
+			}
+		this.cacheMisses.incrementAndGet();
+		/* two threads may decode the same block at the same time, that's harmless */
+		block = readBlock(decoder,blockAddress);
+		this.blockCache.put(blockAddress, block);
+		return block;
+		}
+
+	/** read a line in the BGZF compressed vcf file */
+	private String readBgzfLine(final Decoder decoder,final long virtualOffset) throws IOException {
+		long blockAddress = BlockCompressedFilePointerUtil.getBlockAddress(virtualOffset);
+		int i = BlockCompressedFilePointerUtil.getBlockOffset(virtualOffset);
+		int len = 0;
+		for(;;) {
+			final Block block = getBlock(decoder,blockAddress);
+			if(block==null) break;
+			final byte data[]=block.data;
+			while(i< data.length) {
+				final byte c = data[i];
+				if(c=='\n') return decoder.lineBufferToString(len);
+				decoder.appendToLine(len,c);
+				len++;
+				i++;
+				}
+			blockAddress += block.compressedSize;
+			i = 0;
+			}
+		return len==0?null:decoder.lineBufferToString(len);
+		}
+
+	@Override
+	public VariantContext get(final int index) {
+		if(index<0 || index>=this.size()) throw new IndexOutOfBoundsException("0<"+index+"<"+size() +" in "+vcfFile);
+		if(this.variantCache!=null) {
+			VariantContext ctx = this.variantCache.get(index);
+			if(ctx!=null) {
+				this.variantCacheHits.incrementAndGet();
+				return ctx;
+				}
+			this.variantCacheMisses.incrementAndGet();
+			ctx = decode(index);
+			/* genotypes and the sample index are lazily decoded: do it now, before the variant is shared between threads */
+			final GenotypesContext genotypes = ctx.getGenotypes();
+			if(genotypes instanceof LazyGenotypesContext) {
+				LazyGenotypesContext.class.cast(genotypes).decode();
+				}
+			genotypes.getSampleNames();
+			this.variantCache.put(index, ctx);
+			return ctx;
+			}
+		return decode(index);
+		}
+
+	private VariantContext decode(final int index) {
+		final Decoder decoder = this.decoders.get();
+		try {
+			final long offset = getOffset(index);
+			final String line = (this.blockCache!=null?
+					readBgzfLine(decoder,offset):
+					readPlainLine(decoder,offset)
+					);
+			if(line==null) throw new IOException("Cannot read line at index "+index+" in "+this.vcfFile);
+			return decoder.codec.decode(line);
+			}
+		catch(final IOException err)
+			{
+			throw new RuntimeIOException(err);
+			}
+		}
+	@Override
+	public int size() {
+		return this._size;
+		}
+
+	/** number of times a BGZF block was found in the cache */
+	public long getBlockCacheHits() {
+		return this.cacheHits.get();
+		}
+
+	/** number of times a BGZF block had to be read and decoded */
+	public long getBlockCacheMisses() {
+		return this.cacheMisses.get();
+		}
+
+	/** number of times a variant was found in the variant cache */
+	public long getVariantCacheHits() {
+		return this.variantCacheHits.get();
+		}
+
+	/** number of times a variant had to be decoded while the variant cache is enabled */
+	public long getVariantCacheMisses() {
+		return this.variantCacheMisses.get();
+		}
+
+	@Override
+	public void close() throws IOException {
+		synchronized(this.allDecoders) {
+			for(final Decoder decoder: this.allDecoders) decoder.inflater.end();
+			this.allDecoders.clear();
+			}
+		if(this.blockCache!=null) this.blockCache.clear();
+		if(this.variantCache!=null) this.variantCache.clear();
+		CloserUtil.close(this.vcfio);
+		CloserUtil.close(this.indexio);
+		}
+	@Override
+	public String toString() {
+		return "MappedVcfList: "+this.vcfFile+
+				(this.blockCache==null?"":" block-cache hits:"+this.cacheHits+" misses:"+this.cacheMisses)+
+				(this.variantCache==null?"":" variant-cache hits:"+this.variantCacheHits+" misses:"+this.variantCacheMisses);
+		}
+	}
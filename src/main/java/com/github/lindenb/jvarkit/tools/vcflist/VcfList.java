@@ -47,6 +47,14 @@ public interface VcfList extends List<VariantContext>,Closeable {
 	public static VcfList fromFile(final File vcfFile,final File indexFile) throws IOException {
 		return new DefaultVcfFileList(vcfFile,indexFile);
 		}
+	/** open a memory-mapped VcfList. For BGZF files, 'blockCacheSize' decoded blocks are kept in memory */
+	public static MappedVcfFileList mapFile(final File vcfFile,final File indexFile,final int blockCacheSize) throws IOException {
+		return new MappedVcfFileList(vcfFile,indexFile,blockCacheSize);
+		}
+	/** open a thread-safe memory-mapped VcfList that can be shared by a pool of workers. 'variantCacheSize' decoded variants are kept in a shared cache */
+	public static MappedVcfFileList mapFile(final File vcfFile,final File indexFile,final int blockCacheSize,final int variantCacheSize) throws IOException {
+		return new MappedVcfFileList(vcfFile,indexFile,blockCacheSize,variantCacheSize);
+		}
 	public static VcfList from(final VCFHeader header,final List<VariantContext> variants) throws IOException {
 		class Tmp extends AbstractList<VariantContext> implements VcfList
 			{
@@ -25,8 +25,6 @@ SOFTWARE.
 package com.github.lindenb.jvarkit.tools.vcfmerge;
 
 import java.io.Closeable;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -38,11 +36,13 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 import htsjdk.tribble.readers.LineIterator;
 import htsjdk.tribble.readers.LineIteratorImpl;
@@ -78,9 +78,11 @@ import com.github.lindenb.jvarkit.util.bio.IntervalParser;
 import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
+import com.github.lindenb.jvarkit.util.iterator.PrefetchIterator;
 import com.github.lindenb.jvarkit.util.log.Logger;
-import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
+import com.github.lindenb.jvarkit.util.vcf.KeyedVcfLine;
+import com.github.lindenb.jvarkit.util.vcf.ReadAheadVCFIterator;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import htsjdk.variant.vcf.VCFIterator;
 /*
@@ -94,12 +96,17 @@ BEGIN_DOC
 $  find ./ -name "*.vcf.gz" | xargs java -jar dist/vcfmerge.jar   > out.vcf
 ```
 
+## History
+
+  * 20261017 : '--sorted' mode uses a priority queue of the inputs, option `--threads` to prefetch the input VCFs. The temporary files of the unsorted mode are compressed.
+
 END_DOC
  */
 @Program(name="vcfmerge",
 	description="Merge VCF Files",
 	deprecatedMsg="use GATK combineVariants.",
-	keywords={"vcf","sort"}
+	keywords={"vcf","sort"},
+	modificationDate="20261017"
 	)
 public class VCFMerge
 	extends Launcher
@@ -121,6 +128,9 @@ public class VCFMerge
 	@Parameter(names={"-region","--region"},description="Merge in that region: " + IntervalParser.OPT_DESC )
 	private String regionStr = "";
 
+	@Parameter(names={"--threads"},description="[20261017] In '--sorted' mode, number of threads used to prefetch and decode the input VCFs while the variants are merged. 0: no prefetch.")
+	private int nThreads = 1;
+
 	
 	@ParametersDelegate
 	private WritingSortingCollection writingSortingCollection = new WritingSortingCollection();
@@ -149,12 +159,19 @@ public class VCFMerge
 		final String origin;
 		AbstractVCFCodec vcfCodec = VCFUtils.createDefaultVCFCodec();
 		VCFHeader header=null;
+		/** index of the samples in the merged VCF, created on first use */
+		private int[] sampleIndexes = null;
 		
 		
 		VCFHandler(final String origin) {
 			this.origin=origin;
 		}
 		
+		int[] getSampleIndexes(final VCFHeader mergedHeader) {
+			if(this.sampleIndexes==null) this.sampleIndexes = mapSampleIndexes(this.header, mergedHeader);
+			return this.sampleIndexes;
+			}
+		
 		VariantContext parse(final String line)
 			{
 			return vcfCodec.decode(line);
@@ -165,98 +182,22 @@ public class VCFMerge
 		}
 	
 	
-	/** VariantContext associated to a file index */
-	private class VariantOfFile
-		implements Comparable<VariantOfFile>
+	/** parse the VCF line using the codec of its file */
+	private VariantContext parse(final KeyedVcfLine vof)
 		{
-		/** will be used to retrieve VCFHeader */
-		int fileIndex=-1;
-		/** vcf line */
-		String line=null;
-		/** variantContext cache */
-		private VariantContext var=null;
-		
-		boolean same(final VariantOfFile var)
-			{
-			return VCFMerge.this.compareChromPosRef.compare(this.parse(),var.parse())==0;
-			}
-		
-
-		@Override
-		public int compareTo(final VariantOfFile var)
-			{
-			final VariantContext vc1=parse();
-			final VariantContext vc2=var.parse();
-			final int i= VCFMerge.this.compareChromPosRef.compare(vc1, vc2);
-			if(i!=0) return i;
-			return fileIndex - var.fileIndex;
-			}
-		
-		
-		VariantContext parse()
-			{
-			if(this.var==null)
-				{
-				this.var=vcfHandlers.get(fileIndex).parse(this.line);
-				}
-			return var;
-			}	
-		}
-	
-	/**
-	 * Variant serializer for sorting collection
-	 *
-	 */
-	private  class VariantCodec
-		extends AbstractDataCodec<VariantOfFile>
-		{
-		@Override
-		public VariantOfFile decode(final DataInputStream dis) throws IOException
-			{
-			final VariantOfFile o=new VariantOfFile();
-			try
-				{
-				o.fileIndex=dis.readInt();
-				}
-			catch(IOException err)
-				{
-				return null;
-				}
-			o.line=readString(dis);
-			return o;
-
-			}
-		@Override
-		public void encode(final DataOutputStream dos,final VariantOfFile s)
-				throws IOException {
-			dos.writeInt(s.fileIndex);
-			writeString(dos,s.line);
-			}
-		@Override
-		public VariantCodec clone() {
-			return new VariantCodec();
-			}
-		}
-	/** sorter for sorting collection */
-	private class VariantComparator implements Comparator<VariantOfFile>
-		{
-		@Override
-		public int compare(final VariantOfFile o1,final VariantOfFile o2)
-			{
-			return o1.compareTo(o2);
-			}
+		return this.vcfHandlers.get(vof.getFileIndex()).parse(vof.getLine());
 		}
 	
 	private List<VariantContext> buildContextFromVariantOfFiles(
 			VCFHeader header,
-			List<VariantOfFile> row
+			List<KeyedVcfLine> row
 			)
 		{
 		if(this.doNotMergeRowLines) {
 			final List<VariantContext> L = new ArrayList<>(row.size());
-			for(final VariantOfFile vof:row)
+			for(final KeyedVcfLine vof:row)
 				{
-				final VariantContext ctx = vof.parse();
+				final VariantContext ctx = parse(vof);
 				final VariantContextBuilder vcb=new VariantContextBuilder(ctx);
 				final List<Genotype> genotypes = new ArrayList<>(ctx.getGenotypes());
 				final Set<String> remainingSamples=new HashSet<String>(header.getSampleNamesInOrder());
@@ -267,7 +208,7 @@ public class VCFMerge
 					}
 				vcb.genotypes(genotypes);
 				vcb.attribute(NO_MERGE_INFO_HEADER.getID(),
-						VCFUtils.escapeInfoField(this.vcfHandlers.get(vof.fileIndex).origin)
+						VCFUtils.escapeInfoField(this.vcfHandlers.get(vof.getFileIndex()).origin)
 						);
 				L.add(vcb.make());
 				}
@@ -276,8 +217,27 @@ public class VCFMerge
 		
 		
 		final List<VariantContext> row2=new ArrayList<VariantContext>(row.size());
-		for(VariantOfFile vof:row) row2.add(vof.parse());
-		return buildContextFromVariantContext(header,row2);
+		final List<int[]> sampleIndexes=new ArrayList<>(row.size());
+		for(final KeyedVcfLine vof:row) {
+			row2.add(parse(vof));
+			sampleIndexes.add(this.vcfHandlers.get(vof.getFileIndex()).getSampleIndexes(header));
+			}
+		return buildContextFromVariantContext(header,row2,sampleIndexes);
+		}
+	
+	/** maps the index of each sample of an input VCF to the index of the sample in the merged VCF */
+	private static int[] mapSampleIndexes(final VCFHeader inputHeader,final VCFHeader mergedHeader)
+		{
+		final Map<String,Integer> sample2index = mergedHeader.getSampleNameToOffset();
+		final List<String> samples = inputHeader.getGenotypeSamples();
+		final int[] indexes = new int[samples.size()];
+		for(int i=0;i< samples.size();++i)
+			{
+			final Integer idx = sample2index.get(samples.get(i));
+			if(idx==null) throw new IllegalStateException("cannot find sample "+samples.get(i)+" in merged header");
+			indexes[i] = idx;
+			}
+		return indexes;
 		}
 	
 	private Genotype createMissingGenotype(final String sampleName,final Allele ref)
@@ -304,9 +264,16 @@ public class VCFMerge
 		};
 		
 	
+	/**
+	 * merge the variants of a row
+	 * @param header the merged header
+	 * @param row variants at the same CHROM/POS/REF
+	 * @param sampleIndexes for each variant of the row, the index of its samples in 'header'
+	 */
 	private List<VariantContext> buildContextFromVariantContext(
 			final VCFHeader header,
-			final List<VariantContext> row
+			final List<VariantContext> row,
+			final List<int[]> sampleIndexes
 			)
 		{
 		final VariantContextBuilder vcb=new VariantContextBuilder();
@@ -317,37 +284,36 @@ public class VCFMerge
 		vcb.start(ctx0.getStart());
 		vcb.stop(ctx0.getEnd());
 		
-		//fill genotypes
-		final HashMap<String,Genotype> sample2genotype=new HashMap<String,Genotype>();
-		for(final VariantContext ctx:row)
+		//fill genotypes, in the order of the samples of the merged header
+		final List<String> sampleNames = header.getGenotypeSamples();
+		final Genotype[] genotypes = new Genotype[sampleNames.size()];
+		for(int r=0;r< row.size();++r)
 			{
-			for(final String sample:ctx.getSampleNames())
+			final VariantContext ctx = row.get(r);
+			final int[] indexes = sampleIndexes.get(r);
+			for(int i=0;i< indexes.length;++i)
 				{
-				final Genotype g1=ctx.getGenotype(sample);
+				final Genotype g1=ctx.getGenotype(i);
 				if(g1==null || !g1.isCalled()) continue;
-				final Genotype g2=sample2genotype.get(sample);
+				final Genotype g2=genotypes[indexes[i]];
 				if(g2==null || this.genotypeComparator.compare(g1, g2)<0)
 					{
-					sample2genotype.put(sample,g1);
+					genotypes[indexes[i]] = g1;
 					}
 				}
 			}
-		// missing samples ?
-		final Set<String> remainingSamples=new HashSet<String>(header.getSampleNamesInOrder());
-		remainingSamples.removeAll(sample2genotype.keySet());
-		for(final String sampleName : remainingSamples)
-			{
-			final Genotype missing = createMissingGenotype(sampleName,row.get(0).getReference());
-			sample2genotype.put(sampleName,missing);
-			}
 		
-		//collect alleles
+		//collect alleles, missing samples ?
 		final List<Allele> alleleList =new ArrayList<>();
 		alleleList.add(ctx0.getReference());
-		for(final String sampleName:sample2genotype.keySet())
+		for(int i=0;i< genotypes.length;++i)
 			{	
-			final Genotype g1=sample2genotype.get(sampleName);
-			if(!g1.isCalled() ) continue;
+			final Genotype g1=genotypes[i];
+			if(g1==null)
+				{
+				genotypes[i] = createMissingGenotype(sampleNames.get(i),ctx0.getReference());
+				continue;
+				}
 			for(final Allele ga: g1.getAlleles())
 				{
 				if(ga.isReference() || alleleList.contains(ga)) continue;
@@ -359,7 +325,7 @@ public class VCFMerge
 		
 		vcb.attributes(atts);
 		vcb.alleles(alleleList);
-		vcb.genotypes(sample2genotype.values());
+		vcb.genotypes(genotypes);
 		return Collections.singletonList(vcb.make());
 		}
 	
@@ -429,14 +395,21 @@ public class VCFMerge
 	/** container uri+vcfIterator */
 	private class PeekVCF implements Closeable
 		{
+		final int fileIndex;
 		final String uri;
 		final VCFFileReader reader;
 		final PeekableIterator<VariantContext> iter;
 		final CloseableIterator<VariantContext> iter0;
 		final VCFHeader header;
+		/** variants at the current CHROM/POS, sorted on REF */
 		final List<VariantContext> buffer = new ArrayList<>();
+		/** index of the current variant in buffer */
+		int bufferIndex = 0;
+		/** index of the samples in the merged VCF, created on first use */
+		private int[] sampleIndexes = null;
 		
-		PeekVCF(final String uri) throws IOException {
+		PeekVCF(final int fileIndex,final String uri,final ExecutorService executor) throws IOException {
+			this.fileIndex = fileIndex;
 			this.uri = uri;
 			if(StringUtil.isBlank(VCFMerge.this.regionStr))
 				{
@@ -453,57 +426,59 @@ public class VCFMerge
 				final Interval rgn = intervalParser.parse(VCFMerge.this.regionStr);
 				this.iter0  = this.reader.query(rgn.getContig(), rgn.getStart(), rgn.getEnd());
 				}
-			this.iter = new PeekableIterator<>(this.iter0); 
+			if(executor==null)
+				{
+				this.iter = new PeekableIterator<>(this.iter0);
+				}
+			else
+				{
+				this.iter = new PeekableIterator<>(new PrefetchIterator<>(
+					this.iter0,
+					executor,
+					ReadAheadVCFIterator::decodeGenotypes,
+					PrefetchIterator.DEFAULT_BATCH_SIZE
+					));
+				}
 			}
 		
-		private List<VariantContext> priv_peek()
+		/** returns the current variant or null at the end of the input */
+		VariantContext head()
 			{
-			if(!this.buffer.isEmpty()) return this.buffer;
+			if(this.bufferIndex < this.buffer.size()) return this.buffer.get(this.bufferIndex);
+			final VariantContext prev = this.buffer.isEmpty()?null:this.buffer.get(0);
+			this.buffer.clear();
+			this.bufferIndex = 0;
 			while(this.iter.hasNext())
 				{
 				final VariantContext ctx= this.iter.peek();
-				if(this.buffer.isEmpty())
-					{
-					this.buffer.add(this.iter.next());
+				// compare with first item in buffer
+				final VariantContext first = this.buffer.isEmpty()?prev:this.buffer.get(0);
+				final int i = first==null?0:VCFMerge.this.compareChromPos.compare(ctx,first);
+				if( i< 0) {
+					throw new JvarkitException.UserError("Variant are not sorted! got: "+ctx+" after "+first+" in "+this.uri);
 					}
-				else
+				else if(i > 0 && !this.buffer.isEmpty())
 					{
-					// compare with first item in buffer
-					final int i = VCFMerge.this.compareChromPos.compare(
-							ctx,
-							this.buffer.get(0) 
-							);
-					if( i< 0) {
-						throw new JvarkitException.UserError("Variant are not sorted! got: "+ctx+" after "+buffer.get(0));
-						}
-					else if(i > 0)
-						{
-						break;
-						}
-					else //i == 0 or growing
-						{
-						buffer.add(this.iter.next());
-						}
+					break;
 					}
+				this.buffer.add(this.iter.next());
 				}
-			Collections.sort(this.buffer, VCFMerge.this.compareChromPosRef);
-			return buffer;
-			}
-		List<VariantContext> peek()
-			{
-			final List<VariantContext> L = priv_peek();
-			if(L.isEmpty() || L.size()==1) return L;
-			return L.stream().
-					filter(V->V==L.get(0) /* compare ptr */|| VCFMerge.this.compareChromPosRef.compare(L.get(0),V)==0).
-					collect(Collectors.toList());
+			if(this.buffer.isEmpty()) return null;
+			if(this.buffer.size()>1) Collections.sort(this.buffer, VCFMerge.this.compareChromPosRef);
+			return this.buffer.get(0);
 			}
 		
-		void reset(final VariantContext ctx0)
+		/** move the variants having the same CHROM/POS/REF as 'key' to the row */
+		void drainTo(final VariantContext key,final VCFHeader mergedHeader,final List<VariantContext> row,final List<int[]> rowSampleIndexes)
 			{
-			this.buffer.removeIf(V->
-					 V.getContig().equals(ctx0.getContig()) &&
-					 V.getStart() == ctx0.getStart()  &&
-				     V.getReference().equals(ctx0.getReference()));
+			if(this.sampleIndexes==null) this.sampleIndexes = mapSampleIndexes(this.header, mergedHeader);
+			while(this.bufferIndex < this.buffer.size() &&
+				VCFMerge.this.compareChromPosRef.compare(this.buffer.get(this.bufferIndex), key)==0)
+				{
+				row.add(this.buffer.get(this.bufferIndex));
+				rowSampleIndexes.add(this.sampleIndexes);
+				this.bufferIndex++;
+				}
 			}
 		
 		@Override
@@ -519,12 +494,12 @@ public class VCFMerge
 			}
 		}
 		
-	
+	/** merge the sorted VCFs using a priority queue of the inputs */
 	private int workUsingPeekIterator()
 		{
 		VariantContextWriter out = null;
 		final List<PeekVCF> input=new ArrayList<PeekVCF>();
-
+		final ExecutorService executor = this.nThreads > 0 ? Executors.newFixedThreadPool(this.nThreads) : null;
 		try {
 			final Set<String> genotypeSampleNames=new TreeSet<String>();
 			final Set<VCFHeaderLine> metaData=new HashSet<VCFHeaderLine>();
@@ -533,7 +508,7 @@ public class VCFMerge
 			for(final String arg:this.userVcfFiles )
 				{
 				LOG.info("Opening "+arg);
-				final PeekVCF p=new PeekVCF(arg);
+				final PeekVCF p=new PeekVCF(input.size(),arg,executor);
 				input.add(p);
 				genotypeSampleNames.addAll(p.header.getSampleNamesInOrder());
 				metaData.addAll(p.header.getMetaDataInInputOrder());
@@ -566,46 +541,42 @@ public class VCFMerge
 			
 			
 			out.writeHeader(headerOut);
+			
+			/* inputs sorted on their current variant */
+			final PriorityQueue<PeekVCF> queue = new PriorityQueue<>(Math.max(1, input.size()),(A,B)->{
+				final int i = this.compareChromPosRef.compare(A.head(), B.head());
+				if(i!=0) return i;
+				return Integer.compare(A.fileIndex, B.fileIndex);
+				});
+			for(final PeekVCF peekVcf: input)
+				{
+				if(peekVcf.head()!=null) queue.add(peekVcf);
+				}
 			final List<VariantContext> row=new ArrayList<VariantContext>(input.size());
-			//find smallest ordered variant
-			long nCountForGC=0L;
-			for(;;)
+			final List<int[]> rowSampleIndexes=new ArrayList<>(input.size());
+			final List<PeekVCF> polled=new ArrayList<PeekVCF>(input.size());
+			while(!queue.isEmpty())
 				{
 				row.clear();
-				for(final PeekVCF peekVcf: input)
+				rowSampleIndexes.clear();
+				polled.clear();
+				//find smallest ordered variant
+				final VariantContext key = queue.peek().head();
+				while(!queue.isEmpty() && this.compareChromPosRef.compare(queue.peek().head(), key)==0)
 					{
-					final List<VariantContext> peekVcfList = peekVcf.peek(); 
-					if(peekVcf.peek().isEmpty()) continue;
-					final VariantContext ctx= peekVcfList.get(0);
-					if(row.isEmpty())
-						{
-						row.addAll(peekVcfList);
-						continue;
-						}
-					final int cmp= this.compareChromPosRef.compare( ctx, row.get(0));
-					if(cmp==0)
-						{
-						row.addAll(peekVcfList);
-						}
-					else if(cmp<0)
-						{
-						row.clear();
-						row.addAll(peekVcfList);
-						}
+					final PeekVCF peekVcf = queue.poll();
+					peekVcf.drainTo(key, headerOut, row, rowSampleIndexes);
+					polled.add(peekVcf);
 					}
-				if(row.isEmpty()) break;
-				
-				for(final VariantContext merged: buildContextFromVariantContext(headerOut, row))
+				for(final PeekVCF peekVcf: polled)
 					{
-					out.add(progress.watch(merged));
+					if(peekVcf.head()!=null) queue.add(peekVcf);
 					}
 				
-				//consumme peeked variants
-				for(final PeekVCF peekVcf: input)
+				for(final VariantContext merged: buildContextFromVariantContext(headerOut, row, rowSampleIndexes))
 					{
-					peekVcf.reset(row.get(0));
+					out.add(progress.watch(merged));
 					}
-				if(nCountForGC++%100000==0) System.gc();
 				}
 			for(final PeekVCF peekVcf: input)
 				{
@@ -629,6 +600,7 @@ public class VCFMerge
 				{
 				p.close();
 				}
+			if(executor!=null) executor.shutdownNow();
 			}
 		}
 	
@@ -660,17 +632,17 @@ public class VCFMerge
 	private int workUsingSortingCollection() 
 		{
 		VariantContextWriter w=null;
-		SortingCollection<VariantOfFile> array = null;
+		SortingCollection<KeyedVcfLine> array = null;
 		InputStream in = null;
-		CloseableIterator<VariantOfFile> iter=null;
+		CloseableIterator<KeyedVcfLine> iter=null;
 			try {
 			final List<String> IN=new ArrayList<String>(this.userVcfFiles);
 			final Set<String> genotypeSampleNames=new TreeSet<String>();
 			final Set<VCFHeaderLine> metaData=new HashSet<VCFHeaderLine>();
 			array= SortingCollection.newInstance(
-					VariantOfFile.class,
-					new VariantCodec(),
-					new VariantComparator(),
+					KeyedVcfLine.class,
+					new KeyedVcfLine.Codec(),
+					KeyedVcfLine.KEY_COMPARATOR,
 					this.writingSortingCollection.getMaxRecordsInRam(),
 					this.writingSortingCollection.getTmpPaths()
 					);
@@ -702,13 +674,13 @@ public class VCFMerge
 					{
 					throw new JvarkitException.DictionariesAreNotTheSame(global_dictionary, dict1);
 					}
-				final Predicate<VariantOfFile> accept;
+				final Predicate<KeyedVcfLine> accept;
 				if(!StringUtil.isBlank(VCFMerge.this.regionStr)) {
 					final IntervalParser intervalParser=new IntervalParser(dict1);
 					intervalParser.setContigNameIsWholeContig(true);
 					final Interval rgn = intervalParser.parse(VCFMerge.this.regionStr);
 					accept = (VOL)->{
-						final VariantContext ctx = VOL.parse();
+						final VariantContext ctx = parse(VOL);
 						return rgn.intersects(new Interval(ctx.getContig(), ctx.getStart(),ctx.getEnd()));
 						};
 					}
@@ -720,9 +692,7 @@ public class VCFMerge
 				
 				while(lit.hasNext())
 					{					
-					final VariantOfFile vof=new VariantOfFile();
-					vof.fileIndex=fileIndex;
-					vof.line=lit.next();
+					final KeyedVcfLine vof=new KeyedVcfLine(lit.next(),fileIndex,this.global_dictionary);
 					if(!accept.test(vof)) continue;
 					array.add(vof);
 					}
@@ -753,10 +723,10 @@ public class VCFMerge
 			w= super.openVariantContextWriter(outputFile);
 			w.writeHeader(mergeHeader);
 			iter= array.iterator();
-			final List<VariantOfFile> row=new ArrayList<VariantOfFile>();
+			final List<KeyedVcfLine> row=new ArrayList<KeyedVcfLine>();
 			for(;;)
 				{
-				VariantOfFile var=null;
+				KeyedVcfLine var=null;
 				if(iter.hasNext())
 					{
 					var=iter.next();
@@ -774,7 +744,7 @@ public class VCFMerge
 					break;
 					}
 	
-				if(!row.isEmpty() && !row.get(0).same(var))
+				if(!row.isEmpty() && !row.get(0).hasSameChromPosRef(var))
 					{
 					for(final VariantContext merged:  buildContextFromVariantOfFiles(mergeHeader,row))
 						{
@@ -25,6 +25,8 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.tools.vcfserver;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FilterOutputStream;
@@ -34,8 +36,16 @@ import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -64,9 +74,9 @@ import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.StringUtil;
+import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.VariantContextUtils;
 import htsjdk.variant.variantcontext.VariantContextUtils.JexlVCMatchExp;
-import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.filter.JavascriptVariantFilter;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
@@ -107,13 +117,45 @@ $ java -jar dist/vcfserver.jar input.vcf.gz
 ```
 
 
+## Caches
+
+The server keeps a few open readers for each VCF (option `--readers`). Each reader is used by one request at a time.
+When the modification time of a VCF changes, its header and its open readers are dropped, and the cached tables of the previous version are not used anymore.
+
+The Javascript/JEXL filters are compiled once and kept in a cache, by expression (option `--filter-cache`).
+Javascript filters are not thread-safe: concurrent requests using the same Javascript expression are evaluated one after the other.
+
+The rendered tables are kept in a cache, by VCF, interval, filter and display options (option `--page-cache`). The least recently used tables are evicted first when the total size is exceeded.
+The table is always streamed to the client. A table larger than 1/16 of the cache is not kept in the cache.
+
+## Metrics
+
+The number of requests, the cache hits and the latencies are available at `http://localhost:8080/metrics`.
+
+```
+$ curl -s "http://localhost:8080/metrics"
+requests	12
+page.cache.hits	5
+errors	0
+latency.mean.ms	135
+latency.max.ms	912
+page.cache.count	7
+page.cache.bytes	1803456
+```
+
+## History
+
+  * 20261017 : pool of readers, cache of the compiled filters and of the rendered tables, metrics.
+
 END_DOC
 
 **/
 
 @Program(name="vcfserver",
 description="Web Server displaying VCF file. A web interface for vcf2table",
-keywords={"vcf","table","visualization","server","web"})
+keywords={"vcf","table","visualization","server","web"},
+modificationDate="20261017"
+)
 public class VcfServer extends Launcher{
 private static final Logger LOG=Logger.build(VcfServer.class).make();
 private static final int DEFAULT_LIMIT=100;
@@ -138,6 +180,12 @@ private long timeout_seconds =60;
 private boolean use_jexl = false;
 @Parameter(names={"--url"},description=Launcher.USER_CUSTOM_INTERVAL_URL_DESC)
 private String userCustomUrl=null;
+@Parameter(names={"--readers"},description="[20261017] Number of idle readers kept open for each VCF. A reader is used by one request at a time.")
+private int max_idle_readers=4;
+@Parameter(names={"--filter-cache"},description="[20261017] Number of compiled Javascript/JEXL filters kept in the cache, by expression.")
+private int filter_cache_size=100;
+@Parameter(names={"--page-cache"},description="[20261017] Size, in megabytes, of the cache of the rendered tables, by VCF, interval, filter and options. '0' disables the cache.")
+private int page_cache_mb=64;
 
 /** used to escape the text output in pre tag */
 private static class EscapeXmlOutputStream
@@ -178,15 +226,270 @@ private static class EscapeXmlOutputStream
 		}
 	}
 
+/** copy of the rendered table, sent to the client and kept while it is smaller than a maximum size */
+static class PageCapture
+	extends FilterOutputStream
+	{
+	private final long maxBytes;
+	private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+	PageCapture(final OutputStream delegate,final long maxBytes)
+		{
+		super(delegate);
+		this.maxBytes = maxBytes;
+		}
+	@Override
+	public void write(int b) throws IOException {
+		super.out.write(b);
+		if(this.copy!=null)
+			{
+			this.copy.write(b);
+			if(this.copy.size() > this.maxBytes) this.copy = null;
+			}
+		}
+	@Override
+	public void write(final byte[] b, int off, int len) throws IOException {
+		super.out.write(b, off, len);
+		if(this.copy!=null)
+			{
+			this.copy.write(b, off, len);
+			if(this.copy.size() > this.maxBytes) this.copy = null;
+			}
+		}
+	/** @return the content or null if the page was too large */
+	byte[] getContent() {
+		return this.copy==null?null:this.copy.toByteArray();
+		}
+	}
+
+/** a rendered table in the page cache */
+static class Page
+	{
+	final byte[] content;
+	final boolean has_more;
+	Page(final byte[] content,final boolean has_more)
+		{
+		this.content = content;
+		this.has_more = has_more;
+		}
+	}
 
-private class ViewVcfHandler extends AbstractHandler
+/** LRU cache of the rendered tables, evicted on the total size of the pages */
+static class PageCache
+	{
+	private final long maxBytes;
+	private long totalBytes = 0L;
+	private final LinkedHashMap<String, Page> pages = new LinkedHashMap<>(16, 0.75f, true);
+	PageCache(final long maxBytes)
+		{
+		this.maxBytes = maxBytes;
+		}
+	/** larger pages are not cached */
+	long getMaxPageBytes() {
+		return this.maxBytes/16L;
+		}
+	synchronized Page get(final String key) {
+		return this.pages.get(key);
+		}
+	synchronized void put(final String key,final Page page) {
+		if(page.content.length > getMaxPageBytes()) return;
+		final Page old = this.pages.put(key, page);
+		if(old!=null) this.totalBytes -= old.content.length;
+		this.totalBytes += page.content.length;
+		final Iterator<Page> iter = this.pages.values().iterator();
+		while(this.totalBytes > this.maxBytes && iter.hasNext())
+			{
+			this.totalBytes -= iter.next().content.length;
+			iter.remove();
+			}
+		}
+	synchronized int size() {
+		return this.pages.size();
+		}
+	synchronized long getTotalBytes() {
+		return this.totalBytes;
+		}
+	}
+
+/** pool of open readers for one VCF. A reader is used by one request at a time.
+ * When the modification time of the VCF changes, the header and the idle readers are dropped
+ * and the readers still in use are closed when they are released. */
+static class VcfReaderPool
+	implements Closeable
+	{
+	private final File vcfFile;
+	private final int maxIdle;
+	private final Deque<VCFFileReader> idle = new ArrayDeque<>();
+	/** readers opened since the last modification of the VCF, idle or in use */
+	private final Set<VCFFileReader> opened = Collections.newSetFromMap(new IdentityHashMap<>());
+	private long lastModified;
+	private VCFHeader header = null;
+	private boolean closed = false;
+	VcfReaderPool(final File vcfFile,final int maxIdle)
+		{
+		this.vcfFile = vcfFile;
+		this.maxIdle = maxIdle;
+		this.lastModified = vcfFile.lastModified();
+		}
+	/** drop the header and the idle readers if the VCF was modified */
+	private synchronized void checkModified() {
+		final long mtime = this.vcfFile.lastModified();
+		if(mtime == this.lastModified) return;
+		LOG.info(this.vcfFile+" was modified. Dropping the open readers.");
+		this.lastModified = mtime;
+		this.header = null;
+		this.opened.clear();
+		while(!this.idle.isEmpty()) CloserUtil.close(this.idle.pop());
+		}
+	/** modification time of the VCF when the header and the readers were opened */
+	synchronized long getLastModified() {
+		checkModified();
+		return this.lastModified;
+		}
+	/** header of the VCF, loaded once for each modification of the VCF */
+	VCFHeader getHeader() {
+		synchronized(this) {
+			checkModified();
+			if(this.header!=null) return this.header;
+			}
+		final VCFFileReader reader = borrow();
+		try {
+			synchronized(this) {
+				if(this.header==null && this.opened.contains(reader)) this.header = reader.getFileHeader();
+				return this.header==null?reader.getFileHeader():this.header;
+				}
+			}
+		finally
+			{
+			release(reader);
+			}
+		}
+	VCFFileReader borrow() {
+		synchronized(this) {
+			if(this.closed) throw new IllegalStateException("pool is closed for "+this.vcfFile);
+			checkModified();
+			if(!this.idle.isEmpty()) return this.idle.pop();
+			}
+		final VCFFileReader reader = new VCFFileReader(this.vcfFile, true);
+		synchronized(this) {
+			this.opened.add(reader);
+			}
+		return reader;
+		}
+	void release(final VCFFileReader reader) {
+		synchronized(this) {
+			if(!this.closed && this.opened.contains(reader) && this.idle.size() < this.maxIdle)
+				{
+				this.idle.push(reader);
+				return;
+				}
+			this.opened.remove(reader);
+			}
+		CloserUtil.close(reader);
+		}
+	/** number of idle readers */
+	synchronized int getIdleCount() {
+		return this.idle.size();
+		}
+	@Override
+	public synchronized void close() {
+		this.closed = true;
+		this.opened.clear();
+		while(!this.idle.isEmpty()) CloserUtil.close(this.idle.pop());
+		}
+	}
+
+/** latency of the requests */
+private static class Metrics
+	{
+	private final AtomicLong count = new AtomicLong(0L);
+	private final AtomicLong pageHits = new AtomicLong(0L);
+	private final AtomicLong errors = new AtomicLong(0L);
+	private final AtomicLong totalMillis = new AtomicLong(0L);
+	private final AtomicLong maxMillis = new AtomicLong(0L);
+	void record(final long millis,final boolean page_hit,final boolean success) {
+		this.count.incrementAndGet();
+		if(page_hit) this.pageHits.incrementAndGet();
+		if(!success) this.errors.incrementAndGet();
+		this.totalMillis.addAndGet(millis);
+		this.maxMillis.accumulateAndGet(millis, Math::max);
+		}
+	void print(final PrintWriter pw,final PageCache pageCache) {
+		final long n = this.count.get();
+		pw.println("requests\t"+n);
+		pw.println("page.cache.hits\t"+this.pageHits.get());
+		pw.println("errors\t"+this.errors.get());
+		pw.println("latency.mean.ms\t"+(n==0L?0L:this.totalMillis.get()/n));
+		pw.println("latency.max.ms\t"+this.maxMillis.get());
+		pw.println("page.cache.count\t"+pageCache.size());
+		pw.println("page.cache.bytes\t"+pageCache.getTotalBytes());
+		}
+	}
+
+
+private class ViewVcfHandler extends AbstractHandler implements Closeable
 	{
 	private final List<File> vcfFiles;
-	
+	private final Map<File,VcfReaderPool> readerPools = new LinkedHashMap<>();
+	private final PageCache pageCache = new PageCache(VcfServer.this.page_cache_mb * 1_000_000L);
+	private final Metrics metrics = new Metrics();
+	/** compiled filters, by expression */
+	private final Map<String,Predicate<VariantContext>> filterCache = Collections.synchronizedMap(
+		new LinkedHashMap<String,Predicate<VariantContext>>(VcfServer.this.filter_cache_size+1,0.75f,true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String,Predicate<VariantContext>> eldest) {
+				return size() > VcfServer.this.filter_cache_size;
+				}
+			});
 	
 	ViewVcfHandler(final List<File> vcfFiles)
 		{
 		this.vcfFiles = vcfFiles;
+		for(final File vcfFile: vcfFiles)
+			{
+			this.readerPools.put(vcfFile, new VcfReaderPool(vcfFile, VcfServer.this.max_idle_readers));
+			}
+		}
+	
+	/** get the compiled filter from the cache, or compile it */
+	private Predicate<VariantContext> getFilter(final File vcfFile,final VCFHeader header,final String expr) throws IOException
+		{
+		/* the javascript filter is bound to the header of the VCF */
+		final String key = VcfServer.this.use_jexl?
+				"jexl\t"+expr:
+				"js\t"+vcfFile.getPath()+"\t"+this.readerPools.get(vcfFile).getLastModified()+"\t"+expr
+				;
+		Predicate<VariantContext> filter = this.filterCache.get(key);
+		if(filter!=null) return filter;
+		if(VcfServer.this.use_jexl)
+			{
+			/* interpreted by JEXL, like VariantContextUtils.match: the expressions come from the clients
+			 * and must not be compiled to java classes */
+			final JexlVCMatchExp exp = VariantContextUtils.initializeMatchExps(
+					Collections.singletonList("CUSTOM_JEXL_FILTER"),
+					Collections.singletonList(expr)
+					).get(0);
+			filter = (V)->VariantContextUtils.match(V, exp);
+			}
+		else
+			{
+			final StringReader scriptReader = new StringReader(expr);
+			final JavascriptVariantFilter jsFilter=new JavascriptVariantFilter(scriptReader, header);
+			scriptReader.close();
+			/* the bindings of the script are shared */
+			filter = (V)-> {
+				synchronized(jsFilter) {
+					return jsFilter.test(V);
+					}
+				};
+			}
+		this.filterCache.put(key, filter);
+		return filter;
+		}
+	
+	@Override
+	public void close() {
+		this.readerPools.values().forEach(P->P.close());
 		}
 	
 	private abstract class DelegateHandler implements Closeable
@@ -590,19 +893,21 @@ private class ViewVcfHandler extends AbstractHandler
 			}
 		@Override
 		void writeHtmlBody() throws XMLStreamException {
+			final long start_request = System.currentTimeMillis();
 			final String rgn_str=request.getParameter(REGION_PARAM);
 			final File vcfFile= getOwner().getVcfFile(this.request);
 			writeForm();
 			writer.writeEmptyElement("hr");
 			flush();
-			
-			
+
+			final VcfReaderPool readerPool = getOwner().readerPools.get(vcfFile);
 			VCFFileReader reader=null;
 			CloseableIterator<VariantContext> iter=null;
+			boolean page_hit = false;
+			boolean success = false;
 			try
 				{
-				reader = new VCFFileReader(vcfFile, true);
-				final VCFHeader header = reader.getFileHeader();
+				final VCFHeader header = readerPool.getHeader();
 				if(header==null)
 					{
 					writeError("Cannot get header of "+header);
@@ -614,50 +919,67 @@ private class ViewVcfHandler extends AbstractHandler
 					writeError("Empty or null Dictionary in "+vcfFile);
 					return;
 					}
-				
+
 				final Interval interval;
-				
-				if(!StringUtil.isBlank(rgn_str)) 
+
+				if(!StringUtil.isBlank(rgn_str))
 					{
 					final IntervalParser parser= new IntervalParser(dict);
 					parser.setFixContigName(true);
 					parser.setContigNameIsWholeContig(true);
 					parser.setRaiseExceptionOnError(false);
-					interval = parser.parse(rgn_str);	
+					interval = parser.parse(rgn_str);
 					}
 				else
 					{
 					interval = null;
 					}
-				final Predicate<VariantContext> variantPredicate;
 				final String js_str= (VcfServer.this.use_jexl ?null:this.request.getParameter(JAVASCRIPT_PARAM));
 				final String jexl_str= (VcfServer.this.use_jexl ?this.request.getParameter(JEXL_PARAM):null);
+				final String filter_str = VcfServer.this.use_jexl?jexl_str:js_str;
+				final boolean text_output= "true".equals(this.request.getParameter(TEXT_FORMAT_PARAM));
+				final boolean show_header = "true".equals(this.request.getParameter(SHOW_HEADER_PARAM));
+				final boolean hide_genotypes = "true".equals(this.request.getParameter(HIDE_GENOTYPES_PARAM));
+				final boolean hide_homref = "true".equals(this.request.getParameter(HIDE_HOMREF_PARAM));
+				final boolean hide_nocall = "true".equals(this.request.getParameter(HIDE_NOCALL_PARAM));
+				int limit=DEFAULT_LIMIT;
+				final String limit_str = request.getParameter(LIMIT_PARAM);
+				try {
+					limit=StringUtil.isBlank(limit_str)?
+						DEFAULT_LIMIT:
+						Integer.parseInt(limit_str)
+						;
+					}
+				catch(NumberFormatException err)
+					{
+					limit=DEFAULT_LIMIT;
+					}
+
+				/* key of the rendered table in the page cache */
+				final String page_key = String.join("\t",
+						vcfFile.getPath(),
+						String.valueOf(readerPool.getLastModified()),
+						interval==null?"":interval.toString(),
+						StringUtil.isBlank(filter_str)?"":filter_str,
+						String.valueOf(text_output),
+						String.valueOf(show_header),
+						String.valueOf(hide_genotypes),
+						String.valueOf(hide_homref),
+						String.valueOf(hide_nocall),
+						String.valueOf(limit)
+						);
+				final Page cachedPage = getOwner().pageCache.get(page_key);
 
-				if(!StringUtil.isBlank(jexl_str) && VcfServer.this.use_jexl)
+				final Predicate<VariantContext> variantPredicate;
+				if(cachedPage!=null || StringUtil.isBlank(filter_str))
 					{
-				
-					try
-						{
-						final List<JexlVCMatchExp> exps= VariantContextUtils.initializeMatchExps(
-								Collections.singletonList("CUSTOM_JEXL_FILTER"),
-								Collections.singletonList(jexl_str)
-								);
-						variantPredicate = (V)-> VariantContextUtils.match(V,exps.get(0));
-						}
-					catch(final Exception err)
-						{
-						writeException(err);
-						return;
-						}
+					variantPredicate =  (V)->true;
 					}
-				else if(!StringUtil.isBlank(js_str) && !VcfServer.this.use_jexl)
+				else
 					{
 					try
 						{
-						final StringReader scriptReader = new StringReader(js_str);
-						final JavascriptVariantFilter jsFilter=new JavascriptVariantFilter(scriptReader, header);
-						scriptReader.close();
-						variantPredicate = (V)-> jsFilter.test(V);
+						variantPredicate = getOwner().getFilter(vcfFile, header, filter_str);
 						}
 					catch(final Exception err)
 						{
@@ -665,95 +987,101 @@ private class ViewVcfHandler extends AbstractHandler
 						return;
 						}
 					}
-				else
-					{
-					variantPredicate =  (V)->true;
-					}
 				this.writer.writeComment("BEGIN-TABLE");
 				this.writer.writeCharacters("");
-				
-				final boolean text_output= "true".equals(this.request.getParameter(TEXT_FORMAT_PARAM));
 
 				if(text_output) {
 					this.writer.writeStartElement("pre");
 					this.writer.writeCharacters("");
 					}
 				this.flush();
-				
-				
-				final VcfToTable.VcfToTableViewer vcfToTable=new VcfToTable.VcfToTableViewer();
-				vcfToTable.setOutputFormat(text_output?
-						VcfToTable.OutputFormat.text:
-						VcfToTable.OutputFormat.html
-						);
-				final PrintStream newOut= new PrintStream(
-						new EscapeXmlOutputStream(
-						IOUtils.uncloseableOutputStream(this.response.getOutputStream()),
-						text_output
-						));
-				vcfToTable.setOutputStream(newOut);
-				vcfToTable.setHideHtmlHeader(true);//always
-				vcfToTable.setPrintHeader("true".equals(this.request.getParameter(SHOW_HEADER_PARAM)));
-				vcfToTable.setHideGenotypes("true".equals(this.request.getParameter(HIDE_GENOTYPES_PARAM)));
-				vcfToTable.setHideHomRefGenotypes("true".equals(this.request.getParameter(HIDE_HOMREF_PARAM)));
-				vcfToTable.setHideNoCallGenotypes("true".equals(this.request.getParameter(HIDE_NOCALL_PARAM)));
-				vcfToTable.setUseANSIColors(!text_output);
-				vcfToTable.setUserCustomUrl(VcfServer.this.userCustomUrl);
-				
-				vcfToTable.writeHeader(header);
-				if(VcfServer.this.pedigreeFile!=null)
-					{
-					vcfToTable.setPedigreeFile(VcfServer.this.pedigreeFile);
-					}
-				if(interval==null)
+
+				boolean timeout_flag = false;
+				final boolean has_more;
+				if(cachedPage!=null)
 					{
-					iter = reader.iterator();
+					page_hit = true;
+					this.response.getOutputStream().write(cachedPage.content);
+					this.response.getOutputStream().flush();
+					has_more = cachedPage.has_more;
 					}
 				else
 					{
-					iter = reader.query(interval.getContig(), interval.getStart(), interval.getEnd());
-					}
-				int limit=DEFAULT_LIMIT;
-				final String limit_str = request.getParameter(LIMIT_PARAM);
-				try {
-					limit=StringUtil.isBlank(limit_str)?
-						DEFAULT_LIMIT:
-						Integer.parseInt(limit_str)
-						;
-					}
-				catch(NumberFormatException err)
-					{
-					limit=DEFAULT_LIMIT;
-					}
-				final long start_millisec = System.currentTimeMillis();
-				boolean timeout_flag = false;
-				while(iter!=null && iter.hasNext() && limit>0)
-					{
-					final VariantContext ctx = iter.next();
-					if(!variantPredicate.test(ctx)) continue;
-					
-					final long now_millisec = System.currentTimeMillis();
-					if( now_millisec - start_millisec > VcfServer.this.timeout_seconds * 1000L)
+					reader = readerPool.borrow();
+
+					final VcfToTable.VcfToTableViewer vcfToTable=new VcfToTable.VcfToTableViewer();
+					vcfToTable.setOutputFormat(text_output?
+							VcfToTable.OutputFormat.text:
+							VcfToTable.OutputFormat.html
+							);
+					/* stream the table to the client, keep a copy for the cache if the page is small enough */
+					final PageCapture pageCapture = new PageCapture(
+							IOUtils.uncloseableOutputStream(this.response.getOutputStream()),
+							getOwner().pageCache.getMaxPageBytes()
+							);
+					final PrintStream newOut= new PrintStream(
+							new EscapeXmlOutputStream(
+							new BufferedOutputStream(pageCapture),
+							text_output
+							));
+					vcfToTable.setOutputStream(newOut);
+					vcfToTable.setHideHtmlHeader(true);//always
+					vcfToTable.setPrintHeader(show_header);
+					vcfToTable.setHideGenotypes(hide_genotypes);
+					vcfToTable.setHideHomRefGenotypes(hide_homref);
+					vcfToTable.setHideNoCallGenotypes(hide_nocall);
+					vcfToTable.setUseANSIColors(!text_output);
+					vcfToTable.setUserCustomUrl(VcfServer.this.userCustomUrl);
+
+					vcfToTable.writeHeader(header);
+					if(VcfServer.this.pedigreeFile!=null)
+						{
+						vcfToTable.setPedigreeFile(VcfServer.this.pedigreeFile);
+						}
+					if(interval==null)
+						{
+						iter = reader.iterator();
+						}
+					else
+						{
+						iter = reader.query(interval.getContig(), interval.getStart(), interval.getEnd());
+						}
+					final long start_millisec = System.currentTimeMillis();
+					while(iter!=null && iter.hasNext() && limit>0)
+						{
+						final VariantContext ctx = iter.next();
+						if(!variantPredicate.test(ctx)) continue;
+
+						final long now_millisec = System.currentTimeMillis();
+						if( now_millisec - start_millisec > VcfServer.this.timeout_seconds * 1000L)
+							{
+							timeout_flag=true;
+							break;
+							}
+
+						vcfToTable.add(ctx);
+						--limit;
+						}
+
+					vcfToTable.close();
+
+					newOut.flush();
+					newOut.close();
+					has_more = iter!=null && iter.hasNext();
+
+					final byte[] content = pageCapture.getContent();
+					if(!timeout_flag && content!=null)
 						{
-						timeout_flag=true;
-						break;
-						}	
-					
-					vcfToTable.add(ctx);
-					--limit;
+						getOwner().pageCache.put(page_key, new Page(content, has_more));
+						}
 					}
-				
-				vcfToTable.close();
-				
-				newOut.flush();
-				newOut.close();
-				
+
 				if(text_output)
 					{
 					this.writer.writeCharacters("");
 					this.writer.writeEndElement();//pre
 					}
-				if(iter!=null && iter.hasNext())
+				if(has_more)
 					{
 					this.writer.writeStartElement("p");
 					this.writer.writeAttribute("class", "error");
@@ -761,7 +1089,7 @@ private class ViewVcfHandler extends AbstractHandler
 					this.writer.writeEndElement();
 					this.writer.flush();
 					}
-				
+
 				if(timeout_flag)
 					{
 					this.writer.writeStartElement("p");
@@ -770,10 +1098,11 @@ private class ViewVcfHandler extends AbstractHandler
 					this.writer.writeEndElement();
 					this.writer.flush();
 					}
-				
-				
+
+
 				this.writer.writeComment("END-TABLE");
 				this.flush();
+				success = true;
 				}
 			catch(final Exception err)
 				{
@@ -782,7 +1111,11 @@ private class ViewVcfHandler extends AbstractHandler
 			finally
 				{
 				CloserUtil.close(iter);
-				CloserUtil.close(reader);
+				if(reader!=null) readerPool.release(reader);
+				final long millis = System.currentTimeMillis() - start_request;
+				getOwner().metrics.record(millis, page_hit, success);
+				LOG.info(vcfFile.getName()+" \""+(StringUtil.isBlank(rgn_str)?"":rgn_str)+"\" "+
+						millis+"ms"+(page_hit?" (cached)":"")+(success?"":" (error)"));
 				}
 			}
 		}
@@ -809,6 +1142,15 @@ private class ViewVcfHandler extends AbstractHandler
 			final javax.servlet.http.HttpServletResponse res
 			) throws java.io.IOException ,javax.servlet.ServletException
 		{
+		if("/metrics".equals(arg0))
+			{
+			res.setContentType("text/plain");
+			final PrintWriter pw = res.getWriter();
+			this.metrics.print(pw, this.pageCache);
+			pw.flush();
+			jetty.setHandled(true);
+			return;
+			}
 		DelegateHandler delegate=null;
 		final File file = this.getVcfFile(req);
 		
@@ -840,6 +1182,7 @@ private class ViewVcfHandler extends AbstractHandler
 @Override
 public int doWork(final List<String> args) {
 	Server server = null;
+	ViewVcfHandler viewVcfHandler = null;
 	try
 		{
 		final List<File> vcfFiles = IOUtil.unrollFiles(args.stream().
@@ -856,7 +1199,8 @@ public int doWork(final List<String> args) {
 		
 		server = new Server(this.port);
 		final HandlerList handlers = new HandlerList();
-		handlers.addHandler(new ViewVcfHandler(vcfFiles));
+		viewVcfHandler = new ViewVcfHandler(vcfFiles);
+		handlers.addHandler(viewVcfHandler);
 		server.setHandler(handlers);
 		LOG.info("Starting "+VcfServer.class.getName()+" on http://localhost:"+this.port);
 		server.start();
@@ -874,6 +1218,7 @@ public int doWork(final List<String> args) {
 			
 			server.destroy();
 			}
+		CloserUtil.close(viewVcfHandler);
 		}
 	}
 
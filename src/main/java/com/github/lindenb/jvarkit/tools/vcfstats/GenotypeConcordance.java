@@ -0,0 +1,209 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2026 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.tools.vcfstats;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.github.lindenb.jvarkit.util.counter.PairCounter;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+
+/**
+ * Genotype concordance for each pair of samples: number of variants where both samples are called
+ * and <code>Genotype.sameGenotype</code> is true.
+ * 
+ * The genotypes of the variants are packed by blocks: each genotype is encoded with 2 bits 
+ * (no-call, hom-ref, het, hom-var) in a <code>long[]</code> per sample. When a block is full, the
+ * concordance of each pair of samples is counted with a bitwise comparison of their words and <code>Long.bitCount</code>.
+ * The variants that cannot be encoded with 2 bits (more than one ALT allele in the genotypes, mixed ploidies, partial no-call...)
+ * are compared genotype by genotype.
+ */
+class GenotypeConcordance
+	{
+	private static final int GENOTYPES_PER_WORD = 32;
+	/** number of words per sample in a block */
+	private static final int WORDS_PER_SAMPLE = 8;
+	private static final int GENOTYPES_PER_BLOCK = GENOTYPES_PER_WORD * WORDS_PER_SAMPLE;
+	/** lower bit of each 2-bit genotype */
+	private static final long LOW_BITS = 0x5555555555555555L;
+	private static final long NO_CALL = 0L;
+	private static final long HOM_REF = 1L;
+	private static final long HET = 2L;
+	private static final long HOM_VAR = 3L;
+
+	private final int nSamples;
+	private final PairCounter counter;
+	/** packed genotypes of the current block. The words of sample 'x' are at x*WORDS_PER_SAMPLE */
+	private final long[] words;
+	/** genotypes of the current variant */
+	private final long[] codes;
+	/** number of variants in the current block */
+	private int nVariants = 0;
+
+	GenotypeConcordance(final int nSamples)
+		{
+		this.nSamples = nSamples;
+		this.counter = new PairCounter(nSamples);
+		this.words = new long[nSamples * WORDS_PER_SAMPLE];
+		this.codes = new long[nSamples];
+		}
+
+	/** visit a variant, its genotypes must be in the same order as the samples */
+	void visit(final VariantContext ctx)
+		{
+		if(ctx.getNSamples()!=this.nSamples) throw new IllegalArgumentException("expected "+this.nSamples+" samples but got "+ctx.getNSamples());
+		if(!encode(ctx))
+			{
+			visitGenotypes(ctx);
+			return;
+			}
+		final int word = this.nVariants / GENOTYPES_PER_WORD;
+		final int shift = 2 * (this.nVariants % GENOTYPES_PER_WORD);
+		for(int x=0;x< this.nSamples;++x)
+			{
+			this.words[x * WORDS_PER_SAMPLE + word] |= this.codes[x] << shift;
+			}
+		this.nVariants++;
+		if(this.nVariants == GENOTYPES_PER_BLOCK) flush();
+		}
+
+	/** fill 'codes' with the 2-bit genotypes. Returns false if a genotype cannot be encoded */
+	private boolean encode(final VariantContext ctx)
+		{
+		Allele alt = null;
+		int ploidy = -1;
+		for(int x=0;x< this.nSamples;++x)
+			{
+			final Genotype g = ctx.getGenotype(x);
+			if(!g.isCalled())
+				{
+				this.codes[x] = NO_CALL;
+				continue;
+				}
+			/* sameGenotype is false for two genotypes with a different ploidy */
+			if(ploidy==-1)
+				{
+				ploidy = g.getPloidy();
+				}
+			else if(ploidy!=g.getPloidy())
+				{
+				return false;
+				}
+			switch(g.getType())
+				{
+				case HOM_REF: this.codes[x] = HOM_REF; break;
+				case HET: this.codes[x] = HET; break;
+				case HOM_VAR: this.codes[x] = HOM_VAR; break;
+				default: return false;
+				}
+			/* a het 0/1 is not the same genotype as a het 0/2 */
+			final List<Allele> alleles = g.getAlleles();
+			for(int i=0;i< alleles.size();i++)
+				{
+				final Allele a = alleles.get(i);
+				if(a.isReference()) continue;
+				if(alt==null)
+					{
+					alt = a;
+					}
+				else if(!alt.equals(a))
+					{
+					return false;
+					}
+				}
+			}
+		return true;
+		}
+
+	/** compare the genotypes one by one */
+	private void visitGenotypes(final VariantContext ctx)
+		{
+		for(int x=0;x < this.nSamples;++x)
+			{
+			final Genotype g1 = ctx.getGenotype(x);
+			if(!g1.isCalled()) continue;
+			for(int y= x ; y < this.nSamples;++y)
+				{
+				final Genotype g2 = ctx.getGenotype(y);
+				if(!g2.isCalled()) continue;
+				if(g1.sameGenotype(g2))
+					{
+					this.counter.incr(x,y);
+					}
+				}
+			}
+		}
+
+	/** count the concordance of the current block */
+	private void flush()
+		{
+		if(this.nVariants==0) return;
+		final int nWords = (this.nVariants + GENOTYPES_PER_WORD - 1) / GENOTYPES_PER_WORD;
+		for(int x=0;x< this.nSamples;++x)
+			{
+			final int offx = x * WORDS_PER_SAMPLE;
+			long called = 0L;
+			for(int w=0;w< nWords;++w)
+				{
+				final long a = this.words[offx + w];
+				called += Long.bitCount((a | (a >>> 1)) & LOW_BITS);
+				}
+			if(called==0L) continue;
+			this.counter.incr(x, x, called);
+			for(int y=x+1;y< this.nSamples;++y)
+				{
+				final int offy = y * WORDS_PER_SAMPLE;
+				long same = 0L;
+				for(int w=0;w< nWords;++w)
+					{
+					final long a = this.words[offx + w];
+					/* the two bits are equal and 'a' is called */
+					final long eq = ~(a ^ this.words[offy + w]);
+					same += Long.bitCount(eq & (eq >>> 1) & (a | (a >>> 1)) & LOW_BITS);
+					}
+				if(same!=0L) this.counter.incr(x, y, same);
+				}
+			}
+		Arrays.fill(this.words, 0L);
+		this.nVariants = 0;
+		}
+
+	/** returns the counts for each pair of samples */
+	PairCounter getCounts()
+		{
+		flush();
+		return this.counter;
+		}
+
+	/** add the counts of another instance */
+	void merge(final GenotypeConcordance other)
+		{
+		if(this==other)  throw new IllegalArgumentException("cannot merge with self");
+		getCounts().merge(other.getCounts());
+		}
+	}
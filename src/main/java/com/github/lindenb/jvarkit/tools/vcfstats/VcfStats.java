@@ -26,18 +26,27 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import com.beust.jcommander.Parameter;
@@ -45,10 +54,15 @@ import com.github.lindenb.jvarkit.io.ArchiveFactory;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.math.RangeOfIntegers;
 import com.github.lindenb.jvarkit.tools.burden.MafCalculator;
+import com.github.lindenb.jvarkit.util.bio.DistanceParser;
 import com.github.lindenb.jvarkit.tools.lumpysv.LumpyConstants;
-import com.github.lindenb.jvarkit.util.Counter;
 import com.github.lindenb.jvarkit.util.Pedigree;
+import com.github.lindenb.jvarkit.util.counter.EnumCounter;
+import com.github.lindenb.jvarkit.util.counter.ObjectCounter;
+import com.github.lindenb.jvarkit.util.counter.PairCounter;
+import com.github.lindenb.jvarkit.util.counter.RangeCounter;
 import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+import com.github.lindenb.jvarkit.util.jcommander.NoSplitter;
 import com.github.lindenb.jvarkit.util.jcommander.Program;
 import com.github.lindenb.jvarkit.util.log.Logger;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
@@ -60,17 +74,25 @@ import com.github.lindenb.jvarkit.util.vcf.VcfTools;
 
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Interval;
 import htsjdk.samtools.util.IntervalTreeMap;
 import htsjdk.samtools.util.Locatable;
 import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.tribble.AbstractFeatureReader;
+import htsjdk.tribble.FeatureReader;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.Genotype;
 import htsjdk.variant.variantcontext.GenotypeType;
 import htsjdk.variant.variantcontext.StructuralVariantType;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.bcf2.BCF2Codec;
+import htsjdk.variant.vcf.VCFCodec;
 import htsjdk.variant.vcf.VCFConstants;
+import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 /*
 BEGIN_DOC
@@ -111,6 +133,21 @@ cat input.vcf |\
 ```
 
 
+## Threads
+
+With `--threads N` (N>1), the input must be an indexed VCF (tabix/tribble) with a dictionary in its header. The genome is split into shards of `--shard-size` bases,
+each shard is processed by one of the N threads and the statistics of the shards are merged in the order of the dictionary, so the output is the same as the output of the serial run
+(as long as the contigs of the VCF are sorted in the order of the dictionary). The program fails if the index contains a contig missing from the dictionary.
+Option `--tee` cannot be used with `--threads`.
+
+At most N shards are in flight, each with its own statistics. The genotype concordance uses a matrix of samples x samples counters per category,
+so with many samples the memory grows with N x samples^2: use `--disableGTConcordance` (or fewer threads) for large cohorts.
+
+```
+$ java -jar dist/vcfstats.jar --threads 8 --shard-size 5mb -o out.zip input.vcf.gz
+```
+
+
 ## Example
 
 ```
@@ -201,11 +238,17 @@ SNP	846677
 ```
 
 
+## History
+
+  * 20261017 : options `--threads` and `--shard-size`. Genotype concordance is computed on bit-packed genotypes.
+  * 20261017 : with `--threads`, at most N shards are in flight. The program fails on a contig missing from the dictionary.
+
 END_DOC
  */
 @Program(name="vcfstats",
 	description="Produce VCF statitics",
-	keywords={"vcf","stats","burden","gnuplot"}
+	keywords={"vcf","stats","burden","gnuplot"},
+	modificationDate="20261017"
 	)
 public class VcfStats extends Launcher
 	{
@@ -252,6 +295,10 @@ public class VcfStats extends Launcher
 	private boolean disableGenotypeConcordance=false;
 	@Parameter(names={"--binSize"},description="[20170718] When plotting data over a genome, divide it into 'N' bp.")
 	private int binSize = 1_000_000;
+	@Parameter(names={"--threads"},description="[20261017] number of threads. If greater than 1, the input must be an indexed VCF with a dictionary: the genome is split into shards, each shard is processed by a thread and the results are merged in the genomic order. At most N shards are held in memory.")
+	private int nThreads = 1;
+	@Parameter(names={"--shard-size"},description="[20261017] size of a genomic shard in `--threads` mode. "+DistanceParser.OPT_DESCRIPTION,converter=DistanceParser.StringConverter.class,splitter=NoSplitter.class)
+	private int shardSize = 10_000_000;
 	
 	private ArchiveFactory archiveFactory=null;
 	/** the SAMSequenceDictionary used to sort reference */
@@ -326,50 +373,6 @@ public class VcfStats extends Launcher
 			}
 		}
 	
-	//define a pair of samples
-	private class SamplePair
-		{
-		final int sample1;
-		final int sample2;
-		
-		SamplePair(final int sample1,final int sample2)
-			{
-			if(sample1 < sample2)
-				{
-				this.sample1 = sample1;
-				this.sample2 = sample2;
-				}
-			else
-				{
-				this.sample1 = sample2;
-				this.sample2 = sample1;
-				}
-			}
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + this.sample1;
-			result = prime * result + this.sample2;
-			return result;
-			}
-		@Override
-		public boolean equals(final Object obj) {
-			if (this == obj)  return true;
-			if (obj == null)  return false;
-			if (!(obj instanceof SamplePair)) return false;
-			final SamplePair other = (SamplePair) obj;
-			return other.sample1==this.sample1 && 
-				   other.sample2==this.sample2; 
-			}
-		@Override
-		public String toString() {
-			return  VcfStats.this.sampleNamesInOrder.get(sample1)+"/"+
-					VcfStats.this.sampleNamesInOrder.get(sample2);
-			}
-		}
-	
-	
 	private class PlotMaf implements Closeable
 		{
 		//final String title;
@@ -425,27 +428,55 @@ public class VcfStats extends Launcher
 	/** statistics common to variant and samples */
 	private abstract class AbstractStat
 		{
-		final Counter<RangeOfIntegers.Range> countDepth = new Counter<>();
-		final Counter<RangeOfIntegers.Range> countDistances = new Counter<>();
-		final Counter<NucleicAcidChange> nucleicAcidChanges = new Counter<>();
-		final Counter<GeneLocation> geneLocations = new Counter<>();
-		final Counter<String> consequences = new Counter<>();
-		final Counter<String> variantsPerContigs = new Counter<>();
-		final Counter<ContigBin> countBins = new Counter<>();
-		final Counter<StructuralVariantType> countStructuralVariations = new Counter<>();
+		final RangeCounter countDepth = new RangeCounter(VcfStats.this.depthTranches);
+		final RangeCounter countDistances = new RangeCounter(VcfStats.this.distanceTranches);
+		final EnumCounter<NucleicAcidChange> nucleicAcidChanges = new EnumCounter<>(NucleicAcidChange.class);
+		final EnumCounter<GeneLocation> geneLocations = new EnumCounter<>(GeneLocation.class);
+		final ObjectCounter<String> consequences = new ObjectCounter<>();
+		final ObjectCounter<String> variantsPerContigs = new ObjectCounter<>();
+		final ObjectCounter<ContigBin> countBins = new ObjectCounter<>();
+		final EnumCounter<StructuralVariantType> countStructuralVariations = new EnumCounter<>(StructuralVariantType.class);
 		
+		/** first variant visited for the distance, used when merging the shards */
+		protected ContigPosRef firstCtx=null;
 		protected ContigPosRef prevCtx=null;
 
 		protected void visitForDistance(final VariantContext ctx)
 			{
 			//distance
 			final ContigPosRef contigPosRef = new ContigPosRef(ctx);
+			if(this.firstCtx==null) this.firstCtx=contigPosRef;
+			countDistance(contigPosRef);
+			prevCtx=contigPosRef;
+			}
+		
+		private void countDistance(final ContigPosRef contigPosRef)
+			{
 			if(prevCtx!=null && prevCtx.getContig().equals(contigPosRef.getContig()) && prevCtx.getStart() <= contigPosRef.getStart())
 				{
 				final int distance = contigPosRef.getStart() - this.prevCtx.getStart();
-				this.countDistances.incr(VcfStats.this.distanceTranches.getRange(distance));
+				this.countDistances.incr(distance);
+				}
+			}
+		
+		/** merge the statistics of the next shard */
+		protected void merge(final AbstractStat other)
+			{
+			this.countDepth.merge(other.countDepth);
+			this.countDistances.merge(other.countDistances);
+			this.nucleicAcidChanges.merge(other.nucleicAcidChanges);
+			this.geneLocations.merge(other.geneLocations);
+			this.consequences.merge(other.consequences);
+			this.variantsPerContigs.merge(other.variantsPerContigs);
+			this.countBins.merge(other.countBins);
+			this.countStructuralVariations.merge(other.countStructuralVariations);
+			if(other.firstCtx!=null)
+				{
+				/* distance between the last variant of this shard and the first variant of the next shard */
+				countDistance(other.firstCtx);
+				if(this.firstCtx==null) this.firstCtx=other.firstCtx;
+				this.prevCtx=other.prevCtx;
 				}
-			prevCtx=contigPosRef;
 			}
 		
 		protected void visitForConsequences(final VariantContext ctx,Collection<SequenceOntologyTree.Term> terms,final VcfTools vcfTools)
@@ -510,22 +541,26 @@ public class VcfStats extends Launcher
 		private final Set<SequenceOntologyTree.Term> sequenceOntologyTermsToObserve=new HashSet<>();
 		private final String key;
 		private PlotMaf mafPlotter= null;
+		/** in sharded mode, the MAF points (cases,controls) are buffered until the shard is merged */
+		private double[] mafBuffer = null;
+		private int mafBufferSize = 0;
 		private final Set<String> affectedSamples;
 		private final Set<String> unaffectedSamples;
 		private final Map<String,SampleStat> sample2stats = new TreeMap<>();
-		final Counter<VariantContext.Type> countTypes = new Counter<>();
-		final Counter<RangeOfIntegers.Range> countAffectedSamples = new Counter<>();
-		final Counter<RangeOfIntegers.Range> countAltAlleles = new Counter<>();
-		final Counter<RangeOfIntegers.Range> countIndelSize = new Counter<>();
-		final Counter<SamplePair>  genotypeConcordance = new Counter<>();
+		final EnumCounter<VariantContext.Type> countTypes = new EnumCounter<>(VariantContext.Type.class);
+		final RangeCounter countAffectedSamples = new RangeCounter(VcfStats.this.affectedTranches);
+		final RangeCounter countAltAlleles = new RangeCounter(VcfStats.this.altTranches);
+		final RangeCounter countIndelSize = new RangeCounter(VcfStats.this.indelTranches);
+		/** genotype concordance, for each pair of samples (x,y) in sampleNamesInOrder */
+		final GenotypeConcordance  genotypeConcordance;
 
 		private int countVariants=0;
 		
 		/** stats for Samples */
 		private class SampleStat extends AbstractStat
 			{
-			final Counter<GenotypeType> countTypes = new Counter<>();
-			final Counter<String> countMendelianViolations = new Counter<>();
+			final EnumCounter<GenotypeType> countTypes = new EnumCounter<>(GenotypeType.class);
+			final ObjectCounter<String> countMendelianViolations = new ObjectCounter<>();
 			final String sampleName;
 			final Pedigree.Person pedireePerson;
 			SampleStat(final String sampleName) {
@@ -574,7 +609,7 @@ public class VcfStats extends Launcher
 					final int dp = genotype.getDP();
 					if(dp>=0)
 						{
-						this.countDepth.incr(VcfStats.this.depthTranches.getRange(dp));
+						this.countDepth.incr(dp);
 						}
 					}
 				
@@ -589,6 +624,13 @@ public class VcfStats extends Launcher
 
 					}
 				}
+			
+			void merge(final SampleStat other) {
+				super.merge(other);
+				this.countTypes.merge(other.countTypes);
+				this.countMendelianViolations.merge(other.countMendelianViolations);
+				}
+			
 			public void finish(final PrintWriter makefileWriter) throws IOException
 				{
 				
@@ -600,7 +642,12 @@ public class VcfStats extends Launcher
 		
 		
 		VariantStats(final String key,final VCFHeader header) {
+			this(key,header,false);
+			}
+		
+		VariantStats(final String key,final VCFHeader header,final boolean bufferMaf) {
 			this.key = key;
+			if(bufferMaf) this.mafBuffer = new double[256];
 			this.vcfTools = new VcfTools(header);
 			
 			
@@ -634,15 +681,52 @@ public class VcfStats extends Launcher
 						collect(Collectors.toSet())
 						;
 			// genotype concordance
-			if(!VcfStats.this.disableGenotypeConcordance) {
-				final int n_samples = VcfStats.this.sampleNamesInOrder.size();
-				for(int x=0;x +1 < n_samples;++x)
+			this.genotypeConcordance = new GenotypeConcordance(VcfStats.this.disableGenotypeConcordance?0:VcfStats.this.sampleNamesInOrder.size());
+			}
+		
+		private void plotMaf(final double xcas,final double yctrl) {
+			if(this.mafBuffer!=null)
+				{
+				if(this.mafBufferSize+2 > this.mafBuffer.length)
 					{
-					for(int y= x +1; y < n_samples;++y)
-						{
-						this.genotypeConcordance.initializeIfNotExists(new SamplePair(x,y));
-						}
+					this.mafBuffer = Arrays.copyOf(this.mafBuffer, this.mafBuffer.length*2);
 					}
+				this.mafBuffer[this.mafBufferSize++] = xcas;
+				this.mafBuffer[this.mafBufferSize++] = yctrl;
+				return;
+				}
+			if(this.mafPlotter==null)
+				{
+				//it's a new plotter
+				this.mafPlotter = new PlotMaf(key);
+				
+				//add makefile stuff
+				/**
+				final String png= "$(patsubst %.tsv,%.png,"+plotter.filename+")";
+				makefileWriter.println("ALL_TARGETS+=" + png);
+				makefileWriter.println(png+":"+plotter.filename+" "+generic_maf_gnuplot_filename);
+				makefileWriter.println("\tsed -e '%__OUTPUT__%$@%g' -e '%__INPUT__%$<%g'  -e '%__TITLE__%"+mafkey+"%g' $(word 2,$^) | gnuplot");
+				*/
+				}
+			this.mafPlotter.plot(xcas, yctrl);
+			}
+		
+		/** merge the statistics of the next shard. The buffered MAF points of 'other' are written in the order of the shards */
+		void merge(final VariantStats other) {
+			super.merge(other);
+			this.countVariants += other.countVariants;
+			this.countTypes.merge(other.countTypes);
+			this.countAffectedSamples.merge(other.countAffectedSamples);
+			this.countAltAlleles.merge(other.countAltAlleles);
+			this.countIndelSize.merge(other.countIndelSize);
+			this.genotypeConcordance.merge(other.genotypeConcordance);
+			for(final SampleStat st: this.sample2stats.values())
+				{
+				st.merge(other.sample2stats.get(st.sampleName));
+				}
+			for(int i=0;i+1 < other.mafBufferSize;i+=2)
+				{
+				plotMaf(other.mafBuffer[i], other.mafBuffer[i+1]);
 				}
 			}
 		
@@ -754,40 +838,22 @@ public class VcfStats extends Launcher
 						}
 					if(mafs[0]==null || mafs[1]==null) continue;
 					
-					
-						
-						if(this.mafPlotter==null)
-							{
-							//it's a new plotter
-							this.mafPlotter = new PlotMaf(key);
-							
-							//add makefile stuff
-							/**
-							final String png= "$(patsubst %.tsv,%.png,"+plotter.filename+")";
-							makefileWriter.println("ALL_TARGETS+=" + png);
-							makefileWriter.println(png+":"+plotter.filename+" "+generic_maf_gnuplot_filename);
-							makefileWriter.println("\tsed -e '%__OUTPUT__%$@%g' -e '%__INPUT__%$<%g'  -e '%__TITLE__%"+mafkey+"%g' $(word 2,$^) | gnuplot");
-							*/
-							}
-						this.mafPlotter.plot(mafs[0], mafs[1]);
-						
-					
+					plotMaf(mafs[0], mafs[1]);
 					}//end of loop over ALT
 				} // end of MAF
 			
 			
 			this.countAffectedSamples.incr(
-					VcfStats.this.affectedTranches.getRange(
-						(int)ctx.getGenotypes().stream().
-							filter(G->G.isCalled() && !(G.isHomRef() || G.isFiltered() )).
-							count()	)
+					(int)ctx.getGenotypes().stream().
+						filter(G->G.isCalled() && !(G.isHomRef() || G.isFiltered() )).
+						count()
 					);
 			if(ctx.hasAttribute(VCFConstants.DEPTH_KEY))
 				{
 				int dp = ctx.getAttributeAsInt(VCFConstants.DEPTH_KEY, -1);
 				if(dp>=0)
 					{
-					this.countDepth.incr(VcfStats.this.depthTranches.getRange(dp));
+					this.countDepth.incr(dp);
 					}
 				}
 			if(ctx.isIndel())
@@ -795,27 +861,14 @@ public class VcfStats extends Launcher
 				final int longest = ctx.getAlleles().stream().
 						filter(A->!(A.isSymbolic() || A.equals(Allele.SPAN_DEL))).
 						mapToInt(A->A.length()).max().orElse(0);
-				this.countIndelSize.incr(VcfStats.this.indelTranches.getRange(longest));
+				this.countIndelSize.incr(longest);
 				}	
-			this.countAltAlleles.incr(VcfStats.this.altTranches.getRange(alternates.size()));
+			this.countAltAlleles.incr(alternates.size());
 			
 			// genotype concordance
 
 			if(!VcfStats.this.disableGenotypeConcordance) {
-				for(int x=0;x < ctx.getNSamples();++x)
-					{
-					final Genotype g1 = ctx.getGenotype(x);
-					if(!g1.isCalled()) continue;
-					for(int y= x ; y < ctx.getNSamples();++y)
-						{
-						final Genotype g2 = ctx.getGenotype(y);
-						if(!g2.isCalled()) continue;
-						if(g1.sameGenotype(g2))
-							{
-							this.genotypeConcordance.incr(new SamplePair(x,y));
-							}
-						}
-					}
+				this.genotypeConcordance.visit(ctx);
 				}
 			
 			}
@@ -1571,7 +1624,8 @@ public class VcfStats extends Launcher
 
 				}
 			
-			if(!VcfStats.this.disableGenotypeConcordance && !this.genotypeConcordance.isEmpty())
+			final PairCounter genotypeConcordanceCounts = this.genotypeConcordance.getCounts();
+			if(!VcfStats.this.disableGenotypeConcordance && (genotypeConcordanceCounts.size()>1 || !genotypeConcordanceCounts.isEmpty()))
 				{
 				final String filename = toTsv("gtConcordance");
 				final PrintWriter pw = VcfStats.this.archiveFactory.openWriter(filename);
@@ -1589,7 +1643,7 @@ public class VcfStats extends Launcher
 					for(int x=0;x<  VcfStats.this.sampleNamesInOrder.size();++x)
 						{
 						pw.print(",");
-						pw.print(this.genotypeConcordance.count(new SamplePair(x,y)));
+						pw.print(genotypeConcordanceCounts.count(x,y));
 						}
 					pw.println();
 					}
@@ -1751,35 +1805,196 @@ public class VcfStats extends Launcher
 	
 	
 	
+	/** add a variant to the statistics of each category */
+	private void visit(final Map<String,VariantStats> category2stats,final VCFHeader header,final VariantContext ctx,final boolean bufferMaf)
+		{
+		for(final String category: this.variantToCategoryKeys.apply(ctx))
+			{
+			VariantStats vcstat = category2stats.get(category);
+			if(vcstat==null) {
+				vcstat = new VariantStats(category,header,bufferMaf);
+				category2stats.put(category, vcstat);
+				}
+			vcstat.visit(ctx);
+			}
+		}
+	
+	/** the statistics of one genomic shard */
+	private static class ShardResult
+		{
+		final Interval shard;
+		final Map<String,VariantStats> category2stats = new LinkedHashMap<>();
+		ShardResult(final Interval shard) {
+			this.shard = shard;
+			}
+		}
+	
+	/** merge the statistics of one shard into 'category2stats', returns the number of merged shards */
+	private int mergeShard(
+			final ShardResult result,
+			final VCFHeader header,
+			final Map<String,VariantStats> category2stats,
+			final int nMerged,
+			final int nShards
+			)
+		{
+		for(final String category: result.category2stats.keySet())
+			{
+			VariantStats vcstat = category2stats.get(category);
+			if(vcstat==null) {
+				vcstat = new VariantStats(category,header);
+				category2stats.put(category, vcstat);
+				}
+			vcstat.merge(result.category2stats.get(category));
+			}
+		LOG.info("merged "+result.shard.getContig()+":"+result.shard.getStart()+"-"+result.shard.getEnd()+" ("+(nMerged+1)+"/"+nShards+")");
+		return nMerged+1;
+		}
+	
+	/** split the genome into shards, visit each shard on a pool of threads and merge the results in the genomic order */
+	private void runSharded(
+			final Path vcfPath,
+			final VCFHeader header,
+			final Map<String,VariantStats> category2stats
+			) throws Exception
+		{
+		/* the shards are built from the dictionary: a variant on a contig missing from the dictionary would never be visited */
+		try(FeatureReader<VariantContext> r = VCFFileReader.isBCF(vcfPath)?
+				AbstractFeatureReader.getFeatureReader(vcfPath.toUri().toString(), new BCF2Codec(), true):
+				AbstractFeatureReader.getFeatureReader(vcfPath.toUri().toString(), new VCFCodec(), true)
+				) {
+			for(final String contig: r.getSequenceNames())
+				{
+				if(this.the_dictionary.getSequence(contig)==null)
+					{
+					throw new JvarkitException.ContigNotFoundInDictionary(contig, this.the_dictionary);
+					}
+				}
+			}
+		
+		final List<Interval> shards = new ArrayList<>();
+		for(final SAMSequenceRecord ssr: this.the_dictionary.getSequences())
+			{
+			if(ssr.getSequenceLength()<=0)
+				{
+				shards.add(new Interval(ssr.getSequenceName(),1,Integer.MAX_VALUE));
+				continue;
+				}
+			for(long start=1;start<=ssr.getSequenceLength();start+=this.shardSize)
+				{
+				final long end = Math.min(start + this.shardSize -1L, ssr.getSequenceLength());
+				shards.add(new Interval(ssr.getSequenceName(),(int)start,(int)end));
+				}
+			}
+		
+		/* one reader per thread */
+		final List<VCFFileReader> readers = Collections.synchronizedList(new ArrayList<>());
+		final ThreadLocal<VCFFileReader> threadReader = ThreadLocal.withInitial(()->{
+			final VCFFileReader r = new VCFFileReader(vcfPath, true);
+			readers.add(r);
+			return r;
+			});
+		final ExecutorService executorService = Executors.newFixedThreadPool(this.nThreads);
+		/* shards in the genomic order. Each shard holds its own statistics (including the samples x samples concordance matrix),
+		 * so no more than 'nThreads' shards are in flight */
+		final Deque<Future<ShardResult>> pending = new ArrayDeque<>();
+		try
+			{
+			int nMerged = 0;
+			for(int i=0;i< shards.size();i++)
+				{
+				final Interval shard = shards.get(i);
+				while(pending.size() >= this.nThreads) {
+					nMerged = mergeShard(pending.removeFirst().get(), header, category2stats, nMerged, shards.size());
+					}
+				pending.add(executorService.submit(()->{
+					final ShardResult result = new ShardResult(shard);
+					final VCFFileReader r = threadReader.get();
+					final VCFHeader shardHeader = r.getFileHeader();
+					try(CloseableIterator<VariantContext> iter = r.query(shard.getContig(), shard.getStart(), shard.getEnd())) {
+						while(iter.hasNext()) {
+							final VariantContext ctx = iter.next();
+							/* variant starting in the previous shard */
+							if(ctx.getStart() < shard.getStart()) continue;
+							visit(result.category2stats, shardHeader, ctx, true);
+							}
+						}
+					return result;
+					}));
+				}
+			while(!pending.isEmpty()) {
+				nMerged = mergeShard(pending.removeFirst().get(), header, category2stats, nMerged, shards.size());
+				}
+			}
+		catch(final ExecutionException err) {
+			if(err.getCause() instanceof Exception) throw (Exception)err.getCause();
+			throw err;
+			}
+		finally
+			{
+			executorService.shutdownNow();
+			executorService.awaitTermination(1L, TimeUnit.MINUTES);
+			readers.forEach(CloserUtil::close);
+			}
+		}
+	
 	@Override
 	public int doWork(final List<String> args) {
 		if(this.binSize<=0) {
 			LOG.error("binSize < 0");
 			return -1;
 		}
+		if(this.nThreads<1) {
+			LOG.error("bad number of threads "+this.nThreads);
+			return -1;
+		}
+		if(this.shardSize<1) {
+			LOG.error("bad shard size "+this.shardSize);
+			return -1;
+		}
 		
 		VariantContextWriter teeOut=null;
 		VCFIterator iter = null;
-		final Map<String,VariantStats> category2stats = new HashMap<>();
+		final Map<String,VariantStats> category2stats = new LinkedHashMap<>();
 		
 		PrintWriter makefileWriter =null;
 		try {
-			
+			final String input = oneFileOrNull(args);
+			final VCFHeader header;
+			if(this.nThreads>1)
+				{
+				if(input==null || IOUtil.isUrl(input))
+					{
+					LOG.error("option --threads requires an indexed VCF file.");
+					return -1;
+					}
+				if(this.tee)
+					{
+					LOG.error("option --tee cannot be used with --threads");
+					return -1;
+					}
+				try(VCFFileReader r = new VCFFileReader(Paths.get(input), true)) {
+					header = r.getFileHeader();
+					}
+				}
+			else
+				{
+				iter= super.openVCFIterator(input);
+				header=iter.getHeader();
+				}
 			
 			this.archiveFactory = ArchiveFactory.open(this.outputFile);
 			if(this.tee) teeOut = super.openVariantContextWriter(null);
 			
-			iter= super.openVCFIterator(oneFileOrNull(args));
-			
-			
-			
-			final VCFHeader header=iter.getHeader();
 			this.sampleNamesInOrder = Collections.unmodifiableList(header.getSampleNamesInOrder());
 			
 			final SAMSequenceDictionary dict=header.getSequenceDictionary();
 			if(dict!=null && !dict.isEmpty()) {
 				this.the_dictionary = dict;
 				}
+			else if(this.nThreads>1) {
+				throw new JvarkitException.VcfDictionaryMissing(input);
+				}
 			
 			if(this.kgFile!=null)
 				{
@@ -1816,25 +2031,22 @@ public class VcfStats extends Launcher
 
 			
 			
-			if(teeOut!=null) teeOut.writeHeader(header);
-			final SAMSequenceDictionaryProgress progress= new SAMSequenceDictionaryProgress(header).logger(LOG);
-			while(iter.hasNext())
+			if(this.nThreads>1)
 				{
-				final VariantContext ctx=progress.watch(iter.next());
-				if(teeOut!=null) teeOut.add(ctx);
-
-				
-				for(final String category: this.variantToCategoryKeys.apply(ctx))
+				runSharded(Paths.get(input), header, category2stats);
+				}
+			else
+				{
+				if(teeOut!=null) teeOut.writeHeader(header);
+				final SAMSequenceDictionaryProgress progress= new SAMSequenceDictionaryProgress(header).logger(LOG);
+				while(iter.hasNext())
 					{
-					VariantStats vcstat = category2stats.get(category);
-					if(vcstat==null) {
-						vcstat = new VariantStats(category,header);
-						category2stats.put(category, vcstat);
-						}
-					vcstat.visit(ctx);
+					final VariantContext ctx=progress.watch(iter.next());
+					if(teeOut!=null) teeOut.add(ctx);
+					visit(category2stats, header, ctx, false);
 					}
-				
-				
+				progress.finish();
+				iter.close();iter=null;
 				}
 			for(final String category: category2stats.keySet())
 				{	
@@ -1842,11 +2054,9 @@ public class VcfStats extends Launcher
 				vcstats.finish(makefileWriter);
 				}
 
-			progress.finish();
 			makefileWriter.println("all_targets : ${ALL_TARGETS}");
 			makefileWriter.flush();makefileWriter.close();makefileWriter=null;
 			
-			iter.close();iter=null;
 			this.archiveFactory.close();archiveFactory=null;
 			if(teeOut!=null) teeOut.close(); teeOut=null;
 			return 0;
@@ -0,0 +1,104 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2026 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.counter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counter for the values of an enum, backed by a <code>long[]</code> indexed by ordinal.
+ * No allocation when a value is incremented.
+ */
+public class EnumCounter<E extends Enum<E>>
+	{
+	private final E[] values;
+	private final long[] counts;
+	private long total = 0L;
+
+	public EnumCounter(final Class<E> clazz)
+		{
+		this.values = clazz.getEnumConstants();
+		this.counts = new long[this.values.length];
+		}
+
+	/** increase by 1 returns the new count */
+	public long incr(final E key)
+		{
+		return incr(key,1L);
+		}
+
+	/** increase by n, returns the new count */
+	public long incr(final E key,final long n)
+		{
+		if(n<=0) throw new IllegalArgumentException("n<=0 :"+n);
+		this.total += n;
+		return this.counts[key.ordinal()] += n;
+		}
+
+	/** count number of times key was seen. returns 0 if key never seen */
+	public long count(final E key)
+		{
+		return this.counts[key.ordinal()];
+		}
+
+	public long getTotal()
+		{
+		return this.total;
+		}
+
+	public boolean isEmpty()
+		{
+		return this.total==0L;
+		}
+
+	/** the values that were seen, in the enum order */
+	public List<E> keySet()
+		{
+		final List<E> L = new ArrayList<>(this.values.length);
+		for(int i=0;i< this.values.length;i++)
+			{
+			if(this.counts[i]>0L) L.add(this.values[i]);
+			}
+		return L;
+		}
+
+	/** add the counts of another counter */
+	public void merge(final EnumCounter<E> other)
+		{
+		if(this==other)  throw new IllegalArgumentException("cannot merge with self");
+		if(!Arrays.equals(this.values, other.values)) throw new IllegalArgumentException("not the same enum");
+		for(int i=0;i< this.counts.length;i++)
+			{
+			this.counts[i] += other.counts[i];
+			}
+		this.total += other.total;
+		}
+
+	@Override
+	public String toString() {
+		return "EnumCounter "+this.getTotal();
+		}
+	}
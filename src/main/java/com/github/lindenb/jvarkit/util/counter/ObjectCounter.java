@@ -0,0 +1,198 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2026 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.counter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Counter for objects, backed by an open-addressing hash table and a primitive <code>long[]</code>.
+ * Incrementing a key that was already seen doesn't allocate any object.
+ * The keys are returned in the order they were first seen.
+ */
+public class ObjectCounter<T>
+	{
+	/** keys, in insertion order */
+	private Object[] keys;
+	/** counts, same index as keys */
+	private long[] counts;
+	/** hash table: index in keys +1, 0 is an empty slot */
+	private int[] slots;
+	private int size = 0;
+	private long total = 0L;
+
+	public ObjectCounter()
+		{
+		this(16);
+		}
+
+	public ObjectCounter(final int expectedSize)
+		{
+		final int capacity = Math.max(4, expectedSize);
+		this.keys = new Object[capacity];
+		this.counts = new long[capacity];
+		int n = 8;
+		while(n < capacity * 2) n <<= 1;
+		this.slots = new int[n];
+		}
+
+	private static int mix(final int h)
+		{
+		final int x = h * 0x9E3779B9;
+		return x ^ (x >>> 16);
+		}
+
+	/** returns the index of the key in 'keys' or -1 */
+	private int indexOf(final Object key)
+		{
+		final int mask = this.slots.length - 1;
+		int i = mix(key.hashCode()) & mask;
+		for(;;)
+			{
+			final int slot = this.slots[i];
+			if(slot==0) return -1;
+			if(this.keys[slot-1].equals(key)) return slot-1;
+			i = (i+1) & mask;
+			}
+		}
+
+	private void rehash(final int newSlotCount)
+		{
+		this.slots = new int[newSlotCount];
+		final int mask = newSlotCount - 1;
+		for(int k=0;k< this.size;k++)
+			{
+			int i = mix(this.keys[k].hashCode()) & mask;
+			while(this.slots[i]!=0) i = (i+1) & mask;
+			this.slots[i] = k+1;
+			}
+		}
+
+	/** increase by 1 returns the new count */
+	public long incr(final T key)
+		{
+		return incr(key,1L);
+		}
+
+	/** increase by n, returns the new count */
+	public long incr(final T key,final long n)
+		{
+		if(n<=0) throw new IllegalArgumentException("n<=0 :"+n);
+		if(key==null) throw new IllegalArgumentException("null argument in "+getClass());
+		final int mask = this.slots.length - 1;
+		int i = mix(key.hashCode()) & mask;
+		for(;;)
+			{
+			final int slot = this.slots[i];
+			if(slot==0) break;
+			if(this.keys[slot-1].equals(key))
+				{
+				this.total += n;
+				return this.counts[slot-1] += n;
+				}
+			i = (i+1) & mask;
+			}
+		// new key
+		if(this.size == this.keys.length)
+			{
+			this.keys = Arrays.copyOf(this.keys, this.size*2);
+			this.counts = Arrays.copyOf(this.counts, this.size*2);
+			}
+		this.keys[this.size] = key;
+		this.counts[this.size] = n;
+		this.size++;
+		this.total += n;
+		if(this.size * 2 > this.slots.length)
+			{
+			rehash(this.slots.length * 2);
+			}
+		else
+			{
+			this.slots[i] = this.size;
+			}
+		return n;
+		}
+
+	/** count number of times key was seen. returns 0 if key never seen */
+	public long count(final T key)
+		{
+		if(key==null) return 0L;
+		final int index = indexOf(key);
+		return index==-1?0L:this.counts[index];
+		}
+
+	public long getTotal()
+		{
+		return this.total;
+		}
+
+	public boolean isEmpty()
+		{
+		return this.size==0;
+		}
+
+	/** return the number of categories */
+	public int getCountCategories()
+		{
+		return this.size;
+		}
+
+	/** the keys, in the order they were first seen */
+	@SuppressWarnings("unchecked")
+	public List<T> keySet()
+		{
+		return (List<T>)Collections.unmodifiableList(Arrays.asList(this.keys).subList(0, this.size));
+		}
+
+	/** the keys, sorted on decreasing count. Keys with the same count are in the order they were first seen */
+	@SuppressWarnings("unchecked")
+	public List<T> keySetDecreasing()
+		{
+		final List<Integer> indexes = new ArrayList<>(this.size);
+		for(int i=0;i< this.size;i++) indexes.add(i);
+		indexes.sort((A,B)->Long.compare(this.counts[B], this.counts[A]));
+		final List<T> L = new ArrayList<>(this.size);
+		for(final Integer i: indexes) L.add((T)this.keys[i]);
+		return L;
+		}
+
+	/** add the counts of another counter. The new keys are appended in the order of 'other' */
+	@SuppressWarnings("unchecked")
+	public void merge(final ObjectCounter<T> other)
+		{
+		if(this==other)  throw new IllegalArgumentException("cannot merge with self");
+		for(int i=0;i< other.size;i++)
+			{
+			incr((T)other.keys[i], other.counts[i]);
+			}
+		}
+
+	@Override
+	public String toString() {
+		return "ObjectCounter "+this.getTotal();
+		}
+	}
@@ -0,0 +1,104 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2026 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.counter;
+
+/**
+ * Counter for the pairs (i,j) of 'n' items (e.g: pairs of samples), (i,j) is the same as (j,i).
+ * Backed by a triangular <code>long[]</code> matrix, including the diagonal.
+ */
+public class PairCounter
+	{
+	private final int n;
+	private final long[] counts;
+	private long total = 0L;
+
+	public PairCounter(final int n)
+		{
+		if(n<0) throw new IllegalArgumentException("n<0 :"+n);
+		final long size = ((long)n*(n+1L))/2L;
+		if(size > Integer.MAX_VALUE) throw new IllegalArgumentException("too many items :"+n);
+		this.n = n;
+		this.counts = new long[(int)size];
+		}
+
+	/** number of items */
+	public int size()
+		{
+		return this.n;
+		}
+
+	/** index of (i,j) in the triangular matrix */
+	private int index(final int i,final int j)
+		{
+		if(i<0 || i>=this.n || j<0 || j>=this.n) throw new IndexOutOfBoundsException("("+i+","+j+") n="+this.n);
+		return i<=j? (int)(((long)j*(j+1L))/2L)+i : (int)(((long)i*(i+1L))/2L)+j;
+		}
+
+	/** increase by 1 returns the new count */
+	public long incr(final int i,final int j)
+		{
+		return incr(i,j,1L);
+		}
+
+	/** increase by count, returns the new count */
+	public long incr(final int i,final int j,final long count)
+		{
+		if(count<=0) throw new IllegalArgumentException("count<=0 :"+count);
+		this.total += count;
+		return this.counts[index(i,j)] += count;
+		}
+
+	public long count(final int i,final int j)
+		{
+		return this.counts[index(i,j)];
+		}
+
+	public long getTotal()
+		{
+		return this.total;
+		}
+
+	public boolean isEmpty()
+		{
+		return this.total==0L;
+		}
+
+	/** add the counts of another counter */
+	public void merge(final PairCounter other)
+		{
+		if(this==other)  throw new IllegalArgumentException("cannot merge with self");
+		if(this.n!=other.n) throw new IllegalArgumentException("not the same size "+this.n+"/"+other.n);
+		for(int i=0;i< this.counts.length;i++)
+			{
+			this.counts[i] += other.counts[i];
+			}
+		this.total += other.total;
+		}
+
+	@Override
+	public String toString() {
+		return "PairCounter "+this.n+" "+this.getTotal();
+		}
+	}
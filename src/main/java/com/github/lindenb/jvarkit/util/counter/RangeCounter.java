@@ -0,0 +1,105 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2026 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.counter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.lindenb.jvarkit.math.RangeOfIntegers;
+
+/**
+ * Counter for the ranges of a {@link RangeOfIntegers}, backed by a <code>long[]</code>.
+ * No allocation when a value is incremented.
+ */
+public class RangeCounter
+	{
+	private final RangeOfIntegers ranges;
+	private final long[] counts;
+	private long total = 0L;
+
+	public RangeCounter(final RangeOfIntegers ranges)
+		{
+		this.ranges = ranges;
+		this.counts = new long[ranges.getRanges().size()];
+		}
+
+	public RangeOfIntegers getRangeOfIntegers()
+		{
+		return this.ranges;
+		}
+
+	/** increase by 1 the range containing 'value', returns the new count */
+	public long incr(final int value)
+		{
+		this.total++;
+		return ++this.counts[this.ranges.getRangeIndex(value)];
+		}
+
+	/** count number of times the range was seen */
+	public long count(final RangeOfIntegers.Range range)
+		{
+		final int index = this.ranges.getRanges().indexOf(range);
+		if(index==-1) throw new IllegalArgumentException("range is not in "+this.ranges);
+		return this.counts[index];
+		}
+
+	public long getTotal()
+		{
+		return this.total;
+		}
+
+	public boolean isEmpty()
+		{
+		return this.total==0L;
+		}
+
+	/** the ranges that were seen, in ascending order */
+	public List<RangeOfIntegers.Range> keySet()
+		{
+		final List<RangeOfIntegers.Range> L = new ArrayList<>();
+		for(int i=0;i< this.counts.length;i++)
+			{
+			if(this.counts[i]>0L) L.add(this.ranges.getRanges().get(i));
+			}
+		return L;
+		}
+
+	/** add the counts of another counter */
+	public void merge(final RangeCounter other)
+		{
+		if(this==other)  throw new IllegalArgumentException("cannot merge with self");
+		if(!this.ranges.getRanges().equals(other.ranges.getRanges())) throw new IllegalArgumentException("not the same ranges");
+		for(int i=0;i< this.counts.length;i++)
+			{
+			this.counts[i] += other.counts[i];
+			}
+		this.total += other.total;
+		}
+
+	@Override
+	public String toString() {
+		return "RangeCounter "+this.getTotal();
+		}
+	}
@@ -0,0 +1,135 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2026 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.iterator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+
+/**
+ * Iterator fetching the next batch of its delegate on a shared ExecutorService while the current batch is consumed.
+ * Unlike {@link ReadAheadIterator}, there is no thread per iterator, so it can be used for a large number of inputs
+ * (e.g: merging thousands of VCFs). At most one batch is fetched at a time, so the delegate is never read concurrently.
+ * The optional 'decoder' is called on each item in the worker thread (e.g: decode the genotypes of a variant)
+ */
+public class PrefetchIterator<E>
+	implements CloseableIterator<E>
+	{
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	private final Iterator<E> delegate;
+	private final ExecutorService executor;
+	private final Consumer<E> decoder;
+	private final int batchSize;
+	private Future<List<E>> nextBatch = null;
+	private List<E> current = Collections.emptyList();
+	private int index = 0;
+	private boolean done = false;
+
+	public PrefetchIterator(final Iterator<E> delegate,final ExecutorService executor,final Consumer<E> decoder,final int batchSize) {
+		this.delegate = delegate;
+		this.executor = executor;
+		this.decoder = decoder;
+		this.batchSize = Math.max(1, batchSize);
+		this.nextBatch = this.executor.submit(this::fetch);
+		}
+
+	private List<E> fetch() {
+		final List<E> batch = new ArrayList<>(this.batchSize);
+		while(batch.size() < this.batchSize && this.delegate.hasNext()) {
+			final E item = this.delegate.next();
+			if(this.decoder!=null) this.decoder.accept(item);
+			batch.add(item);
+			}
+		return batch;
+		}
+
+	/** returns the next item without consuming it, or null at the end */
+	public E peek() {
+		while(this.index >= this.current.size()) {
+			if(this.done) return null;
+			try {
+				this.current = this.nextBatch.get();
+				}
+			catch(final InterruptedException err) {
+				throw new RuntimeException(err);
+				}
+			catch(final ExecutionException err) {
+				this.done = true;
+				if(err.getCause() instanceof RuntimeException) throw (RuntimeException)err.getCause();
+				throw new RuntimeException(err.getCause());
+				}
+			this.index = 0;
+			/* a short batch is the end of the stream */
+			if(this.current.size() < this.batchSize) {
+				this.nextBatch = null;
+				this.done = true;
+				}
+			else
+				{
+				this.nextBatch = this.executor.submit(this::fetch);
+				}
+			}
+		return this.current.get(this.index);
+		}
+
+	@Override
+	public boolean hasNext() {
+		return peek()!=null;
+		}
+
+	@Override
+	public E next() {
+		final E item = peek();
+		if(item==null) throw new NoSuchElementException();
+		this.index++;
+		return item;
+		}
+
+	@Override
+	public void close() {
+		/* wait for the running fetch before closing the delegate */
+		if(this.nextBatch!=null) {
+			try {
+				this.nextBatch.get();
+				}
+			catch(final Exception err) {
+				}
+			this.nextBatch = null;
+			}
+		this.current = Collections.emptyList();
+		this.done = true;
+		CloserUtil.close(this.delegate);
+		}
+	}
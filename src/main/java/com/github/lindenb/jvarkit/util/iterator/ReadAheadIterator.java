@@ -0,0 +1,147 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2026 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.iterator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+
+/**
+ * Iterator consuming its delegate in a background thread.
+ * The items are passed by batches through a bounded queue.
+ * The optional 'decoder' is called on each item in the background thread (e.g: decode the genotypes of a variant)
+ */
+public class ReadAheadIterator<E>
+	implements CloseableIterator<E>
+	{
+	public static final int DEFAULT_BATCH_SIZE = 1_000;
+	public static final int DEFAULT_QUEUE_CAPACITY = 10;
+
+	private final Iterator<E> delegate;
+	private final BlockingQueue<List<E>> queue;
+	private final Thread thread;
+	private volatile boolean closed = false;
+	private volatile Throwable error = null;
+	private List<E> current = Collections.emptyList();
+	private int index = 0;
+	private boolean done = false;
+
+	public ReadAheadIterator(final Iterator<E> delegate) {
+		this(delegate, null, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+		}
+
+	public ReadAheadIterator(final Iterator<E> delegate,final Consumer<E> decoder,final int batchSize,final int queueCapacity) {
+		this.delegate = delegate;
+		this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+		final int n = Math.max(1, batchSize);
+		this.thread = new Thread(()->{
+			try {
+				List<E> batch = new ArrayList<>(n);
+				while(!this.closed && this.delegate.hasNext()) {
+					final E item = this.delegate.next();
+					if(decoder!=null) decoder.accept(item);
+					batch.add(item);
+					if(batch.size() >= n) {
+						this.queue.put(batch);
+						batch = new ArrayList<>(n);
+						}
+					}
+				if(!batch.isEmpty()) this.queue.put(batch);
+				}
+			catch(final InterruptedException err) {
+				return;
+				}
+			catch(final Throwable err) {
+				this.error = err;
+				}
+			try {
+				/* empty list is the end of the stream */
+				this.queue.put(Collections.emptyList());
+				}
+			catch(final InterruptedException err) {
+				}
+			},"read-ahead");
+		this.thread.setDaemon(true);
+		this.thread.start();
+		}
+
+	/** returns the next item without consuming it, or null at the end */
+	public E peek() {
+		while(this.index >= this.current.size()) {
+			if(this.done) return null;
+			try {
+				this.current = this.queue.take();
+				}
+			catch(final InterruptedException err) {
+				throw new RuntimeException(err);
+				}
+			this.index = 0;
+			if(this.current.isEmpty()) {
+				this.done = true;
+				if(this.error!=null) {
+					if(this.error instanceof RuntimeException) throw (RuntimeException)this.error;
+					throw new RuntimeException(this.error);
+					}
+				}
+			}
+		return this.current.get(this.index);
+		}
+
+	@Override
+	public boolean hasNext() {
+		return peek()!=null;
+		}
+
+	@Override
+	public E next() {
+		final E item = peek();
+		if(item==null) throw new NoSuchElementException();
+		this.index++;
+		return item;
+		}
+
+	@Override
+	public void close() {
+		this.closed = true;
+		this.thread.interrupt();
+		try {
+			this.thread.join();
+			}
+		catch(final InterruptedException err) {
+			}
+		this.queue.clear();
+		this.current = Collections.emptyList();
+		this.done = true;
+		CloserUtil.close(this.delegate);
+		}
+	}
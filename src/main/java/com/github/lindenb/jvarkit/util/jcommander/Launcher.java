@@ -62,6 +62,7 @@ import com.github.lindenb.jvarkit.lang.StringUtils;
 import com.github.lindenb.jvarkit.util.bio.bed.BedLineCodec;
 import com.github.lindenb.jvarkit.util.bio.samfilter.SamRecordFilterFactory;
 import com.github.lindenb.jvarkit.util.log.Logger;
+import com.github.lindenb.jvarkit.util.vcf.ReadAheadVCFIterator;
 import com.github.lindenb.jvarkit.util.vcf.VCFUtils;
 import com.github.lindenb.jvarkit.util.jcommander.CmdUsageBuilder;
 
@@ -129,6 +130,12 @@ private final JCommander jcommander = new MyJCommander();
 @Parameter(description = "Files")
 private List<String> files = new ArrayList<>();
 
+@Parameter(names={"--compression-threads"},description="Number of threads compressing the BGZF outputs (*.vcf.gz, *.bgz). The blocks are deflated in parallel and written in order.")
+private int compression_threads = 1;
+
+@Parameter(names={"--read-ahead"},description="Read the VCF/BAM inputs in a background thread: the VCF lines are inflated, parsed and passed by batches to the tool through a bounded queue; the BAM blocks are inflated asynchronously.")
+private boolean read_ahead = false;
+
 private String programName="";
 
 public static class CompressionArgs
@@ -510,7 +517,8 @@ protected Status parseArgs(final String args[])
 	}
 
 protected VCFIterator openVCFIterator(final String inputNameOrNull) throws IOException {
-	return VCFUtils.createVCFIterator(inputNameOrNull);
+	final VCFIterator iter = VCFUtils.createVCFIterator(inputNameOrNull);
+	return this.read_ahead?new ReadAheadVCFIterator(iter):iter;
 }
 
 /**
@@ -523,10 +531,15 @@ protected VariantContextWriter openVariantContextWriter(final File outorNull) th
 		}
 	else
 		{
-		return VCFUtils.createVariantContextWriter(outorNull);
+		return VCFUtils.createVariantContextWriterToPath(outorNull.toPath(),getCompressionThreads());
 		}
 	}
 
+/** number of threads compressing the BGZF outputs of this tool (option --compression-threads) */
+protected int getCompressionThreads() {
+	return Math.max(1, this.compression_threads);
+	}
+
 
 protected InputStream openInputStream(final String inOrNull) throws IOException {
 	return(inOrNull==null?
@@ -725,7 +738,6 @@ public int instanceMain(final String args[]) {
 			case PRINT_VERSION: System.out.println(getVersion());return 0;
 			case OK:break;
 			}
-		
 		try 
 			{
 			ret = initialize();
@@ -788,7 +800,7 @@ protected java.io.PrintWriter openPathOrStdoutAsPrintWriter(final Path out) thro
 	{
 	if(out!=null)
 		{
-		return IOUtils.openPathForPrintWriter(out);
+		return IOUtils.openPathForPrintWriter(out,getCompressionThreads());
 		}
 	else
 		{
@@ -808,7 +820,7 @@ protected java.io.PrintStream openPathOrStdoutAsPrintStream(final Path out) thro
 	{
 	if(out!=null)
 		{
-		return new PrintStream(IOUtils.openPathForWriting(out));
+		return new PrintStream(IOUtils.openPathForWriting(out,getCompressionThreads()));
 		}
 	else
 		{
@@ -828,7 +840,7 @@ protected java.io.OutputStream openPathOrStdoutAsStream(final Path out) throws j
 	{
 	if(out!=null)
 		{
-		return  IOUtils.openPathForWriting(out);
+		return  IOUtils.openPathForWriting(out,getCompressionThreads());
 		}
 	else
 		{
@@ -840,7 +852,9 @@ protected java.io.OutputStream openPathOrStdoutAsStream(final Path out) throws j
 /** create a new SamReaderFactory */
 protected htsjdk.samtools.SamReaderFactory createSamReaderFactory()
 	{
-	return  htsjdk.samtools.SamReaderFactory.makeDefault().validationStringency(htsjdk.samtools.ValidationStringency.LENIENT);
+	final htsjdk.samtools.SamReaderFactory srf = htsjdk.samtools.SamReaderFactory.makeDefault().validationStringency(htsjdk.samtools.ValidationStringency.LENIENT);
+	if(this.read_ahead) srf.setUseAsyncIo(true);
+	return srf;
 	}
 
 /** open a new SAM reader; If inputName==null, it reads from stdin */
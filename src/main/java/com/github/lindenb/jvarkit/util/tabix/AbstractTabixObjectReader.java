@@ -68,6 +68,12 @@ public abstract class AbstractTabixObjectReader<T> implements Closeable
     	return iterator(tabix.iterator(chrom));
 		}
 
+    /** returns the raw, undecoded lines on the chromosome */
+    public Iterator<String> lineIterator(final String chrom)
+		{
+    	return tabix.iterator(chrom);
+		}
+
     public Iterator<T> iterator(final String chrom,int start)
 		{
     	return iterator(tabix.iterator(chrom+":"+start));
@@ -30,6 +30,7 @@ package com.github.lindenb.jvarkit.util.ucsc;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -634,6 +635,14 @@ public class KnownGene implements Iterable<Integer>,Feature
 				}
 			}
 		
+		/** set the exons. The arrays are not copied */
+		public void setExonBounds(final int exonStarts[],final int exonEnds[])
+			{
+			if(exonStarts.length!=exonEnds.length) throw new IllegalArgumentException("exonStarts.length!=exonEnds.length");
+			this.exonStarts = exonStarts;
+			this.exonEnds = exonEnds;
+			}
+		
 		public int getExonStart(int index)
 			{
 			return this.exonStarts[index];
@@ -1074,13 +1083,30 @@ public class KnownGene implements Iterable<Integer>,Feature
 			}
 		
 		
-		/** load knownGene file/uri as an IntervalTreeMap. Intervals in the IntervalTreeMap are *1-based* (interval.start= kg.txStart+1)*/
+		/** load knownGene file/uri as an IntervalTreeMap. Intervals in the IntervalTreeMap are *1-based* (interval.start= kg.txStart+1).
+		 * 'uri' can be a file compiled with {@link KnownGeneBinaryIndex}, but all its transcripts are then decoded and kept in memory:
+		 * the compiled file is only faster when it is queried with {@link KnownGeneBinaryIndex#getOverlapping} */
 		public static IntervalTreeMap<List<KnownGene>> loadUriAsIntervalTreeMap(
 				final String uri,
 				final Predicate<KnownGene> filterOrNull
 				) throws IOException
 			{
 			final IntervalTreeMap<List<KnownGene>> treeMap = new IntervalTreeMap<>();
+			if(KnownGeneBinaryIndex.isBinaryIndex(uri)) {
+				try(final KnownGeneBinaryIndex index = new KnownGeneBinaryIndex(Paths.get(uri))) {
+					index.forEach(g->{
+						if(filterOrNull!=null && !filterOrNull.test(g)) return;
+						final Interval interval = new Interval(g.getContig(),g.getTxStart()+1,g.getTxEnd(),g.isNegativeStrand(),g.getName());
+						List<KnownGene> L=  treeMap.get(interval);
+						if(L==null) {
+							L=new ArrayList<>(2);
+							treeMap.put(interval, L);
+							}
+						L.add(g);
+						});
+					}
+				return treeMap;
+				}
 			BufferedReader in=null;
 			try {
 				in = IOUtils.openURIForBufferedReading(uri);
@@ -0,0 +1,395 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2019 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+
+History:
+* 2019 creation
+* 20261017 version 2: the transcripts are stored in binary, a small cache of the decoded transcripts
+
+*/
+package com.github.lindenb.jvarkit.util.ucsc;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import htsjdk.samtools.util.StringUtil;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.lang.CharSplitter;
+
+/**
+ * Compiled, memory-mapped version of a UCSC knownGene table.
+ *
+ * The transcripts are sorted on (contig,txStart). For each contig, a table of
+ * fixed-size records (txStart,txEnd,line_index,offset) points to the binary
+ * fields of the transcript. The {@link KnownGene} objects (and their exons) are only created for the
+ * transcripts overlapping a query, directly from the mapped integers, so opening the file is immediate and the pages
+ * are shared between the JVMs through the system cache. The last decoded transcripts
+ * are kept in a small cache, so the consecutive variants in the same gene don't decode it again.
+ *
+ * Layout (big endian):
+ * <pre>
+ * int MAGIC, int VERSION, int n_contigs
+ * n_contigs * (UTF contig, int n_transcripts, int max_length, long records_offset)
+ * n_transcripts * (int txStart, int txEnd, int line_index, long data_offset)
+ * n_transcripts * (int name_length, name (UTF-8), int strand, int cdsStart, int cdsEnd,
+ *     int exonCount, exonCount * int exonStart, exonCount * int exonEnd)
+ * </pre>
+ */
+public class KnownGeneBinaryIndex implements Closeable
+	{
+	/** 'JVKG' */
+	private static final int MAGIC = 0x4A564B47;
+	private static final int VERSION = 2;
+	private static final int RECORD_SIZE = 4 + 4 + 4 + 8;
+	/** number of decoded transcripts kept in memory */
+	private static final int CACHE_SIZE = 1_000;
+	/** suggested suffix for the compiled files */
+	public static final String SUFFIX = ".kgbin";
+
+	private static class ContigEntry
+		{
+		final String contig;
+		final int count;
+		final int maxLength;
+		final long recordsOffset;
+		ContigEntry(final String contig,final int count,final int maxLength,final long recordsOffset) {
+			this.contig = contig;
+			this.count = count;
+			this.maxLength = maxLength;
+			this.recordsOffset = recordsOffset;
+			}
+		}
+
+	private final Path path;
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private final Map<String,ContigEntry> contig2entry = new LinkedHashMap<>();
+	/** decoded transcripts, by record offset */
+	private final Map<Long,KnownGene> decodedCache = Collections.synchronizedMap(
+		new LinkedHashMap<Long,KnownGene>(CACHE_SIZE+1,0.75f,true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Long,KnownGene> eldest) {
+				return size() > CACHE_SIZE;
+				}
+			});
+
+	public KnownGeneBinaryIndex(final Path path) throws IOException
+		{
+		this.path = path;
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		final long size = this.channel.size();
+		if(size > Integer.MAX_VALUE) {
+			this.channel.close();
+			throw new IOException("file is too large ("+size+" bytes) "+path);
+			}
+		this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+		this.buffer.order(ByteOrder.BIG_ENDIAN);
+		try(final DataInputStream dis = new DataInputStream(new ByteBufferInputStream(this.buffer.duplicate()))) {
+			if(dis.readInt()!=MAGIC) throw new IOException("not a compiled knownGene file "+path);
+			final int version = dis.readInt();
+			if(version!=VERSION) throw new IOException("unsupported version "+version+" in "+path+". Compile the knownGene file again with kg2bin.");
+			final int n_contigs = dis.readInt();
+			for(int i=0;i< n_contigs;++i) {
+				final String contig = dis.readUTF();
+				final int count = dis.readInt();
+				final int maxLength = dis.readInt();
+				final long recordsOffset = dis.readLong();
+				this.contig2entry.put(contig, new ContigEntry(contig, count, maxLength, recordsOffset));
+				}
+			}
+		}
+
+	/** returns the path of the compiled file */
+	public Path getPath() {
+		return this.path;
+		}
+
+	/** returns the contigs in this file */
+	public Set<String> getContigs() {
+		return Collections.unmodifiableSet(this.contig2entry.keySet());
+		}
+
+	/** returns the number of transcripts on a contig */
+	public int getCount(final String contig) {
+		final ContigEntry entry = this.contig2entry.get(contig);
+		return entry==null?0:entry.count;
+		}
+
+	/** create the transcript from the binary fields of the record */
+	private KnownGene decode(final ByteBuffer buf,final ContigEntry entry,final long recordOffset) {
+		final int pos = (int)recordOffset;
+		int offset = (int)buf.getLong(pos + 12);
+		final int nameLength = buf.getInt(offset);
+		offset += 4;
+		final byte name[] = new byte[nameLength];
+		buf.position(offset);
+		buf.get(name);
+		offset += nameLength;
+		final KnownGene kg = new KnownGene();
+		kg.setName(new String(name, StandardCharsets.UTF_8));
+		kg.setChrom(entry.contig);
+		kg.setTxStart(buf.getInt(pos));
+		kg.setTxEnd(buf.getInt(pos + 4));
+		kg.setStrand((char)buf.getInt(offset));
+		kg.setCdsStart(buf.getInt(offset + 4));
+		kg.setCdsEnd(buf.getInt(offset + 8));
+		final int exonCount = buf.getInt(offset + 12);
+		offset += 16;
+		final int exonStarts[] = new int[exonCount];
+		final int exonEnds[] = new int[exonCount];
+		for(int i=0;i< exonCount;++i) {
+			exonStarts[i] = buf.getInt(offset + i*4);
+			exonEnds[i] = buf.getInt(offset + (exonCount + i)*4);
+			}
+		kg.setExonBounds(exonStarts, exonEnds);
+		return kg;
+		}
+
+	/** get the transcript from the cache or decode it */
+	private KnownGene getOrDecode(final ByteBuffer buf,final ContigEntry entry,final long recordOffset) {
+		final Long key = recordOffset;
+		KnownGene kg = this.decodedCache.get(key);
+		if(kg==null) {
+			kg = decode(buf, entry, recordOffset);
+			this.decodedCache.put(key, kg);
+			}
+		return kg;
+		}
+
+	/**
+	 * returns the transcripts overlapping the 1-based interval contig:start-end
+	 * (that is txStart+1 &lt;= end and txEnd &gt;= start), in the order of the original knownGene file. Thread-safe.
+	 * The returned transcripts may be shared with the other callers and must not be modified.
+	 */
+	public List<KnownGene> getOverlapping(final String contig,final int start,final int end) {
+		final ContigEntry entry = this.contig2entry.get(contig);
+		if(entry==null || entry.count==0) return Collections.emptyList();
+		final ByteBuffer buf = this.buffer.duplicate();
+		/* first record with txStart >= start - 1 - maxLength */
+		final long minTxStart = (long)start - 1L - entry.maxLength;
+		int lo = 0;
+		int hi = entry.count;
+		while(lo < hi) {
+			final int mid = (lo + hi) >>> 1;
+			final int txStart = buf.getInt((int)(entry.recordsOffset + (long)mid * RECORD_SIZE));
+			if(txStart < minTxStart) {
+				lo = mid + 1;
+				}
+			else
+				{
+				hi = mid;
+				}
+			}
+		List<Long> hits = null;
+		for(int i=lo;i< entry.count;++i) {
+			final long recordOffset = entry.recordsOffset + (long)i * RECORD_SIZE;
+			final int txStart = buf.getInt((int)recordOffset);
+			if(txStart + 1 > end) break;
+			final int txEnd = buf.getInt((int)recordOffset + 4);
+			if(txEnd < start) continue;
+			if(hits==null) hits = new ArrayList<>();
+			hits.add(recordOffset);
+			}
+		if(hits==null) return Collections.emptyList();
+		if(hits.size()>1) {
+			hits.sort((A,B)->Integer.compare(buf.getInt((int)(A+8)), buf.getInt((int)(B+8))));
+			}
+		final List<KnownGene> L = new ArrayList<>(hits.size());
+		for(final Long recordOffset: hits) {
+			L.add(getOrDecode(buf, entry, recordOffset));
+			}
+		return L;
+		}
+
+	/** visit all the transcripts, sorted on contig/txStart. Each call creates a new {@link KnownGene} for every transcript
+	 * of the file: it is not faster than reading the original knownGene file */
+	public void forEach(final Consumer<KnownGene> consumer) {
+		final ByteBuffer buf = this.buffer.duplicate();
+		for(final ContigEntry entry: this.contig2entry.values()) {
+			for(int i=0;i< entry.count;++i) {
+				consumer.accept(decode(buf, entry, entry.recordsOffset + (long)i * RECORD_SIZE));
+				}
+			}
+		}
+
+	@Override
+	public void close() {
+		this.buffer = null;
+		if(this.channel!=null) {
+			try { this.channel.close(); } catch(final IOException err) {}
+			this.channel = null;
+			}
+		}
+
+	/** returns true if 'uri' is a local file starting with the magic number of a compiled knownGene */
+	public static boolean isBinaryIndex(final String uri) {
+		if(StringUtil.isBlank(uri) || IOUtils.isRemoteURI(uri)) return false;
+		final Path p = Paths.get(uri);
+		if(!Files.isRegularFile(p)) return false;
+		try(final DataInputStream dis = new DataInputStream(Files.newInputStream(p))) {
+			return dis.readInt()==MAGIC;
+			}
+		catch(final IOException err) {
+			return false;
+			}
+		}
+
+	private static class Record
+		{
+		final KnownGene gene;
+		final int index;
+		final byte name[];
+		Record(final KnownGene gene,final int index) {
+			this.gene = gene;
+			this.index = index;
+			this.name = gene.getName().getBytes(StandardCharsets.UTF_8);
+			}
+		/** size of the binary fields */
+		int getDataSize() {
+			return 4 + this.name.length + 4 + 4 + 4 + 4 + this.gene.getExonCount() * 8;
+			}
+		}
+
+	/** compile the knownGene lines of 'in' into 'out' */
+	public static void compile(final BufferedReader in,final OutputStream out) throws IOException
+		{
+		final CharSplitter tab = CharSplitter.TAB;
+		final Map<String,List<Record>> contig2records = new TreeMap<>();
+		String line;
+		int n_lines = 0;
+		while((line=in.readLine())!=null) {
+			if(StringUtil.isBlank(line)) continue;
+			final KnownGene kg = new KnownGene(tab.split(line));
+			List<Record> L = contig2records.get(kg.getContig());
+			if(L==null) {
+				L = new ArrayList<>();
+				contig2records.put(kg.getContig(), L);
+				}
+			L.add(new Record(kg, n_lines++));
+			}
+		final Comparator<Record> cmp = (A,B)->Integer.compare(A.gene.getTxStart(), B.gene.getTxStart());
+		for(final List<Record> L: contig2records.values()) {
+			/* stable sort: same order as the input for the same txStart */
+			L.sort(cmp);
+			}
+
+		/* the directory has a fixed size, whatever the offsets */
+		final ByteArrayOutputStream dirBytes = new ByteArrayOutputStream();
+		final DataOutputStream dirOut = new DataOutputStream(dirBytes);
+		long recordsOffset = 4 + 4 + 4;
+		for(final String contig: contig2records.keySet()) {
+			dirOut.writeUTF(contig);
+			dirOut.writeInt(0);
+			dirOut.writeInt(0);
+			dirOut.writeLong(0L);
+			}
+		dirOut.flush();
+		recordsOffset += dirBytes.size();
+		final long n_records = contig2records.values().stream().mapToLong(L->L.size()).sum();
+		long dataOffset = recordsOffset + n_records * RECORD_SIZE;
+		final long fileSize = dataOffset + contig2records.values().stream().flatMap(L->L.stream()).mapToLong(R->R.getDataSize()).sum();
+		if(fileSize > Integer.MAX_VALUE) throw new IOException("compiled knownGene would be too large ("+fileSize+" bytes)");
+
+		final DataOutputStream dos = new DataOutputStream(out);
+		dos.writeInt(MAGIC);
+		dos.writeInt(VERSION);
+		dos.writeInt(contig2records.size());
+		for(final String contig: contig2records.keySet()) {
+			final List<Record> L = contig2records.get(contig);
+			dos.writeUTF(contig);
+			dos.writeInt(L.size());
+			dos.writeInt(L.stream().mapToInt(R->Math.max(0,R.gene.getTxEnd()-R.gene.getTxStart())).max().orElse(0));
+			dos.writeLong(recordsOffset);
+			recordsOffset += (long)L.size() * RECORD_SIZE;
+			}
+		for(final List<Record> L: contig2records.values()) {
+			for(final Record rec: L) {
+				dos.writeInt(rec.gene.getTxStart());
+				dos.writeInt(rec.gene.getTxEnd());
+				dos.writeInt(rec.index);
+				dos.writeLong(dataOffset);
+				dataOffset += rec.getDataSize();
+				}
+			}
+		for(final List<Record> L: contig2records.values()) {
+			for(final Record rec: L) {
+				final KnownGene kg = rec.gene;
+				dos.writeInt(rec.name.length);
+				dos.write(rec.name);
+				dos.writeInt(kg.isNegativeStrand()?'-':(kg.isPositiveStrand()?'+':'.'));
+				dos.writeInt(kg.getCdsStart());
+				dos.writeInt(kg.getCdsEnd());
+				dos.writeInt(kg.getExonCount());
+				for(int i=0;i< kg.getExonCount();++i) dos.writeInt(kg.getExonStart(i));
+				for(int i=0;i< kg.getExonCount();++i) dos.writeInt(kg.getExonEnd(i));
+				}
+			}
+		dos.flush();
+		}
+
+	/** minimal InputStream over a ByteBuffer, used to read the header */
+	private static class ByteBufferInputStream extends InputStream
+		{
+		private final ByteBuffer buf;
+		ByteBufferInputStream(final ByteBuffer buf) {
+			this.buf = buf;
+			}
+		@Override
+		public int read() {
+			return this.buf.hasRemaining()?(this.buf.get() & 0xFF):-1;
+			}
+		@Override
+		public int read(final byte[] b,final int off,final int len) {
+			if(!this.buf.hasRemaining()) return -1;
+			final int n = Math.min(len, this.buf.remaining());
+			this.buf.get(b, off, n);
+			return n;
+			}
+		}
+	}
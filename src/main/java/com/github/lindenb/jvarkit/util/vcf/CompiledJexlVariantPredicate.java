@@ -0,0 +1,439 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2026 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.apache.commons.jexl2.JexlArithmetic;
+import org.apache.commons.jexl2.MapContext;
+
+import com.github.lindenb.jvarkit.lang.InMemoryCompiler;
+import com.github.lindenb.jvarkit.lang.OpenJdkCompiler;
+import com.github.lindenb.jvarkit.util.log.Logger;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextUtils;
+import htsjdk.variant.variantcontext.VariantContextUtils.JexlVCMatchExp;
+
+/**
+ * JEXL expressions translated to java and compiled.
+ *
+ * Supported subset: comparisons (<code>== != &lt; &lt;= &gt; &gt;=</code> and <code>eq ne lt le gt ge</code>)
+ * between variables (CHROM, POS, QUAL, TYPE, FILTER, INFO attributes, FILTER names...) and literals,
+ * <code>&amp;&amp; || !</code> (and <code>and or not</code>), parentheses, <code>true</code>, <code>false</code>.
+ * Anything else is evaluated by JEXL.
+ *
+ * The values are compared with the JexlArithmetic of htsjdk, so the results are the same as JEXL.
+ * When a variable is undefined or when the arithmetic fails, the variant is evaluated by JEXL.
+ *
+ * Used by {@link JexlVariantPredicate} when the JVM is started with <code>-Djvarkit.jexl.compile=true</code>.
+ * The last {@value #CACHE_SIZE} compiled expressions are kept in memory.
+ */
+public class CompiledJexlVariantPredicate implements Predicate<VariantContext> {
+	private static final Logger LOG=Logger.build(CompiledJexlVariantPredicate.class).make();
+	private static final AtomicLong ID_GENERATOR = new AtomicLong(System.currentTimeMillis());
+	/** max number of compiled expressions kept in memory. Each one is a class with its own class loader, released when it is evicted */
+	static final int CACHE_SIZE = 100;
+	/** LRU of the compiled evaluators, by expression text. Empty if the expression cannot be compiled */
+	private static final Map<String, Optional<AbstractEvaluator>> CACHE = Collections.synchronizedMap(
+		new LinkedHashMap<String, Optional<AbstractEvaluator>>(CACHE_SIZE+1,0.75f,true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, Optional<AbstractEvaluator>> eldest) {
+				return size() > CACHE_SIZE;
+				}
+			});
+	private static final Set<String> JEXL_RESERVED = new HashSet<>(Arrays.asList(
+		"or","and","eq","ne","lt","gt","le","ge","div","mod","not","null","true","false",
+		"new","empty","size","if","else","for","foreach","while","var","function","return","in"
+		));
+
+	/** thrown by the compiled code when the variant must be evaluated by JEXL */
+	private static final class FallbackException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		FallbackException() {
+			super("fallback",null,false,false);
+			}
+		}
+	private static final FallbackException FALLBACK = new FallbackException();
+
+	/** base class of the generated code. Must be public */
+	public static abstract class AbstractEvaluator {
+		protected final JexlArithmetic arithmetic = VariantContextUtils.engine.get().getArithmetic();
+		protected final Object[] constants;
+		protected AbstractEvaluator(final Object[] constants) {
+			this.constants = constants;
+			}
+		/** evaluate the expression. Throws FALLBACK if JEXL must be used */
+		protected abstract boolean eval(final VariantContext ctx);
+
+		/** same as htsjdk VariantJEXLContext for the names that are not predefined */
+		protected final Object get(final VariantContext ctx,final String name) {
+			if(ctx.hasAttribute(name)) return nonNull(ctx.getAttribute(name));
+			if(ctx.getFilters().contains(name)) return "1";
+			throw FALLBACK;
+			}
+		protected final Object nonNull(final Object o) {
+			if(o==null) throw FALLBACK;
+			return o;
+			}
+		protected final boolean eq(final Object a,final Object b) {
+			try { return this.arithmetic.equals(a, b);}
+			catch(final RuntimeException err) { throw FALLBACK;}
+			}
+		protected final boolean ne(final Object a,final Object b) {
+			return !eq(a,b);
+			}
+		protected final boolean lt(final Object a,final Object b) {
+			try { return this.arithmetic.lessThan(a, b);}
+			catch(final RuntimeException err) { throw FALLBACK;}
+			}
+		protected final boolean le(final Object a,final Object b) {
+			try { return this.arithmetic.lessThanOrEqual(a, b);}
+			catch(final RuntimeException err) { throw FALLBACK;}
+			}
+		protected final boolean gt(final Object a,final Object b) {
+			try { return this.arithmetic.greaterThan(a, b);}
+			catch(final RuntimeException err) { throw FALLBACK;}
+			}
+		protected final boolean ge(final Object a,final Object b) {
+			try { return this.arithmetic.greaterThanOrEqual(a, b);}
+			catch(final RuntimeException err) { throw FALLBACK;}
+			}
+		/** a value used in a boolean context */
+		protected final boolean bool(final Object a) {
+			try { return this.arithmetic.toBoolean(a);}
+			catch(final RuntimeException err) { throw FALLBACK;}
+			}
+		/** a value returned by the whole expression: htsjdk expects a Boolean */
+		protected final boolean top(final Object a) {
+			if(!(a instanceof Boolean)) throw FALLBACK;
+			return Boolean.class.cast(a).booleanValue();
+			}
+		}
+
+	/** recursive descent parser of the JEXL subset, generates the java code */
+	private static class Translator {
+		private final String expr;
+		private int pos = 0;
+		private final List<Object> constants = new ArrayList<>();
+		Translator(final String expr) {
+			this.expr = expr;
+			}
+		private IllegalArgumentException unsupported() {
+			return new IllegalArgumentException("unsupported expression at "+this.pos+": "+this.expr);
+			}
+		private void skipWs() {
+			while(this.pos < this.expr.length() && Character.isWhitespace(this.expr.charAt(this.pos))) this.pos++;
+			}
+		private boolean isIdentifierStart(final char c) {
+			return Character.isLetter(c) || c=='_' || c=='$';
+			}
+		private boolean isIdentifierPart(final char c) {
+			return Character.isLetterOrDigit(c) || c=='_' || c=='$';
+			}
+		/** consume a symbol, or a word that must not be followed by an identifier character */
+		private boolean consume(final String token) {
+			skipWs();
+			if(!this.expr.startsWith(token, this.pos)) return false;
+			final int end = this.pos + token.length();
+			if(isIdentifierStart(token.charAt(0)) && end < this.expr.length() && isIdentifierPart(this.expr.charAt(end))) return false;
+			this.pos = end;
+			return true;
+			}
+		String translate() {
+			final String[] topIdentifier = new String[] {null};
+			final String code = parseOr(topIdentifier);
+			skipWs();
+			if(this.pos!=this.expr.length()) throw unsupported();
+			// whole expression is a variable: must be a java.lang.Boolean
+			if(topIdentifier[0]!=null) return "top("+topIdentifier[0]+")";
+			return code;
+			}
+		private String parseOr(final String[] topIdentifier) {
+			String left = parseAnd(topIdentifier);
+			while(consume("||") || consume("or")) {
+				topIdentifier[0] = null;
+				left = "("+left+" || "+parseAnd(new String[1])+")";
+				}
+			return left;
+			}
+		private String parseAnd(final String[] topIdentifier) {
+			String left = parseNot(topIdentifier);
+			while(consume("&&") || consume("and")) {
+				topIdentifier[0] = null;
+				left = "("+left+" && "+parseNot(new String[1])+")";
+				}
+			return left;
+			}
+		/** JEXL's unary 'not' binds tighter than the comparisons: it only applies to the next operand */
+		private String parseNot(final String[] topIdentifier) {
+			if(!this.expr.startsWith("!=", skipAndPos()) && (consume("!") || consume("not"))) {
+				final String code = "(!"+parseUnary()+")";
+				/* '!a == b' is '(!a) == b' in JEXL: a boolean compared with a value, left to JEXL */
+				if(isComparisonNext()) throw unsupported();
+				return code;
+				}
+			return parseComparison(topIdentifier);
+			}
+		/** operand of a 'not' */
+		private String parseUnary() {
+			skipWs();
+			if(consume("(")) {
+				final String code = parseOr(new String[1]);
+				if(!consume(")")) throw unsupported();
+				return code;
+				}
+			if(!this.expr.startsWith("!=", skipAndPos()) && (consume("!") || consume("not"))) {
+				return "(!"+parseUnary()+")";
+				}
+			final String operand = parseOperand();
+			if(operand.equals("Boolean.TRUE")) return "true";
+			if(operand.equals("Boolean.FALSE")) return "false";
+			if(operand.startsWith("constants[")) throw unsupported();
+			return "bool("+operand+")";
+			}
+		/** true if the next token is a comparison operator. Nothing is consumed */
+		private boolean isComparisonNext() {
+			final int save = this.pos;
+			try {
+				for(final String op: new String[] {"==","!=","=~","!~","<",">","eq","ne","lt","le","gt","ge"}) {
+					if(consume(op)) return true;
+					}
+				return false;
+				}
+			finally {
+				this.pos = save;
+				}
+			}
+		private int skipAndPos() {
+			skipWs();
+			return this.pos;
+			}
+		private String parseComparison(final String[] topIdentifier) {
+			skipWs();
+			if(consume("(")) {
+				final String code = parseOr(topIdentifier);
+				if(!consume(")")) throw unsupported();
+				return code;
+				}
+			final String left = parseOperand();
+			final String op;
+			if(consume("==") || consume("eq")) op = "eq";
+			else if(consume("!=") || consume("ne")) op = "ne";
+			else if(consume("<=") || consume("le")) op = "le";
+			else if(consume(">=") || consume("ge")) op = "ge";
+			else if(consume("<") || consume("lt")) op = "lt";
+			else if(consume(">") || consume("gt")) op = "gt";
+			else op = null;
+			if(op==null) {
+				if(left.equals("Boolean.TRUE")) return "true";
+				if(left.equals("Boolean.FALSE")) return "false";
+				if(left.startsWith("constants[")) throw unsupported();
+				topIdentifier[0] = left;
+				return "bool("+left+")";
+				}
+			skipWs();
+			if(this.pos < this.expr.length() && (this.expr.charAt(this.pos)=='=' || this.expr.charAt(this.pos)=='~')) throw unsupported();
+			final String right = parseOperand();
+			return op+"("+left+","+right+")";
+			}
+		/** a variable or a literal */
+		private String parseOperand() {
+			skipWs();
+			if(this.pos >= this.expr.length()) throw unsupported();
+			final int start = this.pos;
+			char c = this.expr.charAt(this.pos);
+			if(c=='"' || c=='\'') {
+				final char quote = c;
+				this.pos++;
+				while(this.pos < this.expr.length() && this.expr.charAt(this.pos)!=quote) {
+					if(this.expr.charAt(this.pos)=='\\') this.pos++;
+					this.pos++;
+					}
+				if(this.pos >= this.expr.length()) throw unsupported();
+				this.pos++;
+				return constant(this.expr.substring(start, this.pos));
+				}
+			if(c=='-' || Character.isDigit(c)) {
+				if(c=='-') this.pos++;
+				final int digits = this.pos;
+				while(this.pos < this.expr.length() && Character.isDigit(this.expr.charAt(this.pos))) this.pos++;
+				if(this.pos==digits) throw unsupported();
+				if(this.pos < this.expr.length() && this.expr.charAt(this.pos)=='.') {
+					this.pos++;
+					final int decimals = this.pos;
+					while(this.pos < this.expr.length() && Character.isDigit(this.expr.charAt(this.pos))) this.pos++;
+					if(this.pos==decimals) throw unsupported();
+					}
+				if(this.pos < this.expr.length() && (isIdentifierPart(this.expr.charAt(this.pos)) || this.expr.charAt(this.pos)=='.')) throw unsupported();
+				return constant(this.expr.substring(start, this.pos));
+				}
+			if(!isIdentifierStart(c)) throw unsupported();
+			while(this.pos < this.expr.length() && isIdentifierPart(this.expr.charAt(this.pos))) this.pos++;
+			final String name = this.expr.substring(start, this.pos);
+			skipWs();
+			// property, method, array...
+			if(this.pos < this.expr.length() && ".([".indexOf(this.expr.charAt(this.pos))!=-1) throw unsupported();
+			if(name.equals("true")) return "Boolean.TRUE";
+			if(name.equals("false")) return "Boolean.FALSE";
+			if(JEXL_RESERVED.contains(name)) throw unsupported();
+			switch(name) {
+				/* predefined names of htsjdk VariantJEXLContext */
+				case "vc": return "ctx";
+				case "CHROM": return "nonNull(ctx.getContig())";
+				case "POS": return "Integer.valueOf(ctx.getStart())";
+				case "TYPE": return "ctx.getType().toString()";
+				case "QUAL": return "Double.valueOf(-10.0 * ctx.getLog10PError())";
+				case "ALLELES": return "nonNull(ctx.getAlleles())";
+				case "N_ALLELES": return "Integer.valueOf(ctx.getNAlleles())";
+				case "FILTER": return "(ctx.isFiltered()?\"1\":\"0\")";
+				case "homRefCount": return "Integer.valueOf(ctx.getHomRefCount())";
+				case "hetCount": return "Integer.valueOf(ctx.getHetCount())";
+				case "homVarCount": return "Integer.valueOf(ctx.getHomVarCount())";
+				default: break;
+				}
+			final StringBuilder sb = new StringBuilder("get(ctx,\"");
+			for(final char x: name.toCharArray()) {
+				if(x=='$') sb.append("\\u0024");
+				else sb.append(x);
+				}
+			return sb.append("\")").toString();
+			}
+		/** literal is evaluated by JEXL, so we get the same type (Integer, Float, String...) */
+		private String constant(final String literal) {
+			final Object value = VariantContextUtils.engine.get().createExpression(literal).evaluate(new MapContext());
+			if(value==null) throw unsupported();
+			this.constants.add(value);
+			return "constants["+(this.constants.size()-1)+"]";
+			}
+		}
+
+	/** generate and compile the code for an expression. Returns empty if it cannot be compiled */
+	private static Optional<AbstractEvaluator> compile(final String expression) {
+		final Translator translator = new Translator(expression);
+		final String code;
+		try {
+			code = translator.translate();
+			}
+		catch(final RuntimeException err) {
+			LOG.debug("cannot translate "+expression+" to java: "+err.getMessage());
+			return Optional.empty();
+			}
+		final String className = "CompiledJexl"+ID_GENERATOR.incrementAndGet();
+		final StringWriter codeWriter = new StringWriter();
+		final PrintWriter pw = new PrintWriter(codeWriter);
+		pw.println("/** "+expression.replace("*/", "* /")+" */");
+		pw.println("public class "+className+" extends "+AbstractEvaluator.class.getName().replace('$', '.')+" {");
+		pw.println("  public "+className+"(final Object[] constants) {");
+		pw.println("    super(constants);");
+		pw.println("    }");
+		pw.println("  @Override");
+		pw.println("  protected boolean eval(final htsjdk.variant.variantcontext.VariantContext ctx) {");
+		pw.println("    return "+code+";");
+		pw.println("    }");
+		pw.println("}");
+		pw.flush();
+
+		Class<?> compiledClass = null;
+		try {
+			@SuppressWarnings("deprecation")
+			final InMemoryCompiler compiler = new InMemoryCompiler();
+			compiledClass = compiler.compileClass(className, codeWriter.toString());
+			}
+		catch(final Throwable err) {
+			LOG.debug("cannot compile in memory "+err.getMessage());
+			}
+		if(compiledClass==null) {
+			try {
+				compiledClass = OpenJdkCompiler.getInstance().compileClass(className, codeWriter.toString());
+				}
+			catch(final Throwable err) {
+				LOG.debug("cannot compile "+expression+" "+err.getMessage());
+				return Optional.empty();
+				}
+			}
+		try {
+			final Constructor<?> constructor = compiledClass.getConstructor(Object[].class);
+			return Optional.of((AbstractEvaluator)constructor.newInstance(new Object[] {translator.constants.toArray()}));
+			}
+		catch(final Throwable err) {
+			LOG.debug("cannot instantiate "+className+" "+err.getMessage());
+			return Optional.empty();
+			}
+		}
+
+	/** get the compiled code for the expression, or empty if it can't be compiled. The last {@value #CACHE_SIZE} results are cached */
+	static Optional<AbstractEvaluator> getEvaluator(final String expression) {
+		final Optional<AbstractEvaluator> cached = CACHE.get(expression);
+		if(cached!=null) return cached;
+		/* compile outside of the lock, keep the first result if another thread compiled the same expression */
+		final Optional<AbstractEvaluator> evaluator = compile(expression);
+		synchronized(CACHE) {
+			final Optional<AbstractEvaluator> other = CACHE.get(expression);
+			if(other!=null) return other;
+			CACHE.put(expression, evaluator);
+			return evaluator;
+			}
+		}
+
+	private final String expression;
+	private final AbstractEvaluator evaluator;
+	private final JexlVCMatchExp jexlVCMatchExp;
+
+	CompiledJexlVariantPredicate(final String expression,final AbstractEvaluator evaluator,final JexlVCMatchExp jexlVCMatchExp) {
+		this.expression = expression;
+		this.evaluator = evaluator;
+		this.jexlVCMatchExp = jexlVCMatchExp;
+		}
+
+	@Override
+	public boolean test(final VariantContext ctx) {
+		try {
+			return this.evaluator.eval(ctx);
+			}
+		catch(final FallbackException err) {
+			return VariantContextUtils.match(ctx, this.jexlVCMatchExp);
+			}
+		}
+
+	@Override
+	public String toString() {
+		return getClass().getName()+":"+this.expression;
+		}
+	}
@@ -24,8 +24,10 @@ SOFTWARE.
 */
 package com.github.lindenb.jvarkit.util.vcf;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -43,6 +45,8 @@ import htsjdk.variant.variantcontext.VariantContextUtils.JexlVCMatchExp;
 public class JexlVariantPredicate implements Predicate<VariantContext> {
 	private static final Logger LOG=Logger.build(JexlVariantPredicate.class).make();
 	private static long ID_GENERATOR=System.currentTimeMillis();
+	/** enable the compilation of the expressions with -Djvarkit.jexl.compile=true */
+	private static final boolean COMPILE_EXPRESSIONS = Boolean.getBoolean("jvarkit.jexl.compile");
 	public static final String PARAMETER_DESCRIPTION = 
 			"A Java EXpression Language (JEXL) expressions to filter the variants from a VCF. " +
 			"Empty string will accept all variants. " +
@@ -77,6 +81,11 @@ public class JexlVariantPredicate implements Predicate<VariantContext> {
 		return create(Arrays.asList(exps));
 		}
 	public static Predicate<VariantContext> create(final List<String> exps) {
+		return create(exps, COMPILE_EXPRESSIONS);
+		}
+	
+	/** @param compile translate the expressions to java and compile them when possible. see {@link CompiledJexlVariantPredicate} */
+	static Predicate<VariantContext> create(final List<String> exps,final boolean compile) {
 		final List<String> expressions = exps.stream().
 				filter(S->!StringUtil.isBlank(S)).
 				collect(Collectors.toList());
@@ -86,7 +95,23 @@ public class JexlVariantPredicate implements Predicate<VariantContext> {
 				map(S->"JEXL"+(++ID_GENERATOR)).
 				collect(Collectors.toList());
 		try {
-			return new JexlVariantPredicate(VariantContextUtils.initializeMatchExps(dummyNames, expressions));
+			final List<JexlVCMatchExp> jexlVCMatchExps = VariantContextUtils.initializeMatchExps(dummyNames, expressions);
+			final List<Predicate<VariantContext>> predicates = new ArrayList<>(jexlVCMatchExps.size());
+			for(int i=0;i< jexlVCMatchExps.size();i++) {
+				final JexlVCMatchExp exp = jexlVCMatchExps.get(i);
+				final Optional<CompiledJexlVariantPredicate.AbstractEvaluator> evaluator = compile?
+						CompiledJexlVariantPredicate.getEvaluator(expressions.get(i)):
+						Optional.empty()
+						;
+				if(evaluator.isPresent()) {
+					predicates.add(new CompiledJexlVariantPredicate(expressions.get(i), evaluator.get(), exp));
+					}
+				else
+					{
+					predicates.add(V->VariantContextUtils.match(V, exp));
+					}
+				}
+			return new JexlVariantPredicate(jexlVCMatchExps, predicates);
 			}
 		catch(final Throwable err) {
 			LOG.error(err);
@@ -95,17 +120,22 @@ public class JexlVariantPredicate implements Predicate<VariantContext> {
 	}
 	
 	private final List<JexlVCMatchExp> jexlVCMatchExps;
+	/** one predicate per expression: compiled or JEXL */
+	private final List<Predicate<VariantContext>> predicates;
 	
-	private JexlVariantPredicate(final List<JexlVCMatchExp> jexlVCMatchExps) {
+	private JexlVariantPredicate(final List<JexlVCMatchExp> jexlVCMatchExps,final List<Predicate<VariantContext>> predicates) {
 		this.jexlVCMatchExps = jexlVCMatchExps;
 		if(jexlVCMatchExps==null) throw new RuntimeException("jexlVCMatchExps is null");
+		this.predicates = predicates;
 		}
 	@Override
 	public boolean test(final VariantContext ctx) {
-		return VariantContextUtils.match(ctx,this.jexlVCMatchExps).
-			values().
-			stream().
-			anyMatch(B->B.booleanValue());
+		// all the expressions are evaluated, like VariantContextUtils.match
+		boolean ok = false;
+		for(final Predicate<VariantContext> predicate: this.predicates) {
+			if(predicate.test(ctx)) ok = true;
+			}
+		return ok;
 		}
 	@Override
 	public String toString() {
@@ -0,0 +1,254 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2026 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.github.lindenb.jvarkit.lang.JvarkitException;
+import com.github.lindenb.jvarkit.util.picard.AbstractDataCodec;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+
+/**
+ * A raw VCF line with a binary sort key (contig index, position, REF and its hash, file index)
+ * extracted once, so the comparator of a SortingCollection never re-tokenizes the line.
+ * The line is compressed by the {@link Codec} when the records are spilled to disk.
+ */
+public class KeyedVcfLine
+	{
+	private final int tid;
+	private final int pos;
+	private final int refHash;
+	private final String ref;
+	private final int fileIndex;
+	private final String line;
+
+	/** order on contig index, position, REF and file index. REF are sorted like the REF alleles of htsjdk */
+	public static final Comparator<KeyedVcfLine> KEY_COMPARATOR = (A,B)->{
+		int i = Integer.compare(A.tid, B.tid);
+		if(i!=0) return i;
+		i = Integer.compare(A.pos, B.pos);
+		if(i!=0) return i;
+		if(A.refHash!=B.refHash || !A.ref.equals(B.ref))
+			{
+			i = A.ref.compareTo(B.ref);
+			if(i!=0) return i;
+			}
+		return Integer.compare(A.fileIndex, B.fileIndex);
+		};
+
+	private KeyedVcfLine(final int tid,final int pos,final int refHash,final String ref,final int fileIndex,final String line)
+		{
+		this.tid = tid;
+		this.pos = pos;
+		this.refHash = refHash;
+		this.ref = ref;
+		this.fileIndex = fileIndex;
+		this.line = line;
+		}
+
+	/**
+	 * @param line the VCF line
+	 * @param fileIndex index of the VCF file the line comes from
+	 * @param dict dictionary used to convert the contig to an index
+	 */
+	public KeyedVcfLine(final String line,final int fileIndex,final SAMSequenceDictionary dict)
+		{
+		final int t1 = line.indexOf('\t');
+		final int t2 = (t1==-1?-1:line.indexOf('\t',t1+1));
+		final int t3 = (t2==-1?-1:line.indexOf('\t',t2+1));
+		final int t4 = (t3==-1?-1:line.indexOf('\t',t3+1));
+		if(t4==-1) throw new IllegalArgumentException("Bad VCF line in "+line);
+		final String contig = line.substring(0,t1);
+		this.tid = dict.getSequenceIndex(contig);
+		if(this.tid==-1) throw new JvarkitException.ContigNotFoundInDictionary(contig, dict);
+		try
+			{
+			this.pos = Integer.parseInt(line.substring(t1+1,t2));
+			}
+		catch(final NumberFormatException err)
+			{
+			throw new IllegalArgumentException("Bad POS in VCF line in "+line);
+			}
+		this.ref = line.substring(t3+1,t4).toUpperCase();
+		this.refHash = this.ref.hashCode();
+		this.fileIndex = fileIndex;
+		this.line = line;
+		}
+
+	public int getTid()
+		{
+		return this.tid;
+		}
+
+	public int getPos()
+		{
+		return this.pos;
+		}
+
+	/** REF in upper case */
+	public String getReference()
+		{
+		return this.ref;
+		}
+
+	public int getFileIndex()
+		{
+		return this.fileIndex;
+		}
+
+	public String getLine()
+		{
+		return this.line;
+		}
+
+	/** returns true if both lines have the same contig, position and REF */
+	public boolean hasSameChromPosRef(final KeyedVcfLine other)
+		{
+		return this.tid==other.tid &&
+			this.pos==other.pos &&
+			this.refHash==other.refHash &&
+			this.ref.equals(other.ref);
+		}
+
+	@Override
+	public String toString()
+		{
+		return this.line;
+		}
+
+	/** codec for SortingCollection. The key is written as is, the line is deflated.
+	 * SortingCollection clones the codec for each temporary file, so the native zlib
+	 * streams are only created when needed and the inflater is released at the end of the file.
+	 */
+	public static class Codec extends AbstractDataCodec<KeyedVcfLine>
+		{
+		private Deflater deflater = null;
+		private Inflater inflater = null;
+		private byte[] buffer = null;
+
+		@Override
+		public KeyedVcfLine decode(final DataInputStream dis) throws IOException
+			{
+			final int tid;
+			try
+				{
+				tid = dis.readInt();
+				}
+			catch(final IOException err)
+				{
+				if(this.inflater!=null)
+					{
+					this.inflater.end();
+					this.inflater = null;
+					}
+				this.buffer = null;
+				return null;
+				}
+			final int pos = dis.readInt();
+			final int refHash = dis.readInt();
+			final String ref = readString(dis);
+			final int fileIndex = dis.readInt();
+			final int length = dis.readInt();
+			final int compressedLength = dis.readInt();
+			final byte[] bytes = new byte[length];
+			if(compressedLength<0)
+				{
+				dis.readFully(bytes);
+				}
+			else
+				{
+				if(this.buffer==null || this.buffer.length < compressedLength) this.buffer = new byte[Math.max(1_024, compressedLength)];
+				dis.readFully(this.buffer, 0, compressedLength);
+				if(this.inflater==null) this.inflater = new Inflater();
+				this.inflater.reset();
+				this.inflater.setInput(this.buffer, 0, compressedLength);
+				try
+					{
+					int n = 0;
+					while(n < length)
+						{
+						final int count = this.inflater.inflate(bytes, n, length-n);
+						if(count==0 && (this.inflater.finished() || this.inflater.needsInput())) throw new IOException("cannot inflate line");
+						n += count;
+						}
+					}
+				catch(final DataFormatException err)
+					{
+					throw new IOException(err);
+					}
+				}
+			return new KeyedVcfLine(tid, pos, refHash, ref, fileIndex, new String(bytes, StandardCharsets.UTF_8));
+			}
+
+		@Override
+		public void encode(final DataOutputStream dos,final KeyedVcfLine o) throws IOException
+			{
+			dos.writeInt(o.tid);
+			dos.writeInt(o.pos);
+			dos.writeInt(o.refHash);
+			writeString(dos, o.ref);
+			dos.writeInt(o.fileIndex);
+			final byte[] bytes = o.line.getBytes(StandardCharsets.UTF_8);
+			if(this.deflater==null) this.deflater = new Deflater(Deflater.BEST_SPEED);
+			if(this.buffer==null) this.buffer = new byte[1_024];
+			this.deflater.reset();
+			this.deflater.setInput(bytes);
+			this.deflater.finish();
+			int n = 0;
+			/* stop if the compressed line is not smaller */
+			while(!this.deflater.finished() && n < bytes.length)
+				{
+				if(n==this.buffer.length) this.buffer = Arrays.copyOf(this.buffer, this.buffer.length*2);
+				n += this.deflater.deflate(this.buffer, n, this.buffer.length-n);
+				}
+			dos.writeInt(bytes.length);
+			if(this.deflater.finished() && n < bytes.length)
+				{
+				dos.writeInt(n);
+				dos.write(this.buffer, 0, n);
+				}
+			else
+				{
+				dos.writeInt(-1);
+				dos.write(bytes);
+				}
+			}
+
+		@Override
+		public Codec clone()
+			{
+			return new Codec();
+			}
+		}
+	}
@@ -0,0 +1,89 @@
+/*
+The MIT License (MIT)
+
+Copyright (c) 2026 Pierre Lindenbaum
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+
+*/
+package com.github.lindenb.jvarkit.util.vcf;
+
+import com.github.lindenb.jvarkit.util.iterator.ReadAheadIterator;
+
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFIterator;
+
+/**
+ * VCFIterator reading, inflating and parsing the variants in a background thread.
+ * The genotypes are also decoded by the background thread.
+ */
+public class ReadAheadVCFIterator implements VCFIterator
+	{
+	private final VCFHeader header;
+	private final ReadAheadIterator<VariantContext> delegate;
+
+	public ReadAheadVCFIterator(final VCFIterator delegate) {
+		this.header = delegate.getHeader();
+		this.delegate = new ReadAheadIterator<>(
+				delegate,
+				ReadAheadVCFIterator::decodeGenotypes,
+				ReadAheadIterator.DEFAULT_BATCH_SIZE,
+				ReadAheadIterator.DEFAULT_QUEUE_CAPACITY
+				);
+		}
+
+	/** force the decoding of the genotypes of a variant */
+	public static void decodeGenotypes(final VariantContext ctx) {
+		final GenotypesContext gc = ctx.getGenotypes();
+		if(gc instanceof LazyGenotypesContext) ((LazyGenotypesContext)gc).decode();
+		}
+
+	@Override
+	public VCFHeader getHeader() {
+		return this.header;
+		}
+
+	@Override
+	public VariantContext peek() {
+		return this.delegate.peek();
+		}
+
+	@Override
+	public boolean hasNext() {
+		return this.delegate.hasNext();
+		}
+
+	@Override
+	public VariantContext next() {
+		return this.delegate.next();
+		}
+
+	@Override
+	public void close() {
+		this.delegate.close();
+		}
+
+	@Override
+	public String toString() {
+		return "ReadAheadVCFIterator";
+		}
+	}
@@ -84,6 +84,7 @@ import htsjdk.variant.vcf.VCFIteratorBuilder;
 
 
 import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.io.ParallelBlockCompressedOutputStream;
 import com.github.lindenb.jvarkit.lang.JvarkitException;
 import com.github.lindenb.jvarkit.lang.StringUtils;
 import com.github.lindenb.jvarkit.util.picard.SAMSequenceDictionaryProgress;
@@ -399,6 +400,18 @@ public class VCFUtils
 	 * @throws IOException
 	 */
 	public static  VariantContextWriter createVariantContextWriterToPath(final Path pathorNull) throws IOException
+		{
+		return createVariantContextWriterToPath(pathorNull,1);
+		}
+	
+	/**
+	 * create a VariantContextWriter
+	 * @param OUT output path or null to stdout
+	 * @param compressionThreads number of threads compressing a BGZF output (*.vcf.gz, *.bgz). 1: no parallel compression
+	 * @return
+	 * @throws IOException
+	 */
+	public static  VariantContextWriter createVariantContextWriterToPath(final Path pathorNull,final int compressionThreads) throws IOException
 		{
 		if(pathorNull==null) {
 			return createVariantContextWriterToStdout();
@@ -407,7 +420,16 @@ public class VCFUtils
 		vcwb.setCreateMD5(false);
 		vcwb.setReferenceDictionary(null);
 		vcwb.clearOptions();
-		vcwb.setOutputPath(pathorNull);
+		final String filename = pathorNull.getFileName().toString();
+		if((filename.endsWith(".vcf.gz") || filename.endsWith(".bgz")) &&
+			compressionThreads>1)
+			{
+			vcwb.setOutputVCFStream(new ParallelBlockCompressedOutputStream(pathorNull,compressionThreads));
+			}
+		else
+			{
+			vcwb.setOutputPath(pathorNull);
+			}
 		return new VariantContextWriterDelayedFlush(vcwb.build());
 		}
 	
@@ -0,0 +1,126 @@
+package com.github.lindenb.jvarkit.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.index.IndexFactory;
+import htsjdk.tribble.index.tabix.TabixIndex;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFFileReader;
+
+public class ParallelBlockCompressedOutputStreamTest {
+	private final TestSupport support = new TestSupport();
+
+	private void write(final Random random,final OutputStream os) throws IOException {
+		final byte[] array = new byte[100_000];
+		for(int i=0;i< 50;++i) {
+			final int len = random.nextInt(array.length);
+			if(random.nextBoolean()) {
+				// not compressible
+				random.nextBytes(array);
+				}
+			else
+				{
+				for(int j=0;j< len;++j) array[j] = (byte)('A' + random.nextInt(4));
+				}
+			if(random.nextInt(10)==0) {
+				for(int j=0;j< len;++j) os.write(array[j]);
+				}
+			else
+				{
+				os.write(array, 0, len);
+				}
+			if(random.nextInt(10)==0) os.flush();
+			}
+		}
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{1},{2},{4}
+			};
+		}
+
+	@Test(dataProvider="src1")
+	public void testSameAsBlockCompressedOutputStream(final int nThreads) throws IOException {
+		final ByteArrayOutputStream expect = new ByteArrayOutputStream();
+		try(BlockCompressedOutputStream os = new BlockCompressedOutputStream(expect, (Path)null)) {
+			write(new Random(nThreads), os);
+			}
+		final ByteArrayOutputStream found = new ByteArrayOutputStream();
+		try(ParallelBlockCompressedOutputStream os = new ParallelBlockCompressedOutputStream(found, BlockCompressedOutputStream.getDefaultCompressionLevel(), nThreads)) {
+			write(new Random(nThreads), os);
+			}
+		Assert.assertEquals(found.toByteArray(), expect.toByteArray());
+		}
+
+	@Test
+	public void testOpenPathForWriting() throws IOException {
+		try {
+			final Path out = support.createTmpPath(".vcf.gz");
+			try(OutputStream os = IOUtils.openPathForWriting(out, 3)) {
+				Assert.assertTrue(os instanceof ParallelBlockCompressedOutputStream);
+				}
+			try(OutputStream os = IOUtils.openPathForWriting(out)) {
+				Assert.assertFalse(os instanceof ParallelBlockCompressedOutputStream);
+				}
+			/* the number of threads belongs to each tool, a tool running in the same JVM is not affected */
+			final Launcher launcher1 = new Launcher() {
+				@Override
+				public int doWork(final java.util.List<String> args) {
+					Assert.assertEquals(getCompressionThreads(), 1);
+					return 0;
+					}
+				};
+			final Launcher launcher3 = new Launcher() {
+				@Override
+				public int doWork(final java.util.List<String> args) {
+					Assert.assertEquals(launcher1.instanceMain(new String[0]), 0);
+					Assert.assertEquals(getCompressionThreads(), 3);
+					return 0;
+					}
+				};
+			Assert.assertEquals(launcher3.instanceMain(new String[] {"--compression-threads","3"}),0);
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+
+	@Test
+	public void testTabix() throws IOException {
+		try {
+			final Path vcfOut = support.createTmpPath(".vcf.gz");
+			Assert.assertEquals(new Launcher() {
+				@Override
+				public int doWork(final java.util.List<String> args) {
+					return doVcfToVcf(args, vcfOut.toFile());
+					}
+				}.instanceMain(new String[] {
+				"--compression-threads","3",
+				support.resource("rotavirus_rf.freebayes.vcf.gz")
+				}),0);
+			support.assertIsVcf(vcfOut);
+			final TabixIndex idx = IndexFactory.createTabixIndex(vcfOut.toFile(), new VCFCodec(), null);
+			final Path tbi = support.deleteOnExit(vcfOut.resolveSibling(vcfOut.getFileName().toString()+".tbi"));
+			idx.write(tbi);
+			try(VCFFileReader r = new VCFFileReader(vcfOut, true)) {
+				Assert.assertTrue(r.query("RF01", 1, 1000).hasNext());
+				}
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+	}
@@ -0,0 +1,130 @@
+package com.github.lindenb.jvarkit.tools.bam2wig;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+
+@AlsoTest(LauncherTest.class)
+public class Bam2WigTest {
+	private final TestSupport support = new TestSupport();
+
+	@Test
+	public void testDepthArray() {
+		final Random random = new Random(0L);
+		final int length = 1_000_000;
+		final int expect[] = new int[length];
+		final Bam2Wig.DepthArray array = new Bam2Wig.DepthArray(length);
+		int offset = 0;
+		while(offset < length) {
+			for(int n=0;n< 100;++n) {
+				final int index = offset + random.nextInt(200_000);
+				if(index>=length) continue;
+				expect[index]++;
+				array.incr(index);
+				}
+			final int window[] = new int[50];
+			final int len = Math.min(window.length, length-offset);
+			array.copy(offset, window, len);
+			for(int i=0;i< len;++i) {
+				Assert.assertEquals(window[i], expect[offset+i]);
+				}
+			offset += random.nextInt(10_000);
+			array.discard(offset);
+			}
+		}
+
+	/** an update of a discarded value means the input is not sorted: it must not be silently dropped */
+	@Test
+	public void testDepthArrayDiscarded() {
+		final Bam2Wig.DepthArray array = new Bam2Wig.DepthArray(1_000, 10);
+		/* before the start of the region: ignored */
+		array.incr(5);
+		array.set(9, 3);
+		array.incr(100);
+		array.discard(50);
+		try {
+			array.incr(20);
+			Assert.fail("index was discarded");
+			}
+		catch(final IllegalStateException err) {
+			/* ok */
+			}
+		try {
+			array.set(49, 1);
+			Assert.fail("index was discarded");
+			}
+		catch(final IllegalStateException err) {
+			/* ok */
+			}
+		final int window[] = new int[60];
+		array.copy(50, window, window.length);
+		Assert.assertEquals(window[50], 1);
+		}
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{"COVERAGE","AVERAGE"},
+			{"COVERAGE","MEDIAN"},
+			{"CLIPPING","MAX"},
+			{"INSERTION","SUM"},
+			{"DELETION","SUM"},
+			{"READ_GROUPS","MIN"}
+			};
+		}
+
+	@Test(dataProvider="src1")
+	public void testDisplay(final String display,final String percentile) throws IOException {
+		try {
+			final Path out = support.createTmpPath(".wig");
+			Assert.assertEquals(new Bam2Wig().instanceMain(new String[] {
+				"-o",out.toString(),
+				"--display",display,
+				"--percentile",percentile,
+				support.resource("S1.bam"),
+				support.resource("S2.bam"),
+				support.resource("S3.bam")
+				}),0);
+			support.assertIsNotEmpty(out);
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+	
+	@Test(dataProvider="src1")
+	public void testThreads(final String display,final String percentile) throws IOException {
+		try {
+			final Path out1 = support.createTmpPath(".wig");
+			Assert.assertEquals(new Bam2Wig().instanceMain(new String[] {
+				"-o",out1.toString(),
+				"--display",display,
+				"--percentile",percentile,
+				support.resource("S1.bam"),
+				support.resource("S2.bam")
+				}),0);
+			final Path out2 = support.createTmpPath(".wig");
+			Assert.assertEquals(new Bam2Wig().instanceMain(new String[] {
+				"-o",out2.toString(),
+				"--display",display,
+				"--percentile",percentile,
+				"--threads","3",
+				support.resource("S1.bam"),
+				support.resource("S2.bam")
+				}),0);
+			Assert.assertEquals(Files.readAllLines(out2), Files.readAllLines(out1));
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+	}
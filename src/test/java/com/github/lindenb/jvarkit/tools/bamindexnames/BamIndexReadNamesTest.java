@@ -0,0 +1,148 @@
+package com.github.lindenb.jvarkit.tools.bamindexnames;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+
+@AlsoTest(LauncherTest.class)
+public class BamIndexReadNamesTest {
+	private final TestSupport support = new TestSupport();
+
+	@AfterClass
+	public void removeTmpFiles() {
+		support.removeTmpFiles();
+		}
+
+	@DataProvider(name="src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{"S1.bam",""},
+			{"S2.bam","--block-size 5"},
+			{"S3.bam","--legacy"},
+			{"S4.bam","--threads 3 --maxRecordsInRam 10"},
+			{"toy.bam","--threads 2 --maxRecordsInRam 1"}
+			};
+		}
+
+	/** the parallel indexer must produce the same index as the sequential one */
+	@Test
+	public void testThreads() throws IOException {
+		final Path dir = Files.createTempDirectory("tmp.");
+		try {
+			final String bamName = "S5.bam";
+			final Path bam = dir.resolve(bamName);
+			Files.copy(Paths.get(support.resource(bamName)), bam);
+			Files.copy(Paths.get(support.resource(bamName+".bai")), dir.resolve(bamName+".bai"));
+			final Path idx = ReadNameIndex.getIndexPath(bam);
+			Assert.assertEquals(new BamIndexReadNames().instanceMain(Arrays.asList(bam.toString())),0);
+			final byte[] expect = Files.readAllBytes(idx);
+			Assert.assertEquals(new BamIndexReadNames().instanceMain(Arrays.asList(
+				"--threads","4","--maxRecordsInRam","7","--tmpDir",dir.toString(),bam.toString())),0);
+			Assert.assertEquals(Files.readAllBytes(idx), expect);
+			/* the sorted runs were deleted */
+			try(DirectoryStream<Path> ds = Files.newDirectoryStream(dir,"*.names")) {
+				Assert.assertFalse(ds.iterator().hasNext());
+				}
+			try(ReadNameIndex index = new ReadNameIndex(idx)) {
+				Assert.assertEquals(index.getCountReads(), readAll(bam).size());
+				}
+			}
+		finally {
+			deleteDirectory(dir);
+			}
+		}
+
+	private void deleteDirectory(final Path dir) throws IOException {
+		try(DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+			for(final Path p:ds) Files.delete(p);
+			}
+		Files.delete(dir);
+		}
+
+	private List<SAMRecord> readAll(final Path bam) throws IOException {
+		try(SamReader sr = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT).open(bam)) {
+			return sr.iterator().stream().collect(Collectors.toList());
+			}
+		}
+
+	private List<String> query(final Path bam,final Path names,final String args) throws IOException {
+		final Path out = support.createTmpPath(".bam");
+		final List<String> argv = new ArrayList<>();
+		argv.addAll(Arrays.asList("-o",out.toString()));
+		Arrays.stream(args.split("[ ]")).filter(S->!S.isEmpty()).forEach(S->argv.add(S));
+		argv.add(bam.toString());
+		argv.add(names.toString());
+		Assert.assertEquals(new BamQueryReadNames().instanceMain(argv),0);
+		support.assertIsValidBam(out);
+		return readAll(out).stream().map(R->R.getSAMString()).sorted().collect(Collectors.toList());
+		}
+
+	@Test(dataProvider="src1")
+	public void test01(final String bamName,final String args) throws IOException {
+		final Path dir = Files.createTempDirectory("tmp.");
+		final Path bam = dir.resolve(bamName);
+		Files.copy(Paths.get(support.resource(bamName)), bam);
+		Files.copy(Paths.get(support.resource(bamName+".bai")), dir.resolve(bamName+".bai"));
+		try {
+			final List<String> argv = new ArrayList<>();
+			Arrays.stream(args.split("[ ]")).filter(S->!S.isEmpty()).forEach(S->argv.add(S));
+			argv.add(bam.toString());
+			Assert.assertEquals(new BamIndexReadNames().instanceMain(argv),0);
+			final boolean legacy = args.contains("--legacy");
+			Assert.assertTrue(Files.exists(legacy?
+				dir.resolve(bamName+BaseBamIndexReadNames.NAME_IDX_EXTENSION):
+				ReadNameIndex.getIndexPath(bam)));
+
+			final List<SAMRecord> records = readAll(bam);
+			final List<String> allNames = records.stream().map(R->R.getReadName()).distinct().collect(Collectors.toList());
+			Collections.shuffle(allNames, new Random(0L));
+			final List<String> queries = new ArrayList<>(allNames.subList(0, Math.min(20, allNames.size()-2)));
+			queries.add(allNames.get(allNames.size()-1)+"/1");
+			queries.add(allNames.get(allNames.size()-2)+"/2");
+			queries.add("ZZZZ:X");
+			final Path names = support.createTmpPath(".txt");
+			Files.write(names, queries);
+
+			final List<String> expect = records.stream().
+				filter(R->queries.stream().anyMatch(Q->
+					Q.equals(R.getReadName()) ||
+					(Q.equals(R.getReadName()+"/1") && R.getReadPairedFlag() && R.getFirstOfPairFlag()) ||
+					(Q.equals(R.getReadName()+"/2") && R.getReadPairedFlag() && R.getSecondOfPairFlag())
+					)).
+				map(R->R.getSAMString()).
+				sorted().
+				collect(Collectors.toList());
+			Assert.assertFalse(expect.isEmpty());
+			Assert.assertEquals(query(bam,names,""), expect);
+			if(legacy) return;
+			/* -s is ignored with the compact index */
+			Assert.assertEquals(query(bam,names,"-s"), expect);
+			Assert.assertEquals(query(bam,names,"--batch"), expect);
+			}
+		finally {
+			deleteDirectory(dir);
+			}
+		}
+	}
@@ -0,0 +1,81 @@
+package com.github.lindenb.jvarkit.tools.bamindexnames;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+public class ReadNameIndexTest {
+
+	private String randomName(final Random rand) {
+		/* names sharing long prefixes, like Illumina read names */
+		return "HWI-1KL149:18:C0RNBACXX:" + (1 + rand.nextInt(2)) + ":" + (1101 + rand.nextInt(5)) + ":" + rand.nextInt(2000);
+		}
+
+	@DataProvider(name="blocks")
+	public Object[][] getBlockSizes() {
+		return new Object[][] {{1,0},{3,1},{7,1000},{ReadNameIndex.DEFAULT_BLOCK_SIZE,5000}};
+		}
+
+	@Test(dataProvider="blocks")
+	public void testLookup(final int blockSize,final int nNames) throws IOException {
+		final Random rand = new Random(blockSize);
+		final TreeMap<String,List<Long>> expect = new TreeMap<>();
+		for(int i=0;i< nNames;i++) {
+			final String name = randomName(rand);
+			expect.computeIfAbsent(name, K->new ArrayList<>()).add((long)rand.nextInt(1_000_000) << 16);
+			}
+		final Path path = Files.createTempFile("tmp.", ReadNameIndex.EXTENSION);
+		try {
+			try(ReadNameIndex.Writer w = new ReadNameIndex.Writer(path, blockSize)) {
+				for(final String name: expect.keySet()) {
+					final List<Long> L = expect.get(name);
+					L.sort(Long::compare);
+					for(final Long offset:L) w.add(name, offset);
+					}
+				}
+			Assert.assertTrue(ReadNameIndex.isReadNameIndex(path));
+			final List<String> queries = new ArrayList<>(expect.keySet());
+			for(int i=0;i< 100;i++) queries.add(randomName(rand));
+			queries.addAll(Arrays.asList("", "A", "ZZZZ", "HWI-1KL149:18:C0RNBACXX:1:1101:"));
+			try(ReadNameIndex index = new ReadNameIndex(path)) {
+				Assert.assertEquals(index.getCountReads(), expect.values().stream().mapToLong(L->L.size()).sum());
+				for(final String q: queries) {
+					final long[] offsets = index.lookup(q);
+					final List<Long> L = expect.get(q);
+					Assert.assertEquals(offsets, L==null?new long[0]:L.stream().mapToLong(Long::longValue).toArray(), q);
+					}
+				final Map<String,long[]> batch = index.lookup(queries);
+				for(final String q: queries) {
+					Assert.assertEquals(batch.get(q), index.lookup(q), q);
+					}
+				}
+			}
+		finally {
+			Files.delete(path);
+			}
+		}
+
+	@Test(expectedExceptions=IllegalStateException.class)
+	public void testNotSorted() throws IOException {
+		final Path path = Files.createTempFile("tmp.", ReadNameIndex.EXTENSION);
+		try {
+			try(ReadNameIndex.Writer w = new ReadNameIndex.Writer(path, 10)) {
+				w.add("B", 0L);
+				w.add("A", 0L);
+				}
+			}
+		finally {
+			Files.delete(path);
+			}
+		}
+	}
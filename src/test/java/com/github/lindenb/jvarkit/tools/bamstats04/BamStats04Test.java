@@ -96,4 +96,58 @@ public void testWithRef() throws IOException {
 		}
 	}
 
+@Test
+public void testBatch() throws IOException {
+	try {
+		final Path fasta = Paths.get(support.resource("rotavirus_rf.fa"));
+		final Path bedout = support.createTmpPath(".bed");
+		final PrintWriter pw = new PrintWriter(Files.newBufferedWriter(bedout));
+		support.randomIntervalsFromDict(fasta, 100, 1000).stream().
+		forEach(R->	pw.println(R.getContig()+"\t"+(R.getStart()-1)+"\t"+(R.getEnd())));
+		pw.flush();
+		pw.close();
+		
+		final Path out1 = support.createTmpPath(".txt");
+		Assert.assertEquals(new BamStats04().instanceMain(new String[] {
+			"-o",out1.toString(),
+			"--bed",bedout.toString(),
+			"-R",fasta.toString(),
+			support.resource("S1.bam"),
+			support.resource("S2.bam"),
+			support.resource("S3.bam")
+			}),0);
+		
+		final Path out2 = support.createTmpPath(".txt");
+		Assert.assertEquals(new BamStats04().instanceMain(new String[] {
+			"-o",out2.toString(),
+			"--bed",bedout.toString(),
+			"-R",fasta.toString(),
+			"--batch",
+			"--threads","2",
+			"--merge-distance","100",
+			support.resource("S1.bam"),
+			support.resource("S2.bam"),
+			support.resource("S3.bam")
+			}),0);
+		Assert.assertEquals(Files.readAllLines(out2), Files.readAllLines(out1));
+		
+		/* one thread: the same depth window is reused by all the BAMs and the regions */
+		final Path out3 = support.createTmpPath(".txt");
+		Assert.assertEquals(new BamStats04().instanceMain(new String[] {
+			"-o",out3.toString(),
+			"--bed",bedout.toString(),
+			"-R",fasta.toString(),
+			"--batch",
+			"--merge-distance","0",
+			support.resource("S1.bam"),
+			support.resource("S2.bam"),
+			support.resource("S3.bam")
+			}),0);
+		Assert.assertEquals(Files.readAllLines(out3), Files.readAllLines(out1));
+		} 
+	finally {
+		support.removeTmpFiles();
+		}
+	}
+
 }
@@ -0,0 +1,135 @@
+package com.github.lindenb.jvarkit.tools.burden;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.io.IOUtils;
+import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+
+import htsjdk.samtools.util.IOUtil;
+
+@AlsoTest(LauncherTest.class)
+public class VcfDerby01Test {
+	private final TestSupport support = new TestSupport();
+
+	@BeforeClass
+	public void setDerbyLog() throws IOException {
+		/* do not create 'derby.log' in the working directory */
+		System.setProperty("derby.stream.error.file", support.createTmpPath(".log").toString());
+		}
+
+	@AfterClass
+	public void removeTmpFiles() {
+		support.removeTmpFiles();
+		}
+
+	/** run vcfderby01 and return the lines of the output */
+	private List<String> run(final File derbyDir,final String action,final String... args) throws IOException {
+		final Path out = support.createTmpPath(".txt");
+		final List<String> argv = new ArrayList<>();
+		argv.addAll(Arrays.asList("-d",derbyDir.getPath(),"-o",out.toString(),"-a"));
+		argv.addAll(Arrays.asList(action.split("[ ]")));
+		argv.addAll(Arrays.asList(args));
+		Assert.assertEquals(new VcfDerby01().instanceMain(argv),0);
+		return Files.readAllLines(out);
+		}
+
+	/** number of rows in the tables VCF, VCFROW and ROWCONTENT */
+	private List<Long> countRows(final File derbyDir) throws SQLException {
+		final List<Long> counts = new ArrayList<>();
+		try(Connection conn = DriverManager.getConnection("jdbc:derby:"+derbyDir)) {
+			try(Statement stmt = conn.createStatement()) {
+				for(final String table: new String[] {"VCF","VCFROW","ROWCONTENT"}) {
+					try(ResultSet row = stmt.executeQuery("SELECT COUNT(*) FROM "+table)) {
+						Assert.assertTrue(row.next());
+						counts.add(row.getLong(1));
+						}
+					}
+				}
+			}
+		finally {
+			final Properties props = new Properties();
+			props.setProperty("shutdown", "true");
+			try {
+				DriverManager.getConnection("jdbc:derby:"+derbyDir,props);
+				}
+			catch(final SQLException err) {
+				/* derby always throws an exception on shutdown */
+				}
+			}
+		return counts;
+		}
+
+	private static List<String> dataLines(final List<String> lines) {
+		return lines.stream().filter(L->!L.startsWith("#")).collect(Collectors.toList());
+		}
+
+	private static List<String> dataLines(final String vcf) throws IOException {
+		try(BufferedReader br = IOUtils.openURIForBufferedReading(vcf)) {
+			return dataLines(br.lines().collect(Collectors.toList()));
+			}
+		}
+
+	/** load the VCFs in a new database, then dump the database.
+	 * @return the output of 'read', 'dumpall', 'dump', 'dumpuniq' and the number of rows in the tables */
+	private List<Object> load(final String extraArgs) throws IOException, SQLException {
+		final String vcf1 = support.resource("rotavirus_rf.vcf.gz");
+		final String vcf2 = support.resource("rotavirus_rf.ann.vcf.gz");
+		final File tmpDir = Files.createTempDirectory("derby.").toFile();
+		try {
+			final File derbyDir = new File(tmpDir, "db");
+			final String readAction = ("read "+extraArgs).trim();
+			final List<Object> results = new ArrayList<>();
+			results.add(run(derbyDir, readAction, vcf1, vcf2));
+			/* the rows of the second load are already in the database */
+			results.add(run(derbyDir, readAction, vcf1));
+			final List<String> dumpAll = run(derbyDir, "dumpall");
+			results.add(dumpAll);
+			results.add(run(derbyDir, "dump", "1,3"));
+			results.add(run(derbyDir, "dumpuniq"));
+			final List<Long> counts = countRows(derbyDir);
+			results.add(counts);
+			Assert.assertEquals(counts.get(0).longValue(), 3L);
+			/* the rows of the third VCF are all shared with the first one */
+			Assert.assertTrue(counts.get(2) < counts.get(1));
+
+			Assert.assertEquals(dumpAll.stream().filter(L->L.startsWith("#CHROM")).count(), 3L);
+			final List<String> expect = new ArrayList<>();
+			expect.addAll(dataLines(vcf1));
+			expect.addAll(dataLines(vcf2));
+			expect.addAll(dataLines(vcf1));
+			Assert.assertEquals(dataLines(dumpAll), expect);
+			return results;
+			}
+		finally {
+			IOUtil.deleteDirectoryTree(tmpDir);
+			}
+		}
+
+	@Test
+	public void testBulkLoad() throws IOException, SQLException {
+		final List<Object> expect = load("");
+		Assert.assertEquals(load("--bulk --batch-size 7"), expect);
+		Assert.assertEquals(load("--bulk --batch-size 1000 --fetch-size 3"), expect);
+		}
+	}
@@ -0,0 +1,73 @@
+package com.github.lindenb.jvarkit.tools.cmpbams;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+
+@AlsoTest(LauncherTest.class)
+public class CompareBamsTest {
+	private final TestSupport support = new TestSupport();
+
+	@AfterClass
+	public void removeTmpFiles() {
+		support.removeTmpFiles();
+		}
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{"S1.bam",""},
+			{"S2.bam","-F -c"},
+			{"S4.bam","-Q 30 -d 0 --maxRecordsInRam 10"},
+			{"toy.bam","-F"}
+			};
+		}
+
+	private List<String> compare(final String args,final Path... bams) throws IOException {
+		final Path out = support.createTmpPath(".txt");
+		final List<String> argv = new ArrayList<>();
+		argv.addAll(Arrays.asList("-o",out.toString()));
+		Arrays.stream(args.split("[ ]")).filter(S->!S.isEmpty()).forEach(S->argv.add(S));
+		Arrays.stream(bams).forEach(P->argv.add(P.toString()));
+		Assert.assertEquals(new CompareBams().instanceMain(argv),0);
+		return Files.readAllLines(out);
+		}
+
+	/** the streaming merge of the name-sorted BAMs must produce the same output as the external sort */
+	@Test(dataProvider="src1")
+	public void testNameSorted(final String bamName,final String args) throws IOException {
+		final Path bam = Paths.get(support.resource(bamName));
+		final Path sortedBam1 = support.sortBamOnQueryName(bam,R->support.random.nextDouble()<0.9);
+		final Path sortedBam2 = support.sortBamOnQueryName(bam,R->support.random.nextDouble()<0.9);
+		final List<String> expect = compare(args, sortedBam1, sortedBam2);
+		Assert.assertTrue(expect.size()>1);
+		Assert.assertEquals(compare(args+" --name-sorted", sortedBam1, sortedBam2), expect);
+		Assert.assertEquals(compare(args+" --name-sorted", sortedBam2, sortedBam1, sortedBam2),
+				compare(args, sortedBam2, sortedBam1, sortedBam2));
+		}
+
+	@Test
+	public void testNotNameSorted() throws IOException {
+		final Path bam = Paths.get(support.resource("S1.bam"));
+		final Path out = support.createTmpPath(".txt");
+		Assert.assertNotEquals(new CompareBams().instanceMain(new String[] {
+			"-o",out.toString(),
+			"--name-sorted",
+			bam.toString(),
+			bam.toString()
+			}),0);
+		}
+	}
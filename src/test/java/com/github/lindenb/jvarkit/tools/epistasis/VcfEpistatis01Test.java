@@ -0,0 +1,67 @@
+package com.github.lindenb.jvarkit.tools.epistasis;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.tools.vcflist.MappedVcfFileListTest;
+import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+
+@AlsoTest({LauncherTest.class,MappedVcfFileListTest.class})
+public class VcfEpistatis01Test {
+	private final TestSupport support = new TestSupport();
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{"--mmap","10"},
+			{"--mmap","10","--jobs","3"},
+			{"--matrix"},
+			{"--matrix","--jobs","3"},
+			{"--matrix","--start","3"}
+			};
+		}
+
+	private Path run(final Path ped,final String...args) throws IOException {
+		final Path out = support.createTmpPath(".txt");
+		final String args2[] = new String[args.length+6];
+		args2[0] = "--score";
+		args2[1] = "-p";
+		args2[2] = ped.toString();
+		args2[3] = "-o";
+		args2[4] = out.toString();
+		System.arraycopy(args, 0, args2, 5, args.length);
+		args2[args2.length-1] = support.resource("rotavirus_rf.vcf.gz");
+		Assert.assertEquals(new VcfEpistatis01().instanceMain(args2),0);
+		support.assertIsNotEmpty(out);
+		return out;
+		}
+
+	@Test(dataProvider="src1")
+	public void test01(final String...args) throws IOException {
+		try {
+			final Path ped = support.createTmpPath(".ped");
+			try(PrintWriter pw = new PrintWriter(Files.newBufferedWriter(ped))) {
+				pw.println("F1\tS1\t0\t0\t1\t2");
+				pw.println("F1\tS2\t0\t0\t1\t2");
+				pw.println("F1\tS3\t0\t0\t1\t1");
+				pw.println("F1\tS4\t0\t0\t2\t1");
+				pw.println("F1\tS5\t0\t0\t2\t1");
+				}
+			final boolean hasStart = String.join(" ", args).contains("--start");
+			final Path expect = hasStart?run(ped,"--start","3"):run(ped);
+			final Path out = run(ped,args);
+			Assert.assertEquals(Files.readAllLines(out),Files.readAllLines(expect));
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+	}
@@ -5,6 +5,7 @@ import java.io.PrintWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -144,5 +145,48 @@ public void testHeaderV2_1(final String vcfpath) throws IOException {
 		}
 	}
 
+@DataProvider(name="src02")
+public Object[][] testData02() {
+	return new Object[][] {
+		{support.resource("gnomad.genomes.r2.0.1.sites.1.vcf.gz"),""},
+		{support.resource("gnomad.genomes.r2.0.1.sites.1.vcf.gz"),"AF_"},
+		{support.resource("gnomad.exomes.r2.0.1.sites.vcf.gz"),"controls"},
+		{support.resource("test_vcf01.vcf"),""}
+	};
+}
 
+@Test(dataProvider="src02")
+public void testSorted(final String vcfpath,final String exclude) throws IOException {
+	try {
+		final Path mFile = createManifest();
+		final Path vcfOut1 = support.createTmpPath(".vcf");
+		Assert.assertEquals(new VcfGnomad().instanceMain(new String[]{
+				"-o",vcfOut1.toString(),
+				"-m",mFile.toString(),
+				"--exclude",exclude,
+				"--gnomadFilter","IN_GNOMAD",
+				"--overlapFilter","OVERLAP_GNOMAD",
+				vcfpath
+				}),0);
+		final Path vcfOut2 = support.createTmpPath(".vcf");
+		Assert.assertEquals(new VcfGnomad().instanceMain(new String[]{
+				"-o",vcfOut2.toString(),
+				"-m",mFile.toString(),
+				"--exclude",exclude,
+				"--gnomadFilter","IN_GNOMAD",
+				"--overlapFilter","OVERLAP_GNOMAD",
+				"--sorted",
+				vcfpath
+				}),0);
+		support.assertIsVcf(vcfOut2);
+		Assert.assertEquals(
+			Files.lines(vcfOut2).filter(L->!L.startsWith("##")).collect(Collectors.toList()),
+			Files.lines(vcfOut1).filter(L->!L.startsWith("##")).collect(Collectors.toList())
+			);
+		}
+	finally
+		{
+		support.removeTmpFiles();
+		}
+	}
 }
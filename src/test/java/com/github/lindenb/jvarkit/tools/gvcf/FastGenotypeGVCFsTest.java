@@ -0,0 +1,132 @@
+package com.github.lindenb.jvarkit.tools.gvcf;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.IndexFactory;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+
+@AlsoTest(LauncherTest.class)
+public class FastGenotypeGVCFsTest {
+	private final TestSupport support = new TestSupport();
+	private static final String CONTIGS[]= {"chr1","chr2","chr3"};
+	private static final int CONTIG_LENGTH = 500;
+
+	@AfterClass
+	public void removeTmpFiles() {
+		support.removeTmpFiles();
+		}
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{1L,1},
+			{2L,3},
+			{3L,5}
+			};
+		}
+
+	/** create an indexed gvcf for one sample. Hom-ref blocks have random lengths,
+	 * so the blocks of the samples overlap. Some variants are shared by the samples */
+	private Path createGvcf(final String sample,final String[] refs,final Random rand) throws IOException {
+		final Path gvcf = support.createTmpPath(".g.vcf");
+		try(PrintWriter pw = new PrintWriter(Files.newBufferedWriter(gvcf))) {
+			pw.println("##fileformat=VCFv4.2");
+			pw.println("##ALT=<ID=NON_REF,Description=\"Represents any possible alternative allele at this location\">");
+			pw.println("##INFO=<ID=END,Number=1,Type=Integer,Description=\"Stop position of the interval\">");
+			pw.println("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">");
+			pw.println("##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Approximate read depth\">");
+			pw.println("##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype Quality\">");
+			pw.println("##FORMAT=<ID=PL,Number=G,Type=Integer,Description=\"Phred-scaled genotype likelihoods\">");
+			for(final String contig: CONTIGS) {
+				pw.println("##contig=<ID="+contig+",length="+CONTIG_LENGTH+">");
+				}
+			pw.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\t"+sample);
+			for(int c=0;c< CONTIGS.length;++c) {
+				final String ref = refs[c];
+				int pos = 1;
+				while(pos <= CONTIG_LENGTH) {
+					final char base = ref.charAt(pos-1);
+					/* shared variant every 17 bases, private variant sometimes */
+					if(pos%17==0 || rand.nextInt(30)==0) {
+						final char alt = (base=='A'?'C':'A');
+						final String gt = rand.nextBoolean()?"0/1":"1/1";
+						pw.println(CONTIGS[c]+"\t"+pos+"\t.\t"+base+"\t"+alt+",<NON_REF>\t50\t.\t.\tGT:DP:GQ:PL\t"+
+							gt+":"+(10+rand.nextInt(20))+":"+(20+rand.nextInt(40))+":50,0,60,99,80,120");
+						pos++;
+						}
+					else {
+						/* the block stops before the next shared variant */
+						final int end = Math.min(Math.min(CONTIG_LENGTH, pos + rand.nextInt(25)), (pos/17+1)*17-1);
+						pw.println(CONTIGS[c]+"\t"+pos+"\t.\t"+base+"\t<NON_REF>\t.\t.\tEND="+end+"\tGT:DP:GQ:PL\t"+
+							"0/0:"+(10+rand.nextInt(20))+":"+(20+rand.nextInt(40))+":0,30,300");
+						pos = end+1;
+						}
+					}
+				}
+			pw.flush();
+			}
+		final Index index = IndexFactory.createDynamicIndex(gvcf.toFile(), new VCFCodec());
+		final Path indexFile = support.deleteOnExit(gvcf.resolveSibling(gvcf.getFileName().toString()+".idx"));
+		index.write(indexFile);
+		return gvcf;
+		}
+
+	private List<String> genotype(final List<Path> gvcfs,final int nThreads) throws IOException {
+		final Path out = support.createTmpPath(".vcf");
+		final List<String> args = new ArrayList<>();
+		args.addAll(Arrays.asList("-o",out.toString(),"--threads",String.valueOf(nThreads)));
+		gvcfs.stream().map(P->P.toString()).forEach(S->args.add(S));
+		Assert.assertEquals(new FastGenotypeGVCFs().instanceMain(args),0);
+		support.assertIsVcf(out);
+		/* parse the whole file */
+		final List<VariantContext> variants = support.variantStream(out).collect(Collectors.toList());
+		Assert.assertFalse(variants.isEmpty());
+		for(final VariantContext ctx: variants) {
+			Assert.assertEquals(ctx.getNSamples(), gvcfs.size());
+			}
+		return Files.readAllLines(out).stream().
+			filter(L->!L.startsWith("##")).
+			collect(Collectors.toList());
+		}
+
+	@Test(dataProvider="src1")
+	public void testThreads(final long seed,final int nSamples) throws IOException {
+		final Random rand = new Random(seed);
+		final String refs[] = new String[CONTIGS.length];
+		for(int c=0;c< CONTIGS.length;++c) {
+			final StringBuilder sb = new StringBuilder(CONTIG_LENGTH);
+			while(sb.length()< CONTIG_LENGTH) sb.append("ACGT".charAt(rand.nextInt(4)));
+			refs[c] = sb.toString();
+			}
+		final List<Path> gvcfs = new ArrayList<>();
+		for(int i=0;i< nSamples;i++) gvcfs.add(createGvcf("S"+(i+1), refs, rand));
+		final List<String> expect = genotype(gvcfs, 1);
+		Assert.assertEquals(genotype(gvcfs, 3), expect);
+		/* fewer threads than contigs: the readers of a thread are reused for the next contig */
+		Assert.assertEquals(genotype(gvcfs, 2), expect);
+		/* a shared variant is found by all the samples */
+		Assert.assertTrue(expect.stream().anyMatch(L->L.startsWith("chr2\t17\t")));
+		Assert.assertTrue(expect.stream().anyMatch(L->L.startsWith("chr3\t")));
+		/* genotypes of the private variants come from the hom-ref blocks of the other samples */
+		if(nSamples>1) Assert.assertTrue(expect.stream().anyMatch(L->!L.startsWith("#") && L.contains("\t0/0:")));
+		}
+	}
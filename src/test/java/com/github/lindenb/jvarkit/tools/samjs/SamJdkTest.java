@@ -6,6 +6,10 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
@@ -45,4 +49,73 @@ public class SamJdkTest  {
 			support.removeTmpFiles();
 			}	
 		}
+	
+	private List<String> readRecords(final Path bam) throws IOException {
+		try(SamReader sr=SamReaderFactory.makeDefault().open(bam)) {
+			return sr.iterator().stream().map(SAMRecord::getSAMString).collect(Collectors.toList());
+			}
+		}
+	
+	@Test(dataProvider="src1")
+	public void testThreads(final String inBam,final String expr) throws IOException {
+		try {
+			final Path out1 = support.createTmpPath(".bam");
+			Assert.assertEquals(new SamJdk().instanceMain(new String[] {
+	        		"-o",out1.toString(),
+	        		"-e",expr,
+	        		inBam
+					}),0);
+			final Path out2 = support.createTmpPath(".bam");
+			Assert.assertEquals(new SamJdk().instanceMain(new String[] {
+	        		"-o",out2.toString(),
+	        		"-e",expr,
+	        		"--threads","3",
+	        		"--batch-size","7",
+	        		inBam
+					}),0);
+			support.assertIsValidBam(out2);
+			Assert.assertEquals(readRecords(out2), readRecords(out1));
+			}
+		finally
+			{
+			support.removeTmpFiles();
+			}	
+		}
+	
+	@Test
+	public void testThreadsPairMode() throws IOException {
+		try {
+			final String inBam = support.resource("S1.bam");
+			final Path sorted = support.createTmpPath(".bam");
+			try(SamReader sr=SamReaderFactory.makeDefault().open(java.nio.file.Paths.get(inBam))) {
+				final htsjdk.samtools.SAMFileHeader header = sr.getFileHeader().clone();
+				header.setSortOrder(htsjdk.samtools.SAMFileHeader.SortOrder.queryname);
+				try(htsjdk.samtools.SAMFileWriter w = new htsjdk.samtools.SAMFileWriterFactory().makeBAMWriter(header, false, sorted)) {
+					sr.iterator().stream().forEach(w::addAlignment);
+					}
+				}
+			final String expr = "return records.size()==2;";
+			final Path out1 = support.createTmpPath(".bam");
+			Assert.assertEquals(new SamJdk().instanceMain(new String[] {
+	        		"-o",out1.toString(),
+	        		"--pair",
+	        		"-e",expr,
+	        		sorted.toString()
+					}),0);
+			final Path out2 = support.createTmpPath(".bam");
+			Assert.assertEquals(new SamJdk().instanceMain(new String[] {
+	        		"-o",out2.toString(),
+	        		"--pair",
+	        		"--threads","2",
+	        		"--batch-size","7",
+	        		"-e",expr,
+	        		sorted.toString()
+					}),0);
+			Assert.assertEquals(readRecords(out2), readRecords(out1));
+			}
+		finally
+			{
+			support.removeTmpFiles();
+			}	
+		}
 }
@@ -2,8 +2,14 @@ package com.github.lindenb.jvarkit.tools.tview;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLEncoder;
+import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -14,7 +20,14 @@ import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
 import com.github.lindenb.jvarkit.tools.tests.TestSupport;
 import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
 
-import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.util.Interval;
+import htsjdk.variant.utils.SAMSequenceDictionaryExtractor;
 
 @AlsoTest(LauncherTest.class)
 public class TViewServerTest {
@@ -34,36 +47,33 @@ private final TestSupport support = new TestSupport();
 		}
 		
 	@Test(dataProvider="rf_regions")
-	public void test01(final String rgn) throws IOException {
+	public void test01(final String rgn) throws Exception {
 		try {
-			final int port = 9090;
 			final Path htmlOut = support.createTmpPath(".html");
-			final String uri = "http://localhost:"+port+"/?rgn="+URLEncoder.encode(rgn, "UTF-8");
-			new java.util.Timer().schedule( 
-			        new java.util.TimerTask() {
-			            @Override
-			            public void run() {
-			            	InputStream in= null;
-			            	try {
-			            		 in=IOUtils.openURIForReading(uri);
-			            		IOUtils.copyTo(in, htmlOut);
-			            	} catch(IOException err) {
-			            		Assert.fail("cannot read "+uri, err);
-			            	}
-			            	finally {
-			            		CloserUtil.close(in);
-			            	}
-			            }
-			        },30);
-			
-			new  TViewServer().instanceMain(new String[] {
-					"-P",String.valueOf(port),
+			final TViewServer tviewServer = new TViewServer();
+			final AtomicInteger exitStatus = new AtomicInteger(-1);
+			/* any free port, the server is stopped when the page was read */
+			final Thread thread = new Thread(()->exitStatus.set(tviewServer.instanceMain(new String[] {
+					"-P","0",
 					"-R",support.resource("rotavirus_rf.fa"),
-					"--shutdown-after","60",
 					support.resource("S1.bam"),
 					support.resource("S2.bam")
-				});
-			
+				})));
+			thread.start();
+			try {
+				final int port = tviewServer.awaitStarted(60_000L);
+				Assert.assertTrue(port > 0, "server was not started");
+				final String uri = "http://localhost:"+port+"/?rgn="+URLEncoder.encode(rgn, "UTF-8");
+				try(InputStream in=IOUtils.openURIForReading(uri)) {
+					IOUtils.copyTo(in, htmlOut);
+					}
+				}
+			finally {
+				tviewServer.stop();
+				thread.join(60_000L);
+				}
+			Assert.assertFalse(thread.isAlive());
+			Assert.assertEquals(exitStatus.get(), 0);
 			support.assertIsXml(htmlOut);
 		} finally {
 			support.removeTmpFiles();
@@ -71,4 +81,67 @@ private final TestSupport support = new TestSupport();
 		}
 
 
-}
+
+	@DataProvider(name="rf_large_regions")
+	public Object[][] getLargeRegions() throws IOException  {
+		return support.toArrayArray(
+				support.randomIntervalsFromDict(Paths.get(support.resource("rotavirus_rf.dict")),10,3000).
+				stream().
+				map(I->new Object[]{I})
+				);
+		}
+
+	/** the reads of the windows of the cache are the reads of the interval, each one once */
+	@Test(dataProvider="rf_large_regions")
+	public void testGetReads(final Interval interval) throws IOException {
+		final File bam = new File(support.resource("S1.bam"));
+		final File ref = new File(support.resource("rotavirus_rf.fa"));
+		final SAMSequenceDictionary dict = SAMSequenceDictionaryExtractor.extractDictionary(ref.toPath());
+		final List<String> expect = new ArrayList<>();
+		try(SamReader sr = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.LENIENT).open(bam)) {
+			try(SAMRecordIterator iter = sr.query(interval.getContig(), interval.getStart(), interval.getEnd(), false)) {
+				while(iter.hasNext()) expect.add(iter.next().getSAMString());
+				}
+			}
+		final TViewServer server = new TViewServer();
+		final TViewServer.SamViewHandler handler = server.new SamViewHandler(Collections.singletonList(bam), dict);
+		try {
+			/* twice: loaded, then from the cache */
+			for(int i=0;i< 2;i++) {
+				final List<SAMRecord> records = handler.getReads(0, interval);
+				Assert.assertEquals(records.stream().map(R->R.getSAMString()).collect(Collectors.toList()), expect);
+				Assert.assertEquals(
+					TViewTest.paintFromMemory(records, TViewTest.getContigSequence(ref, interval.getContig()), interval),
+					TViewTest.paintFromFiles(bam, ref, interval)
+					);
+				}
+			Assert.assertTrue(handler.windowCache.getTotalBytes() > 0L);
+			}
+		finally {
+			handler.close();
+			}
+		}
+
+	@Test
+	public void testWindowCache() {
+		final AtomicInteger nLoads = new AtomicInteger(0);
+		final TViewServer.WindowCache cache = new TViewServer.WindowCache(K->{
+			nLoads.incrementAndGet();
+			return new TViewServer.Window(new byte[K.index==100?10_000:100]);
+			},1_000L);
+		for(int i=0;i< 20;i++) {
+			Assert.assertEquals(cache.get(new TViewServer.WindowKey(i%2, "RF01", i)).bases.length, 100);
+			Assert.assertTrue(cache.getTotalBytes() <= 1_000L);
+			}
+		Assert.assertEquals(nLoads.get(), 20);
+		Assert.assertTrue(cache.size() > 1);
+		/* most recent window is still in the cache, the first one was evicted */
+		cache.get(new TViewServer.WindowKey(1, "RF01", 19));
+		Assert.assertEquals(nLoads.get(), 20);
+		cache.get(new TViewServer.WindowKey(0, "RF01", 0));
+		Assert.assertEquals(nLoads.get(), 21);
+		/* larger than the cache: returned, not kept */
+		Assert.assertEquals(cache.get(new TViewServer.WindowKey(0, "RF01", 100)).bases.length, 10_000);
+		Assert.assertTrue(cache.getTotalBytes() <= 1_000L);
+		}
+	}
@@ -0,0 +1,92 @@
+package com.github.lindenb.jvarkit.tools.tview;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.reference.IndexedFastaSequenceFile;
+import htsjdk.samtools.util.Interval;
+
+public class TViewTest {
+	private final TestSupport support = new TestSupport();
+
+	@DataProvider(name="rf_regions")
+	public Object[][] getDataRegions() throws IOException  {
+		return support.toArrayArray(
+				support.randomIntervalsFromDict(Paths.get(support.resource("rotavirus_rf.dict")),10,1000).
+				stream().
+				map(I->new Object[]{I})
+				);
+		}
+
+	static String paint(final TView tview) throws IOException {
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		try(PrintStream ps = new PrintStream(os)) {
+			tview.setFormatOut(TView.Formatout.plain);
+			Assert.assertEquals(tview.initialize(), 0);
+			tview.paint(ps);
+			ps.flush();
+			}
+		finally {
+			tview.close();
+			}
+		return new String(os.toByteArray());
+		}
+
+	/** output of TView reading the BAM and the reference */
+	static String paintFromFiles(final File bam,final File ref,final Interval interval) throws IOException {
+		final TView tview = new TView();
+		tview.setReferenceFile(ref);
+		tview.setBamFiles(Collections.singletonList(SamInputResource.of(bam)));
+		tview.setInterval(interval);
+		return paint(tview);
+		}
+
+	/** output of TView using the records and the sequence provided by the caller */
+	static String paintFromMemory(final List<SAMRecord> records,final CharSequence contigSequence,final Interval interval) throws IOException {
+		final TView tview = new TView();
+		tview.setRecords(records);
+		tview.setContigSequence(contigSequence);
+		tview.setInterval(interval);
+		return paint(tview);
+		}
+
+	static String getContigSequence(final File ref,final String contig) throws IOException {
+		try(IndexedFastaSequenceFile fasta = new IndexedFastaSequenceFile(ref)) {
+			return new String(fasta.getSequence(contig).getBases());
+			}
+		}
+
+	@Test(dataProvider="rf_regions")
+	public void testProvidedRecordsAndSequence(final Interval interval) throws IOException {
+		final File bam = new File(support.resource("S1.bam"));
+		final File ref = new File(support.resource("rotavirus_rf.fa"));
+		final List<SAMRecord> records = new ArrayList<>();
+		try(SamReader sr = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.LENIENT).open(bam)) {
+			try(SAMRecordIterator iter = sr.query(interval.getContig(), interval.getStart(), interval.getEnd(), false)) {
+				while(iter.hasNext()) records.add(iter.next());
+				}
+			}
+		final String expect = paintFromFiles(bam, ref, interval);
+		Assert.assertTrue(expect.contains(interval.getContig()));
+		if(!records.isEmpty()) Assert.assertTrue(expect.contains("S1"));
+		Assert.assertEquals(paintFromMemory(records, getContigSequence(ref, interval.getContig()), interval), expect);
+		}
+	}
@@ -0,0 +1,142 @@
+package com.github.lindenb.jvarkit.tools.vcfannot;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.misc.KnownGeneToBinary;
+import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.bio.SequenceDictionaryUtils;
+import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+import com.github.lindenb.jvarkit.util.ucsc.KnownGeneTest;
+
+import htsjdk.samtools.SAMSequenceRecord;
+
+@AlsoTest({LauncherTest.class,KnownGeneTest.class})
+public class VCFPredictionsTest {
+	private final TestSupport support =new TestSupport();
+
+	/** create a knownGene file with random transcripts on the rotavirus genome */
+	private Path createRandomKnownGenes() throws IOException {
+		final Random random = new Random(0L);
+		final Path kgFile = support.createTmpPath(".knownGene.txt");
+		try(PrintWriter pw = new PrintWriter(Files.newBufferedWriter(kgFile))) {
+			int n=0;
+			for(final SAMSequenceRecord ssr: SequenceDictionaryUtils.extractRequired(Paths.get(support.resource("rotavirus_rf.fa"))).getSequences()) {
+				for(int i=0;i< 10;++i) {
+					final int txStart = random.nextInt(ssr.getSequenceLength()/2);
+					final int txEnd = Math.min(ssr.getSequenceLength(), txStart + 100 + random.nextInt(ssr.getSequenceLength()/2));
+					final List<Integer> bounds = new ArrayList<>();
+					final int nExons = 1 + random.nextInt(4);
+					final int step = (txEnd - txStart) / (nExons*2);
+					for(int x=0;x< nExons*2;++x) bounds.add(txStart + x*step);
+					bounds.set(bounds.size()-1, txEnd);
+					final List<Integer> starts = new ArrayList<>();
+					final List<Integer> ends = new ArrayList<>();
+					for(int x=0;x< nExons;++x) {
+						starts.add(bounds.get(x*2));
+						ends.add(bounds.get(x*2+1));
+						}
+					final int cdsStart = txStart + random.nextInt(step);
+					final int cdsEnd = Math.max(cdsStart, txEnd - random.nextInt(step));
+					pw.println(String.join("\t",
+						"tr"+(++n),
+						ssr.getSequenceName(),
+						random.nextBoolean()?"+":"-",
+						String.valueOf(txStart),
+						String.valueOf(txEnd),
+						String.valueOf(cdsStart),
+						String.valueOf(cdsEnd),
+						String.valueOf(nExons),
+						starts.stream().map(String::valueOf).collect(Collectors.joining(","))+",",
+						ends.stream().map(String::valueOf).collect(Collectors.joining(","))+","
+						));
+					}
+				}
+			pw.flush();
+			}
+		return kgFile;
+		}
+
+	private List<String> variants(final Path vcf) throws IOException {
+		return support.variantStream(vcf).
+			map(V->V.getContig()+":"+V.getStart()+":"+V.getAlleles()+":"+Arrays.toString(V.getAttributeAsStringList(VCFPredictions.TAG, "").toArray())).
+			collect(Collectors.toList());
+		}
+
+	@Test
+	public void testCompiledKnownGene() throws IOException
+		{
+		try {
+			final Path kgFile = createRandomKnownGenes();
+			final Path kgBin = support.createTmpPath(".kgbin");
+			Assert.assertEquals(new KnownGeneToBinary().instanceMain(new String[] {
+				"-o",kgBin.toString(),
+				kgFile.toString()
+				}),0);
+
+			final Path out1 = support.createTmpPath(".vcf");
+			Assert.assertEquals(new VCFPredictions().instanceMain(new String[] {
+				"-R",support.resource("rotavirus_rf.fa"),
+				"-o",out1.toString(),
+				"-k",kgFile.toString(),
+				support.resource("rotavirus_rf.vcf.gz")
+				}),0);
+			support.assertIsVcf(out1);
+
+			final Path out2 = support.createTmpPath(".vcf");
+			Assert.assertEquals(new VCFPredictions().instanceMain(new String[] {
+				"-R",support.resource("rotavirus_rf.fa"),
+				"-o",out2.toString(),
+				"-k",kgBin.toString(),
+				support.resource("rotavirus_rf.vcf.gz")
+				}),0);
+			support.assertIsVcf(out2);
+			Assert.assertEquals(variants(out2), variants(out1));
+			}
+		finally
+			{
+			support.removeTmpFiles();
+			}
+		}
+
+	@Test
+	public void testThreads() throws IOException
+		{
+		try {
+			final Path kgFile = createRandomKnownGenes();
+			final Path out1 = support.createTmpPath(".vcf");
+			Assert.assertEquals(new VCFPredictions().instanceMain(new String[] {
+				"-R",support.resource("rotavirus_rf.fa"),
+				"-o",out1.toString(),
+				"-k",kgFile.toString(),
+				support.resource("rotavirus_rf.vcf.gz")
+				}),0);
+			final Path out2 = support.createTmpPath(".vcf");
+			Assert.assertEquals(new VCFPredictions().instanceMain(new String[] {
+				"-R",support.resource("rotavirus_rf.fa"),
+				"-o",out2.toString(),
+				"-k",kgFile.toString(),
+				"--threads","3",
+				support.resource("rotavirus_rf.vcf.gz")
+				}),0);
+			support.assertIsVcf(out2);
+			Assert.assertEquals(variants(out2), variants(out1));
+			}
+		finally
+			{
+			support.removeTmpFiles();
+			}
+		}
+}
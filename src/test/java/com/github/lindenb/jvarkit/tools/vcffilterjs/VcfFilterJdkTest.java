@@ -0,0 +1,64 @@
+package com.github.lindenb.jvarkit.tools.vcffilterjs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+
+@AlsoTest(LauncherTest.class)
+public class VcfFilterJdkTest {
+	private final TestSupport support = new TestSupport();
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{"return variant.getStart()%2==0;",""},
+			{"return variant.getStart()%2==0;","FAILED"},
+			{"return new VariantContextBuilder(variant).attribute(\"DP\",variant.getStart()).make();",""},
+			{"if(Boolean.TRUE.equals(userData.get(\"first.variant\")) || Boolean.TRUE.equals(userData.get(\"last.variant\"))) return true; return Arrays.asList(variant,variant);",""}
+			};
+		}
+
+	private List<String> variants(final Path vcf) throws IOException {
+		return support.variantStream(vcf).
+			map(V->V.getContig()+":"+V.getStart()+":"+V.getFilters()+":"+V.getAttributes()).
+			collect(Collectors.toList());
+		}
+
+	@Test(dataProvider="src1")
+	public void testThreads(final String expr,final String filter) throws IOException {
+		try {
+			final Path out1 = support.createTmpPath(".vcf");
+			Assert.assertEquals(new VcfFilterJdk().instanceMain(new String[] {
+				"-o",out1.toString(),
+				"-e",expr,
+				"--filter",filter,
+				support.resource("rotavirus_rf.vcf.gz")
+				}),0);
+			support.assertIsVcf(out1);
+			final Path out2 = support.createTmpPath(".vcf");
+			Assert.assertEquals(new VcfFilterJdk().instanceMain(new String[] {
+				"-o",out2.toString(),
+				"-e",expr,
+				"--filter",filter,
+				"--threads","3",
+				"--batch-size","7",
+				support.resource("rotavirus_rf.vcf.gz")
+				}),0);
+			support.assertIsVcf(out2);
+			Assert.assertEquals(variants(out2), variants(out1));
+			}
+		finally
+			{
+			support.removeTmpFiles();
+			}
+		}
+	}
@@ -0,0 +1,92 @@
+package com.github.lindenb.jvarkit.tools.vcflist;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+
+import htsjdk.variant.variantcontext.VariantContext;
+
+public class MappedVcfFileListTest {
+	private final TestSupport support = new TestSupport();
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return support.toArrayArray(support.allVcfOrBcf().
+				filter(S->S.endsWith(".vcf") || S.endsWith(".vcf.gz")).
+				map(F->new Object[] {F})
+				);
+		}
+
+	private static String toString(final VariantContext ctx) {
+		return ctx.getContig()+":"+ctx.getStart()+":"+ctx.getID()+":"+ctx.getAlleles()+":"+ctx.getNSamples();
+		}
+
+	@Test(dataProvider="src1")
+	public void test01(final String vcfPath) throws IOException {
+		try {
+			final File vcfFile = new File(vcfPath);
+			final Path index = support.createTmpPath(VcfOffsetsIndexFactory.INDEX_EXTENSION);
+			new VcfOffsetsIndexFactory().indexVcfFile(vcfFile, index.toFile());
+			try(final VcfList expect = VcfList.fromFile(vcfFile, index.toFile())) {
+				try(final MappedVcfFileList mapped = VcfList.mapFile(vcfFile, index.toFile(),2)) {
+					Assert.assertEquals(mapped.size(), expect.size());
+					final List<Integer> indexes = IntStream.range(0, expect.size()).boxed().collect(Collectors.toCollection(ArrayList::new));
+					Collections.shuffle(indexes, support.random);
+					for(final int i:indexes) {
+						Assert.assertEquals(toString(mapped.get(i)), toString(expect.get(i)));
+						}
+					if(vcfPath.endsWith(".gz") && !indexes.isEmpty()) {
+						Assert.assertTrue(mapped.getBlockCacheMisses()>0L);
+						}
+					}
+				}
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+	
+	@Test(dataProvider="src1")
+	public void testConcurrent(final String vcfPath) throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final File vcfFile = new File(vcfPath);
+			final Path index = support.createTmpPath(VcfOffsetsIndexFactory.INDEX_EXTENSION);
+			new VcfOffsetsIndexFactory().indexVcfFile(vcfFile, index.toFile());
+			final List<String> expect;
+			try(final VcfList list = VcfList.fromFile(vcfFile, index.toFile())) {
+				expect = list.stream().map(V->toString(V)).collect(Collectors.toList());
+				}
+			try(final MappedVcfFileList mapped = VcfList.mapFile(vcfFile, index.toFile(),2,10)) {
+				final List<Callable<Boolean>> jobs = new ArrayList<>();
+				for(int t=0;t< 8;t++) {
+					final List<Integer> indexes = IntStream.range(0, expect.size()).boxed().collect(Collectors.toCollection(ArrayList::new));
+					Collections.shuffle(indexes, support.random);
+					jobs.add(()->indexes.stream().allMatch(i->toString(mapped.get(i)).equals(expect.get(i))));
+					}
+				for(final Future<Boolean> f: executor.invokeAll(jobs)) {
+					Assert.assertTrue(f.get());
+					}
+				}
+			}
+		finally {
+			executor.shutdownNow();
+			support.removeTmpFiles();
+			}
+		}
+	}
@@ -6,6 +6,7 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -59,4 +60,27 @@ public void testRegion() throws IOException
 	final Interval interval = support.randomIntervalsFromDict(Paths.get(support.resource("rotavirus_rf.fa")),1,1000).get(0);
 	basetest("--region "+interval.getContig()+":"+interval.getStart()+"-"+interval.getEnd());
 	}
+
+private List<String> toStrings(final Path vcf) {
+	return support.variantStream(vcf).
+		map(V->V.getContig()+":"+V.getStart()+":"+V.getAlleles()+":"+
+			V.getGenotypes().stream().map(G->G.getSampleName()+"="+G.getGenotypeString()).collect(Collectors.joining(" "))
+			).
+		collect(Collectors.toList());
+	}
+
+@Test
+public void testSortedSameAsUnsorted() throws IOException
+	{
+	try {
+		final List<String> expect = toStrings(basetest(""));
+		Assert.assertFalse(expect.isEmpty());
+		Assert.assertEquals(toStrings(basetest("--sorted --threads 0")), expect);
+		Assert.assertEquals(toStrings(basetest("--sorted --threads 2")), expect);
+		Assert.assertEquals(toStrings(basetest("--maxRecordsInRam 10")), expect);
+		}
+	finally {
+		support.removeTmpFiles();
+		}
+	}
 }
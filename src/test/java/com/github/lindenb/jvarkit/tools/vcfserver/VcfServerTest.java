@@ -0,0 +1,154 @@
+package com.github.lindenb.jvarkit.tools.vcfserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+
+@AlsoTest(LauncherTest.class)
+public class VcfServerTest {
+	private final TestSupport support = new TestSupport();
+
+	@AfterClass
+	public void removeTmpFiles() {
+		support.removeTmpFiles();
+		}
+
+	private static VcfServer.Page page(final int size) {
+		return new VcfServer.Page(new byte[size], false);
+		}
+
+	@Test
+	public void testPageCacheEviction() {
+		final VcfServer.PageCache cache = new VcfServer.PageCache(1_600L);
+		Assert.assertEquals(cache.getMaxPageBytes(), 100L);
+		for(int i=0;i< 16;i++) cache.put("p"+i, page(100));
+		Assert.assertEquals(cache.size(), 16);
+		Assert.assertEquals(cache.getTotalBytes(), 1_600L);
+		/* p0 is now the most recently used page */
+		Assert.assertNotNull(cache.get("p0"));
+		cache.put("p16", page(100));
+		Assert.assertEquals(cache.getTotalBytes(), 1_600L);
+		Assert.assertNotNull(cache.get("p0"));
+		Assert.assertNull(cache.get("p1"));
+		Assert.assertNotNull(cache.get("p16"));
+		cache.put("p17", page(100));
+		Assert.assertNull(cache.get("p2"));
+		/* replacing a page updates the total size */
+		cache.put("p3", page(10));
+		Assert.assertEquals(cache.getTotalBytes(), 1_510L);
+		Assert.assertEquals(cache.size(), 16);
+		}
+
+	@Test
+	public void testPageCacheOversizePage() {
+		final VcfServer.PageCache cache = new VcfServer.PageCache(1_600L);
+		cache.put("p1", page(50));
+		cache.put("p2", page(101));
+		Assert.assertNull(cache.get("p2"));
+		Assert.assertNotNull(cache.get("p1"));
+		Assert.assertEquals(cache.size(), 1);
+		Assert.assertEquals(cache.getTotalBytes(), 50L);
+		/* a disabled cache keeps nothing */
+		final VcfServer.PageCache disabled = new VcfServer.PageCache(0L);
+		disabled.put("p1", page(1));
+		Assert.assertEquals(disabled.size(), 0);
+		}
+
+	@Test
+	public void testPageCapture() throws IOException {
+		final VcfServer.PageCache cache = new VcfServer.PageCache(1_600L);
+		final byte[] data = new byte[150];
+		for(int i=0;i< data.length;i++) data[i]=(byte)('A'+i%26);
+
+		ByteArrayOutputStream client = new ByteArrayOutputStream();
+		try(VcfServer.PageCapture capture = new VcfServer.PageCapture(client, cache.getMaxPageBytes())) {
+			capture.write(data, 0, 60);
+			capture.write(data[60]);
+			capture.write(data, 61, 39);
+			Assert.assertEquals(capture.getContent(), Arrays.copyOf(data, 100));
+			capture.write(data, 100, 50);
+			/* the copy is dropped, the client still gets everything */
+			Assert.assertNull(capture.getContent());
+			}
+		Assert.assertEquals(client.toByteArray(), data);
+		}
+
+	@Test
+	public void testReaderPool() throws IOException {
+		final Path vcf = support.createTmpPath(".vcf.gz");
+		Files.copy(Paths.get(support.resource("S1.vcf.gz")), vcf, StandardCopyOption.REPLACE_EXISTING);
+		final Path tbi = support.deleteOnExit(vcf.resolveSibling(vcf.getFileName().toString()+".tbi"));
+		Files.copy(Paths.get(support.resource("S1.vcf.gz.tbi")), tbi, StandardCopyOption.REPLACE_EXISTING);
+
+		final VcfServer.VcfReaderPool pool = new VcfServer.VcfReaderPool(vcf.toFile(), 2);
+		try {
+			final VCFHeader header = pool.getHeader();
+			Assert.assertNotNull(header);
+			Assert.assertSame(pool.getHeader(), header);
+			Assert.assertEquals(pool.getIdleCount(), 1);
+
+			/* a reader is never shared, at most 'maxIdle' readers are kept */
+			final List<VCFFileReader> readers = new ArrayList<>();
+			for(int i=0;i< 3;i++) readers.add(pool.borrow());
+			Assert.assertNotSame(readers.get(0), readers.get(1));
+			Assert.assertNotSame(readers.get(1), readers.get(2));
+			Assert.assertEquals(pool.getIdleCount(), 0);
+			for(final VCFFileReader r:readers) pool.release(r);
+			Assert.assertEquals(pool.getIdleCount(), 2);
+			final VCFFileReader r1 = pool.borrow();
+			Assert.assertTrue(readers.contains(r1));
+			Assert.assertEquals(pool.getIdleCount(), 1);
+
+			/* the file is modified: the idle readers and the header are dropped */
+			final long mtime = pool.getLastModified();
+			Assert.assertTrue(vcf.toFile().setLastModified(mtime + 10_000L));
+			Assert.assertEquals(pool.getLastModified(), mtime + 10_000L);
+			Assert.assertEquals(pool.getIdleCount(), 0);
+			/* a reader opened before the modification is not kept */
+			pool.release(r1);
+			Assert.assertEquals(pool.getIdleCount(), 0);
+			final VCFHeader header2 = pool.getHeader();
+			Assert.assertNotNull(header2);
+			Assert.assertNotSame(header2, header);
+			Assert.assertEquals(pool.getIdleCount(), 1);
+			final VCFFileReader r2 = pool.borrow();
+			Assert.assertFalse(readers.contains(r2));
+			try(CloseableIterator<VariantContext> iter = r2.iterator()) {
+				Assert.assertTrue(iter.hasNext());
+				}
+			pool.release(r2);
+
+			pool.close();
+			Assert.assertEquals(pool.getIdleCount(), 0);
+			try {
+				pool.borrow();
+				Assert.fail("pool is closed");
+				}
+			catch(final IllegalStateException err) {
+				/* ok */
+				}
+			}
+		finally {
+			pool.close();
+			}
+		}
+	}
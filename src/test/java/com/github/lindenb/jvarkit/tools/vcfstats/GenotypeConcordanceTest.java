@@ -0,0 +1,106 @@
+package com.github.lindenb.jvarkit.tools.vcfstats;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.counter.PairCounter;
+
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.vcf.VCFFileReader;
+
+public class GenotypeConcordanceTest {
+	private final TestSupport support = new TestSupport();
+
+	/** the genotype by genotype implementation */
+	private PairCounter naive(final List<VariantContext> variants,final int n) {
+		final PairCounter c = new PairCounter(n);
+		for(final VariantContext ctx:variants) {
+			for(int x=0;x < n;++x) {
+				final Genotype g1 = ctx.getGenotype(x);
+				if(!g1.isCalled()) continue;
+				for(int y= x ; y < n;++y) {
+					final Genotype g2 = ctx.getGenotype(y);
+					if(!g2.isCalled()) continue;
+					if(g1.sameGenotype(g2)) c.incr(x,y);
+					}
+				}
+			}
+		return c;
+		}
+
+	private void assertSame(final List<VariantContext> variants,final int n) {
+		final PairCounter expect = naive(variants, n);
+		final GenotypeConcordance gc = new GenotypeConcordance(n);
+		variants.forEach(gc::visit);
+		final PairCounter found = gc.getCounts();
+		Assert.assertEquals(found.getTotal(), expect.getTotal());
+		for(int x=0;x< n;x++) {
+			for(int y=x;y< n;y++) {
+				Assert.assertEquals(found.count(x, y), expect.count(x, y));
+				}
+			}
+		}
+
+	@Test
+	public void testRandom() {
+		final Random rand = new Random(0L);
+		final Allele ref = Allele.create("A", true);
+		final List<Allele> alleles = Arrays.asList(ref, Allele.create("C"), Allele.create("G"), Allele.NO_CALL);
+		final int n = 37;
+		final List<VariantContext> variants = new ArrayList<>();
+		for(int i=0;i< 1_000;i++) {
+			final boolean multiallelic = rand.nextInt(10)==0;
+			final boolean haploid = rand.nextInt(20)==0;
+			final List<Genotype> genotypes = new ArrayList<>(n);
+			for(int x=0;x< n;x++) {
+				final List<Allele> gt = new ArrayList<>();
+				final int ploidy = haploid && rand.nextBoolean()? 1 : 2;
+				for(int p=0;p< ploidy;p++) {
+					final int r = rand.nextInt(20);
+					if(r==0) gt.add(Allele.NO_CALL);
+					else if(r < 10) gt.add(ref);
+					else gt.add(alleles.get(multiallelic ? 1 + rand.nextInt(2) : 1));
+					}
+				if(rand.nextInt(10)==0) {
+					gt.clear();
+					for(int p=0;p< ploidy;p++) gt.add(Allele.NO_CALL);
+					}
+				genotypes.add(new GenotypeBuilder("S"+x, gt).make());
+				}
+			variants.add(new VariantContextBuilder("test", "chr1", i+1, i+1, alleles.subList(0, 3)).
+					genotypes(genotypes).
+					make());
+			}
+		assertSame(variants, n);
+		}
+
+	@DataProvider(name = "src1")
+	public Object[][] createData1() {
+		return new Object[][] {
+			{"rotavirus_rf.vcf.gz"},{"rotavirus_rf.freebayes.vcf.gz"},{"rotavirus_rf.unifiedgenotyper.vcf.gz"},{"test_vcf01.vcf"}
+			};
+		}
+
+	@Test(dataProvider="src1")
+	public void testVcf(final String fname) {
+		final List<VariantContext> variants = new ArrayList<>();
+		final int n;
+		try(VCFFileReader r = new VCFFileReader(Paths.get(support.resource(fname)),false)) {
+			n = r.getFileHeader().getNGenotypeSamples();
+			r.iterator().forEachRemaining(variants::add);
+			}
+		assertSame(variants, n);
+		}
+	}
@@ -1,9 +1,16 @@
 package com.github.lindenb.jvarkit.tools.vcfstats;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
@@ -13,6 +20,15 @@ import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
 import com.github.lindenb.jvarkit.tools.tests.TestSupport;
 import com.github.lindenb.jvarkit.util.jcommander.LauncherTest;
 
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.IndexFactory;
+import htsjdk.tribble.index.IndexFactory.IndexType;
+import htsjdk.tribble.util.TabixUtils;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFFileReader;
+
 @AlsoTest(LauncherTest.class)
 public class VcfStatsTest  {
 	
@@ -50,4 +66,97 @@ public class VcfStatsTest  {
 			support.removeTmpFiles();
 		}
 		}
+	
+	@DataProvider(name = "src2")
+	public Object[][] createData2() {
+		return support.toArrayArray(support.
+				allVcfOrBcf().
+				filter(support.vcfhasIndex).
+				filter(F->{
+					try(VCFFileReader r=new VCFFileReader(Paths.get(F),true)) {
+						return r.getFileHeader().getSequenceDictionary()!=null;
+						}
+					}).
+				map(F->new Object[] {F})
+				)
+				;
+		}
+	
+	private Map<String,String> unzip(final Path zip) throws IOException {
+		final Map<String,String> map = new HashMap<>();
+		try(ZipFile zf = new ZipFile(zip.toFile())) {
+			final Enumeration<? extends ZipEntry> entries = zf.entries();
+			while(entries.hasMoreElements()) {
+				final ZipEntry entry = entries.nextElement();
+				map.put(entry.getName(), IOUtil.slurp(zf.getInputStream(entry)));
+				}
+			}
+		return map;
+		}
+	
+	@Test(dataProvider="src2")
+	public void testThreads(final String inputFile) 
+		throws IOException
+		{
+		try {
+		final Path ped = support.createRandomPedigreeFromFile(inputFile);
+		final long genomeLength;
+		try(VCFFileReader r=new VCFFileReader(Paths.get(inputFile),true)) {
+			genomeLength = r.getFileHeader().getSequenceDictionary().getReferenceLength();
+			}
+		final List<Map<String,String>> contents = new ArrayList<>();
+		for(int nThreads=1;nThreads<=3;nThreads+=2) {
+			final Path output = support.createTmpPath(".zip");
+			final List<String> args = new ArrayList<>();
+			args.add("-o");
+			args.add(output.toString());
+			if(ped!=null) {
+				args.add("--pedigree");
+				args.add(ped.toString());
+				}
+			args.add("--threads");
+			args.add(String.valueOf(nThreads));
+			args.add("--shard-size");
+			args.add(String.valueOf(Math.max(100L, genomeLength/100L)));
+			args.add(inputFile);
+			Assert.assertEquals(0,new VcfStats().instanceMain(args));
+			contents.add(unzip(output));
+			}
+		Assert.assertFalse(contents.get(0).isEmpty());
+		Assert.assertEquals(contents.get(1), contents.get(0));
+		} finally {
+			support.removeTmpFiles();
+		}
+		}
+	
+	@Test
+	public void testThreadsContigNotInDictionary() 
+		throws IOException
+		{
+		try {
+		final Path vcf = support.createTmpPath(".vcf.gz");
+		try(PrintWriter pw = new PrintWriter(new BlockCompressedOutputStream(vcf.toFile()))) {
+			pw.println("##fileformat=VCFv4.2");
+			pw.println("##contig=<ID=chr1,length=1000>");
+			pw.println("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO");
+			pw.println("chr1\t10\t.\tA\tC\t.\t.\t.");
+			pw.println("chr2\t10\t.\tA\tC\t.\t.\t.");
+			}
+		final Index index = IndexFactory.createIndex(vcf.toFile(), new VCFCodec(), IndexType.TABIX);
+		index.write(support.deleteOnExit(Paths.get(vcf.toString()+TabixUtils.STANDARD_INDEX_EXTENSION)));
+		final Path output = support.createTmpPath(".zip");
+		Assert.assertEquals(0,new VcfStats().instanceMain(new String[] {
+			"-o",output.toString(),
+			vcf.toString()
+			}));
+		/* chr2 would be silently ignored by the shards */
+		Assert.assertNotEquals(0,new VcfStats().instanceMain(new String[] {
+			"-o",output.toString(),
+			"--threads","2",
+			vcf.toString()
+			}));
+		} finally {
+			support.removeTmpFiles();
+		}
+		}
 	}
@@ -0,0 +1,50 @@
+package com.github.lindenb.jvarkit.util.counter;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.util.Counter;
+
+public class ObjectCounterTest {
+
+@Test
+public void testWithInt() {
+	final ObjectCounter<Integer> counter=new ObjectCounter<>();
+	for(int x : new int[]{1,1,1,2,2,10,10})
+		{
+		counter.incr(x);
+		}
+	Assert.assertEquals(counter.count(1), 3);
+	Assert.assertEquals(counter.count(2), 2);
+	Assert.assertEquals(counter.count(10), 2);
+	Assert.assertEquals(counter.count(3), 0);
+	Assert.assertEquals(counter.getTotal(), 7);
+	Assert.assertEquals(counter.getCountCategories(), 3);
+	Assert.assertEquals(counter.keySet(), Arrays.asList(1,2,10));
+	Assert.assertEquals(counter.keySetDecreasing(), Arrays.asList(1,2,10));
+	}
+
+@Test
+public void testSameAsCounter() {
+	final Random rand = new Random(0L);
+	final Counter<String> expect = new Counter<>();
+	final ObjectCounter<String> c1 = new ObjectCounter<>(1);
+	final ObjectCounter<String> c2 = new ObjectCounter<>();
+	for(int i=0;i< 100_000;i++) {
+		final String key = "k"+rand.nextInt(5_000);
+		final int n = 1 + rand.nextInt(3);
+		expect.incr(key, n);
+		(i%2==0?c1:c2).incr(key, n);
+		}
+	c1.merge(c2);
+	Assert.assertEquals(c1.getTotal(), expect.getTotal());
+	Assert.assertEquals(c1.getCountCategories(), expect.getCountCategories());
+	for(final String key: expect.keySet()) {
+		Assert.assertEquals(c1.count(key), expect.count(key));
+		}
+	Assert.assertEquals(c1.count("xxx"), 0L);
+	}
+}
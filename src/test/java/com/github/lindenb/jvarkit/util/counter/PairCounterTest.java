@@ -0,0 +1,33 @@
+package com.github.lindenb.jvarkit.util.counter;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PairCounterTest {
+
+@Test
+public void testPairs() {
+	final int n = 7;
+	final PairCounter c1 = new PairCounter(n);
+	final PairCounter c2 = new PairCounter(n);
+	for(int x=0;x< n;x++) {
+		for(int y=x;y< n;y++) {
+			c1.incr(x, y, 1 + x*n + y);
+			c2.incr(y, x);
+			}
+		}
+	c1.merge(c2);
+	Assert.assertEquals(c1.size(), n);
+	for(int x=0;x< n;x++) {
+		for(int y=x;y< n;y++) {
+			Assert.assertEquals(c1.count(x, y), 2L + x*n + y);
+			Assert.assertEquals(c1.count(y, x), c1.count(x, y));
+			}
+		}
+	}
+
+@Test(expectedExceptions=IndexOutOfBoundsException.class)
+public void testOutOfBounds() {
+	new PairCounter(3).incr(0, 3);
+	}
+}
@@ -0,0 +1,30 @@
+package com.github.lindenb.jvarkit.util.counter;
+
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.math.RangeOfIntegers;
+
+public class RangeCounterTest {
+
+@Test
+public void testRanges() {
+	final RangeOfIntegers ranges = new RangeOfIntegers(0,1,2,5,10,100);
+	for(int i=-10;i< 200;i++) {
+		Assert.assertSame(ranges.getRanges().get(ranges.getRangeIndex(i)), ranges.getRange(i));
+		}
+	final RangeCounter c1 = new RangeCounter(ranges);
+	final RangeCounter c2 = new RangeCounter(ranges);
+	c1.incr(-1);
+	c1.incr(3);
+	c2.incr(4);
+	c2.incr(1000);
+	c1.merge(c2);
+	Assert.assertEquals(c1.getTotal(), 4L);
+	Assert.assertEquals(c1.count(ranges.getRange(2)), 2L);
+	Assert.assertEquals(c1.count(ranges.getRange(0)), 0L);
+	Assert.assertEquals(c1.keySet(), Arrays.asList(ranges.getRange(-1),ranges.getRange(2),ranges.getRange(100)));
+	}
+}
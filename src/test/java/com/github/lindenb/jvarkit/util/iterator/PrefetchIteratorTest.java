@@ -0,0 +1,58 @@
+package com.github.lindenb.jvarkit.util.iterator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+public class PrefetchIteratorTest {
+private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+@AfterClass
+public void shutdown() {
+	this.executor.shutdownNow();
+	}
+
+@Test
+public void test1() {
+	final List<Integer> array = IntStream.range(0, 10_000).boxed().collect(Collectors.toList());
+	final List<Integer> found = new ArrayList<>();
+	try(PrefetchIterator<Integer> iter = new PrefetchIterator<>(array.iterator(),this.executor,null,7)) {
+		Assert.assertEquals(iter.peek(), Integer.valueOf(0));
+		while(iter.hasNext()) found.add(iter.next());
+		}
+	Assert.assertEquals(found, array);
+	}
+
+@Test
+public void testBatchSize() {
+	final List<Integer> array = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+	final List<Integer> found = new ArrayList<>();
+	try(PrefetchIterator<Integer> iter = new PrefetchIterator<>(array.iterator(),this.executor,null,10)) {
+		while(iter.hasNext()) found.add(iter.next());
+		}
+	Assert.assertEquals(found, array);
+	}
+
+@Test
+public void testEmpty() {
+	try(PrefetchIterator<Integer> iter = new PrefetchIterator<>(new ArrayList<Integer>().iterator(),this.executor,null,PrefetchIterator.DEFAULT_BATCH_SIZE)) {
+		Assert.assertFalse(iter.hasNext());
+		}
+	}
+
+@Test(expectedExceptions=IllegalStateException.class)
+public void testError() {
+	final Iterator<Integer> delegate = IntStream.range(0, 100).map(I->{if(I==50) throw new IllegalStateException(); return I;}).iterator();
+	try(PrefetchIterator<Integer> iter = new PrefetchIterator<>(delegate,this.executor,null,10)) {
+		while(iter.hasNext()) iter.next();
+		}
+	}
+}
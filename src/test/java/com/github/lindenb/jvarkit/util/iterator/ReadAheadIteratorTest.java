@@ -0,0 +1,46 @@
+package com.github.lindenb.jvarkit.util.iterator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ReadAheadIteratorTest {
+@Test
+public void test1() {
+	final List<Integer> array = IntStream.range(0, 10_000).boxed().collect(Collectors.toList());
+	final List<Integer> found = new ArrayList<>();
+	try(ReadAheadIterator<Integer> iter = new ReadAheadIterator<>(array.iterator(),null,7,2)) {
+		Assert.assertEquals(iter.peek(), Integer.valueOf(0));
+		while(iter.hasNext()) found.add(iter.next());
+		}
+	Assert.assertEquals(found, array);
+	}
+
+@Test
+public void testEmpty() {
+	try(ReadAheadIterator<Integer> iter = new ReadAheadIterator<>(new ArrayList<Integer>().iterator())) {
+		Assert.assertFalse(iter.hasNext());
+		}
+	}
+
+@Test
+public void testEarlyClose() {
+	final ReadAheadIterator<Integer> iter = new ReadAheadIterator<>(IntStream.range(0, 1_000_000).iterator(),null,10,1);
+	Assert.assertEquals(iter.next(), Integer.valueOf(0));
+	iter.close();
+	Assert.assertFalse(iter.hasNext());
+	}
+
+@Test(expectedExceptions=IllegalStateException.class)
+public void testError() {
+	final Iterator<Integer> delegate = IntStream.range(0, 100).map(I->{if(I==50) throw new IllegalStateException(); return I;}).iterator();
+	try(ReadAheadIterator<Integer> iter = new ReadAheadIterator<>(delegate,null,10,1)) {
+		while(iter.hasNext()) iter.next();
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.github.lindenb.jvarkit.util.ucsc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.lang.CharSplitter;
+import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
+
+@AlsoTest(KnownGeneTest.class)
+public class KnownGeneBinaryIndexTest {
+
+	private static List<String> createKnownGenes(final Random random) {
+		final List<String> lines = new ArrayList<>();
+		lines.add("592\tENST00000379319.1\tchr1\t-\t1018079\t1041507\t1018272\t1026923\t10\t1018079,1019732,1019860,1021257,1022518,1022881,1025732,1026851,1027370,1041335,\t1018367,1019763,1019886,1021392,1022584,1022977,1025808,1026945,1027483,1041507,");
+		for(int i=0;i< 500;++i) {
+			final String contig = "chr"+(1+random.nextInt(3));
+			final int txStart = random.nextInt(100_000);
+			final int nExons = 1 + random.nextInt(5);
+			final StringBuilder starts = new StringBuilder();
+			final StringBuilder ends = new StringBuilder();
+			int pos = txStart;
+			for(int x=0;x< nExons;++x) {
+				starts.append(pos).append(",");
+				pos += 1 + random.nextInt(300);
+				ends.append(pos).append(",");
+				pos += 1 + random.nextInt(1000);
+				}
+			final int txEnd = Integer.parseInt(ends.substring(ends.lastIndexOf(",",ends.length()-2)+1, ends.length()-1));
+			lines.add(String.join("\t",
+				"tr"+i+"\u00e9",
+				contig,
+				random.nextBoolean()?"+":"-",
+				String.valueOf(txStart),
+				String.valueOf(txEnd),
+				String.valueOf(txStart+1),
+				String.valueOf(Math.max(txStart+1,txEnd-1)),
+				String.valueOf(nExons),
+				starts.toString(),
+				ends.toString(),
+				"extra"
+				));
+			}
+		return lines;
+		}
+
+	private static String toString(final KnownGene kg) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(kg.getName()).append(" ").append(kg.getContig()).append(" ").append(kg.getStrand());
+		sb.append(" ").append(kg.getTxStart()).append(" ").append(kg.getTxEnd());
+		sb.append(" ").append(kg.getCdsStart()).append(" ").append(kg.getCdsEnd());
+		for(final KnownGene.Exon ex: kg.getExons()) {
+			sb.append(" ").append(ex.getName()).append(":").append(ex.getStart()).append("-").append(ex.getEnd());
+			}
+		return sb.toString();
+		}
+
+	@Test
+	public void testOverlapping() throws IOException {
+		final Random random = new Random(0L);
+		final List<String> lines = createKnownGenes(random);
+		final List<KnownGene> genes = lines.stream().map(L->new KnownGene(CharSplitter.TAB.split(L))).collect(Collectors.toList());
+		final Path tmp = Files.createTempFile("tmp.", KnownGeneBinaryIndex.SUFFIX);
+		try {
+			try(BufferedReader br = new BufferedReader(new StringReader(String.join("\n", lines)));
+				OutputStream out = Files.newOutputStream(tmp)) {
+				KnownGeneBinaryIndex.compile(br, out);
+				}
+			Assert.assertTrue(KnownGeneBinaryIndex.isBinaryIndex(tmp.toString()));
+			try(KnownGeneBinaryIndex index = new KnownGeneBinaryIndex(tmp)) {
+				final List<KnownGene> all = new ArrayList<>();
+				index.forEach(all::add);
+				Assert.assertEquals(all.size(), genes.size());
+
+				for(int i=0;i< 1_000;++i) {
+					final String contig = (i==0?"chr1":"chr"+(1+random.nextInt(4)));
+					final int start = (i==0?1020000:1+random.nextInt(110_000));
+					final int end = start + random.nextInt(2_000);
+					/* transcripts overlapping the 1-based interval, in the order of the file */
+					final List<String> expect = genes.stream().
+						filter(G->G.getContig().equals(contig) && G.getTxStart()+1 <= end && G.getTxEnd() >= start).
+						map(G->toString(G)).
+						collect(Collectors.toList());
+					final List<KnownGene> found = index.getOverlapping(contig, start, end);
+					Assert.assertEquals(found.stream().map(G->toString(G)).collect(Collectors.toList()), expect);
+					/* second query is served by the cache */
+					final List<KnownGene> found2 = index.getOverlapping(contig, start, end);
+					Assert.assertEquals(found2.size(), found.size());
+					for(int j=0;j< found.size();++j) Assert.assertSame(found2.get(j), found.get(j));
+					}
+				}
+			}
+		finally {
+			Files.delete(tmp);
+			}
+		}
+	}
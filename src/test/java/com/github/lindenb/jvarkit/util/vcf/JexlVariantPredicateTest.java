@@ -3,18 +3,24 @@ package com.github.lindenb.jvarkit.util.vcf;
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.log.Logger;
 
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFFileReader;
 
 public class JexlVariantPredicateTest {
+	private static final Logger LOG = Logger.build(JexlVariantPredicateTest.class).make();
 	private final TestSupport support = new TestSupport();
 
 	@DataProvider(name = "src1")
@@ -38,4 +44,120 @@ public void test01(final String inputFile,final String expr)
 	r.close();
 	}
 
+@DataProvider(name = "src2")
+public Object[][] createData2() {
+	Stream<String> L1 = support.allVcfOrBcf();
+	Stream<String> L2 = Arrays.asList(
+			"QUAL > 0",
+			"QUAL >= 10.5 && DP > 20",
+			"CHROM == \"RF01\" || CHROM == 'chr1'",
+			"!(POS < 1000) and TYPE == \"SNP\"",
+			"DP lt 30 || AF ge 0.5",
+			"AC == 1",
+			"FILTER == \"1\"",
+			"PASS == \"1\" || LowQual == '1'",
+			"NOT_A_KEY == 1",
+			"NOT_A_KEY != 1 || DP > 10",
+			"DB",
+			"DB || DP > 10",
+			"homVarCount > 0 && hetCount == 0",
+			"N_ALLELES > 2",
+			"true",
+			"vc.isSNP()",
+			"DP > 10 + 5",
+			"!DB == true",
+			"!DB == false",
+			"not DB eq false",
+			"!DP > 10",
+			"!(DP > 10)",
+			"!!DB",
+			"not (QUAL > 10) && DP > 5",
+			"!DB != true || AC == 1"
+			).stream();
+	
+	return support.combine2(L1, L2);
+	}
+
+/** compiled and JEXL predicates must give the same results */
+@Test(dataProvider="src2")
+public void testCompiled(final String inputFile,final String expr) 
+	throws IOException
+	{
+	final List<String> exprs = Collections.singletonList(expr);
+	final Predicate<VariantContext> compiled = JexlVariantPredicate.create(exprs, true);
+	final Predicate<VariantContext> jexl = JexlVariantPredicate.create(exprs, false);
+	try(VCFFileReader r =new VCFFileReader(Paths.get(inputFile),false)) {
+		final List<VariantContext> variants = r.iterator().stream().collect(Collectors.toList());
+		for(final VariantContext ctx:variants) {
+			Assert.assertEquals(eval(compiled,ctx), eval(jexl,ctx), expr+" "+ctx);
+			}
+		}
+	}
+/** result of the predicate, or the class of the exception (e.g. comparing a list with a number) */
+private Object eval(final Predicate<VariantContext> pred,final VariantContext ctx) {
+	try {
+		return pred.test(ctx);
+		}
+	catch(final RuntimeException err) {
+		return err.getClass();
+		}
+	}
+
+/** number of variants accepted by the predicate in 'loops' passes, the time is logged */
+private long countAccepted(final Predicate<VariantContext> pred,final List<VariantContext> variants,final int loops,final String label) {
+	long n = 0L;
+	final long start = System.nanoTime();
+	for(int i=0;i< loops;i++) {
+		for(final VariantContext ctx:variants) {
+			if(pred.test(ctx)) n++;
+			}
+		}
+	LOG.info(label+" accepted:"+n+" time:"+((System.nanoTime() - start)/1_000_000L)+"ms");
+	return n;
+	}
+
+/** compiled and JEXL predicates accept the same variants, timings are logged */
+@Test
+public void testTimings() throws IOException {
+	final List<VariantContext> variants;
+	try(VCFFileReader r =new VCFFileReader(Paths.get(support.resource("rotavirus_rf.ann.vcf.gz")),false)) {
+		variants = r.iterator().stream().collect(Collectors.toList());
+		}
+	Assert.assertFalse(variants.isEmpty());
+	for(final String expr: new String[] {"QUAL >= 10.5 && DP > 20", "CHROM == \"RF01\" || TYPE == \"SNP\""}) {
+		final List<String> exprs = Collections.singletonList(expr);
+		final long jexl = countAccepted(JexlVariantPredicate.create(exprs, false), variants, 20, "jexl     "+expr);
+		final long compiled = countAccepted(JexlVariantPredicate.create(exprs, true), variants, 20, "compiled "+expr);
+		Assert.assertEquals(compiled, jexl, expr);
+		}
+	}
+
+/** '!' binds tighter than a comparison in JEXL: '!a == b' is '(!a) == b' and is not compiled */
+@Test
+public void testNotPrecedence() {
+	Assert.assertFalse(CompiledJexlVariantPredicate.getEvaluator("!DB == true").isPresent());
+	Assert.assertFalse(CompiledJexlVariantPredicate.getEvaluator("not DP gt 10").isPresent());
+	Assert.assertFalse(CompiledJexlVariantPredicate.getEvaluator("!(DP) > 10").isPresent());
+	Assert.assertTrue(CompiledJexlVariantPredicate.getEvaluator("!(DP > 10)").isPresent());
+	Assert.assertTrue(CompiledJexlVariantPredicate.getEvaluator("!DB && DP > 10").isPresent());
+	}
+
+@Test
+public void testCacheIsBounded() {
+	final String first = "DP > 1";
+	final CompiledJexlVariantPredicate.AbstractEvaluator evaluator = CompiledJexlVariantPredicate.getEvaluator(first).get();
+	for(int i=0;i< CompiledJexlVariantPredicate.CACHE_SIZE;i++) {
+		CompiledJexlVariantPredicate.getEvaluator("DP > 1 || AC == "+i);
+		}
+	/* the first expression was evicted and is compiled again */
+	Assert.assertNotSame(CompiledJexlVariantPredicate.getEvaluator(first).get(), evaluator);
+	}
+
+@Test
+public void testCache() {
+	Assert.assertTrue(CompiledJexlVariantPredicate.getEvaluator("DP > 10").isPresent());
+	Assert.assertSame(CompiledJexlVariantPredicate.getEvaluator("DP > 10").get(), CompiledJexlVariantPredicate.getEvaluator("DP > 10").get());
+	Assert.assertFalse(CompiledJexlVariantPredicate.getEvaluator("vc.isSNP()").isPresent());
+	}
+
 }
@@ -0,0 +1,111 @@
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.SortingCollection;
+
+public class KeyedVcfLineTest {
+	private final SAMSequenceDictionary dict = new SAMSequenceDictionary(Arrays.asList(
+			new SAMSequenceRecord("chr2", 1000),
+			new SAMSequenceRecord("chr1", 1000)
+			));
+
+	private String makeLine(final Random rand) {
+		final StringBuilder sb = new StringBuilder();
+		sb.append(rand.nextBoolean()?"chr1":"chr2");
+		sb.append("\t").append(1+rand.nextInt(20));
+		sb.append("\t.\t").append("ACGT".charAt(rand.nextInt(4)));
+		sb.append("\tT\t.\t.\t.\tGT");
+		final int n = rand.nextInt(100);
+		for(int i=0;i< n;i++) sb.append(rand.nextInt(10)==0?"\t0/1":"\t0/0");
+		return sb.toString();
+		}
+
+	@Test
+	public void testParse() {
+		final KeyedVcfLine k = new KeyedVcfLine("chr1\t123\trs1\tacg\tA\t.\t.\t.", 2, this.dict);
+		Assert.assertEquals(k.getTid(), 1);
+		Assert.assertEquals(k.getPos(), 123);
+		Assert.assertEquals(k.getReference(), "ACG");
+		Assert.assertEquals(k.getFileIndex(), 2);
+		Assert.assertTrue(k.hasSameChromPosRef(new KeyedVcfLine("chr1\t123\trs2\tACG\tC\t.\t.\t.", 0, this.dict)));
+		Assert.assertFalse(k.hasSameChromPosRef(new KeyedVcfLine("chr1\t123\trs2\tAC\tC\t.\t.\t.", 0, this.dict)));
+		}
+
+	@Test(expectedExceptions=IllegalArgumentException.class)
+	public void testBadLine() {
+		new KeyedVcfLine("chr1\t123\trs1", 0, this.dict);
+		}
+
+	@Test
+	public void testCodec() {
+		final Random rand = new Random(0L);
+		final List<KeyedVcfLine> L = new ArrayList<>();
+		for(int i=0;i< 100;i++) L.add(new KeyedVcfLine(makeLine(rand), i, this.dict));
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		final KeyedVcfLine.Codec codec = new KeyedVcfLine.Codec();
+		codec.setOutputStream(os);
+		for(final KeyedVcfLine k:L) codec.encode(k);
+		final KeyedVcfLine.Codec codec2 = codec.clone();
+		codec2.setInputStream(new ByteArrayInputStream(os.toByteArray()));
+		for(final KeyedVcfLine k:L) {
+			final KeyedVcfLine k2 = codec2.decode();
+			Assert.assertNotNull(k2);
+			Assert.assertEquals(k2.getLine(), k.getLine());
+			Assert.assertEquals(k2.getFileIndex(), k.getFileIndex());
+			Assert.assertEquals(KeyedVcfLine.KEY_COMPARATOR.compare(k, k2), 0);
+			}
+		Assert.assertNull(codec2.decode());
+		Assert.assertNull(codec2.decode());
+		}
+
+	@Test
+	public void testSortingCollection() {
+		sortAndCheck(1L, 1_000, 10);
+		}
+
+	/** thousands of temporary files, each one read by a clone of the codec */
+	@Test
+	public void testManyTmpFiles() {
+		sortAndCheck(2L, 10_000, 3);
+		}
+
+	private void sortAndCheck(final long seed,final int count,final int maxRecordsInRam) {
+		final Random rand = new Random(seed);
+		final List<KeyedVcfLine> expect = new ArrayList<>();
+		final SortingCollection<KeyedVcfLine> sorter = SortingCollection.newInstance(
+				KeyedVcfLine.class,
+				new KeyedVcfLine.Codec(),
+				KeyedVcfLine.KEY_COMPARATOR,
+				maxRecordsInRam
+				);
+		for(int i=0;i< count;i++) {
+			final KeyedVcfLine k = new KeyedVcfLine(makeLine(rand), i, this.dict);
+			expect.add(k);
+			sorter.add(k);
+			}
+		sorter.doneAdding();
+		Collections.sort(expect, KeyedVcfLine.KEY_COMPARATOR);
+		final List<String> found = new ArrayList<>();
+		try(CloseableIterator<KeyedVcfLine> iter = sorter.iterator()) {
+			while(iter.hasNext()) found.add(iter.next().getLine());
+			}
+		sorter.cleanup();
+		Assert.assertEquals(found.size(), expect.size());
+		for(int i=0;i< found.size();i++) {
+			Assert.assertEquals(found.get(i), expect.get(i).getLine());
+			}
+		}
+	}
@@ -0,0 +1,48 @@
+package com.github.lindenb.jvarkit.util.vcf;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.github.lindenb.jvarkit.tools.tests.AlsoTest;
+import com.github.lindenb.jvarkit.tools.tests.TestSupport;
+import com.github.lindenb.jvarkit.util.iterator.ReadAheadIteratorTest;
+import com.github.lindenb.jvarkit.util.jcommander.Launcher;
+
+@AlsoTest(ReadAheadIteratorTest.class)
+public class ReadAheadVCFIteratorTest {
+	private final TestSupport support = new TestSupport();
+
+	private Path copy(final String vcf,final boolean readAhead) throws IOException {
+		final Path out = support.createTmpPath(".vcf");
+		Assert.assertEquals(new Launcher() {
+			@Override
+			public int doWork(final List<String> args) {
+				return doVcfToVcf(args, out.toFile());
+				}
+			}.instanceMain(readAhead?
+				new String[] {"--read-ahead",vcf}:
+				new String[] {vcf}
+				),0);
+		support.assertIsVcf(out);
+		return out;
+		}
+
+	@Test
+	public void testReadAhead() throws IOException {
+		try {
+			for(final String vcf:new String[] {"rotavirus_rf.vcf.gz","rotavirus_rf.freebayes.vcf.gz","ExAC.r1.sites.vep.vcf.gz"}) {
+				final Path out1 = copy(support.resource(vcf),false);
+				final Path out2 = copy(support.resource(vcf),true);
+				Assert.assertEquals(Files.readAllLines(out2), Files.readAllLines(out1));
+				}
+			}
+		finally {
+			support.removeTmpFiles();
+			}
+		}
+	}